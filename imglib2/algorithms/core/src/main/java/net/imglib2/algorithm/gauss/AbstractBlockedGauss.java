@@ -0,0 +1,458 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.algorithm.gauss;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imglib2.Interval;
+import net.imglib2.Localizable;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Util;
+
+/**
+ * Separable Gaussian convolution that processes the output in cache-sized
+ * blocks instead of convolving whole images one dimension at a time.
+ *
+ * <p>
+ * For every block, the input is copied once (including a halo of half the
+ * kernel size in every dimension) into a primitive array. All dimensions are
+ * then convolved in-place on that array, and the center of the block is
+ * written to the output. No image-sized temporary images are needed; every
+ * thread allocates only one block buffer and one line buffer which are reused
+ * for all blocks it processes. Blocks are distributed to
+ * {@link #getNumThreads()} threads.
+ * </p>
+ *
+ * <p>
+ * The input is read exactly in the same area as {@link AbstractGauss} does,
+ * so the same {@link net.imglib2.outofbounds.OutOfBoundsFactory} semantics
+ * apply. Because blocks are read and written concurrently, the output must
+ * not overlap the input (use {@link GaussFloat}/{@link GaussDouble} for
+ * in-place convolution).
+ * </p>
+ *
+ * @param <T> - the {@link RealType} of input and output
+ */
+public abstract class AbstractBlockedGauss< T extends RealType< T > > implements MultiThreaded
+{
+	/**
+	 * The default number of pixels per block (without halo).
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 18;
+
+	/**
+	 * The maximum number of pixels of a block buffer (including halo). Block
+	 * sizes are shrunk until the buffer fits.
+	 */
+	public static final int MAX_BLOCK_BUFFER_SIZE = 1 << 24;
+
+	final RandomAccessible< T > input;
+
+	final Interval interval;
+
+	final RandomAccessible< T > output;
+
+	final long[] outputOffset;
+
+	final int numDimensions;
+
+	final double[] sigma;
+
+	/**
+	 * Half kernels, i.e., <code>halfKernel[ d ][ i ]</code> is the weight of
+	 * a pixel at distance <code>i</code> from the center in dimension
+	 * <code>d</code>.
+	 */
+	final double[][] halfKernel;
+
+	final int[] halo;
+
+	int[] blockSize;
+
+	int numThreads;
+
+	/**
+	 * @param sigma - the sigma for the convolution in every dimension
+	 * @param input - the {@link RandomAccessible} to work on (must be defined on the interval expanded by the kernel size)
+	 * @param interval - the area that is convolved
+	 * @param output - the {@link RandomAccessible} where the output will be written to
+	 * @param outputOffset - the offset that corresponds to the first pixel in output {@link RandomAccessible}
+	 */
+	public AbstractBlockedGauss( final double[] sigma, final RandomAccessible< T > input, final Interval interval, final RandomAccessible< T > output, final Localizable outputOffset )
+	{
+		this.numDimensions = interval.numDimensions();
+		if ( sigma.length != numDimensions )
+			throw new IllegalArgumentException( "Expected " + numDimensions + " sigmas but got " + sigma.length + "." );
+
+		this.sigma = sigma.clone();
+		this.input = input;
+		this.interval = interval;
+		this.output = output;
+		this.outputOffset = new long[ numDimensions ];
+		outputOffset.localize( this.outputOffset );
+
+		halfKernel = new double[ numDimensions ][];
+		halo = new int[ numDimensions ];
+		computeKernel();
+
+		setNumThreads();
+		setBlockSize( defaultBlockSize( DEFAULT_BLOCK_SIZE ) );
+	}
+
+	/**
+	 * Compute the half kernels and halo sizes for all dimensions
+	 */
+	protected void computeKernel()
+	{
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			final double[] kernel = Util.createGaussianKernel1DDouble( sigma[ d ], true );
+			halo[ d ] = kernel.length / 2;
+			halfKernel[ d ] = new double[ halo[ d ] + 1 ];
+			for ( int i = 0; i <= halo[ d ]; ++i )
+				halfKernel[ d ][ i ] = kernel[ halo[ d ] + i ];
+		}
+	}
+
+	/**
+	 * Compute a block size with roughly the same extent in every dimension
+	 * and approximately the given number of pixels.
+	 */
+	protected int[] defaultBlockSize( final int numPixels )
+	{
+		final int side = Math.max( 1, ( int ) Math.round( Math.pow( numPixels, 1.0 / numDimensions ) ) );
+		final int[] size = new int[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			size[ d ] = ( int ) Math.min( side, interval.dimension( d ) );
+		return size;
+	}
+
+	/**
+	 * Set the size of the blocks (without halo) the output is divided into.
+	 * The block buffers including the halo should fit into the cache of a
+	 * core. If a block buffer would have more than
+	 * {@link #MAX_BLOCK_BUFFER_SIZE} pixels, the largest block dimensions are
+	 * halved until it fits (or all block dimensions are 1).
+	 */
+	public void setBlockSize( final int[] blockSize )
+	{
+		if ( blockSize.length != numDimensions )
+			throw new IllegalArgumentException( "Expected " + numDimensions + " dimensions for block size." );
+		this.blockSize = new int[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			this.blockSize[ d ] = ( int ) Math.max( 1, Math.min( blockSize[ d ], interval.dimension( d ) ) );
+
+		while ( blockBufferSize( this.blockSize ) > MAX_BLOCK_BUFFER_SIZE )
+		{
+			int largest = 0;
+			for ( int d = 1; d < numDimensions; ++d )
+				if ( this.blockSize[ d ] > this.blockSize[ largest ] )
+					largest = d;
+			if ( this.blockSize[ largest ] == 1 )
+				break;
+			this.blockSize[ largest ] = ( this.blockSize[ largest ] + 1 ) / 2;
+		}
+		if ( blockBufferSize( this.blockSize ) > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "The kernel is too large: a block buffer would have " + blockBufferSize( this.blockSize ) + " pixels." );
+	}
+
+	/**
+	 * @return the number of pixels of a block buffer (including halo) for
+	 *         blocks of the given size.
+	 */
+	protected long blockBufferSize( final int[] size )
+	{
+		long bufferSize = 1;
+		for ( int d = 0; d < numDimensions; ++d )
+			bufferSize *= size[ d ] + 2l * halo[ d ];
+		return bufferSize;
+	}
+
+	public int[] getBlockSize()
+	{
+		return blockSize.clone();
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/**
+	 * @return the result of the convolution
+	 */
+	public RandomAccessible< T > getResult()
+	{
+		return output;
+	}
+
+	/**
+	 * Create the primitive buffers for one thread.
+	 *
+	 * @param blockBufferSize - number of pixels of a block including halo
+	 * @param lineBufferSize - number of pixels of the longest line of a block including halo
+	 */
+	protected abstract Block createBlock( final int blockBufferSize, final int lineBufferSize );
+
+	/**
+	 * The primitive buffers for one thread. Offsets and strides refer to the
+	 * flattened block buffer, the layout of which is defined by
+	 * {@link AbstractBlockedGauss}.
+	 */
+	protected abstract class Block
+	{
+		/**
+		 * Read <code>length</code> pixels along dimension 0 starting at the
+		 * current position of <code>in</code> into the block buffer.
+		 */
+		protected abstract void read( final RandomAccess< T > in, final int offset, final int length );
+
+		/**
+		 * Convolve a line of the block buffer in place with the half kernel of
+		 * dimension <code>d</code>. Only the pixels that are at least the halo
+		 * size away from both ends of the line are written.
+		 */
+		protected abstract void convolve( final int offset, final int stride, final int length, final int d );
+
+		/**
+		 * Write <code>length</code> pixels of the block buffer to
+		 * <code>out</code>, starting at its current position and moving along
+		 * dimension 0.
+		 */
+		protected abstract void write( final RandomAccess< T > out, final int offset, final int length );
+	}
+
+	public void call()
+	{
+		final long[] numBlocks = new long[ numDimensions ];
+		long totalBlocks = 1;
+		int lineBufferSize = 1;
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			numBlocks[ d ] = ( interval.dimension( d ) + blockSize[ d ] - 1 ) / blockSize[ d ];
+			totalBlocks *= numBlocks[ d ];
+			lineBufferSize = Math.max( lineBufferSize, blockSize[ d ] + 2 * halo[ d ] );
+		}
+		final long numBlocksTotal = totalBlocks;
+		// NB: setBlockSize() guarantees that the buffer size fits into an int
+		final int bufferSize = ( int ) blockBufferSize( blockSize );
+		final int lineSize = lineBufferSize;
+
+		final AtomicLong ai = new AtomicLong( 0 );
+		final int numTasks = ( int ) Math.min( numThreads, numBlocksTotal );
+		final Thread[] threads = SimpleMultiThreading.newThreads( Math.max( 1, numTasks ) );
+
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+			threads[ ithread ] = new Thread( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final BlockProcessor processor = new BlockProcessor( createBlock( bufferSize, lineSize ) );
+					final long[] blockPosition = new long[ numDimensions ];
+					for ( long b = ai.getAndIncrement(); b < numBlocksTotal; b = ai.getAndIncrement() )
+					{
+						IntervalIndexer.indexToPosition( b, numBlocks, blockPosition );
+						processor.process( blockPosition );
+					}
+				}
+			} );
+
+		SimpleMultiThreading.startAndJoin( threads );
+	}
+
+	/**
+	 * Reads, convolves and writes single blocks using one {@link Block}.
+	 */
+	private final class BlockProcessor
+	{
+		private final Block block;
+
+		private final RandomAccess< T > in;
+
+		private final RandomAccess< T > out;
+
+		/** minimum of the current block (without halo) relative to the interval */
+		private final long[] min = new long[ numDimensions ];
+
+		/** size of the current block (without halo) */
+		private final int[] size = new int[ numDimensions ];
+
+		/** size of the current block including halo */
+		private final int[] ext = new int[ numDimensions ];
+
+		/** steps in the flattened block buffer */
+		private final int[] steps = new int[ numDimensions ];
+
+		private final int[] lo = new int[ numDimensions ];
+
+		private final int[] hi = new int[ numDimensions ];
+
+		private final int[] pos = new int[ numDimensions ];
+
+		BlockProcessor( final Block block )
+		{
+			this.block = block;
+			in = input.randomAccess();
+			out = output.randomAccess();
+		}
+
+		void process( final long[] blockPosition )
+		{
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				min[ d ] = blockPosition[ d ] * blockSize[ d ];
+				size[ d ] = ( int ) Math.min( blockSize[ d ], interval.dimension( d ) - min[ d ] );
+				ext[ d ] = size[ d ] + 2 * halo[ d ];
+			}
+			IntervalIndexer.createAllocationSteps( ext, steps );
+
+			// read the block including halo, line by line along dimension 0
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				lo[ d ] = 0;
+				hi[ d ] = ext[ d ];
+			}
+			hi[ 0 ] = 1;
+			for ( boolean valid = first(); valid; valid = next() )
+			{
+				for ( int d = 0; d < numDimensions; ++d )
+					in.setPosition( interval.min( d ) + min[ d ] - halo[ d ] + pos[ d ], d );
+				block.read( in, offset(), ext[ 0 ] );
+			}
+
+			// convolve all dimensions in place. Lines along dimension d are
+			// only needed in the block center for dimensions that have been
+			// convolved already, but including halo for the ones to come.
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				if ( halo[ d ] == 0 )
+					continue;
+
+				for ( int e = 0; e < numDimensions; ++e )
+				{
+					if ( e < d )
+					{
+						lo[ e ] = halo[ e ];
+						hi[ e ] = halo[ e ] + size[ e ];
+					}
+					else
+					{
+						lo[ e ] = 0;
+						hi[ e ] = ext[ e ];
+					}
+				}
+				lo[ d ] = 0;
+				hi[ d ] = 1;
+				for ( boolean valid = first(); valid; valid = next() )
+					block.convolve( offset(), steps[ d ], ext[ d ], d );
+			}
+
+			// write the block center, line by line along dimension 0
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				lo[ d ] = halo[ d ];
+				hi[ d ] = halo[ d ] + size[ d ];
+			}
+			hi[ 0 ] = lo[ 0 ] + 1;
+			for ( boolean valid = first(); valid; valid = next() )
+			{
+				for ( int d = 0; d < numDimensions; ++d )
+					out.setPosition( outputOffset[ d ] + min[ d ] + pos[ d ] - halo[ d ], d );
+				block.write( out, offset(), size[ 0 ] );
+			}
+		}
+
+		/**
+		 * Set pos to the first position in the box [lo, hi).
+		 *
+		 * @return false if the box is empty.
+		 */
+		private boolean first()
+		{
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				if ( lo[ d ] >= hi[ d ] )
+					return false;
+				pos[ d ] = lo[ d ];
+			}
+			return true;
+		}
+
+		/**
+		 * Move pos to the next position in the box [lo, hi).
+		 *
+		 * @return false if there are no more positions.
+		 */
+		private boolean next()
+		{
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				if ( ++pos[ d ] < hi[ d ] )
+					return true;
+				pos[ d ] = lo[ d ];
+			}
+			return false;
+		}
+
+		private int offset()
+		{
+			int o = 0;
+			for ( int d = 0; d < numDimensions; ++d )
+				o += pos[ d ] * steps[ d ];
+			return o;
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.algorithm.gauss;
+
+import net.imglib2.Interval;
+import net.imglib2.Localizable;
+import net.imglib2.Location;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Blocked Gaussian convolution (see {@link AbstractBlockedGauss}) with float
+ * precision on primitive float arrays.
+ *
+ * @param <T> - the {@link RealType} of input and output
+ */
+public class BlockedGaussFloat< T extends RealType< T > > extends AbstractBlockedGauss< T >
+{
+	final float[][] floatKernel;
+
+	/**
+	 * Computes a Gaussian convolution with float precision on a {@link RandomAccessible} in a certain {@link Interval}
+	 * and writes it into a given {@link RandomAccessible} at a specific location
+	 *
+	 * @param sigma - the sigma for the convolution
+	 * @param input - the {@link RandomAccessible} to work on
+	 * @param interval - the area that is convolved
+	 * @param output - the {@link RandomAccessible} where the output will be written to (must not overlap the input)
+	 * @param outputOffset - the offset that corresponds to the first pixel in output {@link RandomAccessible}
+	 */
+	public BlockedGaussFloat( final double[] sigma, final RandomAccessible< T > input, final Interval interval, final RandomAccessible< T > output, final Localizable outputOffset )
+	{
+		super( sigma, input, interval, output, outputOffset );
+
+		floatKernel = new float[ numDimensions ][];
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			floatKernel[ d ] = new float[ halfKernel[ d ].length ];
+			for ( int i = 0; i < halfKernel[ d ].length; ++i )
+				floatKernel[ d ][ i ] = ( float ) halfKernel[ d ][ i ];
+		}
+	}
+
+	public static < T extends RealType< T > > void gauss( final double[] sigma, final RandomAccessible< T > input, final Interval interval, final RandomAccessible< T > output, final Localizable outputOffset )
+	{
+		new BlockedGaussFloat< T >( sigma, input, interval, output, outputOffset ).call();
+	}
+
+	public static < T extends RealType< T > > void gauss( final double[] sigma, final RandomAccessible< T > input, final Interval interval, final RandomAccessible< T > output )
+	{
+		gauss( sigma, input, interval, output, new Location( interval.numDimensions() ) );
+	}
+
+	@Override
+	protected Block createBlock( final int blockBufferSize, final int lineBufferSize )
+	{
+		return new FloatBlock( blockBufferSize, lineBufferSize );
+	}
+
+	protected class FloatBlock extends Block
+	{
+		final float[] buffer;
+
+		final float[] line;
+
+		public FloatBlock( final int blockBufferSize, final int lineBufferSize )
+		{
+			buffer = new float[ blockBufferSize ];
+			line = new float[ lineBufferSize ];
+		}
+
+		@Override
+		protected void read( final RandomAccess< T > in, final int offset, final int length )
+		{
+			final int end = offset + length;
+			for ( int i = offset; i < end; ++i )
+			{
+				buffer[ i ] = in.get().getRealFloat();
+				in.fwd( 0 );
+			}
+		}
+
+		@Override
+		protected void convolve( final int offset, final int stride, final int length, final int d )
+		{
+			final float[] kernel = floatKernel[ d ];
+			final int h = kernel.length - 1;
+
+			for ( int i = 0, j = offset; i < length; ++i, j += stride )
+				line[ i ] = buffer[ j ];
+
+			final int end = length - h;
+			for ( int i = h, j = offset + h * stride; i < end; ++i, j += stride )
+			{
+				float sum = kernel[ 0 ] * line[ i ];
+				for ( int k = 1; k <= h; ++k )
+					sum += kernel[ k ] * ( line[ i - k ] + line[ i + k ] );
+				buffer[ j ] = sum;
+			}
+		}
+
+		@Override
+		protected void write( final RandomAccess< T > out, final int offset, final int length )
+		{
+			final int end = offset + length;
+			for ( int i = offset; i < end; ++i )
+			{
+				out.get().setReal( buffer[ i ] );
+				out.fwd( 0 );
+			}
+		}
+	}
+}
@@ -0,0 +1,458 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.algorithm.gauss;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imglib2.Interval;
+import net.imglib2.Localizable;
+import net.imglib2.Location;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Util;
+
+/**
+ * Separable Gaussian convolution that uses the recursive (IIR) filter of
+ * Young and van Vliet ("Recursive implementation of the Gaussian filter",
+ * Signal Processing 44, 1995) for large sigmas. The cost per pixel of the
+ * recursive filter does not depend on sigma. Dimensions with a sigma below
+ * {@link #getRecursiveThreshold()} are convolved with the same FIR kernel as
+ * {@link GaussDouble}, where this is both faster and more accurate.
+ *
+ * <p>
+ * Every line is extended on both ends by the size of the FIR kernel, i.e.,
+ * the input is read in the same area as {@link AbstractGauss} does and the
+ * same {@link net.imglib2.outofbounds.OutOfBoundsFactory} semantics apply.
+ * The recursion is initialized with the steady state at the ends of the
+ * extended line.
+ * </p>
+ *
+ * <p>
+ * The dimensions are processed one after the other on lines of double
+ * precision. Only one temporary image (of {@link DoubleType}) is needed, which
+ * is convolved in place. The input is read completely before the output is
+ * written, so input and output may be the same for more than one dimension.
+ * </p>
+ *
+ * @param <T> - the {@link RealType} of input and output
+ */
+public class RecursiveGauss< T extends RealType< T > > implements MultiThreaded
+{
+	/**
+	 * Default sigma above which the recursive filter is used instead of the
+	 * FIR kernel.
+	 */
+	public static final double DEFAULT_RECURSIVE_THRESHOLD = 10.0;
+
+	final RandomAccessible< T > input;
+
+	final Interval interval;
+
+	final RandomAccessible< T > output;
+
+	final long[] outputOffset;
+
+	final ImgFactory< DoubleType > factory;
+
+	final int numDimensions;
+
+	final double[] sigma;
+
+	double recursiveThreshold;
+
+	int numThreads;
+
+	/**
+	 * @param sigma - the sigma for the convolution in every dimension
+	 * @param input - the {@link RandomAccessible} to work on (must be defined on the interval expanded by the kernel size)
+	 * @param interval - the area that is convolved
+	 * @param output - the {@link RandomAccessible} where the output will be written to
+	 * @param outputOffset - the offset that corresponds to the first pixel in output {@link RandomAccessible}
+	 * @param factory - the {@link ImgFactory} for the temporary image
+	 */
+	public RecursiveGauss( final double[] sigma, final RandomAccessible< T > input, final Interval interval, final RandomAccessible< T > output, final Localizable outputOffset, final ImgFactory< DoubleType > factory )
+	{
+		this.numDimensions = interval.numDimensions();
+		if ( sigma.length != numDimensions )
+			throw new IllegalArgumentException( "Expected " + numDimensions + " sigmas but got " + sigma.length + "." );
+
+		this.sigma = sigma.clone();
+		this.input = input;
+		this.interval = interval;
+		this.output = output;
+		this.outputOffset = new long[ numDimensions ];
+		outputOffset.localize( this.outputOffset );
+		this.factory = factory;
+
+		recursiveThreshold = DEFAULT_RECURSIVE_THRESHOLD;
+		setNumThreads();
+	}
+
+	public static < T extends RealType< T > > void gauss( final double[] sigma, final RandomAccessible< T > input, final Interval interval, final RandomAccessible< T > output, final Localizable outputOffset, final ImgFactory< DoubleType > factory )
+	{
+		new RecursiveGauss< T >( sigma, input, interval, output, outputOffset, factory ).call();
+	}
+
+	public static < T extends RealType< T > > void gauss( final double[] sigma, final RandomAccessible< T > input, final Interval interval, final RandomAccessible< T > output, final ImgFactory< DoubleType > factory )
+	{
+		gauss( sigma, input, interval, output, new Location( interval.numDimensions() ), factory );
+	}
+
+	/**
+	 * Set the sigma above which the recursive filter is used for a dimension.
+	 * The recursive filter is only defined for sigmas of at least 0.5.
+	 */
+	public void setRecursiveThreshold( final double recursiveThreshold )
+	{
+		this.recursiveThreshold = Math.max( 0.5, recursiveThreshold );
+	}
+
+	public double getRecursiveThreshold()
+	{
+		return recursiveThreshold;
+	}
+
+	/**
+	 * @return whether dimension <code>d</code> is convolved with the recursive filter.
+	 */
+	public boolean isRecursive( final int d )
+	{
+		return sigma[ d ] >= recursiveThreshold;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/**
+	 * @return the result of the convolution
+	 */
+	public RandomAccessible< T > getResult()
+	{
+		return output;
+	}
+
+	/**
+	 * Compute the coefficients of the recursive filter for a given sigma
+	 * (Young and van Vliet, equations 11b and 8c). The filter is
+	 * <code>w[n] = B x[n] + b1 w[n-1] + b2 w[n-2] + b3 w[n-3]</code>, applied
+	 * forward and backward.
+	 *
+	 * @return {B, b1, b2, b3}, with b1, b2, b3 already divided by b0.
+	 */
+	public static double[] computeRecursiveCoefficients( final double sigma )
+	{
+		final double q;
+		if ( sigma >= 2.5 )
+			q = 0.98711 * sigma - 0.96330;
+		else
+			q = 3.97156 - 4.14554 * Math.sqrt( 1 - 0.26891 * sigma );
+
+		final double q2 = q * q;
+		final double q3 = q2 * q;
+		final double b0 = 1.57825 + 2.44413 * q + 1.4281 * q2 + 0.422205 * q3;
+		final double b1 = ( 2.44413 * q + 2.85619 * q2 + 1.26661 * q3 ) / b0;
+		final double b2 = -( 1.4281 * q2 + 1.26661 * q3 ) / b0;
+		final double b3 = ( 0.422205 * q3 ) / b0;
+		final double B = 1 - ( b1 + b2 + b3 );
+
+		return new double[] { B, b1, b2, b3 };
+	}
+
+	/**
+	 * Filters one dimension of a line buffer.
+	 */
+	static abstract class LineFilter
+	{
+		/**
+		 * number of pixels by which the line is extended on both ends
+		 */
+		final int pad;
+
+		LineFilter( final int pad )
+		{
+			this.pad = pad;
+		}
+
+		/**
+		 * Filter the extended line <code>in</code> of length
+		 * <code>size + 2 * pad</code> and write the <code>size</code> center
+		 * pixels into <code>out</code>.
+		 */
+		abstract void filter( final double[] in, final double[] out, final int size );
+	}
+
+	static final class FIRFilter extends LineFilter
+	{
+		final double[] halfKernel;
+
+		FIRFilter( final double sigma )
+		{
+			this( Util.createGaussianKernel1DDouble( sigma, true ) );
+		}
+
+		private FIRFilter( final double[] kernel )
+		{
+			super( kernel.length / 2 );
+			halfKernel = new double[ pad + 1 ];
+			for ( int i = 0; i <= pad; ++i )
+				halfKernel[ i ] = kernel[ pad + i ];
+		}
+
+		@Override
+		void filter( final double[] in, final double[] out, final int size )
+		{
+			final double[] kernel = halfKernel;
+			final int h = pad;
+			for ( int o = 0, i = h; o < size; ++o, ++i )
+			{
+				double sum = kernel[ 0 ] * in[ i ];
+				for ( int k = 1; k <= h; ++k )
+					sum += kernel[ k ] * ( in[ i - k ] + in[ i + k ] );
+				out[ o ] = sum;
+			}
+		}
+	}
+
+	static final class IIRFilter extends LineFilter
+	{
+		final double B, b1, b2, b3;
+
+		IIRFilter( final double sigma )
+		{
+			super( Util.createGaussianKernel1DDouble( sigma, true ).length / 2 );
+			final double[] c = computeRecursiveCoefficients( sigma );
+			B = c[ 0 ];
+			b1 = c[ 1 ];
+			b2 = c[ 2 ];
+			b3 = c[ 3 ];
+		}
+
+		@Override
+		void filter( final double[] in, final double[] out, final int size )
+		{
+			final int length = size + 2 * pad;
+
+			// causal pass in place, starting from the steady state of in[ 0 ]
+			double w1 = in[ 0 ], w2 = w1, w3 = w1;
+			for ( int i = 0; i < length; ++i )
+			{
+				final double w = B * in[ i ] + b1 * w1 + b2 * w2 + b3 * w3;
+				in[ i ] = w;
+				w3 = w2;
+				w2 = w1;
+				w1 = w;
+			}
+
+			// anti-causal pass, starting from the steady state of the last value
+			double y1 = in[ length - 1 ], y2 = y1, y3 = y1;
+			for ( int i = length - 1; i >= pad + size; --i )
+			{
+				final double y = B * in[ i ] + b1 * y1 + b2 * y2 + b3 * y3;
+				y3 = y2;
+				y2 = y1;
+				y1 = y;
+			}
+			for ( int i = pad + size - 1; i >= pad; --i )
+			{
+				final double y = B * in[ i ] + b1 * y1 + b2 * y2 + b3 * y3;
+				out[ i - pad ] = y;
+				y3 = y2;
+				y2 = y1;
+				y1 = y;
+			}
+		}
+	}
+
+	protected LineFilter createLineFilter( final int d )
+	{
+		if ( isRecursive( d ) )
+			return new IIRFilter( sigma[ d ] );
+		else
+			return new FIRFilter( sigma[ d ] );
+	}
+
+	public void call()
+	{
+		final LineFilter[] filters = new LineFilter[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			filters[ d ] = createLineFilter( d );
+
+		// The temporary image covers the interval, extended by the padding in
+		// all dimensions except 0 which is convolved first. tmpOffset is the
+		// position of the interval min in the temporary image.
+		final long[] tmpDimensions = new long[ numDimensions ];
+		final long[] tmpOffset = new long[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			tmpOffset[ d ] = d == 0 ? 0 : filters[ d ].pad;
+			tmpDimensions[ d ] = interval.dimension( d ) + 2 * tmpOffset[ d ];
+		}
+		final Img< DoubleType > tmp = numDimensions > 1 ? factory.create( tmpDimensions, new DoubleType() ) : null;
+
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			final int dim = d;
+			final LineFilter filter = filters[ d ];
+			final boolean fromInput = d == 0;
+			final boolean toOutput = d == numDimensions - 1;
+
+			// lines along dim: already convolved dimensions only in the
+			// center, the others with padding
+			final long[] lineMin = new long[ numDimensions ];
+			final long[] lineDimensions = new long[ numDimensions ];
+			long numLines = 1;
+			for ( int e = 0; e < numDimensions; ++e )
+			{
+				if ( e == dim )
+				{
+					lineMin[ e ] = 0;
+					lineDimensions[ e ] = 1;
+				}
+				else if ( e < dim )
+				{
+					lineMin[ e ] = tmpOffset[ e ];
+					lineDimensions[ e ] = interval.dimension( e );
+				}
+				else
+				{
+					lineMin[ e ] = 0;
+					lineDimensions[ e ] = tmpDimensions[ e ];
+				}
+				numLines *= lineDimensions[ e ];
+			}
+			final long numLinesTotal = numLines;
+			final long size = interval.dimension( dim );
+			if ( size + 2 * filter.pad > Integer.MAX_VALUE )
+				throw new RuntimeException( "Lines longer than Integer.MAX_VALUE are not supported." );
+
+			final AtomicLong ai = new AtomicLong( 0 );
+			final Thread[] threads = SimpleMultiThreading.newThreads( ( int ) Math.max( 1, Math.min( numThreads, numLinesTotal ) ) );
+			for ( int ithread = 0; ithread < threads.length; ++ithread )
+				threads[ ithread ] = new Thread( new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						final RandomAccess< T > in = fromInput ? input.randomAccess() : null;
+						final RandomAccess< T > out = toOutput ? output.randomAccess() : null;
+						final RandomAccess< DoubleType > tmpAccess = tmp == null ? null : tmp.randomAccess();
+
+						final int length = ( int ) size + 2 * filter.pad;
+						final double[] lineIn = new double[ length ];
+						final double[] lineOut = new double[ ( int ) size ];
+						final long[] position = new long[ numDimensions ];
+
+						for ( long l = ai.getAndIncrement(); l < numLinesTotal; l = ai.getAndIncrement() )
+						{
+							IntervalIndexer.indexToPositionWithOffset( l, lineDimensions, lineMin, position );
+
+							// read the extended line
+							if ( fromInput )
+							{
+								for ( int e = 0; e < numDimensions; ++e )
+									in.setPosition( interval.min( e ) + position[ e ] - tmpOffset[ e ], e );
+								in.move( -filter.pad, dim );
+								for ( int i = 0; i < length; ++i )
+								{
+									lineIn[ i ] = in.get().getRealDouble();
+									in.fwd( dim );
+								}
+							}
+							else
+							{
+								tmpAccess.setPosition( position );
+								for ( int i = 0; i < length; ++i )
+								{
+									lineIn[ i ] = tmpAccess.get().get();
+									tmpAccess.fwd( dim );
+								}
+							}
+
+							filter.filter( lineIn, lineOut, ( int ) size );
+
+							// write the center of the line
+							if ( toOutput )
+							{
+								for ( int e = 0; e < numDimensions; ++e )
+									out.setPosition( outputOffset[ e ] + position[ e ] - tmpOffset[ e ], e );
+								out.setPosition( outputOffset[ dim ], dim );
+								for ( int i = 0; i < size; ++i )
+								{
+									out.get().setReal( lineOut[ i ] );
+									out.fwd( dim );
+								}
+							}
+							else
+							{
+								tmpAccess.setPosition( position );
+								tmpAccess.setPosition( tmpOffset[ dim ], dim );
+								for ( int i = 0; i < size; ++i )
+								{
+									tmpAccess.get().set( lineOut[ i ] );
+									tmpAccess.fwd( dim );
+								}
+							}
+						}
+					}
+				} );
+
+			SimpleMultiThreading.startAndJoin( threads );
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package net.imglib2.algorithm.integral;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Sums and means over axis-aligned boxes of an image, read from its integral
+ * image (as computed by {@link IntegralImg} or {@link ParallelIntegralImg})
+ * at the 2^n corners of the box.
+ *
+ * A {@link BoxSum} holds a {@link RandomAccess} on the integral image and is
+ * not thread-safe, use one per thread.
+ *
+ * @param <T> The type of the integral image.
+ */
+public class BoxSum< T extends RealType< T > >
+{
+	protected final RandomAccess< T > access;
+	protected final int numDimensions;
+	protected final long[] offset;
+	protected final boolean integer;
+
+	/**
+	 * @param integral the integral image.
+	 * @param imgMin the min of the image that was integrated, i.e., box
+	 * coordinates are given in the coordinates of that image.
+	 */
+	public BoxSum( final RandomAccessibleInterval< T > integral, final long[] imgMin )
+	{
+		this.numDimensions = integral.numDimensions();
+		if ( imgMin.length != numDimensions )
+			throw new IllegalArgumentException( "Expected " + numDimensions + " dimensions but got " + imgMin.length + "." );
+		this.access = integral.randomAccess();
+		this.offset = new long[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			offset[ d ] = integral.min( d ) - imgMin[ d ];
+		this.integer = access.get() instanceof IntegerType;
+	}
+
+	/**
+	 * Box coordinates are given in the coordinates of the integral image minus
+	 * one, i.e., for a zero-min image that was integrated.
+	 */
+	public BoxSum( final RandomAccessibleInterval< T > integral )
+	{
+		this( integral, new long[ integral.numDimensions() ] );
+	}
+
+	/**
+	 * @return the sum over all pixels from min to max (inclusive).
+	 */
+	public double sum( final long[] min, final long[] max )
+	{
+		if ( integer )
+			return sumLong( min, max );
+
+		double sum = 0;
+		final int numCorners = 1 << numDimensions;
+		for ( int corner = 0; corner < numCorners; ++corner )
+		{
+			setCorner( corner, min, max );
+			if ( isPositive( corner ) )
+				sum += access.get().getRealDouble();
+			else
+				sum -= access.get().getRealDouble();
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the sum over all pixels from min to max (inclusive), for
+	 * integral images of {@link IntegerType}.
+	 */
+	public long sumLong( final long[] min, final long[] max )
+	{
+		long sum = 0;
+		final int numCorners = 1 << numDimensions;
+		for ( int corner = 0; corner < numCorners; ++corner )
+		{
+			setCorner( corner, min, max );
+			final long v = ( ( IntegerType< ? > ) access.get() ).getIntegerLong();
+			if ( isPositive( corner ) )
+				sum += v;
+			else
+				sum -= v;
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the mean over all pixels from min to max (inclusive).
+	 */
+	public double mean( final long[] min, final long[] max )
+	{
+		double size = 1;
+		for ( int d = 0; d < numDimensions; ++d )
+			size *= max[ d ] - min[ d ] + 1;
+		return sum( min, max ) / size;
+	}
+
+	/**
+	 * Bit d of corner selects max (set) or min (not set) in dimension d.
+	 */
+	private void setCorner( final int corner, final long[] min, final long[] max )
+	{
+		for ( int d = 0; d < numDimensions; ++d )
+			access.setPosition( offset[ d ] + ( ( corner & ( 1 << d ) ) != 0 ? max[ d ] + 1 : min[ d ] ), d );
+	}
+
+	/**
+	 * The corner at max in all dimensions is added, every min flips the sign.
+	 */
+	private boolean isPositive( final int corner )
+	{
+		return ( numDimensions - Integer.bitCount( corner ) ) % 2 == 0;
+	}
+}
@@ -0,0 +1,546 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package net.imglib2.algorithm.integral;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.algorithm.OutputAlgorithm;
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImg;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * Multi-threaded n-dimensional integral image. As for {@link IntegralImg},
+ * the integral image is one pixel larger in each dimension and contains zeros
+ * at the beginning of each dimension.
+ *
+ * Sums are accumulated in a <code>long</code> if the integral type <code>T</code>
+ * is an {@link IntegerType} and in a <code>double</code> otherwise, and only
+ * then set to the integral type. Use {@link LongType} or {@link DoubleType}
+ * (see {@link #integralLong(Img, int)} and {@link #integralDouble(Img, int)})
+ * to avoid overflows.
+ *
+ * There are two modes:
+ * <ul>
+ * <li>Line mode computes the prefix sums dimension by dimension, the lines of
+ * every dimension are distributed over threads.</li>
+ * <li>Tiled mode computes the integral image block by block. Every block
+ * computes its local prefix sums and adds the sums of the blocks before it by
+ * inclusion-exclusion over the already finished integral values on its lower
+ * faces. Blocks with the same sum of grid coordinates do not depend on each
+ * other and are processed in parallel. This touches every block only once,
+ * which is what a {@link CellImg} (in particular a cached one) wants.</li>
+ * </ul>
+ * Tiled mode is used if a tile size is set with {@link #setTileSize(int[])}
+ * or if the integral image is a {@link CellImg}, with its cells as tiles.
+ *
+ * Use {@link BoxSum} to query sums over boxes from the result.
+ *
+ * @param <R> The type of the input image.
+ * @param <T> The type of the integral image.
+ */
+public class ParallelIntegralImg< R extends RealType< R >, T extends RealType< T > & NativeType< T > > implements OutputAlgorithm< Img< T > >, MultiThreaded
+{
+	protected final RandomAccessibleInterval< R > img;
+	protected final T type;
+	protected final ImgFactory< T > factory;
+	protected final int numDimensions;
+	protected final boolean integer;
+	protected int[] tileSize;
+	protected Img< T > integral;
+	protected int numThreads;
+	protected String errorMessage = "";
+
+	/**
+	 * @param img the input image.
+	 * @param type the type of the integral image.
+	 * @param factory the factory for the integral image.
+	 */
+	public ParallelIntegralImg( final RandomAccessibleInterval< R > img, final T type, final ImgFactory< T > factory )
+	{
+		this.img = img;
+		this.type = type;
+		this.factory = factory;
+		this.numDimensions = img.numDimensions();
+		this.integer = type instanceof IntegerType;
+		setNumThreads();
+	}
+
+	/**
+	 * Create the integral image with the same kind of {@link ImgFactory} as
+	 * the input image, e.g., a {@link CellImg} for a {@link CellImg} input.
+	 */
+	public ParallelIntegralImg( final Img< R > img, final T type )
+	{
+		this( img, type, factoryFor( img, type ) );
+	}
+
+	public static < R extends RealType< R > > Img< LongType > integralLong( final Img< R > img, final int numThreads )
+	{
+		return integral( new ParallelIntegralImg< R, LongType >( img, new LongType() ), numThreads );
+	}
+
+	public static < R extends RealType< R > > Img< DoubleType > integralDouble( final Img< R > img, final int numThreads )
+	{
+		return integral( new ParallelIntegralImg< R, DoubleType >( img, new DoubleType() ), numThreads );
+	}
+
+	private static < T extends RealType< T > & NativeType< T > > Img< T > integral( final ParallelIntegralImg< ?, T > algorithm, final int numThreads )
+	{
+		algorithm.setNumThreads( numThreads );
+		if ( !algorithm.process() )
+			throw new RuntimeException( algorithm.getErrorMessage() );
+		return algorithm.getResult();
+	}
+
+	private static < T extends NativeType< T > > ImgFactory< T > factoryFor( final Img< ? > img, final T type )
+	{
+		try
+		{
+			return img.factory().imgFactory( type );
+		}
+		catch ( final IncompatibleTypeException e )
+		{
+			return new ArrayImgFactory< T >();
+		}
+	}
+
+	/**
+	 * Compute the integral image in tiles of the given size (in the
+	 * coordinates of the integral image), or in lines if <code>null</code>.
+	 */
+	public void setTileSize( final int[] tileSize )
+	{
+		if ( tileSize != null && tileSize.length != numDimensions )
+			throw new IllegalArgumentException( "Expected " + numDimensions + " tile dimensions but got " + tileSize.length + "." );
+		this.tileSize = tileSize == null ? null : tileSize.clone();
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	@Override
+	public boolean checkInput()
+	{
+		return true;
+	}
+
+	@Override
+	public boolean process()
+	{
+		final long[] integralSize = new long[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			integralSize[ d ] = img.dimension( d ) + 1;
+
+		integral = factory.create( integralSize, type.createVariable() );
+		if ( integral == null )
+		{
+			errorMessage = "Could not create the integral image.";
+			return false;
+		}
+
+		int[] tiles = tileSize;
+		if ( tiles == null && integral instanceof CellImg )
+		{
+			tiles = new int[ numDimensions ];
+			( ( CellImg< ?, ?, ? > ) integral ).getCells().cellDimensions( tiles );
+		}
+
+		if ( tiles == null )
+			processLines();
+		else
+		{
+			long tileVolume = 1;
+			for ( int d = 0; d < numDimensions; ++d )
+				tileVolume *= Math.min( tiles[ d ], integralSize[ d ] );
+			if ( tileVolume > Integer.MAX_VALUE )
+			{
+				errorMessage = "Tiles with more than Integer.MAX_VALUE pixels are not supported.";
+				return false;
+			}
+			processTiles( integralSize, tiles );
+		}
+		return true;
+	}
+
+	/**
+	 * Integrate every line of every dimension in place, starting with lines
+	 * along dimension 0 that are read from the input image.
+	 */
+	protected void processLines()
+	{
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			final int dim = d;
+			final long[] lineDimensions = new long[ numDimensions ];
+			long numLines = 1;
+			for ( int e = 0; e < numDimensions; ++e )
+			{
+				lineDimensions[ e ] = e == dim ? 1 : img.dimension( e );
+				numLines *= lineDimensions[ e ];
+			}
+			final long numLinesTotal = numLines;
+			final long size = img.dimension( dim );
+
+			final AtomicLong ai = new AtomicLong( 0 );
+			final Thread[] threads = SimpleMultiThreading.newThreads( ( int ) Math.max( 1, Math.min( numThreads, numLinesTotal ) ) );
+			for ( int ithread = 0; ithread < threads.length; ++ithread )
+				threads[ ithread ] = new Thread( new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						final RandomAccess< R > in = dim == 0 ? img.randomAccess() : null;
+						final RandomAccess< T > out = integral.randomAccess();
+						final long[] position = new long[ numDimensions ];
+
+						for ( long l = ai.getAndIncrement(); l < numLinesTotal; l = ai.getAndIncrement() )
+						{
+							IntervalIndexer.indexToPosition( l, lineDimensions, position );
+
+							// all entries of position 0 are 0
+							for ( int e = 0; e < numDimensions; ++e )
+								out.setPosition( position[ e ] + 1, e );
+
+							if ( dim == 0 )
+							{
+								for ( int e = 0; e < numDimensions; ++e )
+									in.setPosition( img.min( e ) + position[ e ], e );
+								if ( integer )
+								{
+									long sum = 0;
+									for ( long i = 0; i < size; ++i )
+									{
+										sum += getLong( in.get() );
+										setLong( out.get(), sum );
+										in.fwd( 0 );
+										out.fwd( 0 );
+									}
+								}
+								else
+								{
+									double sum = 0;
+									for ( long i = 0; i < size; ++i )
+									{
+										sum += in.get().getRealDouble();
+										out.get().setReal( sum );
+										in.fwd( 0 );
+										out.fwd( 0 );
+									}
+								}
+							}
+							else if ( integer )
+							{
+								long sum = 0;
+								for ( long i = 0; i < size; ++i )
+								{
+									final T t = out.get();
+									sum += getLong( t );
+									setLong( t, sum );
+									out.fwd( dim );
+								}
+							}
+							else
+							{
+								double sum = 0;
+								for ( long i = 0; i < size; ++i )
+								{
+									final T t = out.get();
+									sum += t.getRealDouble();
+									t.setReal( sum );
+									out.fwd( dim );
+								}
+							}
+						}
+					}
+				} );
+			SimpleMultiThreading.startAndJoin( threads );
+		}
+	}
+
+	/**
+	 * Integrate tile by tile, in wavefronts of tiles with the same sum of
+	 * grid coordinates.
+	 */
+	protected void processTiles( final long[] integralSize, final int[] tiles )
+	{
+		final long[] gridSize = new long[ numDimensions ];
+		long numTilesLong = 1;
+		int numLevels = 1;
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			gridSize[ d ] = ( integralSize[ d ] - 1 ) / tiles[ d ] + 1;
+			numTilesLong *= gridSize[ d ];
+			numLevels += gridSize[ d ] - 1;
+		}
+		if ( numTilesLong > Integer.MAX_VALUE )
+			throw new RuntimeException( "More than Integer.MAX_VALUE tiles are not supported." );
+		final int numTiles = ( int ) numTilesLong;
+
+		// sort tiles by level (counting sort)
+		final long[] gridPosition = new long[ numDimensions ];
+		final int[] levelStart = new int[ numLevels + 1 ];
+		for ( int t = 0; t < numTiles; ++t )
+		{
+			IntervalIndexer.indexToPosition( t, gridSize, gridPosition );
+			++levelStart[ level( gridPosition ) + 1 ];
+		}
+		for ( int l = 0; l < numLevels; ++l )
+			levelStart[ l + 1 ] += levelStart[ l ];
+		final int[] tilesByLevel = new int[ numTiles ];
+		final int[] fill = levelStart.clone();
+		for ( int t = 0; t < numTiles; ++t )
+		{
+			IntervalIndexer.indexToPosition( t, gridSize, gridPosition );
+			tilesByLevel[ fill[ level( gridPosition ) ]++ ] = t;
+		}
+
+		int tileVolume = 1;
+		for ( int d = 0; d < numDimensions; ++d )
+			tileVolume *= ( int ) Math.min( tiles[ d ], integralSize[ d ] );
+		final int bufferSize = tileVolume;
+
+		for ( int l = 0; l < numLevels; ++l )
+		{
+			final int start = levelStart[ l ];
+			final int end = levelStart[ l + 1 ];
+			final AtomicInteger ai = new AtomicInteger( start );
+			final Thread[] threads = SimpleMultiThreading.newThreads( Math.max( 1, Math.min( numThreads, end - start ) ) );
+			for ( int ithread = 0; ithread < threads.length; ++ithread )
+				threads[ ithread ] = new Thread( new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						final Tile tile = new Tile( bufferSize );
+						final long[] position = new long[ numDimensions ];
+						for ( int i = ai.getAndIncrement(); i < end; i = ai.getAndIncrement() )
+						{
+							IntervalIndexer.indexToPosition( tilesByLevel[ i ], gridSize, position );
+							tile.process( position, tiles, integralSize );
+						}
+					}
+				} );
+			SimpleMultiThreading.startAndJoin( threads );
+		}
+	}
+
+	private int level( final long[] gridPosition )
+	{
+		int level = 0;
+		for ( int d = 0; d < numDimensions; ++d )
+			level += gridPosition[ d ];
+		return level;
+	}
+
+	/**
+	 * Per-thread buffers for computing one tile.
+	 */
+	protected class Tile
+	{
+		final long[] longBuffer;
+		final double[] doubleBuffer;
+		final RandomAccess< R > in = img.randomAccess();
+		final RandomAccess< T > out = integral.randomAccess();
+		final long[] min = new long[ numDimensions ];
+		final long[] max = new long[ numDimensions ];
+		final long[] dimensions = new long[ numDimensions ];
+		final long[] position = new long[ numDimensions ];
+
+		Tile( final int bufferSize )
+		{
+			longBuffer = integer ? new long[ bufferSize ] : null;
+			doubleBuffer = integer ? null : new double[ bufferSize ];
+		}
+
+		void process( final long[] gridPosition, final int[] tiles, final long[] integralSize )
+		{
+			// the part of the tile that is not on the zero planes
+			int volume = 1;
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				min[ d ] = Math.max( gridPosition[ d ] * tiles[ d ], 1 );
+				max[ d ] = Math.min( ( gridPosition[ d ] + 1 ) * tiles[ d ], integralSize[ d ] ) - 1;
+				if ( max[ d ] < min[ d ] )
+					return;
+				dimensions[ d ] = max[ d ] - min[ d ] + 1;
+				volume *= ( int ) dimensions[ d ];
+			}
+			final int lineLength = ( int ) dimensions[ 0 ];
+
+			// read the input
+			for ( int o = 0; o < volume; o += lineLength )
+			{
+				IntervalIndexer.indexToPositionWithOffset( o, dimensions, min, position );
+				for ( int d = 0; d < numDimensions; ++d )
+					in.setPosition( img.min( d ) + position[ d ] - 1, d );
+				if ( integer )
+					for ( int i = 0; i < lineLength; ++i, in.fwd( 0 ) )
+						longBuffer[ o + i ] = getLong( in.get() );
+				else
+					for ( int i = 0; i < lineLength; ++i, in.fwd( 0 ) )
+						doubleBuffer[ o + i ] = in.get().getRealDouble();
+			}
+
+			// local prefix sums
+			for ( int d = 0, stride = 1; d < numDimensions; stride *= ( int ) dimensions[ d ], ++d )
+			{
+				final int block = stride * ( int ) dimensions[ d ];
+				for ( int o = 0; o < volume; o += block )
+				{
+					if ( integer )
+						for ( int j = o + stride; j < o + block; ++j )
+							longBuffer[ j ] += longBuffer[ j - stride ];
+					else
+						for ( int j = o + stride; j < o + block; ++j )
+							doubleBuffer[ j ] += doubleBuffer[ j - stride ];
+				}
+			}
+
+			// Add the sums before the tile. For every non-empty subset S of
+			// dimensions, the integral at the position projected onto the
+			// lower faces of S is added (|S| odd) or subtracted (|S| even).
+			final int numSubsets = 1 << numDimensions;
+			for ( int subset = 1; subset < numSubsets; ++subset )
+			{
+				// the integral is 0 on the zero planes
+				boolean zero = false;
+				for ( int d = 0; d < numDimensions; ++d )
+					if ( ( subset & ( 1 << d ) ) != 0 && min[ d ] == 1 )
+						zero = true;
+				if ( zero )
+					continue;
+
+				final boolean add = Integer.bitCount( subset ) % 2 == 1;
+				for ( int o = 0; o < volume; o += lineLength )
+				{
+					IntervalIndexer.indexToPositionWithOffset( o, dimensions, min, position );
+					for ( int d = 0; d < numDimensions; ++d )
+						out.setPosition( ( subset & ( 1 << d ) ) != 0 ? min[ d ] - 1 : position[ d ], d );
+					final boolean constant = ( subset & 1 ) != 0;
+					if ( integer )
+					{
+						for ( int i = 0; i < lineLength; ++i )
+						{
+							final long v = getLong( out.get() );
+							longBuffer[ o + i ] += add ? v : -v;
+							if ( !constant )
+								out.fwd( 0 );
+						}
+					}
+					else
+					{
+						for ( int i = 0; i < lineLength; ++i )
+						{
+							final double v = out.get().getRealDouble();
+							doubleBuffer[ o + i ] += add ? v : -v;
+							if ( !constant )
+								out.fwd( 0 );
+						}
+					}
+				}
+			}
+
+			// write the tile
+			for ( int o = 0; o < volume; o += lineLength )
+			{
+				IntervalIndexer.indexToPositionWithOffset( o, dimensions, min, position );
+				out.setPosition( position );
+				if ( integer )
+					for ( int i = 0; i < lineLength; ++i, out.fwd( 0 ) )
+						setLong( out.get(), longBuffer[ o + i ] );
+				else
+					for ( int i = 0; i < lineLength; ++i, out.fwd( 0 ) )
+						out.get().setReal( doubleBuffer[ o + i ] );
+			}
+		}
+	}
+
+	protected static long getLong( final RealType< ? > t )
+	{
+		return t instanceof IntegerType ? ( ( IntegerType< ? > ) t ).getIntegerLong() : ( long ) t.getRealDouble();
+	}
+
+	protected static void setLong( final RealType< ? > t, final long value )
+	{
+		if ( t instanceof IntegerType )
+			( ( IntegerType< ? > ) t ).setInteger( value );
+		else
+			t.setReal( value );
+	}
+
+	@Override
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	@Override
+	public Img< T > getResult()
+	{
+		return integral;
+	}
+}
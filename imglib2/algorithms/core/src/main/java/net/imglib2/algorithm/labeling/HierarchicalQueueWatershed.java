@@ -0,0 +1,601 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.algorithm.labeling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.algorithm.OutputAlgorithm;
+import net.imglib2.img.Img;
+import net.imglib2.labeling.Labeling;
+import net.imglib2.labeling.LabelingType;
+import net.imglib2.labeling.NativeImgLabeling;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Seeded watershed on primitive storage. This computes the same flooding as
+ * {@link Watershed}: pixels are flooded in the order of increasing intensity,
+ * ties are broken by the order in which they were reached, and a pixel gets
+ * the labeling of the flooded neighbor that reached it first.
+ * 
+ * Instead of a {@link java.util.PriorityQueue} of objects, pixels are queued by
+ * their linear index. For {@link IntegerType} images with at most
+ * {@link #MAX_LEVELS} distinct intensity levels, the queue is a hierarchical
+ * queue with one FIFO bucket per level, linked through an int array over all
+ * pixels. For other images it is a binary heap of linear indices. Either way,
+ * flooding allocates no objects per pixel.
+ * 
+ * The intensities are copied to a primitive array, the seeds are collected
+ * and the resulting labels are written to the output in parallel, with one
+ * slab of the image per thread. The flooding itself has to visit the pixels
+ * in global intensity order and is sequential.
+ * 
+ * The image may have at most {@link Integer#MAX_VALUE} pixels.
+ */
+public class HierarchicalQueueWatershed <T extends RealType<T>, L extends Comparable<L>>
+	implements OutputAlgorithm<Labeling<L>>, MultiThreaded {
+
+	/**
+	 * The maximal number of intensity levels for which a hierarchical queue
+	 * is used.
+	 */
+	public static final int MAX_LEVELS = 1 << 20;
+
+	/**
+	 * Marks pixels that were labeled in the output before processing. They
+	 * are not flooded.
+	 */
+	protected static final int BLOCKED = -1;
+
+	protected Img<T> image;
+	protected Labeling<L> seeds;
+	long [][] structuringElement;
+	protected Labeling<L> output;
+	String errorMessage;
+	int numThreads;
+
+	public HierarchicalQueueWatershed() {
+		setNumThreads();
+	}
+
+	/**
+	 * Provide the intensity image to be watershedded.
+	 * 
+	 * @param image the intensity image that defines the watershed
+	 * landscape. Lower values will be labeled first.
+	 */
+	public void setIntensityImage(Img<T> image) {
+		this.image = image;
+	}
+	
+	/**
+	 * Provide the seeds that mark the watersheds.
+	 * 
+	 * @param seeds a labeling of the space, defining the first pixels
+	 * in the space to be labeled. The seeded pixels will be similarly labeled
+	 * in the output as will be their watershed neighbors.
+	 */
+	public void setSeeds(Labeling<L> seeds) {
+		this.seeds = seeds;
+	}
+	
+	/**
+	 * Set the structuring element that defines the connectivity
+	 * 
+	 * @param structuringElement an array of offsets where each element
+	 * of the array gives the offset of a connected pixel from a pixel of
+	 * interest. You can use AllConnectedComponents.getStructuringElement
+	 * to get an 8-connected (or N-dimensional equivalent) structuring
+	 * element (all adjacent pixels + diagonals).
+	 */
+	public void setStructuringElement(long [][] structuringElement) {
+		this.structuringElement = structuringElement;
+	}
+	
+	/**
+	 * Set the output labeling where the results will be stored. The
+	 * class will provide one if none is supplied.
+	 * 
+	 * @param outputLabeling
+	 */
+	public void setOutputLabeling(Labeling<L> outputLabeling) {
+		output = outputLabeling;
+	}
+
+	@Override
+	public boolean process() {
+		if (! checkInput()) return false;
+
+		if (structuringElement == null) 
+			structuringElement = AllConnectedComponents.getStructuringElement(image.numDimensions());
+
+		final int n = image.numDimensions();
+		final long [] dimensions = new long [n];
+		image.dimensions(dimensions);
+		if (output == null) {
+			NativeImgLabeling<L> o = new NativeImgLabeling<L>(dimensions);
+			o.setLinkedType(new LabelingType<L>(o));
+			output = o;
+		}
+		final int numPixels = (int)image.size();
+		if (numPixels == 0)
+			return true;
+		final Slab [] slabs = createSlabs(dimensions);
+
+		/*
+		 * Copy the intensities, collect the seeds and the pixels that are
+		 * already labeled in the output.
+		 */
+		final int [] labels = new int [numPixels];
+		final double [] intensities = new double [numPixels];
+		forEachSlab(slabs, new SlabTask() {
+			@Override
+			public void run(Slab slab) {
+				slab.read(image.randomAccess(), seeds.randomAccess(), output.randomAccess(), dimensions, intensities, labels);
+			}
+		});
+
+		/*
+		 * Choose the queue
+		 */
+		final PixelQueue queue;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (Slab slab:slabs) {
+			min = Math.min(min, slab.min);
+			max = Math.max(max, slab.max);
+		}
+		if ((image.firstElement() instanceof IntegerType) && (max - min < MAX_LEVELS))
+			queue = new BucketQueue(intensities, min, max);
+		else
+			queue = new HeapQueue(intensities);
+
+		/*
+		 * Seed the queue, labeling[ i - 1 ] is the labeling of label i.
+		 */
+		final LabelingType<L> type = output.randomAccess().get();
+		final List<List<L>> labelings = new ArrayList<List<L>>();
+		final HashMap<List<L>, Integer> labelOfLabeling = new HashMap<List<L>, Integer>();
+		for (Slab slab:slabs) {
+			for (int i=0; i<slab.seedIndices.size(); i++) {
+				final int index = slab.seedIndices.get(i);
+				@SuppressWarnings("unchecked")
+				final List<L> labeling = type.intern((List<L>)slab.seedLabelings.get(i));
+				Integer label = labelOfLabeling.get(labeling);
+				if (label == null) {
+					labelings.add(labeling);
+					label = labelings.size();
+					labelOfLabeling.put(labeling, label);
+				}
+				labels[index] = label;
+				queue.add(index);
+			}
+			slab.seedIndices = null;
+			slab.seedLabelings = null;
+		}
+
+		flood(queue, labels, dimensions);
+
+		/*
+		 * Write the output
+		 */
+		forEachSlab(slabs, new SlabTask() {
+			@Override
+			public void run(Slab slab) {
+				slab.write(output.randomAccess(), dimensions, labels, labelings);
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Pop the head of the queue, label and push all unlabeled connected
+	 * pixels.
+	 */
+	protected void flood(final PixelQueue queue, final int [] labels, final long [] dimensions) {
+		final int n = dimensions.length;
+		final int [] steps = new int [n];
+		steps[0] = 1;
+		for (int d=1; d<n; d++)
+			steps[d] = steps[d-1] * (int)dimensions[d-1];
+		final int [] offsets = new int [structuringElement.length];
+		for (int i=0; i<structuringElement.length; i++)
+			for (int d=0; d<n; d++)
+				offsets[i] += (int)structuringElement[i][d] * steps[d];
+		/*
+		 * the range of the structuring element, pixels that are further from
+		 * the border need no bounds checks
+		 */
+		final long [] reachMin = new long [n];
+		final long [] reachMax = new long [n];
+		for (long [] offset:structuringElement)
+			for (int d=0; d<n; d++) {
+				reachMin[d] = Math.max(reachMin[d], -offset[d]);
+				reachMax[d] = Math.max(reachMax[d], offset[d]);
+			}
+		final long [] position = new long [n];
+		while (! queue.isEmpty()) {
+			final int index = queue.remove();
+			final int label = labels[index];
+			boolean interior = true;
+			int idx = index;
+			for (int d=0; d<n; d++) {
+				position[d] = idx % dimensions[d];
+				idx /= dimensions[d];
+				if ((position[d] < reachMin[d]) || (position[d] >= dimensions[d] - reachMax[d]))
+					interior = false;
+			}
+			A: for (int i=0; i<offsets.length; i++) {
+				if (! interior) {
+					for (int d=0; d<n; d++) {
+						final long p = position[d] + structuringElement[i][d];
+						if ((p < 0) || (p >= dimensions[d])) continue A;
+					}
+				}
+				final int neighbor = index + offsets[i];
+				if (labels[neighbor] != 0) continue;
+				labels[neighbor] = label;
+				queue.add(neighbor);
+			}
+		}
+	}
+
+	/**
+	 * A priority queue of pixels by their linear index. Pixels come out in
+	 * the order of increasing intensity and, for equal intensity, in the
+	 * order in which they were added. Every pixel is added at most once.
+	 */
+	protected interface PixelQueue {
+		void add(int index);
+		int remove();
+		boolean isEmpty();
+	}
+
+	/**
+	 * Hierarchical queue with a FIFO bucket for every integer intensity level.
+	 * The buckets are linked lists through an array over all pixels.
+	 */
+	protected static class BucketQueue implements PixelQueue {
+		final double [] intensities;
+		final double min;
+		final int [] next;
+		final int [] head;
+		final int [] tail;
+		int current;
+		int size;
+		BucketQueue(double [] intensities, double min, double max) {
+			this.intensities = intensities;
+			this.min = min;
+			next = new int [intensities.length];
+			final int numLevels = (int)(max - min) + 1;
+			head = new int [numLevels];
+			tail = new int [numLevels];
+			Arrays.fill(head, -1);
+			current = numLevels;
+			size = 0;
+		}
+		@Override
+		public void add(int index) {
+			final int level = (int)(intensities[index] - min);
+			next[index] = -1;
+			if (head[level] == -1)
+				head[level] = index;
+			else
+				next[tail[level]] = index;
+			tail[level] = index;
+			if (level < current)
+				current = level;
+			size++;
+		}
+		@Override
+		public int remove() {
+			while (head[current] == -1) current++;
+			final int index = head[current];
+			head[current] = next[index];
+			size--;
+			return index;
+		}
+		@Override
+		public boolean isEmpty() {
+			return size == 0;
+		}
+	}
+
+	/**
+	 * Binary heap of pixel indices, ordered by intensity and then by the
+	 * order in which they were added.
+	 */
+	protected static class HeapQueue implements PixelQueue {
+		final double [] intensities;
+		int [] heap;
+		int [] age;
+		int size;
+		int nextAge;
+		HeapQueue(double [] intensities) {
+			this.intensities = intensities;
+			heap = new int [1024];
+			age = new int [1024];
+			size = 0;
+			nextAge = 0;
+		}
+		private boolean less(int i, int j) {
+			final double a = intensities[heap[i]];
+			final double b = intensities[heap[j]];
+			return (a < b) || ((a == b) && (age[i] < age[j]));
+		}
+		private void swap(int i, int j) {
+			final int h = heap[i];
+			heap[i] = heap[j];
+			heap[j] = h;
+			final int a = age[i];
+			age[i] = age[j];
+			age[j] = a;
+		}
+		@Override
+		public void add(int index) {
+			if (size == heap.length) {
+				final int newSize = (int)Math.min(Integer.MAX_VALUE, size * 3L / 2 + 1);
+				heap = Arrays.copyOf(heap, newSize);
+				age = Arrays.copyOf(age, newSize);
+			}
+			int i = size++;
+			heap[i] = index;
+			age[i] = nextAge++;
+			while (i > 0) {
+				final int parent = (i - 1) / 2;
+				if (! less(i, parent)) break;
+				swap(i, parent);
+				i = parent;
+			}
+		}
+		@Override
+		public int remove() {
+			final int index = heap[0];
+			size--;
+			heap[0] = heap[size];
+			age[0] = age[size];
+			int i = 0;
+			while (true) {
+				final int left = 2 * i + 1;
+				if (left >= size) break;
+				final int right = left + 1;
+				final int child = ((right < size) && less(right, left)) ? right : left;
+				if (! less(child, i)) break;
+				swap(i, child);
+				i = child;
+			}
+			return index;
+		}
+		@Override
+		public boolean isEmpty() {
+			return size == 0;
+		}
+	}
+
+	/**
+	 * A slab of the image along the last dimension.
+	 */
+	protected static class Slab {
+		final long start;
+		final long end;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		List<Integer> seedIndices = new ArrayList<Integer>();
+		List<List<?>> seedLabelings = new ArrayList<List<?>>();
+		Slab(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+		long [] min(long [] dimensions) {
+			final long [] min = new long [dimensions.length];
+			min[dimensions.length - 1] = start;
+			return min;
+		}
+		long [] max(long [] dimensions) {
+			final long [] max = new long [dimensions.length];
+			for (int d=0; d<dimensions.length; d++)
+				max[d] = dimensions[d] - 1;
+			max[dimensions.length - 1] = end - 1;
+			return max;
+		}
+		/**
+		 * Copy the intensities, collect the seeds and mark pixels that are
+		 * already labeled in the output as blocked.
+		 */
+		<T extends RealType<T>, L extends Comparable<L>> void read(RandomAccess<T> raImage, RandomAccess<LabelingType<L>> raSeeds, RandomAccess<LabelingType<L>> raOutput, long [] dimensions, double [] intensities, int [] labels) {
+			final long [] min = min(dimensions);
+			final long [] max = max(dimensions);
+			final long [] position = min.clone();
+			int index = linearIndex(position, dimensions);
+			do {
+				raImage.setPosition(position);
+				raSeeds.setPosition(position);
+				raOutput.setPosition(position);
+				for (long x=0; x<dimensions[0]; x++, index++) {
+					final double intensity = raImage.get().getRealDouble();
+					intensities[index] = intensity;
+					if (intensity < this.min) this.min = intensity;
+					if (intensity > this.max) this.max = intensity;
+					final List<L> labeling = raSeeds.get().getLabeling();
+					if (! labeling.isEmpty()) {
+						seedIndices.add(index);
+						seedLabelings.add(labeling);
+					} else if (! raOutput.get().getLabeling().isEmpty())
+						labels[index] = BLOCKED;
+					raImage.fwd(0);
+					raSeeds.fwd(0);
+					raOutput.fwd(0);
+				}
+			} while (nextLine(position, min, max));
+		}
+		/**
+		 * Write the labelings of all flooded pixels of the slab.
+		 */
+		<L extends Comparable<L>> void write(RandomAccess<LabelingType<L>> raOutput, long [] dimensions, int [] labels, List<List<L>> labelings) {
+			final long [] min = min(dimensions);
+			final long [] max = max(dimensions);
+			final long [] position = min.clone();
+			int index = linearIndex(position, dimensions);
+			do {
+				raOutput.setPosition(position);
+				for (long x=0; x<dimensions[0]; x++, index++) {
+					final int label = labels[index];
+					if (label > 0)
+						raOutput.get().setLabeling(labelings.get(label - 1));
+					raOutput.fwd(0);
+				}
+			} while (nextLine(position, min, max));
+		}
+	}
+
+	protected Slab [] createSlabs(long [] dimensions) {
+		final int n = dimensions.length;
+		final long size = dimensions[n-1];
+		final long slabSize = Math.max(1, (size + numThreads - 1) / numThreads);
+		final Slab [] slabs = new Slab[(int)((size + slabSize - 1) / slabSize)];
+		for (int i=0; i<slabs.length; i++)
+			slabs[i] = new Slab(i * slabSize, Math.min(size, (i + 1) * slabSize));
+		return slabs;
+	}
+
+	protected interface SlabTask {
+		void run(Slab slab);
+	}
+
+	protected void forEachSlab(final Slab [] slabs, final SlabTask task) {
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread [] threads = SimpleMultiThreading.newThreads(Math.max(1, Math.min(numThreads, slabs.length)));
+		for (int ithread = 0; ithread < threads.length; ++ithread)
+			threads[ithread] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = ai.getAndIncrement(); i < slabs.length; i = ai.getAndIncrement())
+						task.run(slabs[i]);
+				}
+			});
+		SimpleMultiThreading.startAndJoin(threads);
+	}
+
+	private static int linearIndex(long [] position, long [] dimensions) {
+		long index = 0;
+		for (int d=dimensions.length - 1; d>=0; d--)
+			index = index * dimensions[d] + position[d];
+		return (int)index;
+	}
+
+	/**
+	 * Move position to the start of the next line along dimension 0
+	 * within [min, max].
+	 * @return false if position was on the last line
+	 */
+	private static boolean nextLine(long [] position, long [] min, long [] max) {
+		for (int d=1; d<position.length; d++) {
+			if (position[d] < max[d]) {
+				position[d]++;
+				return true;
+			}
+			position[d] = min[d];
+		}
+		return false;
+	}
+
+	@Override
+	public boolean checkInput() {
+		if (seeds == null) {
+			errorMessage = "The seed labeling was not provided. Call \"setSeeds\" to do this";
+			return false;
+		}
+		if (image == null) {
+			errorMessage = "The intensity image was not provided. Call \"setIntensityImage\" to do this";
+			return false;
+		}
+		if (seeds.numDimensions() != image.numDimensions()) {
+			errorMessage = String.format("The dimensionality of the seed labeling (%dD) does not match that of the intensity image (%dD)", seeds.numDimensions(), image.numDimensions());
+			return false;
+		}
+		if ((output != null) && (seeds.numDimensions() != output.numDimensions())) {
+			errorMessage = String.format("The dimensionality of the seed labeling (%dD) does not match that of the output labeling (%dD)", seeds.numDimensions(), output.numDimensions());
+			return false;
+		}
+		for (int d=0; d<image.numDimensions(); d++) {
+			if ((seeds.dimension(d) != image.dimension(d)) || ((output != null) && (output.dimension(d) != image.dimension(d)))) {
+				errorMessage = "The seed labeling, the intensity image and the output labeling must have the same size";
+				return false;
+			}
+		}
+		if (image.size() > Integer.MAX_VALUE) {
+			errorMessage = "The intensity image has more than " + Integer.MAX_VALUE + " pixels";
+			return false;
+		}
+		if (structuringElement != null) {
+			for (int i=0; i< structuringElement.length; i++) {
+				if (structuringElement[i].length != seeds.numDimensions()) {
+					errorMessage = "Some or all of the structuring element offsets do not have the same number of dimensions as the image";
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	@Override
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+	@Override
+	public Labeling<L> getResult() {
+		return output;
+	}
+	@Override
+	public void setNumThreads() {
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+	@Override
+	public void setNumThreads(final int numThreads) {
+		this.numThreads = numThreads;
+	}
+	@Override
+	public int getNumThreads() {
+		return numThreads;
+	}
+}
@@ -0,0 +1,485 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.algorithm.labeling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.labeling.Labeling;
+import net.imglib2.labeling.LabelingType;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.integer.IntType;
+
+/**
+ * Label all connected components of a binary image using union-find.
+ * 
+ * The image is split into slabs along its last dimension. Each slab is
+ * labeled independently in one raster scan, uniting the provisional label
+ * of a pixel with those of its neighbors that precede it in raster order.
+ * Then the components that touch across the seams between the slabs are
+ * merged, and finally every slab writes its resolved labels into the
+ * labeling. Slabs are processed in parallel.
+ * 
+ * The result is the same as that of {@link AllConnectedComponents} for a
+ * symmetric structuring element (such as the one returned by
+ * {@link AllConnectedComponents#getStructuringElement(int)}). For an
+ * asymmetric structuring element, pixels are connected if either one is
+ * reached from the other. Components are named in the raster order of
+ * their first pixel.
+ */
+public class ParallelConnectedComponents {
+	/**
+	 * Label all connected components in the given image using an 8-connected
+	 * structuring element or it's N-dimensional analog.
+	 * @param <T> the type of the labels to apply
+	 * @param labeling Assign labels to this labeling space
+	 * @param img a binary image where true indicates parts of components
+	 * @param names supplies names for the different components as needed
+	 * @throws NoSuchElementException if there are not enough names
+	 */
+	public static <T extends Comparable<T>> void labelAllConnectedComponents(
+			Labeling<T> labeling, RandomAccessibleInterval<BitType> img, Iterator<T> names)
+	throws NoSuchElementException
+	{
+		labelAllConnectedComponents(labeling, img, names,
+				AllConnectedComponents.getStructuringElement(img.numDimensions()));
+	}
+	/**
+	 * Label all connected components in the given image using an arbitrary
+	 * structuring element and all available processors.
+	 * @param <T> the type of the labels to apply
+	 * @param labeling Assign labels to this labeling space 
+	 * @param img a binary image where true indicates parts of components
+	 * @param names supplies names for the different components as needed
+	 * @param structuringElement an array of offsets to a pixel of the
+	 * pixels which are considered connected.
+	 * @throws NoSuchElementException if there are not enough names
+	 */
+	public static <T extends Comparable<T>> void labelAllConnectedComponents(
+			Labeling<T> labeling, RandomAccessibleInterval<BitType> img,
+			Iterator<T> names, long [][] structuringElement)
+	throws NoSuchElementException
+	{
+		labelAllConnectedComponents(labeling, img, names, structuringElement,
+				Runtime.getRuntime().availableProcessors());
+	}
+	/**
+	 * Label all connected components in the given image using an arbitrary
+	 * structuring element.
+	 * @param <T> the type of the labels to apply
+	 * @param labeling Assign labels to this labeling space. The labeling
+	 * of every foreground pixel is overwritten.
+	 * @param img a binary image where true indicates parts of components
+	 * @param names supplies names for the different components as needed
+	 * @param structuringElement an array of offsets to a pixel of the
+	 * pixels which are considered connected.
+	 * @param numThreads the number of threads to use
+	 * @throws NoSuchElementException if there are not enough names
+	 */
+	public static <T extends Comparable<T>> void labelAllConnectedComponents(
+			final Labeling<T> labeling, final RandomAccessibleInterval<BitType> img,
+			final Iterator<T> names, final long [][] structuringElement, final int numThreads)
+	throws NoSuchElementException
+	{
+		final int n = img.numDimensions();
+		if (n == 0) return;
+		final long [] dimensions = new long [n];
+		img.dimensions(dimensions);
+		for (int d=0; d<n; d++)
+			if (dimensions[d] != labeling.dimension(d))
+				throw new IllegalArgumentException("Labeling and image must have the same dimensions");
+		long numPixels = 1;
+		for (long s:dimensions) numPixels *= s;
+		if (numPixels == 0) return;
+
+		final long [][] offsets = getPrecedingOffsets(structuringElement);
+		/*
+		 * The slabs along the last dimension.
+		 */
+		final long size = dimensions[n-1];
+		final int numSlabs = (int)Math.min(size, 4L * numThreads);
+		final long slabSize = (size + numSlabs - 1) / numSlabs;
+		final Slab [] slabs = new Slab[(int)((size + slabSize - 1) / slabSize)];
+		for (int i=0; i<slabs.length; i++)
+			slabs[i] = new Slab(i * slabSize, Math.min(size, (i + 1) * slabSize));
+
+		/*
+		 * Provisional labels, local to each slab
+		 */
+		final ImgFactory<IntType> factory = (numPixels < Integer.MAX_VALUE) ?
+				new ArrayImgFactory<IntType>() : new CellImgFactory<IntType>(64);
+		final Img<IntType> labels = factory.create(dimensions, new IntType());
+
+		/*
+		 * First pass: label every slab.
+		 */
+		final long [] min = new long [n];
+		img.min(min);
+		forEachSlab(slabs, numThreads, new SlabTask() {
+			@Override
+			public void run(Slab slab) {
+				slab.label(img.randomAccess(), min, labels.randomAccess(), dimensions, offsets);
+			}
+		});
+
+		/*
+		 * Merge the components across the seams between slabs.
+		 */
+		int numComponents = 0;
+		for (Slab slab:slabs) {
+			slab.firstComponent = numComponents;
+			if (numComponents + (long)slab.numComponents > Integer.MAX_VALUE)
+				throw new RuntimeException("Too many components in each slab to merge.");
+			numComponents += slab.numComponents;
+		}
+		final UnionFind components = new UnionFind(numComponents);
+		long reach = 0;
+		for (long [] offset:offsets)
+			reach = Math.max(reach, -offset[n-1]);
+		final RandomAccess<IntType> ra = labels.randomAccess();
+		final RandomAccess<IntType> raNeighbor = labels.randomAccess();
+		final long [] position = new long [n];
+		final long [] neighbor = new long [n];
+		for (int i=1; i<slabs.length; i++) {
+			final Slab slab = slabs[i];
+			final long [] seamMin = new long [n];
+			final long [] seamMax = new long [n];
+			for (int d=0; d<n; d++)
+				seamMax[d] = dimensions[d] - 1;
+			seamMin[n-1] = slab.start;
+			seamMax[n-1] = Math.min(slab.start + reach, slab.end) - 1;
+			System.arraycopy(seamMin, 0, position, 0, n);
+			do {
+				ra.setPosition(position);
+				final int label = ra.get().get();
+				if (label == 0) continue;
+				final int component = slab.component(label);
+				for (long [] offset:offsets) {
+					boolean inSeam = true;
+					for (int d=0; d<n; d++) {
+						neighbor[d] = position[d] + offset[d];
+						if ((neighbor[d] < 0) || (neighbor[d] >= dimensions[d])) {
+							inSeam = false;
+							break;
+						}
+					}
+					if ((!inSeam) || (neighbor[n-1] >= slab.start)) continue;
+					raNeighbor.setPosition(neighbor);
+					final int neighborLabel = raNeighbor.get().get();
+					if (neighborLabel != 0)
+						components.union(component, slabs[(int)(neighbor[n-1] / slabSize)].component(neighborLabel));
+				}
+			} while (next(position, seamMin, seamMax));
+		}
+
+		/*
+		 * Name the components in the order of their first pixel.
+		 */
+		final LabelingType<T> type = labeling.randomAccess().get();
+		final List<List<T>> labelings = new ArrayList<List<T>>(numComponents);
+		for (int i=0; i<numComponents; i++) {
+			final int root = components.find(i);
+			if (root == i)
+				labelings.add(type.intern(names.next()));
+			else
+				labelings.add(labelings.get(root));
+		}
+
+		/*
+		 * Second pass: write the labels.
+		 */
+		forEachSlab(slabs, numThreads, new SlabTask() {
+			@Override
+			public void run(Slab slab) {
+				slab.write(labels.randomAccess(), labeling.randomAccess(), dimensions, labelings);
+			}
+		});
+	}
+
+	/**
+	 * A slab of the image along the last dimension, with its provisional
+	 * labels.
+	 */
+	protected static class Slab {
+		final long start;
+		final long end;
+		/**
+		 * The component of each provisional label, counting from 0.
+		 */
+		int [] componentOfLabel;
+		int numComponents;
+		/**
+		 * The index of the slab's first component in the merged components.
+		 */
+		int firstComponent;
+		Slab(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+		int component(int label) {
+			return firstComponent + componentOfLabel[label];
+		}
+		/**
+		 * Label the slab in one raster scan and compute the components of
+		 * the provisional labels.
+		 */
+		void label(RandomAccess<BitType> raImg, long [] imgMin, RandomAccess<IntType> raLabels, long [] dimensions, long [][] offsets) {
+			final int n = dimensions.length;
+			final long [] min = new long [n];
+			final long [] max = new long [n];
+			for (int d=0; d<n; d++)
+				max[d] = dimensions[d] - 1;
+			min[n-1] = start;
+			max[n-1] = end - 1;
+			final long [] position = min.clone();
+			final long [] imgPosition = new long [n];
+			final long [] neighbor = new long [n];
+			final RandomAccess<IntType> raNeighbor = raLabels.copyRandomAccess();
+			/*
+			 * label 0 is the background
+			 */
+			final UnionFind labels = new UnionFind(1);
+			do {
+				for (int d=0; d<n; d++)
+					imgPosition[d] = position[d] + imgMin[d];
+				raImg.setPosition(imgPosition);
+				raLabels.setPosition(position);
+				for (long x=min[0]; x<=max[0]; x++, raImg.fwd(0), raLabels.fwd(0)) {
+					if (! raImg.get().get()) continue;
+					position[0] = x;
+					int label = 0;
+					for (long [] offset:offsets) {
+						boolean inSlab = true;
+						for (int d=0; d<n; d++) {
+							neighbor[d] = position[d] + offset[d];
+							if ((neighbor[d] < min[d]) || (neighbor[d] > max[d])) {
+								inSlab = false;
+								break;
+							}
+						}
+						if (! inSlab) continue;
+						raNeighbor.setPosition(neighbor);
+						final int neighborLabel = raNeighbor.get().get();
+						if (neighborLabel == 0) continue;
+						label = (label == 0) ? neighborLabel : labels.union(label, neighborLabel);
+					}
+					if (label == 0)
+						label = labels.add();
+					raLabels.get().set(label);
+				}
+				position[0] = min[0];
+			} while (nextLine(position, min, max));
+			/*
+			 * Number the components in the order of their first pixel, the
+			 * root of each set is its smallest label.
+			 */
+			componentOfLabel = new int [labels.size()];
+			numComponents = 0;
+			for (int label=1; label<componentOfLabel.length; label++) {
+				final int root = labels.find(label);
+				componentOfLabel[label] = (root == label) ? numComponents++ : componentOfLabel[root];
+			}
+		}
+		/**
+		 * Write the labelings of all pixels of the slab.
+		 */
+		<T extends Comparable<T>> void write(RandomAccess<IntType> raLabels, RandomAccess<LabelingType<T>> raLabeling, long [] dimensions, List<List<T>> labelings) {
+			final int n = dimensions.length;
+			final long [] min = new long [n];
+			final long [] max = new long [n];
+			for (int d=0; d<n; d++)
+				max[d] = dimensions[d] - 1;
+			min[n-1] = start;
+			max[n-1] = end - 1;
+			final long [] position = min.clone();
+			do {
+				raLabels.setPosition(position);
+				raLabeling.setPosition(position);
+				for (long x=min[0]; x<=max[0]; x++, raLabels.fwd(0), raLabeling.fwd(0)) {
+					final int label = raLabels.get().get();
+					if (label != 0)
+						raLabeling.get().setLabeling(labelings.get(component(label)));
+				}
+			} while (nextLine(position, min, max));
+		}
+	}
+
+	/**
+	 * A union-find structure of int elements. The root of each set is its
+	 * smallest element.
+	 */
+	protected static class UnionFind {
+		private int [] parent;
+		private int size;
+		/**
+		 * Create singleton sets of the elements 0 to size-1
+		 */
+		UnionFind(int size) {
+			parent = new int [Math.max(size, 1024)];
+			for (int i=0; i<size; i++)
+				parent[i] = i;
+			this.size = size;
+		}
+		/**
+		 * Add a new singleton set
+		 * @return the new element
+		 */
+		int add() {
+			if (size == parent.length) {
+				if (size == Integer.MAX_VALUE)
+					throw new RuntimeException("Too many provisional labels.");
+				int [] newParent = new int [(int)Math.min(Integer.MAX_VALUE, size * 3L / 2 + 1)];
+				System.arraycopy(parent, 0, newParent, 0, size);
+				parent = newParent;
+			}
+			parent[size] = size;
+			return size++;
+		}
+		int size() {
+			return size;
+		}
+		int find(int i) {
+			int root = i;
+			while (parent[root] != root) root = parent[root];
+			/*
+			 * path compression
+			 */
+			while (parent[i] != root) {
+				final int next = parent[i];
+				parent[i] = root;
+				i = next;
+			}
+			return root;
+		}
+		/**
+		 * Unite the sets of two elements
+		 * @return the root of the united set
+		 */
+		int union(int a, int b) {
+			final int rootA = find(a);
+			final int rootB = find(b);
+			if (rootA < rootB) {
+				parent[rootB] = rootA;
+				return rootA;
+			}
+			parent[rootA] = rootB;
+			return rootB;
+		}
+	}
+
+	protected interface SlabTask {
+		void run(Slab slab);
+	}
+
+	protected static void forEachSlab(final Slab [] slabs, final int numThreads, final SlabTask task) {
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread [] threads = SimpleMultiThreading.newThreads(Math.max(1, Math.min(numThreads, slabs.length)));
+		for (int ithread = 0; ithread < threads.length; ++ithread)
+			threads[ithread] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = ai.getAndIncrement(); i < slabs.length; i = ai.getAndIncrement())
+						task.run(slabs[i]);
+				}
+			});
+		SimpleMultiThreading.startAndJoin(threads);
+	}
+
+	/**
+	 * Get the offsets of the structuring element that point to pixels
+	 * preceding the center in raster order. An offset pointing to a
+	 * following pixel is replaced by its negation.
+	 */
+	protected static long [][] getPrecedingOffsets(long [][] structuringElement) {
+		final List<long []> result = new ArrayList<long []>();
+		A: for (long [] offset:structuringElement) {
+			long [] preceding = offset.clone();
+			int d = offset.length - 1;
+			while ((d >= 0) && (offset[d] == 0)) d--;
+			if (d < 0) continue;
+			if (offset[d] > 0)
+				for (int i=0; i<offset.length; i++)
+					preceding[i] = -offset[i];
+			for (long [] other:result)
+				if (Arrays.equals(other, preceding)) continue A;
+			result.add(preceding);
+		}
+		return result.toArray(new long [result.size()][]);
+	}
+
+	/**
+	 * Move position to the next pixel within [min, max] in raster order.
+	 * @return false if position was the last pixel
+	 */
+	private static boolean next(long [] position, long [] min, long [] max) {
+		for (int d=0; d<position.length; d++) {
+			if (position[d] < max[d]) {
+				position[d]++;
+				return true;
+			}
+			position[d] = min[d];
+		}
+		return false;
+	}
+
+	/**
+	 * Move position to the start of the next line along dimension 0
+	 * within [min, max].
+	 * @return false if position was on the last line
+	 */
+	private static boolean nextLine(long [] position, long [] min, long [] max) {
+		for (int d=1; d<position.length; d++) {
+			if (position[d] < max[d]) {
+				position[d]++;
+				return true;
+			}
+			position[d] = min[d];
+		}
+		return false;
+	}
+}
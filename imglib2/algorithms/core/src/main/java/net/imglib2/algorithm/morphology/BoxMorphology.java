@@ -0,0 +1,321 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package net.imglib2.algorithm.morphology;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imglib2.Interval;
+import net.imglib2.Localizable;
+import net.imglib2.Location;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * Grayscale erosion or dilation with a rectangular structuring element of
+ * radius <code>radius[d]</code> in every dimension. A line structuring
+ * element along an axis is a rectangle with radius 0 in all other dimensions.
+ *
+ * <p>
+ * The rectangle is decomposed into 1-D passes, one for every dimension with a
+ * radius &gt; 0. Every pass computes the minimum (maximum) over a sliding
+ * window with the van Herk/Gil-Werman algorithm (van Herk, "A fast algorithm
+ * for local minimum and maximum filters on rectangular and octagonal
+ * kernels", 1992; Gil and Werman, "Computing 2-D min, median, and max
+ * filters", 1993): the line is divided into blocks of the window size, and
+ * prefix and suffix minima within the blocks are combined, which costs three
+ * comparisons per pixel regardless of the radius.
+ * </p>
+ *
+ * <p>
+ * As in {@link net.imglib2.algorithm.gauss.RecursiveGauss}, the first pass
+ * reads the input in the interval expanded by the radius, so the border
+ * handling is defined by how the input is extended. Intermediate results are
+ * kept in one temporary image of {@link DoubleType}. Lines are distributed
+ * over threads.
+ * </p>
+ *
+ * @param <T> - the {@link RealType} of input and output
+ */
+public class BoxMorphology< T extends RealType< T > > implements MultiThreaded
+{
+	final RandomAccessible< T > input;
+
+	final Interval interval;
+
+	final RandomAccessible< T > output;
+
+	final long[] outputOffset;
+
+	final ImgFactory< DoubleType > factory;
+
+	final int numDimensions;
+
+	final long[] radius;
+
+	final boolean dilate;
+
+	int numThreads;
+
+	/**
+	 * @param radius - the radius of the structuring element in every dimension
+	 * @param dilate - whether to compute the dilation (maximum) instead of the erosion (minimum)
+	 * @param input - the {@link RandomAccessible} to work on (must be defined on the interval expanded by the radius)
+	 * @param interval - the area that is processed
+	 * @param output - the {@link RandomAccessible} where the output will be written to
+	 * @param outputOffset - the offset that corresponds to the first pixel in output {@link RandomAccessible}
+	 * @param factory - the {@link ImgFactory} for the temporary image
+	 */
+	public BoxMorphology( final long[] radius, final boolean dilate, final RandomAccessible< T > input, final Interval interval, final RandomAccessible< T > output, final Localizable outputOffset, final ImgFactory< DoubleType > factory )
+	{
+		this.numDimensions = interval.numDimensions();
+		if ( radius.length != numDimensions )
+			throw new IllegalArgumentException( "Expected " + numDimensions + " radii but got " + radius.length + "." );
+		for ( int d = 0; d < numDimensions; ++d )
+			if ( radius[ d ] < 0 )
+				throw new IllegalArgumentException( "Radius must not be negative." );
+
+		this.radius = radius.clone();
+		this.dilate = dilate;
+		this.input = input;
+		this.interval = interval;
+		this.output = output;
+		this.outputOffset = new long[ numDimensions ];
+		outputOffset.localize( this.outputOffset );
+		this.factory = factory;
+		setNumThreads();
+	}
+
+	public BoxMorphology( final long[] radius, final boolean dilate, final RandomAccessible< T > input, final Interval interval, final RandomAccessible< T > output, final ImgFactory< DoubleType > factory )
+	{
+		this( radius, dilate, input, interval, output, new Location( interval.numDimensions() ), factory );
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/**
+	 * Compute the minimum over all windows of size <code>2 * r + 1</code> of
+	 * <code>in</code>, where <code>out[ i ] = min( in[ i ], ..., in[ i + 2 * r ] )</code>.
+	 *
+	 * @param in - input line of length <code>size + 2 * r</code>
+	 * @param out - output line of length at least <code>size</code>
+	 * @param g - temporary array of the same length as <code>in</code>
+	 * @param h - temporary array of the same length as <code>in</code>
+	 */
+	public static void minimum( final double[] in, final double[] out, final double[] g, final double[] h, final int size, final int r )
+	{
+		final int w = 2 * r + 1;
+		final int length = size + 2 * r;
+
+		// prefix minima within the blocks
+		for ( int i = 0; i < length; ++i )
+			g[ i ] = i % w == 0 ? in[ i ] : Math.min( g[ i - 1 ], in[ i ] );
+
+		// suffix minima within the blocks
+		for ( int i = length - 1; i >= 0; --i )
+			h[ i ] = ( i % w == w - 1 || i == length - 1 ) ? in[ i ] : Math.min( h[ i + 1 ], in[ i ] );
+
+		// every window covers the end of one block and the start of the next
+		for ( int i = 0; i < size; ++i )
+			out[ i ] = Math.min( h[ i ], g[ i + 2 * r ] );
+	}
+
+	public void call()
+	{
+		// dimensions with a radius > 0, in the order they are processed
+		int numPasses = 0;
+		final int[] passes = new int[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			if ( radius[ d ] > 0 )
+				passes[ numPasses++ ] = d;
+		if ( numPasses == 0 )
+		{
+			passes[ 0 ] = 0;
+			numPasses = 1;
+		}
+
+		// The temporary image covers the interval, extended by the radius in
+		// all dimensions except the first processed one. tmpOffset is the
+		// position of the interval min in the temporary image.
+		final long[] tmpDimensions = new long[ numDimensions ];
+		final long[] tmpOffset = new long[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			tmpOffset[ d ] = d == passes[ 0 ] ? 0 : radius[ d ];
+			tmpDimensions[ d ] = interval.dimension( d ) + 2 * tmpOffset[ d ];
+		}
+		final Img< DoubleType > tmp = numPasses > 1 ? factory.create( tmpDimensions, new DoubleType() ) : null;
+
+		final boolean[] done = new boolean[ numDimensions ];
+		for ( int p = 0; p < numPasses; ++p )
+		{
+			final int dim = passes[ p ];
+			final int r = ( int ) radius[ dim ];
+			final boolean fromInput = p == 0;
+			final boolean toOutput = p == numPasses - 1;
+			final double sign = dilate ? -1 : 1;
+
+			// lines along dim: already processed dimensions only in the
+			// center, the others with padding
+			final long[] lineMin = new long[ numDimensions ];
+			final long[] lineDimensions = new long[ numDimensions ];
+			long numLines = 1;
+			for ( int e = 0; e < numDimensions; ++e )
+			{
+				if ( e == dim )
+				{
+					lineMin[ e ] = 0;
+					lineDimensions[ e ] = 1;
+				}
+				else if ( done[ e ] )
+				{
+					lineMin[ e ] = tmpOffset[ e ];
+					lineDimensions[ e ] = interval.dimension( e );
+				}
+				else
+				{
+					lineMin[ e ] = 0;
+					lineDimensions[ e ] = tmpDimensions[ e ];
+				}
+				numLines *= lineDimensions[ e ];
+			}
+			done[ dim ] = true;
+			final long numLinesTotal = numLines;
+			final long size = interval.dimension( dim );
+			if ( size + 2 * r > Integer.MAX_VALUE )
+				throw new RuntimeException( "Lines longer than Integer.MAX_VALUE are not supported." );
+
+			final AtomicLong ai = new AtomicLong( 0 );
+			final Thread[] threads = SimpleMultiThreading.newThreads( ( int ) Math.max( 1, Math.min( numThreads, numLinesTotal ) ) );
+			for ( int ithread = 0; ithread < threads.length; ++ithread )
+				threads[ ithread ] = new Thread( new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						final RandomAccess< T > in = fromInput ? input.randomAccess() : null;
+						final RandomAccess< T > out = toOutput ? output.randomAccess() : null;
+						final RandomAccess< DoubleType > tmpAccess = tmp == null ? null : tmp.randomAccess();
+
+						final int length = ( int ) size + 2 * r;
+						final double[] lineIn = new double[ length ];
+						final double[] lineOut = new double[ ( int ) size ];
+						final double[] g = new double[ length ];
+						final double[] h = new double[ length ];
+						final long[] position = new long[ numDimensions ];
+
+						for ( long l = ai.getAndIncrement(); l < numLinesTotal; l = ai.getAndIncrement() )
+						{
+							IntervalIndexer.indexToPositionWithOffset( l, lineDimensions, lineMin, position );
+
+							// read the extended line, negated for dilation
+							if ( fromInput )
+							{
+								for ( int e = 0; e < numDimensions; ++e )
+									in.setPosition( interval.min( e ) + position[ e ] - tmpOffset[ e ], e );
+								in.move( -r, dim );
+								for ( int i = 0; i < length; ++i )
+								{
+									lineIn[ i ] = sign * in.get().getRealDouble();
+									in.fwd( dim );
+								}
+							}
+							else
+							{
+								tmpAccess.setPosition( position );
+								for ( int i = 0; i < length; ++i )
+								{
+									lineIn[ i ] = tmpAccess.get().get();
+									tmpAccess.fwd( dim );
+								}
+							}
+
+							minimum( lineIn, lineOut, g, h, ( int ) size, r );
+
+							// write the center of the line
+							if ( toOutput )
+							{
+								for ( int e = 0; e < numDimensions; ++e )
+									out.setPosition( outputOffset[ e ] + position[ e ] - tmpOffset[ e ], e );
+								out.setPosition( outputOffset[ dim ], dim );
+								for ( int i = 0; i < size; ++i )
+								{
+									out.get().setReal( sign * lineOut[ i ] );
+									out.fwd( dim );
+								}
+							}
+							else
+							{
+								tmpAccess.setPosition( position );
+								tmpAccess.setPosition( tmpOffset[ dim ], dim );
+								for ( int i = 0; i < size; ++i )
+								{
+									tmpAccess.get().set( lineOut[ i ] );
+									tmpAccess.fwd( dim );
+								}
+							}
+						}
+					}
+				} );
+
+			SimpleMultiThreading.startAndJoin( threads );
+		}
+	}
+}
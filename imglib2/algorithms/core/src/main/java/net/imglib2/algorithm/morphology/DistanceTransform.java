@@ -0,0 +1,393 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package net.imglib2.algorithm.morphology;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.meta.CalibratedSpace;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import net.imglib2.type.BooleanType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * Exact Euclidean distance transform of a binary image. Every pixel of the
+ * target is set to the distance to the nearest pixel that is
+ * <code>true</code> in the source (0 for these pixels, infinity if there are
+ * none).
+ *
+ * <p>
+ * The squared distance is separable (Saito and Toriwaki, "New algorithms for
+ * Euclidean distance transformation of an n-dimensional digitized picture
+ * with applications", 1994). The first pass computes 1-D distances along
+ * dimension 0 by a forward and a backward sweep, every further pass computes
+ * the lower envelope of parabolas along one dimension (Felzenszwalb and
+ * Huttenlocher, "Distance transforms of sampled functions", 2004). All passes
+ * are linear in the number of pixels. The squared distances of all but the
+ * last pass are kept in a temporary {@link DoubleType} image, such that the
+ * target only receives the final distances and may be of any
+ * {@link RealType}, e.g., an integer type. Lines are distributed over
+ * threads.
+ * </p>
+ *
+ * <p>
+ * Anisotropic pixels are supported by a voxel size per dimension, which can
+ * be taken from the calibration of a {@link CalibratedSpace}.
+ * </p>
+ *
+ * @param <B> - the {@link BooleanType} of the source
+ * @param <T> - the {@link RealType} of the target
+ */
+public class DistanceTransform< B extends BooleanType< B >, T extends RealType< T > > implements MultiThreaded
+{
+	final RandomAccessibleInterval< B > source;
+
+	final RandomAccessibleInterval< T > target;
+
+	final int numDimensions;
+
+	final double[] voxelSize;
+
+	int numThreads;
+
+	/**
+	 * @param source - the binary image, <code>true</code> pixels have distance 0
+	 * @param target - the image where the distances will be written to, must have the same dimensions as the source
+	 * @param voxelSize - the size of a pixel in every dimension
+	 */
+	public DistanceTransform( final RandomAccessibleInterval< B > source, final RandomAccessibleInterval< T > target, final double[] voxelSize )
+	{
+		this.numDimensions = source.numDimensions();
+		if ( target.numDimensions() != numDimensions )
+			throw new IllegalArgumentException( "Source and target must have the same number of dimensions." );
+		if ( voxelSize.length != numDimensions )
+			throw new IllegalArgumentException( "Expected " + numDimensions + " voxel sizes but got " + voxelSize.length + "." );
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			if ( source.dimension( d ) != target.dimension( d ) )
+				throw new IllegalArgumentException( "Source and target must have the same dimensions." );
+			if ( !( voxelSize[ d ] > 0 ) )
+				throw new IllegalArgumentException( "Voxel size must be positive." );
+		}
+
+		this.source = source;
+		this.target = target;
+		this.voxelSize = voxelSize.clone();
+		setNumThreads();
+	}
+
+	/**
+	 * Distance transform with isotropic pixels of size 1.
+	 */
+	public DistanceTransform( final RandomAccessibleInterval< B > source, final RandomAccessibleInterval< T > target )
+	{
+		this( source, target, isotropic( source.numDimensions() ) );
+	}
+
+	/**
+	 * Distance transform with the voxel size given by the calibration of
+	 * <code>calibration</code>.
+	 */
+	public DistanceTransform( final RandomAccessibleInterval< B > source, final RandomAccessibleInterval< T > target, final CalibratedSpace calibration )
+	{
+		this( source, target, voxelSize( calibration ) );
+	}
+
+	public static < B extends BooleanType< B >, T extends RealType< T > > void compute( final RandomAccessibleInterval< B > source, final RandomAccessibleInterval< T > target, final double[] voxelSize )
+	{
+		new DistanceTransform< B, T >( source, target, voxelSize ).call();
+	}
+
+	public static < B extends BooleanType< B >, T extends RealType< T > > void compute( final RandomAccessibleInterval< B > source, final RandomAccessibleInterval< T > target )
+	{
+		new DistanceTransform< B, T >( source, target ).call();
+	}
+
+	/**
+	 * Create a {@link FloatType} image with the distance transform of source.
+	 */
+	public static < B extends BooleanType< B > > Img< FloatType > compute( final RandomAccessibleInterval< B > source, final double[] voxelSize, final ImgFactory< FloatType > factory )
+	{
+		final Img< FloatType > target = factory.create( source, new FloatType() );
+		compute( source, target, voxelSize );
+		return target;
+	}
+
+	/**
+	 * Get the voxel size from the calibration of a {@link CalibratedSpace}.
+	 * Dimensions without a valid (positive) calibration have size 1.
+	 */
+	public static double[] voxelSize( final CalibratedSpace calibration )
+	{
+		final double[] voxelSize = new double[ calibration.numDimensions() ];
+		for ( int d = 0; d < voxelSize.length; ++d )
+		{
+			final double c = calibration.calibration( d );
+			voxelSize[ d ] = c > 0 && !Double.isInfinite( c ) ? c : 1;
+		}
+		return voxelSize;
+	}
+
+	private static double[] isotropic( final int numDimensions )
+	{
+		final double[] voxelSize = new double[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			voxelSize[ d ] = 1;
+		return voxelSize;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/**
+	 * Squared 1-D distance to the nearest <code>true</code> pixel of a binary
+	 * line.
+	 *
+	 * @param in - the binary line
+	 * @param out - the squared distances
+	 * @param size - length of the line
+	 * @param w - voxel size
+	 */
+	public static void distanceBinary( final boolean[] in, final double[] out, final int size, final double w )
+	{
+		// distance to the nearest true pixel on the left, in pixels
+		double last = Double.POSITIVE_INFINITY;
+		for ( int i = 0; i < size; ++i )
+		{
+			last = in[ i ] ? 0 : last + 1;
+			out[ i ] = last;
+		}
+		// ... and on the right
+		last = Double.POSITIVE_INFINITY;
+		for ( int i = size - 1; i >= 0; --i )
+		{
+			last = in[ i ] ? 0 : last + 1;
+			final double distance = Math.min( out[ i ], last ) * w;
+			out[ i ] = distance * distance;
+		}
+	}
+
+	/**
+	 * Lower envelope of the parabolas <code>w^2 (x - q)^2 + f(q)</code>.
+	 * Infinite values of <code>f</code> are skipped.
+	 *
+	 * @param f - the squared distances of the previous passes
+	 * @param out - the squared distances including this pass
+	 * @param size - length of the line
+	 * @param w - voxel size
+	 * @param v - temporary array of length <code>size</code> for the parabola locations
+	 * @param z - temporary array of length <code>size + 1</code> for the envelope boundaries
+	 */
+	public static void distance( final double[] f, final double[] out, final int size, final double w, final int[] v, final double[] z )
+	{
+		final double w2 = w * w;
+		int k = -1;
+		for ( int q = 0; q < size; ++q )
+		{
+			if ( Double.isInfinite( f[ q ] ) )
+				continue;
+			if ( k < 0 )
+			{
+				k = 0;
+				v[ 0 ] = q;
+				z[ 0 ] = Double.NEGATIVE_INFINITY;
+				z[ 1 ] = Double.POSITIVE_INFINITY;
+				continue;
+			}
+			int p = v[ k ];
+			double s = ( ( f[ q ] + w2 * q * q ) - ( f[ p ] + w2 * p * p ) ) / ( 2 * w2 * ( q - p ) );
+			while ( s <= z[ k ] )
+			{
+				// z[ 0 ] is -infinity, so the first parabola is never removed
+				p = v[ --k ];
+				s = ( ( f[ q ] + w2 * q * q ) - ( f[ p ] + w2 * p * p ) ) / ( 2 * w2 * ( q - p ) );
+			}
+			++k;
+			v[ k ] = q;
+			z[ k ] = s;
+			z[ k + 1 ] = Double.POSITIVE_INFINITY;
+		}
+
+		if ( k < 0 )
+		{
+			for ( int x = 0; x < size; ++x )
+				out[ x ] = Double.POSITIVE_INFINITY;
+			return;
+		}
+
+		for ( int x = 0, j = 0; x < size; ++x )
+		{
+			while ( z[ j + 1 ] < x )
+				++j;
+			final double dx = x - v[ j ];
+			out[ x ] = w2 * dx * dx + f[ v[ j ] ];
+		}
+	}
+
+	/**
+	 * Create the image for the squared distances of the intermediate passes.
+	 */
+	private Img< DoubleType > createTmp()
+	{
+		long size = 1;
+		for ( int d = 0; d < numDimensions; ++d )
+			size *= target.dimension( d );
+		final ImgFactory< DoubleType > factory = size <= Integer.MAX_VALUE ? new ArrayImgFactory< DoubleType >() : new CellImgFactory< DoubleType >();
+		return factory.create( target, new DoubleType() );
+	}
+
+	public void call()
+	{
+		final Img< DoubleType > tmp = numDimensions > 1 ? createTmp() : null;
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			final int dim = d;
+			final boolean fromSource = d == 0;
+			final boolean last = d == numDimensions - 1;
+			final double w = voxelSize[ d ];
+
+			final long[] lineDimensions = new long[ numDimensions ];
+			long numLines = 1;
+			for ( int e = 0; e < numDimensions; ++e )
+			{
+				lineDimensions[ e ] = e == dim ? 1 : target.dimension( e );
+				numLines *= lineDimensions[ e ];
+			}
+			final long numLinesTotal = numLines;
+			final long size = target.dimension( dim );
+			if ( size > Integer.MAX_VALUE - 1 )
+				throw new RuntimeException( "Lines longer than Integer.MAX_VALUE are not supported." );
+
+			final AtomicLong ai = new AtomicLong( 0 );
+			final Thread[] threads = SimpleMultiThreading.newThreads( ( int ) Math.max( 1, Math.min( numThreads, numLinesTotal ) ) );
+			for ( int ithread = 0; ithread < threads.length; ++ithread )
+				threads[ ithread ] = new Thread( new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						final RandomAccess< B > in = fromSource ? source.randomAccess() : null;
+						final RandomAccess< DoubleType > squared = tmp != null ? tmp.randomAccess() : null;
+						final RandomAccess< T > out = last ? target.randomAccess() : null;
+
+						final int length = ( int ) size;
+						final boolean[] binaryLine = fromSource ? new boolean[ length ] : null;
+						final double[] lineIn = new double[ length ];
+						final double[] lineOut = new double[ length ];
+						final int[] v = new int[ length ];
+						final double[] z = new double[ length + 1 ];
+						final long[] position = new long[ numDimensions ];
+
+						for ( long l = ai.getAndIncrement(); l < numLinesTotal; l = ai.getAndIncrement() )
+						{
+							IntervalIndexer.indexToPosition( l, lineDimensions, position );
+							if ( squared != null )
+								squared.setPosition( position );
+
+							if ( fromSource )
+							{
+								for ( int e = 0; e < numDimensions; ++e )
+									in.setPosition( source.min( e ) + position[ e ], e );
+								for ( int i = 0; i < length; ++i )
+								{
+									binaryLine[ i ] = in.get().get();
+									in.fwd( dim );
+								}
+								distanceBinary( binaryLine, lineOut, length, w );
+							}
+							else
+							{
+								for ( int i = 0; i < length; ++i )
+								{
+									lineIn[ i ] = squared.get().get();
+									squared.fwd( dim );
+								}
+								squared.setPosition( 0, dim );
+								distance( lineIn, lineOut, length, w, v, z );
+							}
+
+							if ( last )
+							{
+								for ( int e = 0; e < numDimensions; ++e )
+									out.setPosition( target.min( e ) + position[ e ], e );
+								for ( int i = 0; i < length; ++i )
+								{
+									out.get().setReal( Math.sqrt( lineOut[ i ] ) );
+									out.fwd( dim );
+								}
+							}
+							else
+							{
+								for ( int i = 0; i < length; ++i )
+								{
+									squared.get().set( lineOut[ i ] );
+									squared.fwd( dim );
+								}
+							}
+						}
+					}
+				} );
+
+			SimpleMultiThreading.startAndJoin( threads );
+		}
+	}
+}
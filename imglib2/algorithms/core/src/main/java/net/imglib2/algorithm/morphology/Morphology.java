@@ -0,0 +1,150 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package net.imglib2.algorithm.morphology;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessible;
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.outofbounds.OutOfBoundsFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
+
+/**
+ * Grayscale morphology with rectangular structuring elements, computed by
+ * {@link BoxMorphology}. All operations create a new {@link Img} with the
+ * factory of the source and handle the border as defined by an
+ * {@link OutOfBoundsFactory}.
+ */
+public class Morphology
+{
+	public static < T extends RealType< T > > Img< T > erode( final Img< T > source, final long[] radius, final OutOfBoundsFactory< T, ? super Img< T > > outOfBounds, final int numThreads )
+	{
+		return filter( source, radius, false, outOfBounds, numThreads );
+	}
+
+	public static < T extends RealType< T > > Img< T > dilate( final Img< T > source, final long[] radius, final OutOfBoundsFactory< T, ? super Img< T > > outOfBounds, final int numThreads )
+	{
+		return filter( source, radius, true, outOfBounds, numThreads );
+	}
+
+	/**
+	 * Dilation of the erosion.
+	 */
+	public static < T extends RealType< T > > Img< T > open( final Img< T > source, final long[] radius, final OutOfBoundsFactory< T, ? super Img< T > > outOfBounds, final int numThreads )
+	{
+		final Img< T > eroded = erode( source, radius, outOfBounds, numThreads );
+		filter( eroded, radius, true, outOfBounds, numThreads, eroded );
+		return eroded;
+	}
+
+	/**
+	 * Erosion of the dilation.
+	 */
+	public static < T extends RealType< T > > Img< T > close( final Img< T > source, final long[] radius, final OutOfBoundsFactory< T, ? super Img< T > > outOfBounds, final int numThreads )
+	{
+		final Img< T > dilated = dilate( source, radius, outOfBounds, numThreads );
+		filter( dilated, radius, false, outOfBounds, numThreads, dilated );
+		return dilated;
+	}
+
+	/**
+	 * White top-hat, the source minus its opening.
+	 */
+	public static < T extends RealType< T > > Img< T > topHat( final Img< T > source, final long[] radius, final OutOfBoundsFactory< T, ? super Img< T > > outOfBounds, final int numThreads )
+	{
+		final Img< T > opened = open( source, radius, outOfBounds, numThreads );
+		final Cursor< T > s = source.cursor();
+		final Cursor< T > o = opened.cursor();
+		while ( o.hasNext() )
+		{
+			final T t = o.next();
+			t.setReal( s.next().getRealDouble() - t.getRealDouble() );
+		}
+		return opened;
+	}
+
+	/**
+	 * Black top-hat, the closing minus the source.
+	 */
+	public static < T extends RealType< T > > Img< T > blackHat( final Img< T > source, final long[] radius, final OutOfBoundsFactory< T, ? super Img< T > > outOfBounds, final int numThreads )
+	{
+		final Img< T > closed = close( source, radius, outOfBounds, numThreads );
+		final Cursor< T > s = source.cursor();
+		final Cursor< T > c = closed.cursor();
+		while ( c.hasNext() )
+		{
+			final T t = c.next();
+			t.setReal( t.getRealDouble() - s.next().getRealDouble() );
+		}
+		return closed;
+	}
+
+	private static < T extends RealType< T > > Img< T > filter( final Img< T > source, final long[] radius, final boolean dilate, final OutOfBoundsFactory< T, ? super Img< T > > outOfBounds, final int numThreads )
+	{
+		final Img< T > target = source.factory().create( source, source.firstElement().createVariable() );
+		filter( source, radius, dilate, outOfBounds, numThreads, target );
+		return target;
+	}
+
+	/**
+	 * Filter source into target, which may be the same as source.
+	 */
+	private static < T extends RealType< T > > void filter( final Img< T > source, final long[] radius, final boolean dilate, final OutOfBoundsFactory< T, ? super Img< T > > outOfBounds, final int numThreads, final Img< T > target )
+	{
+		final RandomAccessible< T > extended = Views.extend( source, outOfBounds );
+		final BoxMorphology< T > morphology = new BoxMorphology< T >( radius, dilate, extended, source, target, tmpFactory( source ) );
+		morphology.setNumThreads( numThreads );
+		morphology.call();
+	}
+
+	private static ImgFactory< DoubleType > tmpFactory( final Img< ? > source )
+	{
+		try
+		{
+			return source.factory().imgFactory( new DoubleType() );
+		}
+		catch ( final IncompatibleTypeException e )
+		{
+			return new CellImgFactory< DoubleType >();
+		}
+	}
+}
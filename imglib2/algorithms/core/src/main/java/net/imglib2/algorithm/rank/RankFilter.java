@@ -0,0 +1,547 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package net.imglib2.algorithm.rank;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imglib2.Interval;
+import net.imglib2.Localizable;
+import net.imglib2.Location;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * Rank filter (median, minimum, maximum, percentile) over an n-dimensional box
+ * window of radius <code>radius[d]</code> in every dimension.
+ *
+ * <p>
+ * The window slides along dimension 0. When it advances by one pixel, only
+ * the (n-1)-dimensional face that enters the window is added and the face
+ * that leaves the window is removed. Each line is processed in blocks: the
+ * faces needed for a block are read into a buffer once, so every input pixel
+ * is read once per block.
+ * </p>
+ *
+ * <p>
+ * For {@link IntegerType}s with at most {@link #MAX_HISTOGRAM_BINS} values,
+ * the window is a histogram (Huang, Yang and Tang, "A fast two-dimensional
+ * median filtering algorithm", 1979). The requested rank is tracked
+ * incrementally, it only moves by a few bins when the window advances. For
+ * all other types, the values of a block are replaced by their ranks among
+ * the distinct values of the block, and the window is a Fenwick tree over
+ * these ranks. Adding or removing a value and finding the requested rank
+ * then take O(log m) for m distinct values in the block, so the cost per
+ * pixel is O(face size &middot; log m) (plus sorting the block once).
+ * </p>
+ *
+ * <p>
+ * Lines are distributed over threads. The input is read in the interval
+ * expanded by the radius, so it has to be extended appropriately (e.g., by
+ * {@link net.imglib2.view.Views#extendMirrorSingle}). Input and output must
+ * not be the same.
+ * </p>
+ *
+ * @param <T> - the {@link RealType} of the input
+ * @param <U> - the {@link RealType} of the output
+ */
+public class RankFilter< T extends RealType< T >, U extends RealType< U > > implements MultiThreaded
+{
+	/**
+	 * Maximum number of distinct values of an {@link IntegerType} for which a
+	 * histogram window is used.
+	 */
+	public static final int MAX_HISTOGRAM_BINS = 1 << 16;
+
+	/**
+	 * Number of input values that are buffered per thread, unless a block
+	 * this small would be shorter than the window.
+	 */
+	public static final int MAX_BLOCK_VALUES = 1 << 18;
+
+	final RandomAccessible< T > input;
+
+	final Interval interval;
+
+	final RandomAccessible< U > output;
+
+	final long[] outputOffset;
+
+	final int numDimensions;
+
+	final long[] radius;
+
+	final double rank;
+
+	/**
+	 * number of pixels in a face of the window orthogonal to dimension 0.
+	 */
+	final int faceSize;
+
+	/**
+	 * number of faces in the window.
+	 */
+	final int windowWidth;
+
+	/**
+	 * index of the requested rank in the sorted window.
+	 */
+	final int rankIndex;
+
+	/**
+	 * number of output pixels along dimension 0 that are computed from one
+	 * buffer of input values.
+	 */
+	int blockLength;
+
+	int numThreads;
+
+	/**
+	 * @param radius - the radius of the box window in every dimension
+	 * @param rank - the rank to compute, as a fraction of the window size between 0 (minimum) and 1 (maximum)
+	 * @param input - the {@link RandomAccessible} to work on (must be defined on the interval expanded by the radius)
+	 * @param interval - the area that is filtered
+	 * @param output - the {@link RandomAccessible} where the output will be written to
+	 * @param outputOffset - the offset that corresponds to the first pixel in output {@link RandomAccessible}
+	 */
+	public RankFilter( final long[] radius, final double rank, final RandomAccessible< T > input, final Interval interval, final RandomAccessible< U > output, final Localizable outputOffset )
+	{
+		this.numDimensions = interval.numDimensions();
+		if ( radius.length != numDimensions )
+			throw new IllegalArgumentException( "Expected " + numDimensions + " radii but got " + radius.length + "." );
+		if ( !( rank >= 0 && rank <= 1 ) )
+			throw new IllegalArgumentException( "Rank must be between 0 and 1 but is " + rank + "." );
+
+		long face = 1;
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			if ( radius[ d ] < 0 )
+				throw new IllegalArgumentException( "Radius must not be negative." );
+			if ( d > 0 )
+				face *= 2 * radius[ d ] + 1;
+		}
+		final long width = 2 * radius[ 0 ] + 1;
+		if ( face * width > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "Windows with more than Integer.MAX_VALUE pixels are not supported." );
+
+		this.radius = radius.clone();
+		this.rank = rank;
+		this.input = input;
+		this.interval = interval;
+		this.output = output;
+		this.outputOffset = new long[ numDimensions ];
+		outputOffset.localize( this.outputOffset );
+		faceSize = ( int ) face;
+		windowWidth = ( int ) width;
+		rankIndex = ( int ) Math.round( rank * ( faceSize * windowWidth - 1 ) );
+		setBlockLength( MAX_BLOCK_VALUES );
+		setNumThreads();
+	}
+
+	public static < T extends RealType< T >, U extends RealType< U > > void rank( final long[] radius, final double rank, final RandomAccessible< T > input, final Interval interval, final RandomAccessible< U > output, final Localizable outputOffset )
+	{
+		new RankFilter< T, U >( radius, rank, input, interval, output, outputOffset ).call();
+	}
+
+	public static < T extends RealType< T >, U extends RealType< U > > void rank( final long[] radius, final double rank, final RandomAccessible< T > input, final Interval interval, final RandomAccessible< U > output )
+	{
+		rank( radius, rank, input, interval, output, new Location( interval.numDimensions() ) );
+	}
+
+	public static < T extends RealType< T >, U extends RealType< U > > void median( final long[] radius, final RandomAccessible< T > input, final Interval interval, final RandomAccessible< U > output )
+	{
+		rank( radius, 0.5, input, interval, output );
+	}
+
+	public static < T extends RealType< T >, U extends RealType< U > > void min( final long[] radius, final RandomAccessible< T > input, final Interval interval, final RandomAccessible< U > output )
+	{
+		rank( radius, 0, input, interval, output );
+	}
+
+	public static < T extends RealType< T >, U extends RealType< U > > void max( final long[] radius, final RandomAccessible< T > input, final Interval interval, final RandomAccessible< U > output )
+	{
+		rank( radius, 1, input, interval, output );
+	}
+
+	/**
+	 * @param percentile - the percentile to compute, between 0 and 100
+	 */
+	public static < T extends RealType< T >, U extends RealType< U > > void percentile( final long[] radius, final double percentile, final RandomAccessible< T > input, final Interval interval, final RandomAccessible< U > output )
+	{
+		rank( radius, percentile / 100.0, input, interval, output );
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/**
+	 * Choose the length of the blocks such that about <em>maxValues</em>
+	 * input values are buffered. Blocks are at least as long as the window,
+	 * to bound the cost of filling the window at the start of every block.
+	 */
+	void setBlockLength( final int maxValues )
+	{
+		long length = Math.max( windowWidth, maxValues / faceSize - ( windowWidth - 1 ) );
+		length = Math.min( length, ( Integer.MAX_VALUE - 8 ) / faceSize - ( windowWidth - 1 ) );
+		blockLength = ( int ) Math.max( 1, Math.min( length, interval.dimension( 0 ) ) );
+	}
+
+	/**
+	 * @return whether a histogram window is used for the given input type.
+	 */
+	public static boolean usesHistogram( final RealType< ? > type )
+	{
+		return type instanceof IntegerType && type.getMaxValue() - type.getMinValue() < MAX_HISTOGRAM_BINS;
+	}
+
+	public void call()
+	{
+		// lines along dimension 0
+		final long[] lineDimensions = new long[ numDimensions ];
+		long numLines = 1;
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			lineDimensions[ d ] = d == 0 ? 1 : interval.dimension( d );
+			numLines *= lineDimensions[ d ];
+		}
+		final long numLinesTotal = numLines;
+		final long size = interval.dimension( 0 );
+
+		final T type = input.randomAccess().get();
+		final boolean histogram = usesHistogram( type );
+		final double minValue = type.getMinValue();
+		final int numBins = histogram ? ( int ) ( type.getMaxValue() - minValue ) + 1 : 0;
+		final int bufferSize = ( int ) ( Math.min( blockLength, size ) + windowWidth - 1 ) * faceSize;
+
+		final AtomicLong ai = new AtomicLong( 0 );
+		final Thread[] threads = SimpleMultiThreading.newThreads( ( int ) Math.max( 1, Math.min( numThreads, numLinesTotal ) ) );
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+			threads[ ithread ] = new Thread( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final RandomAccess< T > in = input.randomAccess();
+					final RandomAccess< U > out = output.randomAccess();
+					final Window window = histogram ? new HistogramWindow( numBins, minValue, rankIndex ) : new RankTreeWindow( bufferSize, rankIndex );
+					final double[] values = new double[ bufferSize ];
+					final long[] position = new long[ numDimensions ];
+					final long[] counter = new long[ numDimensions ];
+
+					for ( long l = ai.getAndIncrement(); l < numLinesTotal; l = ai.getAndIncrement() )
+					{
+						IntervalIndexer.indexToPosition( l, lineDimensions, position );
+						for ( int d = 0; d < numDimensions; ++d )
+						{
+							in.setPosition( interval.min( d ) + position[ d ] - radius[ d ], d );
+							out.setPosition( outputOffset[ d ] + position[ d ], d );
+						}
+
+						for ( long x0 = 0; x0 < size; x0 += blockLength )
+						{
+							// read all faces of the block
+							final int length = ( int ) Math.min( blockLength, size - x0 );
+							final int numFaces = length + windowWidth - 1;
+							for ( int f = 0; f < numFaces; ++f )
+								readFace( in, values, f * faceSize, counter );
+							in.move( -( windowWidth - 1 ), 0 );
+							window.setValues( values, numFaces * faceSize );
+
+							// fill the window except for the last face
+							window.clear();
+							for ( int f = 0; f < windowWidth - 1; ++f )
+								window.add( f * faceSize, faceSize );
+
+							for ( int x = 0; x < length; ++x )
+							{
+								window.add( ( x + windowWidth - 1 ) * faceSize, faceSize );
+								out.get().setReal( window.get() );
+								out.fwd( 0 );
+								window.remove( x * faceSize, faceSize );
+							}
+						}
+					}
+				}
+			} );
+		SimpleMultiThreading.startAndJoin( threads );
+	}
+
+	/**
+	 * Read the face of the window at the current position of <code>in</code>
+	 * into <code>values</code>, starting at <code>offset</code>.
+	 * <code>in</code> is positioned at the minimum of the face in dimensions
+	 * 1...n-1 and is moved by one in dimension 0 afterwards.
+	 */
+	private void readFace( final RandomAccess< T > in, final double[] values, final int offset, final long[] counter )
+	{
+		Arrays.fill( counter, 0 );
+		for ( int i = 0; i < faceSize; ++i )
+		{
+			values[ offset + i ] = in.get().getRealDouble();
+			for ( int d = 1; d < numDimensions; ++d )
+			{
+				if ( counter[ d ] < 2 * radius[ d ] )
+				{
+					++counter[ d ];
+					in.fwd( d );
+					break;
+				}
+				counter[ d ] = 0;
+				in.move( -2 * radius[ d ], d );
+			}
+		}
+		in.fwd( 0 );
+	}
+
+	/**
+	 * The values in the current window. Values are added and removed by their
+	 * index in the buffer that was passed to {@link #setValues(double[], int)}.
+	 */
+	static abstract class Window
+	{
+		/**
+		 * Set the buffer of values of the current block. The window has to
+		 * be cleared afterwards.
+		 */
+		abstract void setValues( final double[] values, final int numValues );
+
+		abstract void clear();
+
+		abstract void add( final int offset, final int length );
+
+		abstract void remove( final int offset, final int length );
+
+		/**
+		 * @return the value at the requested rank.
+		 */
+		abstract double get();
+	}
+
+	/**
+	 * Histogram of integer values. <code>current</code> is the bin that
+	 * contains the requested rank and <code>below</code> is the number of
+	 * values in bins below <code>current</code>.
+	 */
+	static final class HistogramWindow extends Window
+	{
+		final int[] histogram;
+
+		final double minValue;
+
+		final int rankIndex;
+
+		double[] values;
+
+		int current;
+
+		int below;
+
+		HistogramWindow( final int numBins, final double minValue, final int rankIndex )
+		{
+			this.histogram = new int[ numBins ];
+			this.minValue = minValue;
+			this.rankIndex = rankIndex;
+		}
+
+		@Override
+		void setValues( final double[] values, final int numValues )
+		{
+			this.values = values;
+		}
+
+		@Override
+		void clear()
+		{
+			Arrays.fill( histogram, 0 );
+			current = 0;
+			below = 0;
+		}
+
+		@Override
+		void add( final int offset, final int length )
+		{
+			for ( int i = offset; i < offset + length; ++i )
+			{
+				final int bin = ( int ) ( values[ i ] - minValue );
+				++histogram[ bin ];
+				if ( bin < current )
+					++below;
+			}
+		}
+
+		@Override
+		void remove( final int offset, final int length )
+		{
+			for ( int i = offset; i < offset + length; ++i )
+			{
+				final int bin = ( int ) ( values[ i ] - minValue );
+				--histogram[ bin ];
+				if ( bin < current )
+					--below;
+			}
+		}
+
+		@Override
+		double get()
+		{
+			while ( below > rankIndex )
+				below -= histogram[ --current ];
+			while ( below + histogram[ current ] <= rankIndex )
+				below += histogram[ current++ ];
+			return current + minValue;
+		}
+	}
+
+	/**
+	 * Order statistics of arbitrary values. {@link #setValues(double[], int)}
+	 * sorts the values of the block and replaces every value by the rank of
+	 * its distinct value. The window counts how often each rank occurs in a
+	 * Fenwick tree, where adding, removing and finding the k-th smallest value
+	 * take O(log m) for m distinct values.
+	 */
+	static final class RankTreeWindow extends Window
+	{
+		/**
+		 * distinct values of the block in ascending order.
+		 */
+		final double[] distinct;
+
+		/**
+		 * rank of every value of the block in {@link #distinct}.
+		 */
+		final int[] ranks;
+
+		/**
+		 * Fenwick tree over the counts of the ranks, 1-based.
+		 */
+		final int[] tree;
+
+		final int rankIndex;
+
+		int numDistinct;
+
+		/**
+		 * largest power of two not greater than {@link #numDistinct}.
+		 */
+		int topBit;
+
+		RankTreeWindow( final int capacity, final int rankIndex )
+		{
+			distinct = new double[ capacity ];
+			ranks = new int[ capacity ];
+			tree = new int[ capacity + 1 ];
+			this.rankIndex = rankIndex;
+		}
+
+		@Override
+		void setValues( final double[] values, final int numValues )
+		{
+			System.arraycopy( values, 0, distinct, 0, numValues );
+			Arrays.sort( distinct, 0, numValues );
+			int m = 0;
+			for ( int i = 0; i < numValues; ++i )
+				if ( m == 0 || Double.compare( distinct[ m - 1 ], distinct[ i ] ) != 0 )
+					distinct[ m++ ] = distinct[ i ];
+			numDistinct = m;
+			topBit = Integer.highestOneBit( m );
+			for ( int i = 0; i < numValues; ++i )
+				ranks[ i ] = Arrays.binarySearch( distinct, 0, m, values[ i ] );
+		}
+
+		@Override
+		void clear()
+		{
+			Arrays.fill( tree, 0, numDistinct + 1, 0 );
+		}
+
+		@Override
+		void add( final int offset, final int length )
+		{
+			for ( int i = offset; i < offset + length; ++i )
+				for ( int j = ranks[ i ] + 1; j <= numDistinct; j += j & -j )
+					++tree[ j ];
+		}
+
+		@Override
+		void remove( final int offset, final int length )
+		{
+			for ( int i = offset; i < offset + length; ++i )
+				for ( int j = ranks[ i ] + 1; j <= numDistinct; j += j & -j )
+					--tree[ j ];
+		}
+
+		@Override
+		double get()
+		{
+			// descend to the largest position whose prefix count is at most
+			// rankIndex. The requested value is at the next position.
+			int pos = 0;
+			int remaining = rankIndex;
+			for ( int step = topBit; step > 0; step >>= 1 )
+			{
+				final int next = pos + step;
+				if ( next <= numDistinct && tree[ next ] <= remaining )
+				{
+					pos = next;
+					remaining -= tree[ next ];
+				}
+			}
+			return distinct[ pos ];
+		}
+	}
+}
@@ -0,0 +1,388 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.algorithm.stats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.algorithm.Algorithm;
+import net.imglib2.algorithm.Benchmark;
+import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+/**
+ * Implements a Histogram over {@link IterableInterval}s that is computed by
+ * several threads. Each thread counts a chunk of the interval into its own
+ * bins, which are added to the histogram at the end.
+ * 
+ * In contrast to {@link Histogram}, the bin counts are long and accumulate
+ * over all intervals passed to {@link #add(IterableInterval)}, so that a
+ * histogram over a stream of images can be computed without holding them
+ * all in memory. Values that map outside the bins are ignored.
+ * 
+ * For an {@link IntBinMapper} over {@link UnsignedByteType} or
+ * {@link UnsignedShortType} {@link ArrayImg}s, the pixels are read directly
+ * from the storage array and, if all values of the type map into the bins,
+ * counted without bounds check.
+ */
+public class ParallelHistogram <T> implements Algorithm, Benchmark, MultiThreaded
+{
+	/**
+	 * Processing time, milliseconds.
+	 */
+	private long pTime = 0;
+	
+	/**
+	 * Hold the histogram itself.
+	 */
+	private final long[] histogram;
+	
+	/**
+	 * The interval from which the histogram is calculated by
+	 * {@link #process()}, may be null.
+	 */
+	private final IterableInterval<T> interval;
+	
+	/**
+	 * The HistogramBinMapper, used to map Type values to histogram bin
+	 * indices.
+	 */
+	private final HistogramBinMapper<T> binMapper;
+
+	private int numThreads;
+
+	private String errorMessage = "";
+
+	/**
+	 * Create a Histogram using the given mapper, calculating from the given
+	 * interval.
+	 * @param mapper the HistogramBinMapper used to map Type values to 
+	 * histogram bin indices. 
+	 * @param interval the interval from which the histogram will be
+	 * calculated by {@link #process()}.
+	 */
+	public ParallelHistogram(final HistogramBinMapper<T> mapper,
+			final IterableInterval<T> interval)
+	{
+		this.interval = interval;
+		binMapper = mapper;
+		histogram = new long[binMapper.getNumBins()];
+		setNumThreads();
+	}
+	
+	/**
+	 * Create an empty Histogram using the given mapper. Use
+	 * {@link #add(IterableInterval)} to accumulate the histograms of
+	 * intervals.
+	 * @param mapper the HistogramBinMapper used to map Type values to 
+	 * histogram bin indices. 
+	 */
+	public ParallelHistogram(final HistogramBinMapper<T> mapper)
+	{
+		this(mapper, null);
+	}
+	
+	/**
+	 * Resets all bin counts to zero.
+	 */
+	public void reset()
+	{
+		Arrays.fill(histogram, 0);
+	}
+	
+	/**
+	 * Returns the bin count corresponding to a given Type.
+	 * @param t the Type corresponding to the requested 
+	 * @return The requested bin count.
+	 */
+	public long getBin(final T t)
+	{
+		return histogram[binMapper.map(t)];
+	}
+
+	/**
+	 * Returns the bin count given by the indicated bin index.
+	 * @param i the index of the requested bin
+	 * @return the bin count at the given index
+	 */
+	public long getBin(final int i)
+	{
+		return histogram[i];
+	}
+	
+	/**
+	 * Returns this Histogram's HistogramBinMapper.
+	 * @return the HistogramBinMapper associated with this Histogram.
+	 */
+	public HistogramBinMapper<T> getBinMapper()
+	{
+		return binMapper;
+	}
+	
+	/**
+	 * Returns the histogram array.
+	 * @return the histogram array.
+	 */
+	public long[] getHistogram()
+	{
+		return histogram;
+	}
+	
+	/**
+	 * Creates and returns the a Type whose value corresponds to the center
+	 * of the bin indexed by i.
+	 * @param i the requested bin index.
+	 * @return a Type whose value corresponds to the requested bin center.
+	 */
+	public T getBinCenter(final int i)
+	{
+		return binMapper.invMap(i);
+	}
+	
+	/**
+	 * Creates and returns a List containing Types that correspond to the
+	 * centers of the histogram bins.
+	 * @return a List containing Types that correspond to the centers of the 
+	 * histogram bins.
+	 */
+	public ArrayList<T> getBinCenters()
+	{
+		ArrayList<T> binCenters = new ArrayList<T>(histogram.length);
+		for (int i = 0; i < histogram.length; ++i)
+		{
+			binCenters.add(i, binMapper.invMap(i));
+		}
+		return binCenters;
+	}
+	
+	/**
+	 * Returns the number of bins in this Histogram.
+	 * @return the number of bins in this Histogram
+	 */
+	public int getNumBins()
+	{
+		return histogram.length;
+	}
+
+	/**
+	 * Add the values of an interval to the histogram.
+	 * @param image the interval to count.
+	 */
+	public void add(final IterableInterval<T> image)
+	{
+		final long startTime = System.currentTimeMillis();
+		final long size = image.size();
+		final int nThreads = (int)Math.max(1, Math.min(numThreads, size / 1024));
+		final Vector<Chunk> chunks = SimpleMultiThreading.divideIntoChunks(size, nThreads);
+		final long[][] threadBins = new long[chunks.size()][];
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] threads = SimpleMultiThreading.newThreads(chunks.size());
+		for (int ithread = 0; ithread < threads.length; ++ithread)
+		{
+			threads[ithread] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final int myNumber = ai.getAndIncrement();
+					final long[] bins = new long[histogram.length];
+					accumulate(image, chunks.get(myNumber), bins);
+					threadBins[myNumber] = bins;
+				}
+			});
+		}
+		if (threads.length == 1)
+			threads[0].run();
+		else
+			SimpleMultiThreading.startAndJoin(threads);
+
+		for (final long[] bins : threadBins)
+		{
+			for (int i = 0; i < histogram.length; ++i)
+			{
+				histogram[i] += bins[i];
+			}
+		}
+		pTime = System.currentTimeMillis() - startTime;
+	}
+
+	/**
+	 * Count the values of a chunk of the interval into the given bins.
+	 */
+	private void accumulate(final IterableInterval<T> image, final Chunk chunk, final long[] bins)
+	{
+		final Object data = getStorageArray(image);
+		// ArrayImgs have less than 2^31 pixels
+		final int start = (int)chunk.getStartPosition();
+		final int end = (int)(chunk.getStartPosition() + chunk.getLoopSize());
+		if (data instanceof byte[])
+		{
+			accumulate((byte[])data, start, end, ((IntBinMapper<?>)binMapper).getMinBin().getInteger(), bins);
+		}
+		else if (data instanceof short[])
+		{
+			accumulate((short[])data, start, end, ((IntBinMapper<?>)binMapper).getMinBin().getInteger(), bins);
+		}
+		else
+		{
+			final Cursor<T> cursor = image.cursor();
+			cursor.jumpFwd(chunk.getStartPosition());
+			for (long j = 0; j < chunk.getLoopSize(); ++j)
+			{
+				final int index = binMapper.map(cursor.next());
+				if (index >= 0 && index < bins.length)
+				{
+					++bins[index];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the storage array of an image for which the fast paths apply,
+	 * or null
+	 */
+	private Object getStorageArray(final IterableInterval<T> image)
+	{
+		if (binMapper instanceof IntBinMapper && image instanceof ArrayImg)
+		{
+			final Object access = ((ArrayImg<?, ?>)image).update(null);
+			final Object type = image.firstElement();
+			if (access instanceof ByteArray && type instanceof UnsignedByteType)
+				return ((ByteArray)access).getCurrentStorageArray();
+			if (access instanceof ShortArray && type instanceof UnsignedShortType)
+				return ((ShortArray)access).getCurrentStorageArray();
+		}
+		return null;
+	}
+
+	private static void accumulate(final byte[] data, final int start, final int end, final int minVal, final long[] bins)
+	{
+		if (minVal <= 0 && 0xff - minVal < bins.length)
+		{
+			for (int i = start; i < end; ++i)
+				++bins[(data[i] & 0xff) - minVal];
+		}
+		else
+		{
+			for (int i = start; i < end; ++i)
+			{
+				final int index = (data[i] & 0xff) - minVal;
+				if (index >= 0 && index < bins.length)
+					++bins[index];
+			}
+		}
+	}
+
+	private static void accumulate(final short[] data, final int start, final int end, final int minVal, final long[] bins)
+	{
+		if (minVal <= 0 && 0xffff - minVal < bins.length)
+		{
+			for (int i = start; i < end; ++i)
+				++bins[(data[i] & 0xffff) - minVal];
+		}
+		else
+		{
+			for (int i = start; i < end; ++i)
+			{
+				final int index = (data[i] & 0xffff) - minVal;
+				if (index >= 0 && index < bins.length)
+					++bins[index];
+			}
+		}
+	}
+	
+	@Override
+	public boolean checkInput()
+	{
+		if (interval == null)
+		{
+			errorMessage = "No interval to compute the histogram from.";
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	@Override
+	public boolean process()
+	{
+		if (!checkInput())
+			return false;
+		add(interval);
+		return true;
+	}
+
+	@Override
+	public long getProcessingTime()
+	{
+		return pTime;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads(final int numThreads)
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.algorithm.gauss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Location;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory.Boundary;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+public class BlockedGaussTest
+{
+	private static Img< FloatType > createFloatImg( final long[] dimensions )
+	{
+		final Img< FloatType > img = new ArrayImgFactory< FloatType >().create( dimensions, new FloatType() );
+		final Random random = new Random( 1234 );
+		for ( final FloatType t : img )
+			t.set( random.nextFloat() * 100 );
+		return img;
+	}
+
+	private static Img< DoubleType > createDoubleImg( final long[] dimensions )
+	{
+		final Img< DoubleType > img = new ArrayImgFactory< DoubleType >().create( dimensions, new DoubleType() );
+		final Random random = new Random( 1234 );
+		for ( final DoubleType t : img )
+			t.set( random.nextDouble() * 100 );
+		return img;
+	}
+
+	@Test
+	public void testFloatEqualsGaussFloat()
+	{
+		final long[] dimensions = new long[] { 37, 29, 17 };
+		final double[] sigma = new double[] { 2.0, 1.5, 1.0 };
+		final Img< FloatType > img = createFloatImg( dimensions );
+		final RandomAccessible< FloatType > extended = Views.extend( img, new OutOfBoundsMirrorFactory< FloatType, Img< FloatType > >( Boundary.SINGLE ) );
+
+		final Img< FloatType > expected = GaussFloat.gauss( sigma, img );
+
+		final Img< FloatType > result = img.factory().create( img, new FloatType() );
+		final BlockedGaussFloat< FloatType > gauss = new BlockedGaussFloat< FloatType >( sigma, extended, img, result, new Location( 3 ) );
+		gauss.setBlockSize( new int[] { 16, 8, 5 } );
+		gauss.setNumThreads( 3 );
+		gauss.call();
+
+		final Cursor< FloatType > c = expected.localizingCursor();
+		final RandomAccess< FloatType > r = result.randomAccess();
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			r.setPosition( c );
+			assertEquals( c.get().get(), r.get().get(), 1e-3 );
+		}
+	}
+
+	@Test
+	public void testDoubleEqualsGaussDouble()
+	{
+		final long[] dimensions = new long[] { 41, 23 };
+		final double[] sigma = new double[] { 3.0, 0.7 };
+		final Img< DoubleType > img = createDoubleImg( dimensions );
+		final RandomAccessible< DoubleType > extended = Views.extend( img, new OutOfBoundsMirrorFactory< DoubleType, Img< DoubleType > >( Boundary.SINGLE ) );
+
+		final Img< DoubleType > expected = GaussDouble.gauss( sigma, img );
+
+		final Img< DoubleType > result = img.factory().create( img, new DoubleType() );
+		final BlockedGaussDouble< DoubleType > gauss = new BlockedGaussDouble< DoubleType >( sigma, extended, img, result, new Location( 2 ) );
+		gauss.setBlockSize( new int[] { 10, 7 } );
+		gauss.call();
+
+		final Cursor< DoubleType > c = expected.localizingCursor();
+		final RandomAccess< DoubleType > r = result.randomAccess();
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			r.setPosition( c );
+			assertEquals( c.get().get(), r.get().get(), 1e-9 );
+		}
+	}
+
+	@Test
+	public void testLargeSigmaShrinksBlocks()
+	{
+		final long[] dimensions = new long[] { 800, 600, 400 };
+		final double[] sigma = new double[] { 20, 20, 20 };
+		final Img< FloatType > img = new ArrayImgFactory< FloatType >().create( new long[] { 1, 1, 1 }, new FloatType() );
+		final RandomAccessible< FloatType > extended = Views.extendValue( img, new FloatType() );
+		final BlockedGaussFloat< FloatType > gauss = new BlockedGaussFloat< FloatType >( sigma, extended, new FinalInterval( dimensions ), img, new Location( 3 ) );
+		gauss.setBlockSize( new int[] { 800, 600, 400 } );
+
+		final int[] blockSize = gauss.getBlockSize();
+		long bufferSize = 1;
+		for ( int d = 0; d < 3; ++d )
+		{
+			assertTrue( blockSize[ d ] >= 1 );
+			bufferSize *= blockSize[ d ] + 2 * gauss.halo[ d ];
+		}
+		assertTrue( bufferSize <= AbstractBlockedGauss.MAX_BLOCK_BUFFER_SIZE );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testTooLargeKernel()
+	{
+		final Img< FloatType > img = new ArrayImgFactory< FloatType >().create( new long[] { 1, 1, 1, 1 }, new FloatType() );
+		final RandomAccessible< FloatType > extended = Views.extendValue( img, new FloatType() );
+		new BlockedGaussFloat< FloatType >( new double[] { 100, 100, 100, 100 }, extended, new FinalInterval( new long[] { 1000, 1000, 1000, 1000 } ), img, new Location( 4 ) );
+	}
+}
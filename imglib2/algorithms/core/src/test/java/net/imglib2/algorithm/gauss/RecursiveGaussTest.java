@@ -0,0 +1,138 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.algorithm.gauss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.Location;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory.Boundary;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+public class RecursiveGaussTest
+{
+	private static Img< DoubleType > createImg( final long[] dimensions )
+	{
+		final Img< DoubleType > img = new ArrayImgFactory< DoubleType >().create( dimensions, new DoubleType() );
+		final Random random = new Random( 1234 );
+		for ( final DoubleType t : img )
+			t.set( random.nextDouble() * 100 );
+		return img;
+	}
+
+	private static RandomAccessible< DoubleType > extend( final Img< DoubleType > img )
+	{
+		return Views.extend( img, new OutOfBoundsMirrorFactory< DoubleType, Img< DoubleType > >( Boundary.SINGLE ) );
+	}
+
+	private static double maxDifference( final Img< DoubleType > a, final Img< DoubleType > b )
+	{
+		double max = 0;
+		final Cursor< DoubleType > c = a.localizingCursor();
+		final RandomAccess< DoubleType > r = b.randomAccess();
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			r.setPosition( c );
+			max = Math.max( max, Math.abs( c.get().get() - r.get().get() ) );
+		}
+		return max;
+	}
+
+	@Test
+	public void testThreshold()
+	{
+		final Img< DoubleType > img = createImg( new long[] { 10, 10 } );
+		final RecursiveGauss< DoubleType > gauss = new RecursiveGauss< DoubleType >( new double[] { 2, 12 }, extend( img ), img, img, new Location( 2 ), img.factory() );
+		assertFalse( gauss.isRecursive( 0 ) );
+		assertTrue( gauss.isRecursive( 1 ) );
+		gauss.setRecursiveThreshold( 1 );
+		assertTrue( gauss.isRecursive( 0 ) );
+	}
+
+	@Test
+	public void testFIREqualsGaussDouble()
+	{
+		final double[] sigma = new double[] { 2.0, 1.5, 1.0 };
+		final Img< DoubleType > img = createImg( new long[] { 31, 22, 13 } );
+		final Img< DoubleType > expected = GaussDouble.gauss( sigma, img );
+		final Img< DoubleType > result = img.factory().create( img, new DoubleType() );
+		RecursiveGauss.gauss( sigma, extend( img ), img, result, img.factory() );
+		assertEquals( 0, maxDifference( expected, result ), 1e-9 );
+	}
+
+	@Test
+	public void testIIRConstant()
+	{
+		final double[] sigma = new double[] { 15, 15 };
+		final Img< DoubleType > img = new ArrayImgFactory< DoubleType >().create( new long[] { 50, 40 }, new DoubleType() );
+		for ( final DoubleType t : img )
+			t.set( 42 );
+		final RecursiveGauss< DoubleType > gauss = new RecursiveGauss< DoubleType >( sigma, extend( img ), img, img, new Location( 2 ), img.factory() );
+		gauss.call();
+		for ( final DoubleType t : img )
+			assertEquals( 42, t.get(), 1e-9 );
+	}
+
+	@Test
+	public void testIIRApproximatesGaussDouble()
+	{
+		final double[] sigma = new double[] { 12, 20 };
+		final Img< DoubleType > img = createImg( new long[] { 120, 90 } );
+		final Img< DoubleType > expected = GaussDouble.gauss( sigma, img );
+
+		// in place
+		final RecursiveGauss< DoubleType > gauss = new RecursiveGauss< DoubleType >( sigma, extend( img ), img, img, new Location( 2 ), img.factory() );
+		gauss.setNumThreads( 3 );
+		gauss.call();
+
+		// the recursive filter approximates the Gaussian to within a few permille
+		assertEquals( 0, maxDifference( expected, img ), 0.2 );
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package net.imglib2.algorithm.integral;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImg;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+
+import org.junit.Test;
+
+public class ParallelIntegralImgTest
+{
+	private static Img< UnsignedShortType > createImg( final Img< UnsignedShortType > img )
+	{
+		final Random random = new Random( 1234 );
+		for ( final UnsignedShortType t : img )
+			t.set( random.nextInt( 65536 ) );
+		return img;
+	}
+
+	/**
+	 * Check every value of the integral image against the sum over all input
+	 * pixels before it.
+	 */
+	private static void assertIntegral( final Img< UnsignedShortType > img, final Img< ? extends RealType< ? > > integral )
+	{
+		final int n = img.numDimensions();
+		for ( int d = 0; d < n; ++d )
+			assertEquals( img.dimension( d ) + 1, integral.dimension( d ) );
+
+		final Cursor< ? extends RealType< ? > > c = integral.localizingCursor();
+		final long[] p = new long[ n ];
+		final long[] q = new long[ n ];
+		final Cursor< UnsignedShortType > ic = img.localizingCursor();
+		while ( c.hasNext() )
+		{
+			final double actual = c.next().getRealDouble();
+			c.localize( p );
+			long expected = 0;
+			ic.reset();
+			while ( ic.hasNext() )
+			{
+				final int v = ic.next().get();
+				ic.localize( q );
+				boolean inside = true;
+				for ( int d = 0; d < n; ++d )
+					inside &= q[ d ] < p[ d ];
+				if ( inside )
+					expected += v;
+			}
+			assertEquals( expected, actual, 0 );
+		}
+	}
+
+	@Test
+	public void testLines()
+	{
+		final Img< UnsignedShortType > img = createImg( new ArrayImgFactory< UnsignedShortType >().create( new long[] { 13, 9, 5 }, new UnsignedShortType() ) );
+		assertIntegral( img, ParallelIntegralImg.integralLong( img, 3 ) );
+		assertIntegral( img, ParallelIntegralImg.integralDouble( img, 2 ) );
+	}
+
+	@Test
+	public void testTiles()
+	{
+		final Img< UnsignedShortType > img = createImg( new ArrayImgFactory< UnsignedShortType >().create( new long[] { 13, 9, 5 }, new UnsignedShortType() ) );
+		for ( final int[] tileSize : new int[][] { { 4, 3, 2 }, { 1, 1, 1 }, { 20, 20, 20 }, { 5, 10, 3 } } )
+		{
+			final ParallelIntegralImg< UnsignedShortType, LongType > longIntegral = new ParallelIntegralImg< UnsignedShortType, LongType >( img, new LongType() );
+			longIntegral.setTileSize( tileSize );
+			longIntegral.setNumThreads( 3 );
+			assertTrue( longIntegral.process() );
+			assertIntegral( img, longIntegral.getResult() );
+
+			final ParallelIntegralImg< UnsignedShortType, DoubleType > doubleIntegral = new ParallelIntegralImg< UnsignedShortType, DoubleType >( img, new DoubleType() );
+			doubleIntegral.setTileSize( tileSize );
+			assertTrue( doubleIntegral.process() );
+			assertIntegral( img, doubleIntegral.getResult() );
+		}
+	}
+
+	@Test
+	public void testCellImg()
+	{
+		final Img< UnsignedShortType > img = createImg( new CellImgFactory< UnsignedShortType >( 4 ).create( new long[] { 17, 11 }, new UnsignedShortType() ) );
+		final Img< LongType > integral = ParallelIntegralImg.integralLong( img, 2 );
+		assertTrue( integral instanceof CellImg );
+		assertIntegral( img, integral );
+	}
+
+	@Test
+	public void testBoxSum()
+	{
+		final Img< UnsignedShortType > img = createImg( new ArrayImgFactory< UnsignedShortType >().create( new long[] { 15, 12, 4 }, new UnsignedShortType() ) );
+		final BoxSum< LongType > longSum = new BoxSum< LongType >( ParallelIntegralImg.integralLong( img, 2 ) );
+		final BoxSum< DoubleType > doubleSum = new BoxSum< DoubleType >( ParallelIntegralImg.integralDouble( img, 2 ) );
+		final RandomAccess< UnsignedShortType > a = img.randomAccess();
+		final Random random = new Random( 42 );
+		final long[] min = new long[ 3 ];
+		final long[] max = new long[ 3 ];
+		for ( int i = 0; i < 50; ++i )
+		{
+			for ( int d = 0; d < 3; ++d )
+			{
+				final long x = random.nextInt( ( int ) img.dimension( d ) );
+				final long y = random.nextInt( ( int ) img.dimension( d ) );
+				min[ d ] = Math.min( x, y );
+				max[ d ] = Math.max( x, y );
+			}
+			long expected = 0;
+			for ( long z = min[ 2 ]; z <= max[ 2 ]; ++z )
+				for ( long y = min[ 1 ]; y <= max[ 1 ]; ++y )
+					for ( long x = min[ 0 ]; x <= max[ 0 ]; ++x )
+					{
+						a.setPosition( new long[] { x, y, z } );
+						expected += a.get().get();
+					}
+			assertEquals( expected, longSum.sumLong( min, max ) );
+			assertEquals( expected, doubleSum.sum( min, max ), 0 );
+			final double size = ( max[ 0 ] - min[ 0 ] + 1 ) * ( max[ 1 ] - min[ 1 ] + 1 ) * ( max[ 2 ] - min[ 2 ] + 1 );
+			assertEquals( expected / size, longSum.mean( min, max ), 1e-9 );
+		}
+	}
+}
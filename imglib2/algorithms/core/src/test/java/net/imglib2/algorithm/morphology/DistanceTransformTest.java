@@ -0,0 +1,195 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package net.imglib2.algorithm.morphology;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgPlus;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+public class DistanceTransformTest
+{
+	private static Img< BitType > createImg( final long[] dimensions, final double density )
+	{
+		final Img< BitType > img = new ArrayImgFactory< BitType >().create( dimensions, new BitType() );
+		final Random random = new Random( 1234 );
+		for ( final BitType t : img )
+			t.set( random.nextDouble() < density );
+		return img;
+	}
+
+	/**
+	 * Compute the distance to every foreground pixel for every pixel.
+	 */
+	private static void assertDistances( final Img< BitType > img, final Img< ? extends RealType< ? > > distances, final double[] voxelSize, final double tolerance )
+	{
+		final int n = img.numDimensions();
+		final ArrayList< long[] > foreground = new ArrayList< long[] >();
+		final Cursor< BitType > c = img.localizingCursor();
+		while ( c.hasNext() )
+		{
+			if ( c.next().get() )
+			{
+				final long[] p = new long[ n ];
+				c.localize( p );
+				foreground.add( p );
+			}
+		}
+
+		final Cursor< ? extends RealType< ? > > t = distances.localizingCursor();
+		final long[] position = new long[ n ];
+		while ( t.hasNext() )
+		{
+			final double actual = t.next().getRealDouble();
+			t.localize( position );
+			double min = Double.POSITIVE_INFINITY;
+			for ( final long[] p : foreground )
+			{
+				double sum = 0;
+				for ( int d = 0; d < n; ++d )
+				{
+					final double diff = ( position[ d ] - p[ d ] ) * voxelSize[ d ];
+					sum += diff * diff;
+				}
+				min = Math.min( min, sum );
+			}
+			assertEquals( Math.sqrt( min ), actual, tolerance );
+		}
+	}
+
+	@Test
+	public void testIsotropic()
+	{
+		final Img< BitType > img = createImg( new long[] { 31, 23, 11 }, 0.01 );
+		final Img< DoubleType > distances = new ArrayImgFactory< DoubleType >().create( img, new DoubleType() );
+		final DistanceTransform< BitType, DoubleType > dt = new DistanceTransform< BitType, DoubleType >( img, distances );
+		dt.setNumThreads( 3 );
+		dt.call();
+		assertDistances( img, distances, new double[] { 1, 1, 1 }, 1e-9 );
+	}
+
+	@Test
+	public void testAnisotropic()
+	{
+		final Img< BitType > img = createImg( new long[] { 40, 35 }, 0.02 );
+		final double[] voxelSize = new double[] { 0.5, 2.3 };
+		final Img< FloatType > distances = DistanceTransform.compute( img, voxelSize, new ArrayImgFactory< FloatType >() );
+		assertDistances( img, distances, voxelSize, 1e-4 );
+	}
+
+	@Test
+	public void testCalibration()
+	{
+		final ImgPlus< BitType > img = new ImgPlus< BitType >( createImg( new long[] { 10, 20, 5 }, 0.05 ) );
+		img.setCalibration( 1.5, 0 );
+		img.setCalibration( 0, 1 );
+		img.setCalibration( 4, 2 );
+		assertArrayEquals( new double[] { 1.5, 1, 4 }, DistanceTransform.voxelSize( img ), 0 );
+
+		final Img< DoubleType > distances = new ArrayImgFactory< DoubleType >().create( img, new DoubleType() );
+		new DistanceTransform< BitType, DoubleType >( img, distances, img ).call();
+		assertDistances( img, distances, new double[] { 1.5, 1, 4 }, 1e-9 );
+	}
+
+	/**
+	 * The intermediate squared distances exceed the range of
+	 * {@link UnsignedByteType} and have fractions that {@link IntType} can not
+	 * represent. Only the final distance is rounded.
+	 */
+	@Test
+	public void testIntegerTarget()
+	{
+		final Img< BitType > img = createImg( new long[] { 60, 45 }, 0.002 );
+		final Img< UnsignedByteType > bytes = new ArrayImgFactory< UnsignedByteType >().create( img, new UnsignedByteType() );
+		DistanceTransform.compute( img, bytes );
+		assertDistances( img, bytes, new double[] { 1, 1 }, 0.5 + 1e-9 );
+
+		final double[] voxelSize = new double[] { 0.3, 0.7 };
+		final Img< IntType > ints = new ArrayImgFactory< IntType >().create( img, new IntType() );
+		DistanceTransform.compute( img, ints, voxelSize );
+		assertDistances( img, ints, voxelSize, 0.5 + 1e-9 );
+	}
+
+	@Test
+	public void testOneDimensional()
+	{
+		final Img< BitType > img = createImg( new long[] { 50 }, 0.1 );
+		final Img< FloatType > distances = DistanceTransform.compute( img, new double[] { 2 }, new ArrayImgFactory< FloatType >() );
+		assertDistances( img, distances, new double[] { 2 }, 1e-6 );
+	}
+
+	@Test
+	public void testEmptyImage()
+	{
+		final Img< BitType > img = createImg( new long[] { 0, 7 }, 0.5 );
+		final Img< FloatType > distances = DistanceTransform.compute( img, new double[] { 1, 1 }, new ArrayImgFactory< FloatType >() );
+		assertEquals( 0, distances.size() );
+	}
+
+	@Test
+	public void testNoForeground()
+	{
+		final Img< BitType > img = createImg( new long[] { 12, 7 }, 0 );
+		final Img< FloatType > distances = DistanceTransform.compute( img, new double[] { 1, 1 }, new ArrayImgFactory< FloatType >() );
+		for ( final FloatType t : distances )
+			assertTrue( Float.isInfinite( t.get() ) );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testDimensionMismatch()
+	{
+		final Img< BitType > img = createImg( new long[] { 12, 7 }, 0.5 );
+		final Img< FloatType > distances = new ArrayImgFactory< FloatType >().create( new long[] { 12, 8 }, new FloatType() );
+		DistanceTransform.compute( img, distances );
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package net.imglib2.algorithm.morphology;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.outofbounds.OutOfBoundsConstantValueFactory;
+import net.imglib2.outofbounds.OutOfBoundsFactory;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory.Boundary;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+public class MorphologyTest
+{
+	private static Img< UnsignedByteType > createImg( final long[] dimensions )
+	{
+		final Img< UnsignedByteType > img = new ArrayImgFactory< UnsignedByteType >().create( dimensions, new UnsignedByteType() );
+		final Random random = new Random( 1234 );
+		for ( final UnsignedByteType t : img )
+			t.set( random.nextInt( 256 ) );
+		return img;
+	}
+
+	private static OutOfBoundsFactory< UnsignedByteType, Img< UnsignedByteType > > mirror()
+	{
+		return new OutOfBoundsMirrorFactory< UnsignedByteType, Img< UnsignedByteType > >( Boundary.SINGLE );
+	}
+
+	/**
+	 * Compute minimum or maximum by visiting every offset of the structuring
+	 * element for every pixel.
+	 */
+	private static Img< UnsignedByteType > bruteForce( final Img< UnsignedByteType > img, final long[] radius, final boolean dilate, final OutOfBoundsFactory< UnsignedByteType, Img< UnsignedByteType > > outOfBounds )
+	{
+		final int n = img.numDimensions();
+		final Img< UnsignedByteType > result = img.factory().create( img, new UnsignedByteType() );
+		final RandomAccess< UnsignedByteType > in = Views.extend( img, outOfBounds ).randomAccess();
+		final Cursor< UnsignedByteType > c = result.localizingCursor();
+		final long[] position = new long[ n ];
+		final long[] elementDimensions = new long[ n ];
+		int elementSize = 1;
+		for ( int d = 0; d < n; ++d )
+		{
+			elementDimensions[ d ] = 2 * radius[ d ] + 1;
+			elementSize *= elementDimensions[ d ];
+		}
+		final long[] offset = new long[ n ];
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			c.localize( position );
+			int value = dilate ? 0 : 255;
+			for ( int i = 0; i < elementSize; ++i )
+			{
+				IntervalIndexer.indexToPosition( i, elementDimensions, offset );
+				for ( int d = 0; d < n; ++d )
+					in.setPosition( position[ d ] + offset[ d ] - radius[ d ], d );
+				final int v = in.get().get();
+				value = dilate ? Math.max( value, v ) : Math.min( value, v );
+			}
+			c.get().set( value );
+		}
+		return result;
+	}
+
+	private static void assertImgEquals( final Img< UnsignedByteType > expected, final Img< UnsignedByteType > actual )
+	{
+		final Cursor< UnsignedByteType > e = expected.cursor();
+		final Cursor< UnsignedByteType > a = actual.cursor();
+		while ( e.hasNext() )
+			assertEquals( e.next().get(), a.next().get() );
+	}
+
+	@Test
+	public void testMinimumLine()
+	{
+		final Random random = new Random( 42 );
+		for ( int r = 0; r < 6; ++r )
+		{
+			final int size = 37;
+			final double[] in = new double[ size + 2 * r ];
+			for ( int i = 0; i < in.length; ++i )
+				in[ i ] = random.nextDouble();
+			final double[] out = new double[ size ];
+			BoxMorphology.minimum( in, out, new double[ in.length ], new double[ in.length ], size, r );
+			for ( int i = 0; i < size; ++i )
+			{
+				double min = Double.POSITIVE_INFINITY;
+				for ( int j = i; j <= i + 2 * r; ++j )
+					min = Math.min( min, in[ j ] );
+				assertEquals( min, out[ i ], 0 );
+			}
+		}
+	}
+
+	@Test
+	public void testErodeDilate()
+	{
+		final Img< UnsignedByteType > img = createImg( new long[] { 27, 19, 7 } );
+		for ( final long[] radius : new long[][] { { 2, 1, 1 }, { 3, 0, 2 }, { 0, 4, 0 }, { 0, 0, 0 } } )
+		{
+			assertImgEquals( bruteForce( img, radius, false, mirror() ), Morphology.erode( img, radius, mirror(), 3 ) );
+			assertImgEquals( bruteForce( img, radius, true, mirror() ), Morphology.dilate( img, radius, mirror(), 3 ) );
+		}
+	}
+
+	@Test
+	public void testConstantBorder()
+	{
+		final Img< UnsignedByteType > img = createImg( new long[] { 15, 12 } );
+		final OutOfBoundsFactory< UnsignedByteType, Img< UnsignedByteType > > zero = new OutOfBoundsConstantValueFactory< UnsignedByteType, Img< UnsignedByteType > >( new UnsignedByteType( 0 ) );
+		final long[] radius = new long[] { 2, 3 };
+		assertImgEquals( bruteForce( img, radius, false, zero ), Morphology.erode( img, radius, zero, 2 ) );
+	}
+
+	@Test
+	public void testOpenCloseTopHat()
+	{
+		final Img< UnsignedByteType > img = createImg( new long[] { 23, 21 } );
+		final long[] radius = new long[] { 2, 1 };
+		final Img< UnsignedByteType > opened = Morphology.open( img, radius, mirror(), 2 );
+		final Img< UnsignedByteType > closed = Morphology.close( img, radius, mirror(), 2 );
+		assertImgEquals( bruteForce( bruteForce( img, radius, false, mirror() ), radius, true, mirror() ), opened );
+		assertImgEquals( bruteForce( bruteForce( img, radius, true, mirror() ), radius, false, mirror() ), closed );
+
+		final Img< UnsignedByteType > topHat = Morphology.topHat( img, radius, mirror(), 2 );
+		final Img< UnsignedByteType > blackHat = Morphology.blackHat( img, radius, mirror(), 2 );
+		final Cursor< UnsignedByteType > c = img.cursor();
+		final Cursor< UnsignedByteType > o = opened.cursor();
+		final Cursor< UnsignedByteType > cl = closed.cursor();
+		final Cursor< UnsignedByteType > t = topHat.cursor();
+		final Cursor< UnsignedByteType > b = blackHat.cursor();
+		while ( c.hasNext() )
+		{
+			final int v = c.next().get();
+			final int vo = o.next().get();
+			final int vc = cl.next().get();
+			assertTrue( vo <= v && v <= vc );
+			assertEquals( v - vo, t.next().get() );
+			assertEquals( vc - v, b.next().get() );
+		}
+	}
+}
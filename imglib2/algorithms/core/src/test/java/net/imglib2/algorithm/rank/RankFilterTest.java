@@ -0,0 +1,201 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package net.imglib2.algorithm.rank;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.Location;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory.Boundary;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+public class RankFilterTest
+{
+	private static < T extends RealType< T > > RandomAccessible< T > extend( final Img< T > img )
+	{
+		return Views.extend( img, new OutOfBoundsMirrorFactory< T, Img< T > >( Boundary.SINGLE ) );
+	}
+
+	private static < T extends RealType< T > & NativeType< T > > Img< T > createImg( final long[] dimensions, final T type, final double range )
+	{
+		final Img< T > img = new ArrayImgFactory< T >().create( dimensions, type );
+		final Random random = new Random( 1234 );
+		for ( final T t : img )
+			t.setReal( Math.floor( random.nextDouble() * range ) );
+		return img;
+	}
+
+	/**
+	 * Compute the rank by sorting the window of every pixel.
+	 */
+	private static < T extends RealType< T > > Img< FloatType > bruteForce( final Img< T > img, final long[] radius, final double rank )
+	{
+		final int n = img.numDimensions();
+		final Img< FloatType > result = new ArrayImgFactory< FloatType >().create( img, new FloatType() );
+		final RandomAccess< T > in = extend( img ).randomAccess();
+		final Cursor< FloatType > c = result.localizingCursor();
+		final long[] position = new long[ n ];
+		final long[] windowDimensions = new long[ n ];
+		int windowSize = 1;
+		for ( int d = 0; d < n; ++d )
+		{
+			windowDimensions[ d ] = 2 * radius[ d ] + 1;
+			windowSize *= windowDimensions[ d ];
+		}
+		final double[] window = new double[ windowSize ];
+		final long[] offset = new long[ n ];
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			c.localize( position );
+			for ( int i = 0; i < windowSize; ++i )
+			{
+				IntervalIndexer.indexToPosition( i, windowDimensions, offset );
+				for ( int d = 0; d < n; ++d )
+					in.setPosition( position[ d ] + offset[ d ] - radius[ d ], d );
+				window[ i ] = in.get().getRealDouble();
+			}
+			Arrays.sort( window );
+			c.get().setReal( window[ ( int ) Math.round( rank * ( windowSize - 1 ) ) ] );
+		}
+		return result;
+	}
+
+	private static < T extends RealType< T > > void assertRank( final Img< T > img, final long[] radius, final double rank, final int numThreads )
+	{
+		assertRank( img, radius, rank, numThreads, RankFilter.MAX_BLOCK_VALUES );
+	}
+
+	private static < T extends RealType< T > > void assertRank( final Img< T > img, final long[] radius, final double rank, final int numThreads, final int maxBlockValues )
+	{
+		final Img< FloatType > expected = bruteForce( img, radius, rank );
+		final Img< FloatType > result = new ArrayImgFactory< FloatType >().create( img, new FloatType() );
+		final RankFilter< T, FloatType > filter = new RankFilter< T, FloatType >( radius, rank, extend( img ), img, result, new Location( img.numDimensions() ) );
+		filter.setBlockLength( maxBlockValues );
+		filter.setNumThreads( numThreads );
+		filter.call();
+
+		final Cursor< FloatType > e = expected.cursor();
+		final Cursor< FloatType > r = result.cursor();
+		while ( e.hasNext() )
+			assertEquals( e.next().get(), r.next().get(), 0 );
+	}
+
+	@Test
+	public void testUsesHistogram()
+	{
+		assertTrue( RankFilter.usesHistogram( new UnsignedByteType() ) );
+		assertFalse( RankFilter.usesHistogram( new FloatType() ) );
+	}
+
+	@Test
+	public void testMedianHistogram()
+	{
+		final Img< UnsignedByteType > img = createImg( new long[] { 23, 17, 9 }, new UnsignedByteType(), 256 );
+		assertRank( img, new long[] { 2, 1, 1 }, 0.5, 1 );
+		assertRank( img, new long[] { 3, 2, 2 }, 0.5, 4 );
+	}
+
+	@Test
+	public void testMedianSorted()
+	{
+		final Img< FloatType > img = createImg( new long[] { 23, 17, 9 }, new FloatType(), 1000 );
+		assertRank( img, new long[] { 2, 1, 1 }, 0.5, 1 );
+		assertRank( img, new long[] { 3, 2, 2 }, 0.5, 4 );
+	}
+
+	@Test
+	public void testMinMaxPercentile()
+	{
+		final Img< UnsignedByteType > bytes = createImg( new long[] { 31, 12 }, new UnsignedByteType(), 16 );
+		final Img< FloatType > floats = createImg( new long[] { 31, 12 }, new FloatType(), 16 );
+		for ( final double rank : new double[] { 0, 0.1, 0.75, 1 } )
+		{
+			assertRank( bytes, new long[] { 4, 3 }, rank, 3 );
+			assertRank( floats, new long[] { 4, 3 }, rank, 3 );
+		}
+	}
+
+	@Test
+	public void testBlocks()
+	{
+		// blocks of the minimum length (the window width) and of a length
+		// that does not divide the line
+		final Img< UnsignedByteType > bytes = createImg( new long[] { 37, 11 }, new UnsignedByteType(), 256 );
+		final Img< FloatType > floats = createImg( new long[] { 37, 11 }, new FloatType(), 1000 );
+		for ( final int maxBlockValues : new int[] { 1, 100 } )
+		{
+			assertRank( bytes, new long[] { 3, 2 }, 0.5, 2, maxBlockValues );
+			assertRank( floats, new long[] { 3, 2 }, 0.5, 2, maxBlockValues );
+			assertRank( floats, new long[] { 3, 2 }, 0.2, 2, maxBlockValues );
+		}
+	}
+
+	@Test
+	public void testZeroRadius()
+	{
+		final Img< UnsignedByteType > img = createImg( new long[] { 10, 10 }, new UnsignedByteType(), 256 );
+		assertRank( img, new long[] { 0, 0 }, 0.5, 2 );
+		assertRank( img, new long[] { 0, 2 }, 0.5, 2 );
+		assertRank( img, new long[] { 2, 0 }, 0.5, 2 );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testInvalidRank()
+	{
+		final Img< FloatType > img = createImg( new long[] { 10, 10 }, new FloatType(), 10 );
+		RankFilter.rank( new long[] { 1, 1 }, 1.5, extend( img ), img, img );
+	}
+}
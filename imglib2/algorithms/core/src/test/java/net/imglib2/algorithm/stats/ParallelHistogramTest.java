@@ -0,0 +1,135 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.algorithm.stats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+/**
+ * Compares {@link ParallelHistogram} to {@link Histogram}.
+ */
+public class ParallelHistogramTest
+{
+	private static final long[] dimensions = new long[] { 123, 45, 6 };
+
+	private static < T extends RealType< T > > Img< T > fill( final Img< T > img, final int range )
+	{
+		final Random random = new Random( 42 );
+		for ( final T t : img )
+			t.setReal( random.nextInt( range ) );
+		return img;
+	}
+
+	private static < T > void assertSameCounts( final Histogram< T > expected, final ParallelHistogram< T > actual )
+	{
+		assertEquals( expected.getNumBins(), actual.getNumBins() );
+		for ( int i = 0; i < expected.getNumBins(); ++i )
+			assertEquals( expected.getBin( i ), actual.getBin( i ) );
+	}
+
+	@Test
+	public void testUnsignedByte()
+	{
+		final Img< UnsignedByteType > img = fill( new ArrayImgFactory< UnsignedByteType >().create( dimensions, new UnsignedByteType() ), 256 );
+		final IntBinMapper< UnsignedByteType > mapper = new IntBinMapper< UnsignedByteType >( new UnsignedByteType() );
+		final Histogram< UnsignedByteType > expected = new Histogram< UnsignedByteType >( mapper, img );
+		expected.process();
+		final ParallelHistogram< UnsignedByteType > actual = new ParallelHistogram< UnsignedByteType >( mapper, img );
+		actual.setNumThreads( 4 );
+		assertTrue( actual.process() );
+		assertSameCounts( expected, actual );
+	}
+
+	@Test
+	public void testUnsignedShortSubRange()
+	{
+		final Img< UnsignedShortType > img = fill( new ArrayImgFactory< UnsignedShortType >().create( dimensions, new UnsignedShortType() ), 1000 );
+		final IntBinMapper< UnsignedShortType > mapper = new IntBinMapper< UnsignedShortType >( new UnsignedShortType( 100 ), new UnsignedShortType( 500 ) );
+		final Histogram< UnsignedShortType > expected = new Histogram< UnsignedShortType >( mapper, img );
+		expected.process();
+		final ParallelHistogram< UnsignedShortType > actual = new ParallelHistogram< UnsignedShortType >( mapper, img );
+		actual.setNumThreads( 3 );
+		assertTrue( actual.process() );
+		assertSameCounts( expected, actual );
+	}
+
+	@Test
+	public void testGeneric()
+	{
+		final Img< FloatType > img = fill( new CellImgFactory< FloatType >( 16 ).create( dimensions, new FloatType() ), 100 );
+		final RealBinMapper< FloatType > mapper = new RealBinMapper< FloatType >( new FloatType( 0 ), new FloatType( 99 ), 50 );
+		final Histogram< FloatType > expected = new Histogram< FloatType >( mapper, img );
+		expected.process();
+		final ParallelHistogram< FloatType > actual = new ParallelHistogram< FloatType >( mapper, img );
+		actual.setNumThreads( 4 );
+		assertTrue( actual.process() );
+		assertSameCounts( expected, actual );
+	}
+
+	@Test
+	public void testStreaming()
+	{
+		final IntBinMapper< IntType > mapper = new IntBinMapper< IntType >( new IntType( 0 ), new IntType( 9 ) );
+		final ParallelHistogram< IntType > histogram = new ParallelHistogram< IntType >( mapper );
+		final long[] expected = new long[ 10 ];
+		for ( int i = 0; i < 5; ++i )
+		{
+			final Img< IntType > img = new ArrayImgFactory< IntType >().create( dimensions, new IntType() );
+			for ( final IntType t : img )
+				t.set( i );
+			histogram.add( img );
+			expected[ i ] = img.size();
+		}
+		assertArrayEquals( expected, histogram.getHistogram() );
+		histogram.reset();
+		assertArrayEquals( new long[ 10 ], histogram.getHistogram() );
+	}
+}
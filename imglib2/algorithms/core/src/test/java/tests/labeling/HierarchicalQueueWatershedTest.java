@@ -0,0 +1,245 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package tests.labeling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.algorithm.labeling.AllConnectedComponents;
+import net.imglib2.algorithm.labeling.HierarchicalQueueWatershed;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.labeling.LabelingType;
+import net.imglib2.labeling.NativeImgLabeling;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link HierarchicalQueueWatershed} against a straightforward
+ * priority queue flooding.
+ */
+public class HierarchicalQueueWatershedTest {
+	private static NativeImgLabeling<Integer> createLabeling(long [] dimensions) {
+		NativeImgLabeling<Integer> labeling = new NativeImgLabeling<Integer>(dimensions);
+		labeling.setLinkedType(new LabelingType<Integer>(labeling));
+		return labeling;
+	}
+
+	private void testSeededCase2D(int [][] image, int [][] seeds, int [][] expected) {
+		long [] dimensions = new long [] { image.length, image[0].length };
+		NativeImgLabeling<Integer> seedLabeling = createLabeling(dimensions);
+		Img<IntType> imageImage = new ArrayImgFactory<IntType>().create(dimensions, new IntType());
+		Cursor<IntType> ic = imageImage.localizingCursor();
+		RandomAccess<LabelingType<Integer>> sra = seedLabeling.randomAccess();
+		int [] position = new int [2];
+		while(ic.hasNext()) {
+			ic.fwd();
+			ic.localize(position);
+			ic.get().set(image[position[0]][position[1]]);
+			if (seeds[position[0]][position[1]] != 0) {
+				sra.setPosition(position);
+				sra.get().setLabel(seeds[position[0]][position[1]]);
+			}
+		}
+		HierarchicalQueueWatershed<IntType, Integer> watershed = new HierarchicalQueueWatershed<IntType, Integer>();
+		watershed.setSeeds(seedLabeling);
+		watershed.setIntensityImage(imageImage);
+		assertTrue(watershed.process());
+		Cursor<LabelingType<Integer>> oc = watershed.getResult().localizingCursor();
+		while(oc.hasNext()) {
+			List<Integer> l = oc.next().getLabeling();
+			oc.localize(position);
+			int expectedLabel = expected[position[0]][position[1]];
+			if (expectedLabel == 0) {
+				assertTrue(l.isEmpty());
+			} else {
+				assertEquals(1, l.size());
+				assertEquals(expectedLabel, l.get(0).intValue());
+			}
+		}
+	}
+
+	@Test
+	public final void testEmpty() {
+		testSeededCase2D(
+				new int [][] { { 0,0,0 }, { 0,0,0 }, { 0,0,0 } },
+				new int [][] { { 0,0,0 }, { 0,0,0 }, { 0,0,0 } },
+				new int [][] { { 0,0,0 }, { 0,0,0 }, { 0,0,0 } });
+	}
+	@Test
+	public final void testOne() {
+		testSeededCase2D(
+				new int [][] { { 0,0,0 }, { 0,0,0 }, { 0,0,0 } },
+				new int [][] { { 0,0,0 }, { 0,1,0 }, { 0,0,0 } },
+				new int [][] { { 1,1,1 }, { 1,1,1 }, { 1,1,1 } });
+	}
+	@Test
+	public final void testTwo() {
+		testSeededCase2D(
+				new int [][] { { 0,0,0 }, { 0,0,0 }, { 1,1,1 }, { 0,0,0 } },
+				new int [][] { { 0,1,0 }, { 0,0,0 }, { 0,0,0 }, { 0,2,0 } },
+				new int [][] { { 1,1,1 }, { 1,1,1 }, { 2,2,2 }, { 2,2,2 } });
+	}
+
+	@Test
+	public void testNoIntensityImage() {
+		HierarchicalQueueWatershed<IntType, Integer> watershed = new HierarchicalQueueWatershed<IntType, Integer>();
+		watershed.setSeeds(createLabeling(new long [] { 3, 3 }));
+		assertFalse(watershed.process());
+		assertNotNull(watershed.getErrorMessage());
+	}
+
+	@Test
+	public void testZeroSizeImage() {
+		long [] dimensions = new long [] { 0, 5 };
+		HierarchicalQueueWatershed<IntType, Integer> watershed = new HierarchicalQueueWatershed<IntType, Integer>();
+		watershed.setSeeds(createLabeling(dimensions));
+		watershed.setIntensityImage(new ArrayImgFactory<IntType>().create(dimensions, new IntType()));
+		assertTrue(watershed.process());
+		assertEquals(0, watershed.getResult().size());
+	}
+
+	/**
+	 * Flood with a {@link PriorityQueue} of { intensity, age, index }.
+	 */
+	private static <T extends RealType<T>> int [] referenceWatershed(Img<T> image, int [] seeds, long [][] structuringElement) {
+		final int n = image.numDimensions();
+		final long [] dimensions = new long [n];
+		image.dimensions(dimensions);
+		final double [] intensities = new double [seeds.length];
+		int i = 0;
+		for (T t:image)
+			intensities[i++] = t.getRealDouble();
+		final int [] labels = seeds.clone();
+		final PriorityQueue<double []> pq = new PriorityQueue<double []>(11, new Comparator<double []>() {
+			@Override
+			public int compare(double [] a, double [] b) {
+				int result = Double.compare(a[0], b[0]);
+				return (result == 0) ? Double.compare(a[1], b[1]) : result;
+			}
+		});
+		long age = 0;
+		for (i=0; i<labels.length; i++)
+			if (labels[i] != 0)
+				pq.add(new double [] { intensities[i], age++, i });
+		final long [] position = new long [n];
+		while (! pq.isEmpty()) {
+			final int index = (int)pq.remove()[2];
+			A: for (long [] offset:structuringElement) {
+				long idx = index;
+				int neighbor = 0;
+				long step = 1;
+				for (int d=0; d<n; d++) {
+					position[d] = idx % dimensions[d] + offset[d];
+					idx /= dimensions[d];
+					if ((position[d] < 0) || (position[d] >= dimensions[d])) continue A;
+					neighbor += position[d] * step;
+					step *= dimensions[d];
+				}
+				if (labels[neighbor] != 0) continue;
+				labels[neighbor] = labels[index];
+				pq.add(new double [] { intensities[neighbor], age++, neighbor });
+			}
+		}
+		return labels;
+	}
+
+	private <T extends RealType<T>> void compareToReference(Img<T> image, long [][] structuringElement, int numThreads) {
+		final Random random = new Random(7);
+		for (T t:image)
+			t.setReal(random.nextInt(20));
+		final long [] dimensions = new long [image.numDimensions()];
+		image.dimensions(dimensions);
+		NativeImgLabeling<Integer> seedLabeling = createLabeling(dimensions);
+		final int [] seeds = new int [(int)image.size()];
+		for (int s=1; s<=10; s++)
+			seeds[random.nextInt(seeds.length)] = s;
+		Cursor<LabelingType<Integer>> sc = seedLabeling.cursor();
+		for (int i=0; i<seeds.length; i++) {
+			sc.fwd();
+			if (seeds[i] != 0) sc.get().setLabel(seeds[i]);
+		}
+
+		HierarchicalQueueWatershed<T, Integer> watershed = new HierarchicalQueueWatershed<T, Integer>();
+		watershed.setSeeds(seedLabeling);
+		watershed.setIntensityImage(image);
+		watershed.setStructuringElement(structuringElement);
+		watershed.setNumThreads(numThreads);
+		assertTrue(watershed.process());
+
+		final int [] expected = referenceWatershed(image, seeds, structuringElement);
+		Cursor<LabelingType<Integer>> oc = watershed.getResult().cursor();
+		for (int i=0; i<expected.length; i++) {
+			List<Integer> l = oc.next().getLabeling();
+			if (expected[i] == 0)
+				assertTrue(l.isEmpty());
+			else
+				assertEquals(expected[i], l.get(0).intValue());
+		}
+	}
+
+	@Test
+	public void testBucketQueue() {
+		compareToReference(new ArrayImgFactory<UnsignedByteType>().create(new long [] { 30, 25, 20 }, new UnsignedByteType()),
+				AllConnectedComponents.getStructuringElement(3), 4);
+	}
+
+	@Test
+	public void testHeapQueue() {
+		compareToReference(new ArrayImgFactory<FloatType>().create(new long [] { 30, 25, 20 }, new FloatType()),
+				AllConnectedComponents.getStructuringElement(3), 4);
+	}
+
+	@Test
+	public void testFourConnected() {
+		compareToReference(new ArrayImgFactory<IntType>().create(new long [] { 50, 40 }, new IntType()),
+				new long [][] {{-1,0},{1,0},{0,-1},{0,1}}, 3);
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package tests.labeling;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.algorithm.labeling.AllConnectedComponents;
+import net.imglib2.algorithm.labeling.ParallelConnectedComponents;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.labeling.LabelingType;
+import net.imglib2.labeling.NativeImgLabeling;
+import net.imglib2.type.logic.BitType;
+
+import org.junit.Test;
+
+/**
+ * Compares {@link ParallelConnectedComponents} to {@link AllConnectedComponents}.
+ */
+public class ParallelConnectedComponentsTest {
+	private static NativeImgLabeling<Integer> createLabeling(long [] dimensions) {
+		NativeImgLabeling<Integer> labeling = new NativeImgLabeling<Integer>(dimensions, new ArrayImgFactory<LabelingType<Integer>>());
+		labeling.setLinkedType(new LabelingType<Integer>(labeling));
+		return labeling;
+	}
+
+	private void compare(long [] dimensions, double density, long [][] structuringElement, int numThreads) {
+		ArrayImg<BitType, ?> image = new ArrayImgFactory<BitType>().create(dimensions, new BitType());
+		Random random = new Random(123);
+		for (BitType t:image)
+			t.set(random.nextDouble() < density);
+		if (structuringElement == null)
+			structuringElement = AllConnectedComponents.getStructuringElement(dimensions.length);
+
+		NativeImgLabeling<Integer> expected = createLabeling(dimensions);
+		AllConnectedComponents.labelAllConnectedComponents(expected, image, AllConnectedComponents.getIntegerNames(1), structuringElement);
+		NativeImgLabeling<Integer> labeling = createLabeling(dimensions);
+		ParallelConnectedComponents.labelAllConnectedComponents(labeling, image, AllConnectedComponents.getIntegerNames(1), structuringElement, numThreads);
+
+		Cursor<LabelingType<Integer>> c = expected.localizingCursor();
+		RandomAccess<LabelingType<Integer>> ra = labeling.randomAccess();
+		while(c.hasNext()) {
+			c.fwd();
+			ra.setPosition(c);
+			assertEquals(c.get().getLabeling(), ra.get().getLabeling());
+		}
+	}
+	@Test
+	public void test1D() {
+		compare(new long [] { 1000 }, 0.6, null, 4);
+	}
+	@Test
+	public void test2D() {
+		compare(new long [] { 70, 50 }, 0.4, null, 3);
+	}
+	@Test
+	public void test2DFourConnected() {
+		compare(new long [] { 70, 50 }, 0.55, new long [][] {{-1,0},{1,0},{0,-1},{0,1}}, 3);
+	}
+	@Test
+	public void test3D() {
+		compare(new long [] { 30, 20, 40 }, 0.3, null, 8);
+	}
+	@Test
+	public void testMoreThreadsThanSlices() {
+		compare(new long [] { 40, 40, 3 }, 0.5, null, 16);
+	}
+	@Test
+	public void testSingleThread() {
+		compare(new long [] { 40, 30 }, 0.5, null, 1);
+	}
+}
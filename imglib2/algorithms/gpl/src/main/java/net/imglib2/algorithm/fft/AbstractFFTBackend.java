@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the plans created by an {@link FFTBackend} by size.
+ */
+public abstract class AbstractFFTBackend implements FFTBackend
+{
+	private final ConcurrentHashMap< Integer, ComplexFFTPlan > complexPlans = new ConcurrentHashMap< Integer, ComplexFFTPlan >();
+
+	private final ConcurrentHashMap< Integer, RealFFTPlan > realPlans = new ConcurrentHashMap< Integer, RealFFTPlan >();
+
+	protected abstract ComplexFFTPlan createComplexPlan( final int n );
+
+	protected abstract RealFFTPlan createRealPlan( final int n );
+
+	@Override
+	public ComplexFFTPlan complexPlan( final int n )
+	{
+		final Integer key = n;
+		ComplexFFTPlan plan = complexPlans.get( key );
+		if ( plan == null )
+		{
+			plan = createComplexPlan( n );
+			final ComplexFFTPlan existing = complexPlans.putIfAbsent( key, plan );
+			if ( existing != null )
+				plan = existing;
+		}
+		return plan;
+	}
+
+	@Override
+	public RealFFTPlan realPlan( final int n )
+	{
+		final Integer key = n;
+		RealFFTPlan plan = realPlans.get( key );
+		if ( plan == null )
+		{
+			plan = createRealPlan( n );
+			final RealFFTPlan existing = realPlans.putIfAbsent( key, plan );
+			if ( existing != null )
+				plan = existing;
+		}
+		return plan;
+	}
+
+	/**
+	 * Remove all cached plans.
+	 */
+	public void clearCache()
+	{
+		complexPlans.clear();
+		realPlans.clear();
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft;
+
+/**
+ * A one-dimensional complex-to-complex FFT of a fixed size. Plans are
+ * immutable and can be used by several threads at the same time, each one
+ * providing its own workspace.
+ *
+ * Complex arrays are interleaved, i.e., the real part of element i is at
+ * index 2*i and the imaginary part at 2*i+1.
+ */
+public interface ComplexFFTPlan
+{
+	/**
+	 * @return the number of complex elements transformed
+	 */
+	public int size();
+
+	/**
+	 * @return the number of floats needed as workspace for one transform
+	 */
+	public int workspaceSize();
+
+	/**
+	 * Compute the transform.
+	 *
+	 * @param sign - the sign of the exponent, -1 (forward) or 1 (inverse)
+	 * @param cx - input, size() complex elements
+	 * @param cy - output, size() complex elements, may be the same array as cx
+	 * @param workspace - at least {@link #workspaceSize()} floats
+	 */
+	public void complexToComplex( int sign, float[] cx, float[] cy, float[] workspace );
+}
@@ -0,0 +1,62 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft;
+
+/**
+ * Provides the one-dimensional FFTs that {@link FFTFunctions} uses for
+ * computing multi-dimensional transforms. Implementations cache their
+ * {@link ComplexFFTPlan plans} and {@link RealFFTPlan plans} by size, so
+ * that repeated transforms of the same size do not have to recompute them.
+ *
+ * All transforms are unnormalized. The sign of the exponent is given as
+ * <code>-1</code> for forward and <code>1</code> for inverse transforms.
+ */
+public interface FFTBackend
+{
+	/**
+	 * @param n - the minimal size
+	 * @param fast - whether to prefer a size with a fast transform over the smallest possible size
+	 * @return a size of at least n that is supported by {@link #complexPlan(int)}
+	 */
+	public int complexSize( int n, boolean fast );
+
+	/**
+	 * @param n - the minimal size
+	 * @param fast - whether to prefer a size with a fast transform over the smallest possible size
+	 * @return a size of at least n that is supported by {@link #realPlan(int)}
+	 */
+	public int realSize( int n, boolean fast );
+
+	/**
+	 * @return the (shared) plan for complex-to-complex transforms of size n
+	 */
+	public ComplexFFTPlan complexPlan( int n );
+
+	/**
+	 * @return the (shared) plan for real-to-complex and complex-to-real transforms of size n
+	 */
+	public RealFFTPlan realPlan( int n );
+}
@@ -25,6 +25,7 @@
 
 package net.imglib2.algorithm.fft;
 
+import java.util.Vector;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.imglib2.RandomAccess;
@@ -32,26 +33,49 @@ import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
 import net.imglib2.iterator.LocalizingZeroMinIntervalIterator;
+import net.imglib2.multithreading.Chunk;
 import net.imglib2.multithreading.SimpleMultiThreading;
 import net.imglib2.outofbounds.OutOfBoundsFactory;
 import net.imglib2.type.Type;
 import net.imglib2.type.numeric.ComplexType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.IntervalIndexer;
 import net.imglib2.util.Util;
 import net.imglib2.view.Views;
-import edu.mines.jtk.dsp.FftComplex;
-import edu.mines.jtk.dsp.FftReal;
 
 /**
  * Provides all Fourier-based methods required by {@link FourierTransform}, {@link InverseFourierTransform}, {@link FourierConvolution} and {@link PhaseCorrelation}
  * 
  * Unfortunately only supports a maximal size of INT in each dimension as the one-dimensional FFT is based on arrays.
  * 
+ * The one-dimensional FFTs are provided by an {@link FFTBackend} (by default a {@link MixedRadixFFTBackend}), which
+ * caches its plans by size. The lines of an image are divided into contiguous blocks, one per thread, and every thread
+ * reuses its line buffers for all lines. Lines of {@link ArrayImg}s of {@link FloatType} and {@link ComplexFloatType}
+ * are copied directly from and to the underlying float array.
+ * 
  * @author Stephan Preibisch (stephan.preibisch@gmx.de)
  */
 final public class FFTFunctions 
 {
+	private static volatile FFTBackend backend = new MixedRadixFFTBackend();
+
+	/**
+	 * @return the {@link FFTBackend} used for all transforms
+	 */
+	public static FFTBackend getBackend() { return backend; }
+
+	/**
+	 * Set the {@link FFTBackend} used for all transforms, e.g. a {@link JTKFFTBackend}.
+	 * 
+	 * Note that the backend determines the supported transform sizes, see {@link FourierTransform}. 
+	 */
+	public static void setBackend( final FFTBackend fftBackend ) { backend = fftBackend; }
+
 	final public static <T extends RealType<T>, S extends ComplexType<S>> Img<T> 
 						computeInverseFFT( final RandomAccessibleInterval<S> complex, 
 						                   final ImgFactory<T> imgFactory, 
@@ -80,7 +104,6 @@ final public class FFTFunctions
 		dimensionsReal[ 0 ] = nfft;
 		
 		// create the output image
-		//final ImageFactory<T> imgFactory = new ImageFactory<T>( type, complex.getContainerFactory() );
 		final Img<T> realImage;
 		
 		if ( cropBack )
@@ -92,284 +115,127 @@ final public class FFTFunctions
 		if ( realImage == null )
 			return null;
 		
+		computeInverseFFT( complex, realImage, numThreads, scale, cropBack, originalSize, originalOffset, additionalNormalization );
+		
+		return realImage;
+	}
+
+	/**
+	 * Compute the inverse FFT into an existing image. The complex input is destroyed.
+	 * 
+	 * @param complex - the Fourier image
+	 * @param realImage - the output, its size must be the original size if cropBack is set, otherwise the full size of the inverse transform
+	 */
+	final public static <T extends RealType<T>, S extends ComplexType<S>> void 
+						computeInverseFFT( final RandomAccessibleInterval<S> complex, 
+						                   final RandomAccessibleInterval<T> realImage,
+						                   final int numThreads, 
+						                   final boolean scale, final boolean cropBack,
+						                   final int[] originalSize, final int[] originalOffset,
+						                   final float additionalNormalization )
+	{
+		// get the number of dimensions		
+		final int numDimensions = complex.numDimensions();
+			
+		// the size in dimension 0 of the output image
+		final int nfft = ( (int)complex.dimension( 0 ) - 1 ) * 2;
+
 		//
 		// do fft in all the other dimensions		
 		//	
 		for ( int d = numDimensions - 1; d > 0; --d )
+			computeComplexToComplex( complex, d, 1, scale, numThreads );
+		
+		//
+		// compute inverse fft into the real dimension
+		//
+		final RealFFTPlan fft = getBackend().realPlan( nfft );
+		final int realSize = nfft;
+		final int complexSize = (int)complex.dimension( 0 );
+		final float normalization = scale ? additionalNormalization / realSize : additionalNormalization;
+
+		final int cropX1, cropX2;					
+		if ( cropBack )
 		{
-			final int dim = d;
-			
-			final AtomicInteger ai = new AtomicInteger();
-			final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+			cropX1 = originalOffset[ 0 ];
+			cropX2 = originalOffset[ 0 ] + originalSize[ 0 ];
+		}
+		else
+		{
+			cropX1 = 0;
+			cropX2 = realSize;
+		}
 
-			for (int ithread = 0; ithread < threads.length; ++ithread)
-				threads[ithread] = new Thread(new Runnable()
-				{
-					public void run()
-					{
-						final int myNumber = ai.getAndIncrement();
-												
-						final int size = (int)complex.dimension( dim );
-						
-						final float[] tempIn = new float[ size * 2 ];						
-						final FftComplex fftc = new FftComplex( size );
-						
-						final RandomAccess<S> cursor = complex.randomAccess(); 
+		// all lines in dimension 0
+		final long[] lines = new long[ numDimensions ];
+		complex.dimensions( lines );
+		lines[ 0 ] = 1;
 
-						/**
-						 * Here we use a LocalizingZeroMinIntervalIterator to iterate through all dimensions except the one we are computing the inverse fft in 
-						 */	
-						final int[] fakeSize = new int[ numDimensions - 1 ];
-						final int[] tmp = new int[ numDimensions ];
-						
-						// get all dimensions except the one we are currently doing the fft on
-						int countDim = 0;						
-						for ( int d = 0; d < numDimensions; ++d )
-							if ( d != dim )
-								fakeSize[ countDim++ ] = (int)complex.dimension( d );
+		final long[] min = new long[ numDimensions ];
+		complex.min( min );
 
-						final LocalizingZeroMinIntervalIterator cursorDim = new LocalizingZeroMinIntervalIterator( fakeSize );
-						
-						final float[] tempOut = new float[ size * 2 ];
-						
-						// iterate over all dimensions except the one we are computing the fft in, which is dim=0 here
-						while( cursorDim.hasNext() )
-						{
-							cursorDim.fwd();							
+		final long[] outMin = new long[ numDimensions ];
+		realImage.min( outMin );
 
-							if ( cursorDim.getIntPosition( 0 ) % numThreads == myNumber )
-							{
-								// update all positions except for the one we are currrently doing the inverse fft on
-								cursorDim.localize( fakeSize );
-
-								tmp[ dim ] = (int)complex.min( dim );								
-								countDim = 0;						
-								for ( int d = 0; d < numDimensions; ++d )
-									if ( d != dim )
-										tmp[ d ] = fakeSize[ countDim++ ] + (int)complex.min( d );
-								
-								// update the cursor in the input image to the current dimension position
-								cursor.setPosition( tmp );
-																
-								// get the input line
-								for ( int i = 0; i < size-1; ++i )
-								{
-									tempIn[ i * 2 ] = cursor.get().getRealFloat();
-									tempIn[ i * 2 + 1 ] = cursor.get().getImaginaryFloat();
-									cursor.fwd( dim );
-								}
-								tempIn[ (size-1) * 2 ] = cursor.get().getRealFloat();
-								tempIn[ (size-1) * 2 + 1 ] = cursor.get().getImaginaryFloat();
-								
-								// compute the inverse fft
-								fftc.complexToComplex( 1, tempIn, tempOut );
-								
-								// update the cursor in the input image to the current dimension position
-								cursor.setPosition( tmp );
-
-								// write back result
-								if ( scale )
-								{
-									for ( int i = 0; i < size-1; ++i )
-									{
-										cursor.get().setComplexNumber( tempOut[ i * 2 ] / size, tempOut[ i * 2 + 1 ] / size );
-										cursor.fwd( dim );
-									}
-									cursor.get().setComplexNumber( tempOut[ (size-1) * 2 ] / size, tempOut[ (size-1) * 2 + 1 ] / size );
-								}
-								else
-								{
-									for ( int i = 0; i < size-1; ++i )
-									{
-										cursor.get().setComplexNumber( tempOut[ i * 2 ], tempOut[ i * 2 + 1 ] );
-										cursor.fwd( dim );
-									}
-									cursor.get().setComplexNumber( tempOut[ (size-1) * 2 ], tempOut[ (size-1) * 2 + 1 ] );
-								}	
-							}							
-						}
-					}
-				});
-			
-			SimpleMultiThreading.startAndJoin( threads );						
-		}
-		
-		//
-		// compute inverse fft into the real dimension
-		//
+		final Vector< Chunk > chunks = divideLines( lines, numThreads );
 		final AtomicInteger ai = new AtomicInteger();
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+		final Thread[] threads = SimpleMultiThreading.newThreads( chunks.size() );
 		
 		for (int ithread = 0; ithread < threads.length; ++ithread)
 			threads[ithread] = new Thread(new Runnable()
 			{
 				public void run()
 				{
-					final int myNumber = ai.getAndIncrement();
-										
-					final int realSize = dimensionsReal[ 0 ];
-					final int complexSize = (int)complex.dimension( 0 );
-					final float[] tempIn = new float[ complexSize * 2 ];				
-					final FftReal fft = new FftReal( realSize );
-
-					final int cropX1, cropX2;					
-					if ( cropBack )
-					{
-						cropX1 = originalOffset[ 0 ];
-						cropX2 = originalOffset[ 0 ] + originalSize[ 0 ];
-					}
-					else
-					{
-						cropX1 = 0;
-						cropX2 = realSize;
-					}
+					final Chunk chunk = chunks.get( ai.getAndIncrement() );
+
+					final float[] tempIn = new float[ complexSize * 2 ];
+					final float[] tempOut = new float[ realSize ];
+					final float[] workspace = new float[ fft.workspaceSize() ];
 					
-					final RandomAccess<S> cursor = complex.randomAccess(); 
-					final RandomAccess<T> cursorOut = realImage.randomAccess(); 
+					final ComplexLineAccess in = createComplexLineAccess( complex );
+					final RealLineAccess< T > out = new RealLineAccess< T >( realImage, realImage );
 					
-					if ( numDimensions > 1 )
+					final long[] line = new long[ numDimensions ];
+					final long[] position = new long[ numDimensions ];
+					final long[] positionOut = new long[ numDimensions ];
+
+					final long end = chunk.getStartPosition() + chunk.getLoopSize();
+A:					for ( long l = chunk.getStartPosition(); l < end; ++l )
 					{
-						/**
-						 * Here we use a LocalizingZeroMinIntervalIterator to iterate through all dimensions except the one we are computing the inverse fft in 
-						 */	
-						final int[] fakeSize = new int[ numDimensions - 1 ];
-						final int[] tmp = new int[ numDimensions ];
+						IntervalIndexer.indexToPosition( l, lines, line );
 						
 						for ( int d = 1; d < numDimensions; ++d )
-							fakeSize[ d - 1 ] = (int)complex.dimension( d );
-						
-						final LocalizingZeroMinIntervalIterator cursorDim = new LocalizingZeroMinIntervalIterator( fakeSize );
-							
-						final float[] tempOut = new float[ realSize ];
-																		
-						// iterate over all dimensions except the one we are computing the fft in, which is dim=0 here
-A:						while( cursorDim.hasNext() )
-						{
-							cursorDim.fwd();							
-
-							if ( cursorDim.getIntPosition( 0 ) % numThreads == myNumber )
-							{							
-								// get all dimensions except the one we are currently doing the fft on
-								cursorDim.localize( fakeSize );
-
-								tmp[ 0 ] = (int)complex.min( 0 );
-								if ( cropBack )
-								{
-									// check that we are not out of the cropped image's bounds, then we do not have to compute the
-									// inverse fft here
-									for ( int d = 1; d < numDimensions; ++d )
-									{
-										tmp[ d ] = fakeSize[ d - 1 ];
-										if ( tmp[ d ] < originalOffset[ d ] || tmp[ d ] >= originalOffset[ d ] + originalSize[ d ] )
-											continue A;
-										tmp[ d ] += (int)complex.min( d );
-									}
-								}
-								else
-								{
-									for ( int d = 1; d < numDimensions; ++d )									
-										tmp[ d ] = fakeSize[ d - 1 ] + (int)complex.min( d );
-								}
-
-								// set the cursor to the beginning of the correct line
-								cursor.setPosition( tmp );
-								
-								// fill the input array with complex image data
-								for ( int i = 0; i < complexSize-1; ++i )
-								{
-									tempIn[ i * 2 ] = cursor.get().getRealFloat();
-									tempIn[ i * 2 + 1 ] = cursor.get().getImaginaryFloat();
-									cursor.fwd( 0 );
-								}
-								tempIn[ (complexSize-1) * 2 ] = cursor.get().getImaginaryFloat();
-								tempIn[ (complexSize-1) * 2 + 1 ] = cursor.get().getImaginaryFloat();
-																								
-								// compute the fft in dimension 0 ( complex -> real )
-								fft.complexToReal( 1, tempIn, tempOut );
-										
-								// set the cursor in the fft output image to the right line
-								tmp[ 0 ] -= (int)complex.min( 0 );
-								if ( cropBack )
-									for ( int d = 1; d < numDimensions; ++d )									
-										tmp[ d ] -= (originalOffset[ d ] + (int)complex.min( d ));									
-								
-								cursorOut.setPosition( tmp );
-								
-								// write back the real data
-								if ( scale )
-								{
-									for ( int x = cropX1; x < cropX2-1; ++x )
-									{
-										cursorOut.get().setReal( (tempOut[ x ] / realSize) * additionalNormalization );
-										cursorOut.fwd( 0 );
-									}
-									cursorOut.get().setReal( (tempOut[ cropX2-1 ] / realSize) * additionalNormalization );
-								}
-								else
-								{
-									for ( int x = cropX1; x < cropX2-1; ++x )
-									{
-										cursorOut.get().setReal( tempOut[ x ] * additionalNormalization );
-										cursorOut.fwd( 0 );
-									}
-									cursorOut.get().setReal( tempOut[ cropX2-1 ] * additionalNormalization );
-								}
-							}
-						}
-					}
-					else
-					{
-						// multithreading makes no sense here
-						if ( myNumber == 0)
 						{
-							// set the cursor to 0 in the first (and only) dimension
-							cursor.setPosition( (int)complex.min( 0 ), 0 );
-							
-							// get the input data
-							// fill the input array with complex image data
-							for ( int i = 0; i < complexSize-1; ++i )
+							if ( cropBack )
 							{
-								tempIn[ i * 2 ] = cursor.get().getRealFloat();
-								tempIn[ i * 2 + 1 ] = cursor.get().getImaginaryFloat();
-								cursor.fwd( 0 );
-							}
-							tempIn[ (complexSize-1) * 2 ] = cursor.get().getRealFloat();
-							tempIn[ (complexSize-1) * 2 + 1 ] = cursor.get().getImaginaryFloat();
-							
-							// compute the fft in dimension 0 ( real -> complex )
-							final float[] tempOut = new float[ realSize ];
-							fft.complexToReal( 1, tempIn, tempOut );
-							
-							// set the cursor in the fft output image to 0 in the first (and only) dimension
-							cursorOut.setPosition( 0, 0 );
-							
-							// write back the real data
-							if ( scale )
-							{
-								for ( int x = cropX1; x < cropX2-1; ++x )
-								{
-									cursorOut.get().setReal( (tempOut[ x ] / realSize) * additionalNormalization );
-									cursorOut.fwd( 0 );
-								}
-								cursorOut.get().setReal( (tempOut[ cropX2-1 ] / realSize) * additionalNormalization );
+								// check that we are not out of the cropped image's bounds, then we do not have to compute the
+								// inverse fft here
+								if ( line[ d ] < originalOffset[ d ] || line[ d ] >= originalOffset[ d ] + originalSize[ d ] )
+									continue A;
+								positionOut[ d ] = line[ d ] - originalOffset[ d ] + outMin[ d ];
 							}
 							else
 							{
-								for ( int x = cropX1; x < cropX2-1; ++x )
-								{
-									cursorOut.get().setReal( tempOut[ x ] * additionalNormalization );
-									cursorOut.fwd( 0 );
-								}
-								cursorOut.get().setReal( tempOut[ cropX2-1 ] * additionalNormalization );
+								positionOut[ d ] = line[ d ] + outMin[ d ];
 							}
+							position[ d ] = line[ d ] + min[ d ];
 						}
+						position[ 0 ] = min[ 0 ];
+						positionOut[ 0 ] = outMin[ 0 ];
+
+						// fill the input array with complex image data
+						in.read( position, 0, complexSize, tempIn );
+
+						// compute the fft in dimension 0 ( complex -> real )
+						fft.complexToReal( 1, tempIn, tempOut, workspace );
+
+						// write back the real data
+						out.write( positionOut, tempOut, cropX1, cropX2 - cropX1, normalization );
 					}
 				}
 			});
 		
 		SimpleMultiThreading.startAndJoin(threads);
-		
-		return realImage;
 	}
 	
 	final public static <T extends RealType<T>, S extends ComplexType<S>> Img<S> 
@@ -382,9 +248,6 @@ A:						while( cursorDim.hasNext() )
 	{
 		final int numDimensions = input.numDimensions();
 		
-		// create ExtendedRandomAccess for input using the OutOfBoundsStrategy
-		final RandomAccessible< T > extendedInput = Views.extend( input, outOfBoundsFactory );
-		
 		final int complexSize[] = new int[ numDimensions ];
 		
 		// the size of the first dimension is changed
@@ -398,143 +261,85 @@ A:						while( cursorDim.hasNext() )
 		// not enough memory
 		if ( fftImage == null )
 			return null;
+
+		computeFFT( input, fftImage, outOfBoundsFactory, imageOffset, imageSize, numThreads, scale );
+
+		return fftImage;
+	}
+
+	/**
+	 * Compute the FFT into an existing image.
+	 * 
+	 * @param fftImage - the output, its size must be imageSize[ 0 ] / 2 + 1 in dimension 0 and imageSize in all other dimensions
+	 */
+	final public static <T extends RealType<T>, S extends ComplexType<S>> void 
+						computeFFT( final RandomAccessibleInterval<T> input,
+						            final RandomAccessibleInterval<S> fftImage,
+						            final OutOfBoundsFactory<T, RandomAccessibleInterval<T>> outOfBoundsFactory,
+						            final int[] imageOffset, final int[] imageSize,
+						            final int numThreads, final boolean scale )
+	{
+		final int numDimensions = input.numDimensions();
+		
+		// create ExtendedRandomAccess for input using the OutOfBoundsStrategy
+		final RandomAccessible< T > extendedInput = Views.extend( input, outOfBoundsFactory );
 		
+		final int complexSize[] = new int[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			complexSize[ d ] = (int)fftImage.dimension( d );
+
+		final long[] outMin = new long[ numDimensions ];
+		fftImage.min( outMin );
+
+		final RealFFTPlan fft = getBackend().realPlan( imageSize[ 0 ] );
+		final int realSize = imageSize[ 0 ];
+		final float normalization = scale ? 1.0f / realSize : 1.0f;
+
+		// all lines in dimension 0
+		final long[] lines = new long[ numDimensions ];
+		for ( int d = 1; d < numDimensions; ++d )
+			lines[ d ] = imageSize[ d ];
+		lines[ 0 ] = 1;
+
+		final Vector< Chunk > chunks = divideLines( lines, numThreads );
 		final AtomicInteger ai = new AtomicInteger(0);
-		Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+		final Thread[] threads = SimpleMultiThreading.newThreads( chunks.size() );
 		
 		for (int ithread = 0; ithread < threads.length; ++ithread)
 			threads[ithread] = new Thread(new Runnable()
 			{
 				public void run()
 				{
-					final int myNumber = ai.getAndIncrement();
-					
-					final int realSize = imageSize[ 0 ];
-					final int complexSize = (int)fftImage.dimension( 0 );
-							
-					final float[] tempIn = new float[ realSize ];				
-					final FftReal fft = new FftReal( realSize );
-					
-					final RandomAccess<T> cursor = extendedInput.randomAccess();
-					final RandomAccess<S> cursorOut = fftImage.randomAccess(); 
-					
-					if ( numDimensions > 1 )
-					{
-						/**
-						 * Here we use a LocalizingZeroMinIntervalIterator to iterate through all dimensions except the one we are computing the inverse fft in 
-						 */	
-						final int[] fakeSize = new int[ numDimensions - 1 ];
-						final int[] tmp = new int[ numDimensions ];
-						final int[] tmp2 = new int[ numDimensions ];
-						
-						for ( int d = 1; d < numDimensions; ++d )
-							fakeSize[ d - 1 ] = imageSize[ d ];
-						
-						final LocalizingZeroMinIntervalIterator cursorDim = new LocalizingZeroMinIntervalIterator( fakeSize );						
+					final Chunk chunk = chunks.get( ai.getAndIncrement() );
 
-						final float[] tempOut = new float[ complexSize * 2 ];
-						
-						// iterate over all dimensions except the one we are computing the fft in, which is dim=0 here
-						while( cursorDim.hasNext() )
-						{
-							cursorDim.fwd();							
+					final float[] tempIn = new float[ realSize ];
+					final float[] tempOut = new float[ complexSize[ 0 ] * 2 ];
+					final float[] workspace = new float[ fft.workspaceSize() ];
 
-							if ( cursorDim.getIntPosition( 0 ) % numThreads == myNumber )
-							{							
-								// get all dimensions except the one we are currently doing the fft on
-								cursorDim.localize( fakeSize );
+					final RealLineAccess< T > in = new RealLineAccess< T >( input, extendedInput );
+					final ComplexLineAccess out = createComplexLineAccess( fftImage );
 
-								tmp[ 0 ] = 0;
-								tmp2[ 0 ] = -imageOffset[ 0 ] + (int)input.min( 0 );
-								
-								for ( int d = 1; d < numDimensions; ++d )
-								{
-									tmp[ d ] = fakeSize[ d - 1 ];
-									tmp2[ d ] = fakeSize[ d - 1 ] - imageOffset[ d ] + (int)input.min( d );
-								}
-
-								// set the cursor to the beginning of the correct line
-								cursor.setPosition( tmp2 );
-								
-								// fill the input array with image data
-								for ( int x = 0; x < realSize-1; ++x )
-								{
-									tempIn[ x ] = cursor.get().getRealFloat();									
-									cursor.fwd( 0 );
-								}
-								tempIn[ (realSize-1) ] = cursor.get().getRealFloat();
-
-								// compute the fft in dimension 0 ( real -> complex )
-								fft.realToComplex( -1, tempIn, tempOut );
-									
-								// set the cursor in the fft output image to the right line
-								cursorOut.setPosition( tmp );
-								
-								// write back the fft data
-								if ( scale )
-								{
-									for ( int x = 0; x < complexSize-1; ++x )
-									{
-										cursorOut.get().setComplexNumber( tempOut[ x * 2 ] / realSize, tempOut[ x * 2 + 1 ] / realSize );									
-										cursorOut.fwd( 0 );
-									}
-									cursorOut.get().setComplexNumber( tempOut[ (complexSize-1) * 2 ] / realSize, tempOut[ (complexSize-1) * 2 + 1 ] / realSize );									
-								}
-								else
-								{
-									for ( int x = 0; x < complexSize-1; ++x )
-									{
-										cursorOut.get().setComplexNumber( tempOut[ x * 2 ], tempOut[ x * 2 + 1 ] );									
-										cursorOut.fwd( 0 );
-									}
-									cursorOut.get().setComplexNumber( tempOut[ (complexSize-1) * 2 ], tempOut[ (complexSize-1) * 2 + 1 ] );									
-								}
-							}
-						}
-					}
-					else
+					final long[] line = new long[ numDimensions ];
+					final long[] position = new long[ numDimensions ];
+
+					final long end = chunk.getStartPosition() + chunk.getLoopSize();
+					for ( long l = chunk.getStartPosition(); l < end; ++l )
 					{
-						// multithreading makes no sense here
-						if ( myNumber == 0 )
-						{
-							// set the cursor to 0 in the first (and only) dimension
-							cursor.setPosition( -imageOffset[ 0 ] + (int)input.min( 0 ), 0 );
-							
-							// get the input data
-							for ( int x = 0; x < realSize-1; ++x )
-							{
-								tempIn[ x ] = cursor.get().getRealFloat();
-								cursor.fwd( 0 );
-							}
-							tempIn[ realSize-1 ] = cursor.get().getRealFloat();
-							
-							// compute the fft in dimension 0 ( real -> complex )
-							final float[] tempOut = new float[ complexSize * 2 ];
-							fft.realToComplex( -1, tempIn, tempOut );
-							
-							// set the cursor in the fft output image to 0 in the first (and only) dimension
-							cursorOut.setPosition( 0, 0 );
-							
-							// write back the fft data
-							if ( scale )
-							{
-								for ( int x = 0; x < complexSize-1; ++x )
-								{
-									cursorOut.get().setComplexNumber( tempOut[ x * 2 ] / realSize, tempOut[ x * 2 + 1 ] / realSize );
-									cursorOut.fwd( 0 );
-								}
-								cursorOut.get().setComplexNumber( tempOut[ (complexSize-1) * 2 ] / realSize, tempOut[ (complexSize-1) * 2 + 1 ] / realSize );
-							}
-							else
-							{
-								for ( int x = 0; x < complexSize-1; ++x )
-								{
-									cursorOut.get().setComplexNumber( tempOut[ x * 2 ], tempOut[ x * 2 + 1 ] );									
-									cursorOut.fwd( 0 );
-								}
-								cursorOut.get().setComplexNumber( tempOut[ (complexSize-1) * 2 ], tempOut[ (complexSize-1) * 2 + 1 ] );									
-							}	
-						}
+						IntervalIndexer.indexToPosition( l, lines, line );
+
+						for ( int d = 0; d < numDimensions; ++d )
+							position[ d ] = line[ d ] - imageOffset[ d ] + input.min( d );
+
+						// fill the input array with image data
+						in.read( position, realSize, tempIn );
+
+						// compute the fft in dimension 0 ( real -> complex )
+						fft.realToComplex( -1, tempIn, tempOut, workspace );
+
+						// write back the fft data
+						for ( int d = 0; d < numDimensions; ++d )
+							position[ d ] = line[ d ] + outMin[ d ];
+						out.write( position, 0, complexSize[ 0 ], tempOut, normalization );
 					}
 				}
 			});
@@ -545,104 +350,332 @@ A:						while( cursorDim.hasNext() )
 		// do fft in all the other dimensions		
 		//	
 		for ( int d = 1; d < numDimensions; ++d )
-		{
-			final int dim = d;
-			
-			ai.set( 0 );
-			threads = SimpleMultiThreading.newThreads( numThreads );
+			computeComplexToComplex( fftImage, d, -1, scale, numThreads );
+	}
+
+	/**
+	 * Compute the complex-to-complex FFT of all lines of an image in one dimension, in place.
+	 * 
+	 * @param complex - the image
+	 * @param dim - the dimension
+	 * @param sign - -1 for the forward, 1 for the inverse transform
+	 * @param scale - whether to divide by the size of the transform
+	 * @param numThreads - number of threads to use
+	 */
+	final public static <S extends ComplexType<S>> void computeComplexToComplex( final RandomAccessibleInterval<S> complex, final int dim, final int sign, final boolean scale, final int numThreads )
+	{
+		final int numDimensions = complex.numDimensions();
+		final int size = (int)complex.dimension( dim );
+		final ComplexFFTPlan fft = getBackend().complexPlan( size );
+		final float normalization = scale ? 1.0f / size : 1.0f;
 
-			for (int ithread = 0; ithread < threads.length; ++ithread)
-				threads[ithread] = new Thread(new Runnable()
+		// all lines in dimension dim
+		final long[] lines = new long[ numDimensions ];
+		complex.dimensions( lines );
+		lines[ dim ] = 1;
+
+		final long[] min = new long[ numDimensions ];
+		complex.min( min );
+
+		final Vector< Chunk > chunks = divideLines( lines, numThreads );
+		final AtomicInteger ai = new AtomicInteger();
+		final Thread[] threads = SimpleMultiThreading.newThreads( chunks.size() );
+
+		for (int ithread = 0; ithread < threads.length; ++ithread)
+			threads[ithread] = new Thread(new Runnable()
+			{
+				public void run()
 				{
-					public void run()
-					{
-						final int myNumber = ai.getAndIncrement();
-						
-						final int size = (int)fftImage.dimension( dim );
-						
-						final float[] tempIn = new float[ size * 2 ];						
-						final FftComplex fftc = new FftComplex( size );
-						
-						final RandomAccess<S> cursor = fftImage.randomAccess(); 
+					final Chunk chunk = chunks.get( ai.getAndIncrement() );
 
-						/**
-						 * Here we use a LocalizingZeroMinIntervalIterator to iterate through all dimensions except the one we are computing the inverse fft in 
-						 */	
-						final int[] fakeSize = new int[ numDimensions - 1 ];
-						final int[] tmp = new int[ numDimensions ];
-						
-						// get all dimensions except the one we are currently doing the fft on
-						int countDim = 0;						
+					final float[] temp = new float[ size * 2 ];
+					final float[] workspace = new float[ fft.workspaceSize() ];
+
+					final ComplexLineAccess access = createComplexLineAccess( complex );
+
+					final long[] position = new long[ numDimensions ];
+
+					final long end = chunk.getStartPosition() + chunk.getLoopSize();
+					for ( long l = chunk.getStartPosition(); l < end; ++l )
+					{
+						IntervalIndexer.indexToPosition( l, lines, position );
 						for ( int d = 0; d < numDimensions; ++d )
-							if ( d != dim )
-								fakeSize[ countDim++ ] = (int)fftImage.dimension( d );
+							position[ d ] += min[ d ];
 
-						final LocalizingZeroMinIntervalIterator cursorDim = new LocalizingZeroMinIntervalIterator( fakeSize );						
-						
-						final float[] tempOut = new float[ size * 2 ];
-						
-						// iterate over all dimensions except the one we are computing the fft in, which is dim=0 here
-						while( cursorDim.hasNext() )
-						{
-							cursorDim.fwd();							
+						// get the input line
+						access.read( position, dim, size, temp );
 
-							if ( cursorDim.getIntPosition( 0 ) % numThreads == myNumber )
-							{
-								// update all positions except for the one we are currrently doing the fft on
-								cursorDim.localize( fakeSize );
-
-								tmp[ dim ] = 0;								
-								countDim = 0;						
-								for ( int d = 0; d < numDimensions; ++d )
-									if ( d != dim )
-										tmp[ d ] = fakeSize[ countDim++ ];
-								
-								// update the cursor in the input image to the current dimension position
-								cursor.setPosition( tmp );
-								
-								// get the input line
-								for ( int i = 0; i < size - 1; ++i )
-								{
-									tempIn[ i * 2 ] = cursor.get().getRealFloat();
-									tempIn[ i * 2 + 1 ] = cursor.get().getImaginaryFloat();
-									cursor.fwd( dim  );
-								}
-								tempIn[ (size-1) * 2 ] = cursor.get().getRealFloat();
-								tempIn[ (size-1) * 2 + 1 ] = cursor.get().getImaginaryFloat();
-								
-								// compute the fft in dimension dim (complex -> complex) 
-								fftc.complexToComplex( -1, tempIn, tempOut);
-	
-								// set the cursor to the right line
-								cursor.setPosition( tmp );
-								
-								// write back result
-								if ( scale )	
-								{
-									for ( int i = 0; i < size-1; ++i )
-									{
-										cursor.get().setComplexNumber( tempOut[ i * 2 ] / size, tempOut[ i * 2 + 1 ] / size );
-										cursor.fwd( dim );
-									}
-									cursor.get().setComplexNumber( tempOut[ (size-1) * 2 ] / size, tempOut[ (size-1) * 2 + 1 ] / size );
-								}
-								else
-								{
-									for ( int i = 0; i < size-1; ++i )
-									{
-										cursor.get().setComplexNumber( tempOut[ i * 2 ], tempOut[ i * 2 + 1 ] );
-										cursor.fwd( dim );
-									}
-									cursor.get().setComplexNumber( tempOut[ (size-1) * 2 ], tempOut[ (size-1) * 2 + 1 ] );									
-								}
-							}
-						}
+						// compute the fft in dimension dim (complex -> complex), in place
+						fft.complexToComplex( sign, temp, temp, workspace );
+
+						// write back result
+						access.write( position, dim, size, temp, normalization );
 					}
-				});
-			
-			SimpleMultiThreading.startAndJoin( threads );
+				}
+			});
+
+		SimpleMultiThreading.startAndJoin( threads );
+	}
+
+	/**
+	 * Divide lines into one contiguous block per thread.
+	 * 
+	 * @param lines - the number of lines in every dimension
+	 * @param numThreads - the maximal number of threads
+	 */
+	final private static Vector< Chunk > divideLines( final long[] lines, final int numThreads )
+	{
+		long numLines = 1;
+		for ( final long l : lines )
+			numLines *= l;
+
+		return SimpleMultiThreading.divideIntoChunks( numLines, (int)Math.max( 1, Math.min( numThreads, numLines ) ) );
+	}
+
+	/**
+	 * @return the float array of an {@link ArrayImg} of the given type, or null
+	 */
+	final private static float[] getFloatArray( final RandomAccessibleInterval< ? > img, final Class< ? > type )
+	{
+		if ( img instanceof ArrayImg )
+		{
+			final ArrayImg< ?, ? > arrayImg = ( ArrayImg< ?, ? > ) img;
+			final Object access = arrayImg.update( null );
+			if ( access instanceof FloatArray && type.isInstance( arrayImg.firstElement() ) )
+				return ( ( FloatArray ) access ).getCurrentStorageArray();
+		}
+		return null;
+	}
+
+	final private static < S extends ComplexType< S > > ComplexLineAccess createComplexLineAccess( final RandomAccessibleInterval< S > complex )
+	{
+		final float[] data = getFloatArray( complex, ComplexFloatType.class );
+		if ( data == null )
+			return new GenericComplexLineAccess< S >( complex.randomAccess() );
+		else
+			return new ArrayComplexLineAccess( data, complex );
+	}
+
+	/**
+	 * Reads and writes lines of complex values as interleaved float arrays.
+	 */
+	private static abstract class ComplexLineAccess
+	{
+		/**
+		 * Read the line starting at position along dimension dim.
+		 */
+		abstract void read( final long[] position, final int dim, final int size, final float[] line );
+
+		/**
+		 * Write the line starting at position along dimension dim, multiplied by the normalization.
+		 */
+		abstract void write( final long[] position, final int dim, final int size, final float[] line, final float normalization );
+	}
+
+	private static final class GenericComplexLineAccess< S extends ComplexType< S > > extends ComplexLineAccess
+	{
+		final RandomAccess< S > cursor;
+
+		GenericComplexLineAccess( final RandomAccess< S > cursor )
+		{
+			this.cursor = cursor;
+		}
+
+		@Override
+		void read( final long[] position, final int dim, final int size, final float[] line )
+		{
+			cursor.setPosition( position );
+			for ( int i = 0; i < size-1; ++i )
+			{
+				line[ i * 2 ] = cursor.get().getRealFloat();
+				line[ i * 2 + 1 ] = cursor.get().getImaginaryFloat();
+				cursor.fwd( dim );
+			}
+			line[ (size-1) * 2 ] = cursor.get().getRealFloat();
+			line[ (size-1) * 2 + 1 ] = cursor.get().getImaginaryFloat();
+		}
+
+		@Override
+		void write( final long[] position, final int dim, final int size, final float[] line, final float normalization )
+		{
+			cursor.setPosition( position );
+			for ( int i = 0; i < size-1; ++i )
+			{
+				cursor.get().setComplexNumber( line[ i * 2 ] * normalization, line[ i * 2 + 1 ] * normalization );
+				cursor.fwd( dim );
+			}
+			cursor.get().setComplexNumber( line[ (size-1) * 2 ] * normalization, line[ (size-1) * 2 + 1 ] * normalization );
+		}
+	}
+
+	private static final class ArrayComplexLineAccess extends ComplexLineAccess
+	{
+		final float[] data;
+
+		final int[] steps;
+
+		ArrayComplexLineAccess( final float[] data, final RandomAccessibleInterval< ? > img )
+		{
+			this.data = data;
+			final long[] dimensions = new long[ img.numDimensions() ];
+			img.dimensions( dimensions );
+			final int[] dims = new int[ dimensions.length ];
+			for ( int d = 0; d < dims.length; ++d )
+				dims[ d ] = ( int ) dimensions[ d ];
+			steps = new int[ dims.length ];
+			IntervalIndexer.createAllocationSteps( dims, steps );
+		}
+
+		private int index( final long[] position )
+		{
+			int index = 0;
+			for ( int d = 0; d < steps.length; ++d )
+				index += ( int ) position[ d ] * steps[ d ];
+			return 2 * index;
+		}
+
+		@Override
+		void read( final long[] position, final int dim, final int size, final float[] line )
+		{
+			final int stride = 2 * steps[ dim ];
+			if ( stride == 2 )
+			{
+				System.arraycopy( data, index( position ), line, 0, 2 * size );
+				return;
+			}
+			for ( int i = 0, j = index( position ); i < size; ++i, j += stride )
+			{
+				line[ i * 2 ] = data[ j ];
+				line[ i * 2 + 1 ] = data[ j + 1 ];
+			}
+		}
+
+		@Override
+		void write( final long[] position, final int dim, final int size, final float[] line, final float normalization )
+		{
+			final int stride = 2 * steps[ dim ];
+			if ( stride == 2 && normalization == 1.0f )
+			{
+				System.arraycopy( line, 0, data, index( position ), 2 * size );
+				return;
+			}
+			for ( int i = 0, j = index( position ); i < size; ++i, j += stride )
+			{
+				data[ j ] = line[ i * 2 ] * normalization;
+				data[ j + 1 ] = line[ i * 2 + 1 ] * normalization;
+			}
+		}
+	}
+
+	/**
+	 * Reads lines of real values in dimension 0 from a {@link RandomAccessible}
+	 * and writes them to a {@link RandomAccessibleInterval}. The part of a
+	 * line that lies within an {@link ArrayImg} of {@link FloatType} is copied
+	 * directly from or to its float array.
+	 */
+	private static final class RealLineAccess< T extends RealType< T > >
+	{
+		final RandomAccess< T > cursor;
+
+		final float[] data;
+
+		final long[] dimensions;
+
+		final int[] steps;
+
+		/**
+		 * @param interval - the image that might be an {@link ArrayImg}
+		 * @param source - the image, or an extension of it
+		 */
+		RealLineAccess( final RandomAccessibleInterval< T > interval, final RandomAccessible< T > source )
+		{
+			cursor = source.randomAccess();
+			data = getFloatArray( interval, FloatType.class );
+			dimensions = new long[ interval.numDimensions() ];
+			interval.dimensions( dimensions );
+			steps = new int[ dimensions.length ];
+			if ( data != null )
+				for ( int d = 0, step = 1; d < dimensions.length; ++d )
+				{
+					steps[ d ] = step;
+					step *= ( int ) dimensions[ d ];
+				}
+		}
+
+		/**
+		 * @return the index of position in the float array, or -1 if it is not in the array in dimensions > 0.
+		 */
+		private int index( final long[] position )
+		{
+			int index = 0;
+			for ( int d = 1; d < steps.length; ++d )
+			{
+				if ( position[ d ] < 0 || position[ d ] >= dimensions[ d ] )
+					return -1;
+				index += ( int ) position[ d ] * steps[ d ];
+			}
+			return index;
+		}
+
+		/**
+		 * Read size values starting at position along dimension 0.
+		 */
+		void read( final long[] position, final int size, final float[] line )
+		{
+			// the part [from, to) of the line which is in the array
+			int from = 0, to = 0, index = -1;
+			if ( data != null && ( index = index( position ) ) >= 0 )
+			{
+				from = ( int ) Math.min( size, Math.max( 0, -position[ 0 ] ) );
+				to = ( int ) Math.max( from, Math.min( size, dimensions[ 0 ] - position[ 0 ] ) );
+			}
+
+			if ( from > 0 || to == 0 )
+			{
+				cursor.setPosition( position );
+				for ( int x = 0; x < ( to == 0 ? size : from ); ++x )
+				{
+					line[ x ] = cursor.get().getRealFloat();
+					cursor.fwd( 0 );
+				}
+			}
+			if ( to > from )
+			{
+				System.arraycopy( data, index + ( int ) position[ 0 ] + from, line, from, to - from );
+				if ( to < size )
+				{
+					cursor.setPosition( position );
+					cursor.move( to, 0 );
+					for ( int x = to; x < size; ++x )
+					{
+						line[ x ] = cursor.get().getRealFloat();
+						cursor.fwd( 0 );
+					}
+				}
+			}
+		}
+
+		/**
+		 * Write length values of the line, starting at offset, to position along dimension 0.
+		 */
+		void write( final long[] position, final float[] line, final int offset, final int length, final float normalization )
+		{
+			if ( data != null )
+			{
+				final int index = index( position ) + ( int ) position[ 0 ];
+				for ( int x = 0; x < length; ++x )
+					data[ index + x ] = line[ offset + x ] * normalization;
+				return;
+			}
+
+			cursor.setPosition( position );
+			for ( int x = 0; x < length-1; ++x )
+			{
+				cursor.get().setReal( line[ offset + x ] * normalization );
+				cursor.fwd( 0 );
+			}
+			cursor.get().setReal( line[ offset + length-1 ] * normalization );
 		}
-		return fftImage;
 	}
 	
 	final private static <T extends Type<T>> void rearrangeQuadrantFFTDimZeroSingleDim( final RandomAccessibleInterval<T> fftImage )
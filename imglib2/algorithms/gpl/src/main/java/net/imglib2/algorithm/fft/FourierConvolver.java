@@ -0,0 +1,453 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.iterator.LocalizingZeroMinIntervalIterator;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import net.imglib2.outofbounds.OutOfBoundsConstantValueFactory;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory.Boundary;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Convolves many images with the same kernel in Fourier space. Computes the
+ * same result as {@link FourierConvolution}, but the Fourier transform of the
+ * kernel is computed only once for every padded image size and kept in a
+ * cache. The Fourier image is computed in a buffer that is reused as long as
+ * the padded size does not change, and the result is written into an image
+ * provided by the caller.
+ * 
+ * A batch of images is convolved by several workers concurrently, each of them
+ * transforming whole images single-threaded. For many small images this keeps
+ * all cores busy much better than parallelizing the individual transforms.
+ * Images that are too large for transforming them as a whole are convolved
+ * tile by tile (overlap-save), see
+ * {@link #convolve(RandomAccessibleInterval, RandomAccessibleInterval, int[])}.
+ * 
+ * The precision of the computation is {@link ComplexFloatType}.
+ * 
+ * @param <T> - {@link RealType} of the images
+ * @param <S> - {@link RealType} of the kernel
+ */
+public class FourierConvolver< T extends RealType< T >, S extends RealType< S > > implements MultiThreaded
+{
+	final RandomAccessibleInterval< S > kernel;
+
+	final ImgFactory< S > kernelImgFactory;
+
+	final ImgFactory< ComplexFloatType > fftImgFactory;
+
+	final int numDimensions;
+
+	final int[] kernelDim;
+
+	/**
+	 * Fourier transforms of the kernel, by padded image size.
+	 */
+	final HashMap< List< Integer >, Img< ComplexFloatType > > kernelFFTs;
+
+	/**
+	 * Buffer for {@link #convolve(RandomAccessibleInterval, RandomAccessibleInterval)}.
+	 */
+	final Workspace workspace;
+
+	int numThreads;
+
+	/**
+	 * @param kernel - the kernel for the convolution operation
+	 * @param kernelImgFactory - the {@link ImgFactory} that is used to extend the kernel to the right size
+	 * @param fftImgFactory - the {@link ImgFactory} that is used to create the FFT's
+	 */
+	public FourierConvolver( final RandomAccessibleInterval< S > kernel, final ImgFactory< S > kernelImgFactory, final ImgFactory< ComplexFloatType > fftImgFactory )
+	{
+		this.kernel = kernel;
+		this.kernelImgFactory = kernelImgFactory;
+		this.fftImgFactory = fftImgFactory;
+		this.numDimensions = kernel.numDimensions();
+
+		kernelDim = new int[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			kernelDim[ d ] = ( int ) kernel.dimension( d );
+
+		kernelFFTs = new HashMap< List< Integer >, Img< ComplexFloatType > >();
+		workspace = new Workspace();
+
+		setNumThreads();
+	}
+
+	/**
+	 * @param kernel - the kernel {@link Img} for the convolution operation
+	 * @throws IncompatibleTypeException if the factory of the kernel {@link Img} is not compatible with the {@link ComplexFloatType}
+	 */
+	public FourierConvolver( final Img< S > kernel ) throws IncompatibleTypeException
+	{
+		this( kernel, kernel.factory(), kernel.factory().imgFactory( new ComplexFloatType() ) );
+	}
+
+	/**
+	 * Convolve an image into a new image.
+	 * 
+	 * @param image - the input to be convolved
+	 * @param imgFactory - the {@link ImgFactory} that is used to create the convolved image
+	 * @return the convolved image
+	 */
+	public Img< T > convolve( final RandomAccessibleInterval< T > image, final ImgFactory< T > imgFactory )
+	{
+		final long[] dimensions = new long[ numDimensions ];
+		image.dimensions( dimensions );
+		final T type = Util.getTypeFromInterval( image );
+		final Img< T > output = imgFactory.create( dimensions, type.createVariable() );
+		convolve( image, output );
+		return output;
+	}
+
+	/**
+	 * Convolve an image into an existing image of the same size. input and
+	 * output may be the same image.
+	 * 
+	 * @param image - the input to be convolved
+	 * @param output - the convolved image
+	 */
+	public void convolve( final RandomAccessibleInterval< T > image, final RandomAccessibleInterval< T > output )
+	{
+		synchronized ( workspace )
+		{
+			convolve( image, output, workspace, numThreads );
+		}
+	}
+
+	/**
+	 * Convolve a batch of images into existing images of the same sizes. The
+	 * images are distributed to {@link #getNumThreads()} workers.
+	 * 
+	 * @param images - the inputs to be convolved
+	 * @param outputs - the convolved images, outputs.get( i ) is the convolution of images.get( i )
+	 */
+	public void convolve( final List< ? extends RandomAccessibleInterval< T > > images, final List< ? extends RandomAccessibleInterval< T > > outputs )
+	{
+		if ( images.size() != outputs.size() )
+			throw new IllegalArgumentException( "Number of images (" + images.size() + ") and outputs (" + outputs.size() + ") differ." );
+
+		if ( images.size() == 1 || numThreads == 1 )
+		{
+			for ( int i = 0; i < images.size(); ++i )
+				convolve( images.get( i ), outputs.get( i ) );
+			return;
+		}
+
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final Thread[] threads = SimpleMultiThreading.newThreads( Math.min( numThreads, images.size() ) );
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+			threads[ ithread ] = new Thread( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final Workspace threadWorkspace = new Workspace();
+					for ( int i = ai.getAndIncrement(); i < images.size(); i = ai.getAndIncrement() )
+						convolve( images.get( i ), outputs.get( i ), threadWorkspace, 1 );
+				}
+			} );
+
+		SimpleMultiThreading.startAndJoin( threads );
+	}
+
+	/**
+	 * Convolve an image into an existing image of the same size tile by tile
+	 * (overlap-save). Every tile of the output is computed from the
+	 * corresponding block of the input extended by the kernel size-1, so the
+	 * memory required for the Fourier transforms only depends on the tile
+	 * size and not on the image size. The input is mirrored at the image
+	 * borders as in {@link #convolve(RandomAccessibleInterval, RandomAccessibleInterval)}.
+	 * Tiles are distributed to {@link #getNumThreads()} workers.
+	 * 
+	 * Input and output must not be the same image.
+	 * 
+	 * @param image - the input to be convolved
+	 * @param output - the convolved image
+	 * @param tileSize - the size of the output tiles
+	 */
+	public void convolve( final RandomAccessibleInterval< T > image, final RandomAccessibleInterval< T > output, final int[] tileSize )
+	{
+		checkOutputSize( image, output );
+
+		// the input mirrored at the image borders, in output coordinates
+		final long[] offset = new long[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			offset[ d ] = output.min( d ) - image.min( d );
+		final RandomAccessible< T > extendedImage = Views.translate( Views.extend( image, new OutOfBoundsMirrorFactory< T, RandomAccessibleInterval< T > >( Boundary.SINGLE ) ), offset );
+
+		// the grid of tiles
+		final long[] numTiles = new long[ numDimensions ];
+		long n = 1;
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			numTiles[ d ] = ( output.dimension( d ) - 1 ) / tileSize[ d ] + 1;
+			n *= numTiles[ d ];
+		}
+		final long numTilesTotal = n;
+
+		final AtomicLong ai = new AtomicLong( 0 );
+		final Thread[] threads = SimpleMultiThreading.newThreads( ( int ) Math.min( numThreads, numTilesTotal ) );
+		final int numThreadsPerTile = threads.length == 1 ? numThreads : 1;
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+			threads[ ithread ] = new Thread( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final Workspace threadWorkspace = new Workspace();
+					final long[] tile = new long[ numDimensions ];
+					final long[] min = new long[ numDimensions ];
+					final long[] max = new long[ numDimensions ];
+					for ( long i = ai.getAndIncrement(); i < numTilesTotal; i = ai.getAndIncrement() )
+					{
+						IntervalIndexer.indexToPosition( i, numTiles, tile );
+						for ( int d = 0; d < numDimensions; ++d )
+						{
+							min[ d ] = output.min( d ) + tile[ d ] * tileSize[ d ];
+							max[ d ] = Math.min( min[ d ] + tileSize[ d ], output.max( d ) + 1 ) - 1;
+						}
+						convolveTile( extendedImage, Views.interval( output, min, max ), threadWorkspace, numThreadsPerTile );
+					}
+				}
+			} );
+
+		SimpleMultiThreading.startAndJoin( threads );
+	}
+
+	/**
+	 * Convolve one tile. The tile of the input that is transformed is the
+	 * output tile extended by the kernel size-1. The cyclic convolution only
+	 * corrupts the extension, which is cropped away.
+	 * 
+	 * @param extendedImage - the input in output coordinates
+	 * @param outputTile - the tile of the output to compute
+	 */
+	protected void convolveTile( final RandomAccessible< T > extendedImage, final RandomAccessibleInterval< T > outputTile, final Workspace workspace, final int numThreads )
+	{
+		final long[] tileSize = new long[ numDimensions ];
+		outputTile.dimensions( tileSize );
+
+		final int[] paddedSize = getPaddedSize( tileSize );
+		final int[] originalSize = new int[ numDimensions ];
+		final int[] originalOffset = new int[ numDimensions ];
+		final long[] min = new long[ numDimensions ];
+		final long[] max = new long[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			originalSize[ d ] = ( int ) tileSize[ d ];
+			originalOffset[ d ] = ( kernelDim[ d ] - 1 ) / 2;
+			min[ d ] = outputTile.min( d ) - originalOffset[ d ];
+			max[ d ] = outputTile.max( d ) + kernelDim[ d ] - 1 - originalOffset[ d ];
+		}
+		// the out of bounds strategies expect zero-min intervals
+		final RandomAccessibleInterval< T > inputTile = Views.zeroMin( Views.interval( extendedImage, min, max ) );
+
+		final Img< ComplexFloatType > kernelFFT = getKernelFFT( paddedSize, numThreads );
+		final Img< ComplexFloatType > imgFFT = workspace.getFFTImg( kernelFFT );
+
+		// compute fft of the input tile, the zero padding is only used in the part that is cropped away
+		final T zero = Util.getTypeFromInterval( inputTile ).createVariable();
+		zero.setZero();
+		FFTFunctions.computeFFT( inputTile, imgFFT, new OutOfBoundsConstantValueFactory< T, RandomAccessibleInterval< T > >( zero ), new int[ numDimensions ], paddedSize, numThreads, false );
+
+		multiply( imgFFT, kernelFFT );
+
+		// compute inverse fft into the output tile
+		FFTFunctions.computeInverseFFT( imgFFT, outputTile, numThreads, true, true, originalSize, originalOffset, 1 );
+	}
+
+	/**
+	 * Remove all cached Fourier transforms of the kernel.
+	 */
+	public synchronized void clearCache()
+	{
+		kernelFFTs.clear();
+	}
+
+	/**
+	 * Get the padded size that is used for convolving an image of the given size.
+	 * The image is extended by the size of the kernel-1 and padded to a size supported by the {@link FFTBackend}.
+	 */
+	public int[] getPaddedSize( final long[] imageSize )
+	{
+		final FFTBackend backend = FFTFunctions.getBackend();
+		final int[] paddedSize = new int[ numDimensions ];
+		paddedSize[ 0 ] = backend.realSize( ( int ) imageSize[ 0 ] + kernelDim[ 0 ] - 1, true );
+		for ( int d = 1; d < numDimensions; ++d )
+			paddedSize[ d ] = backend.complexSize( ( int ) imageSize[ d ] + kernelDim[ d ] - 1, true );
+		return paddedSize;
+	}
+
+	protected void convolve( final RandomAccessibleInterval< T > image, final RandomAccessibleInterval< T > output, final Workspace workspace, final int numThreads )
+	{
+		checkOutputSize( image, output );
+
+		final long[] imageSize = new long[ numDimensions ];
+		image.dimensions( imageSize );
+
+		final int[] paddedSize = getPaddedSize( imageSize );
+		final int[] originalSize = new int[ numDimensions ];
+		final int[] originalOffset = new int[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			originalSize[ d ] = ( int ) imageSize[ d ];
+			originalOffset[ d ] = ( paddedSize[ d ] - originalSize[ d ] ) / 2;
+		}
+
+		final Img< ComplexFloatType > kernelFFT = getKernelFFT( paddedSize, numThreads );
+		final Img< ComplexFloatType > imgFFT = workspace.getFFTImg( kernelFFT );
+
+		// compute fft of the input image, mirrored at the borders
+		FFTFunctions.computeFFT( image, imgFFT, new OutOfBoundsMirrorFactory< T, RandomAccessibleInterval< T > >( Boundary.SINGLE ), originalOffset, paddedSize, numThreads, false );
+
+		multiply( imgFFT, kernelFFT );
+
+		// compute inverse fft into the output
+		FFTFunctions.computeInverseFFT( imgFFT, output, numThreads, true, true, originalSize, originalOffset, 1 );
+	}
+
+	protected void checkOutputSize( final RandomAccessibleInterval< T > image, final RandomAccessibleInterval< T > output )
+	{
+		for ( int d = 0; d < numDimensions; ++d )
+			if ( output.dimension( d ) != image.dimension( d ) )
+				throw new IllegalArgumentException( "Output size " + Arrays.toString( Util.intervalDimensions( output ) ) + " does not match image size " + Arrays.toString( Util.intervalDimensions( image ) ) );
+	}
+
+	/**
+	 * Multiply in Fourier space
+	 */
+	protected static void multiply( final Img< ComplexFloatType > a, final Img< ComplexFloatType > b )
+	{
+		final Cursor< ComplexFloatType > cursorA = a.cursor();
+		final Cursor< ComplexFloatType > cursorB = b.cursor();
+		while ( cursorA.hasNext() )
+			cursorA.next().mul( cursorB.next() );
+	}
+
+	/**
+	 * Get the Fourier transform of the kernel for a padded image size,
+	 * computing it if it is not in the cache.
+	 */
+	protected synchronized Img< ComplexFloatType > getKernelFFT( final int[] paddedSize, final int numThreads )
+	{
+		final List< Integer > key = new ArrayList< Integer >( numDimensions );
+		for ( final int s : paddedSize )
+			key.add( s );
+
+		Img< ComplexFloatType > kernelFFT = kernelFFTs.get( key );
+		if ( kernelFFT == null )
+		{
+			kernelFFT = computeKernelFFT( paddedSize, numThreads );
+			kernelFFTs.put( key, kernelFFT );
+		}
+		return kernelFFT;
+	}
+
+	protected Img< ComplexFloatType > computeKernelFFT( final int[] paddedSize, final int numThreads )
+	{
+		// HACK: Explicit assignment is needed for OpenJDK javac.
+		final S kernelType = Util.getTypeFromInterval( kernel );
+		final Img< S > kernelTemplate = kernelImgFactory.create( paddedSize, kernelType.createVariable() );
+
+		// copy the kernel into the kernelTemplate,
+		// the key here is that the center pixel of the kernel (e.g. 13,13,13)
+		// is located at (0,0,0)
+		final RandomAccess< S > kernelCursor = kernel.randomAccess();
+		final RandomAccess< S > kernelTemplateCursor = kernelTemplate.randomAccess();
+
+		final LocalizingZeroMinIntervalIterator cursorDim = new LocalizingZeroMinIntervalIterator( kernel );
+
+		final int[] position = new int[ numDimensions ];
+		final int[] position2 = new int[ numDimensions ];
+
+		while ( cursorDim.hasNext() )
+		{
+			cursorDim.fwd();
+			cursorDim.localize( position );
+
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				// the kernel might not be zero-bounded
+				position2[ d ] = position[ d ] + ( int ) kernel.min( d );
+				position[ d ] = ( position[ d ] - kernelDim[ d ] / 2 + paddedSize[ d ] ) % paddedSize[ d ];
+			}
+
+			kernelCursor.setPosition( position2 );
+			kernelTemplateCursor.setPosition( position );
+			kernelTemplateCursor.get().set( kernelCursor.get() );
+		}
+
+		return FFTFunctions.computeFFT( kernelTemplate, fftImgFactory, new ComplexFloatType(), new OutOfBoundsConstantValueFactory< S, RandomAccessibleInterval< S > >( kernelType.createVariable() ), new int[ numDimensions ], paddedSize, numThreads, false );
+	}
+
+	/**
+	 * Holds the Fourier image of one worker.
+	 */
+	protected class Workspace
+	{
+		Img< ComplexFloatType > fftImg = null;
+
+		/**
+		 * @return an image of the same size as the kernelFFT
+		 */
+		Img< ComplexFloatType > getFFTImg( final Img< ComplexFloatType > kernelFFT )
+		{
+			if ( fftImg == null || !Arrays.equals( Util.intervalDimensions( fftImg ), Util.intervalDimensions( kernelFFT ) ) )
+				fftImg = fftImgFactory.create( kernelFFT, new ComplexFloatType() );
+			return fftImg;
+		}
+	}
+
+	@Override
+	public void setNumThreads() { this.numThreads = Runtime.getRuntime().availableProcessors(); }
+
+	@Override
+	public void setNumThreads( final int numThreads ) { this.numThreads = numThreads; }
+
+	@Override
+	public int getNumThreads() { return numThreads; }
+}
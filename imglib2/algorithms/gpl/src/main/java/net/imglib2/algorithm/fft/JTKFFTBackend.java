@@ -0,0 +1,106 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft;
+
+import edu.mines.jtk.dsp.FftComplex;
+import edu.mines.jtk.dsp.FftReal;
+
+/**
+ * {@link FFTBackend} using the prime factor FFTs of the Mines Java Toolkit
+ * ({@link FftReal}, {@link FftComplex}).
+ */
+public class JTKFFTBackend extends AbstractFFTBackend
+{
+	@Override
+	public int complexSize( final int n, final boolean fast )
+	{
+		return fast ? FftComplex.nfftFast( n ) : FftComplex.nfftSmall( n );
+	}
+
+	@Override
+	public int realSize( final int n, final boolean fast )
+	{
+		return fast ? FftReal.nfftFast( n ) : FftReal.nfftSmall( n );
+	}
+
+	@Override
+	protected ComplexFFTPlan createComplexPlan( final int n )
+	{
+		final FftComplex fft = new FftComplex( n );
+		return new ComplexFFTPlan()
+		{
+			@Override
+			public int size()
+			{
+				return n;
+			}
+
+			@Override
+			public int workspaceSize()
+			{
+				return 0;
+			}
+
+			@Override
+			public void complexToComplex( final int sign, final float[] cx, final float[] cy, final float[] workspace )
+			{
+				fft.complexToComplex( sign, cx, cy );
+			}
+		};
+	}
+
+	@Override
+	protected RealFFTPlan createRealPlan( final int n )
+	{
+		final FftReal fft = new FftReal( n );
+		return new RealFFTPlan()
+		{
+			@Override
+			public int size()
+			{
+				return n;
+			}
+
+			@Override
+			public int workspaceSize()
+			{
+				return 0;
+			}
+
+			@Override
+			public void realToComplex( final int sign, final float[] rx, final float[] cy, final float[] workspace )
+			{
+				fft.realToComplex( sign, rx, cy );
+			}
+
+			@Override
+			public void complexToReal( final int sign, final float[] cx, final float[] ry, final float[] workspace )
+			{
+				fft.complexToReal( sign, cx, ry );
+			}
+		};
+	}
+}
@@ -0,0 +1,449 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft;
+
+/**
+ * Pure Java {@link FFTBackend} for sizes that have no prime factors other
+ * than 2, 3 and 5. Complex transforms are computed with a mixed radix
+ * (4, 2, 3, 5) Stockham algorithm, real transforms of size n are computed as
+ * complex transforms of size n/2.
+ *
+ * The plans only hold the twiddle factors, the temporary line storage is
+ * the workspace passed in by the caller.
+ */
+public class MixedRadixFFTBackend extends AbstractFFTBackend
+{
+	/**
+	 * @return whether n has no prime factors other than 2, 3 and 5.
+	 */
+	public static boolean isSupportedSize( final int n )
+	{
+		if ( n < 1 )
+			return false;
+		int m = n;
+		while ( m % 2 == 0 )
+			m /= 2;
+		while ( m % 3 == 0 )
+			m /= 3;
+		while ( m % 5 == 0 )
+			m /= 5;
+		return m == 1;
+	}
+
+	@Override
+	public int complexSize( final int n, final boolean fast )
+	{
+		int m = Math.max( 1, n );
+		while ( !isSupportedSize( m ) )
+			++m;
+		return m;
+	}
+
+	@Override
+	public int realSize( final int n, final boolean fast )
+	{
+		return 2 * complexSize( ( n + 1 ) / 2, fast );
+	}
+
+	@Override
+	protected ComplexFFTPlan createComplexPlan( final int n )
+	{
+		if ( !isSupportedSize( n ) )
+			throw new IllegalArgumentException( "Size " + n + " has prime factors other than 2, 3 and 5." );
+		return new MixedRadixComplexPlan( n );
+	}
+
+	@Override
+	protected RealFFTPlan createRealPlan( final int n )
+	{
+		if ( n % 2 != 0 || !isSupportedSize( n ) )
+			throw new IllegalArgumentException( "Size " + n + " is odd or has prime factors other than 2, 3 and 5." );
+		return new MixedRadixRealPlan( n, complexPlan( n / 2 ) );
+	}
+
+	/**
+	 * Stockham autosort FFT, decimation in frequency. Every stage reads from
+	 * one array and writes to the other, so the output is in natural order
+	 * without a bit reversal pass.
+	 */
+	static final class MixedRadixComplexPlan implements ComplexFFTPlan
+	{
+		final int n;
+
+		/** radix of each stage */
+		final int[] radix;
+
+		/**
+		 * cos and sin of the twiddle factors for each stage. For a stage
+		 * transforming sequences of length len = m * r, element p * (r-1) +
+		 * k-1 holds the angle 2 pi p k / len.
+		 */
+		final float[][] twiddleCos, twiddleSin;
+
+		/** cos and sin of 2 pi j / r, for the radix 3 and 5 butterflies */
+		final float[] cos3, sin3, cos5, sin5;
+
+		MixedRadixComplexPlan( final int n )
+		{
+			this.n = n;
+
+			int numStages = 0;
+			final int[] r = new int[ 32 ];
+			int m = n;
+			while ( m % 4 == 0 )
+			{
+				r[ numStages++ ] = 4;
+				m /= 4;
+			}
+			while ( m % 2 == 0 )
+			{
+				r[ numStages++ ] = 2;
+				m /= 2;
+			}
+			while ( m % 3 == 0 )
+			{
+				r[ numStages++ ] = 3;
+				m /= 3;
+			}
+			while ( m % 5 == 0 )
+			{
+				r[ numStages++ ] = 5;
+				m /= 5;
+			}
+			radix = new int[ numStages ];
+			System.arraycopy( r, 0, radix, 0, numStages );
+
+			twiddleCos = new float[ numStages ][];
+			twiddleSin = new float[ numStages ][];
+			int len = n;
+			for ( int s = 0; s < numStages; ++s )
+			{
+				final int rs = radix[ s ];
+				final int ms = len / rs;
+				twiddleCos[ s ] = new float[ ms * ( rs - 1 ) ];
+				twiddleSin[ s ] = new float[ ms * ( rs - 1 ) ];
+				for ( int p = 0; p < ms; ++p )
+					for ( int k = 1; k < rs; ++k )
+					{
+						final double angle = 2 * Math.PI * p * k / len;
+						twiddleCos[ s ][ p * ( rs - 1 ) + k - 1 ] = ( float ) Math.cos( angle );
+						twiddleSin[ s ][ p * ( rs - 1 ) + k - 1 ] = ( float ) Math.sin( angle );
+					}
+				len = ms;
+			}
+
+			cos3 = new float[ 3 ];
+			sin3 = new float[ 3 ];
+			for ( int j = 0; j < 3; ++j )
+			{
+				cos3[ j ] = ( float ) Math.cos( 2 * Math.PI * j / 3 );
+				sin3[ j ] = ( float ) Math.sin( 2 * Math.PI * j / 3 );
+			}
+			cos5 = new float[ 5 ];
+			sin5 = new float[ 5 ];
+			for ( int j = 0; j < 5; ++j )
+			{
+				cos5[ j ] = ( float ) Math.cos( 2 * Math.PI * j / 5 );
+				sin5[ j ] = ( float ) Math.sin( 2 * Math.PI * j / 5 );
+			}
+		}
+
+		@Override
+		public int size()
+		{
+			return n;
+		}
+
+		@Override
+		public int workspaceSize()
+		{
+			return 2 * n;
+		}
+
+		@Override
+		public void complexToComplex( final int sign, final float[] cx, final float[] cy, final float[] workspace )
+		{
+			if ( cx != cy )
+				System.arraycopy( cx, 0, cy, 0, 2 * n );
+
+			float[] x = cy;
+			float[] y = workspace;
+			int len = n;
+			int stride = 1;
+			for ( int s = 0; s < radix.length; ++s )
+			{
+				final int r = radix[ s ];
+				final int m = len / r;
+				switch ( r )
+				{
+				case 4:
+					pass4( sign, m, stride, twiddleCos[ s ], twiddleSin[ s ], x, y );
+					break;
+				case 2:
+					pass2( sign, m, stride, twiddleCos[ s ], twiddleSin[ s ], x, y );
+					break;
+				case 3:
+					passGeneric( sign, 3, m, stride, twiddleCos[ s ], twiddleSin[ s ], cos3, sin3, x, y );
+					break;
+				default:
+					passGeneric( sign, 5, m, stride, twiddleCos[ s ], twiddleSin[ s ], cos5, sin5, x, y );
+				}
+				final float[] tmp = x;
+				x = y;
+				y = tmp;
+				len = m;
+				stride *= r;
+			}
+
+			if ( x != cy )
+				System.arraycopy( x, 0, cy, 0, 2 * n );
+		}
+
+		private static void pass2( final int sign, final int m, final int s, final float[] tc, final float[] ts, final float[] x, final float[] y )
+		{
+			for ( int p = 0; p < m; ++p )
+			{
+				final float wr = tc[ p ];
+				final float wi = sign * ts[ p ];
+				for ( int q = 0; q < s; ++q )
+				{
+					final int i0 = 2 * ( q + s * p );
+					final int i1 = 2 * ( q + s * ( p + m ) );
+					final float ar = x[ i0 ], ai = x[ i0 + 1 ];
+					final float br = x[ i1 ], bi = x[ i1 + 1 ];
+
+					final int o0 = 2 * ( q + s * ( 2 * p ) );
+					final int o1 = o0 + 2 * s;
+					y[ o0 ] = ar + br;
+					y[ o0 + 1 ] = ai + bi;
+					final float dr = ar - br, di = ai - bi;
+					y[ o1 ] = dr * wr - di * wi;
+					y[ o1 + 1 ] = dr * wi + di * wr;
+				}
+			}
+		}
+
+		private static void pass4( final int sign, final int m, final int s, final float[] tc, final float[] ts, final float[] x, final float[] y )
+		{
+			for ( int p = 0; p < m; ++p )
+			{
+				final float w1r = tc[ 3 * p ], w1i = sign * ts[ 3 * p ];
+				final float w2r = tc[ 3 * p + 1 ], w2i = sign * ts[ 3 * p + 1 ];
+				final float w3r = tc[ 3 * p + 2 ], w3i = sign * ts[ 3 * p + 2 ];
+				for ( int q = 0; q < s; ++q )
+				{
+					final int i0 = 2 * ( q + s * p );
+					final int di = 2 * s * m;
+					final float a0r = x[ i0 ], a0i = x[ i0 + 1 ];
+					final float a1r = x[ i0 + di ], a1i = x[ i0 + di + 1 ];
+					final float a2r = x[ i0 + 2 * di ], a2i = x[ i0 + 2 * di + 1 ];
+					final float a3r = x[ i0 + 3 * di ], a3i = x[ i0 + 3 * di + 1 ];
+
+					final float t0r = a0r + a2r, t0i = a0i + a2i;
+					final float t1r = a0r - a2r, t1i = a0i - a2i;
+					final float t2r = a1r + a3r, t2i = a1i + a3i;
+					// (a1 - a3) multiplied by exp( sign * i * pi / 2 ) = sign * i
+					final float dr = a1r - a3r, dii = a1i - a3i;
+					final float t3r = -sign * dii, t3i = sign * dr;
+
+					final int o0 = 2 * ( q + s * ( 4 * p ) );
+					final int ds = 2 * s;
+					y[ o0 ] = t0r + t2r;
+					y[ o0 + 1 ] = t0i + t2i;
+
+					float vr = t1r + t3r, vi = t1i + t3i;
+					y[ o0 + ds ] = vr * w1r - vi * w1i;
+					y[ o0 + ds + 1 ] = vr * w1i + vi * w1r;
+
+					vr = t0r - t2r;
+					vi = t0i - t2i;
+					y[ o0 + 2 * ds ] = vr * w2r - vi * w2i;
+					y[ o0 + 2 * ds + 1 ] = vr * w2i + vi * w2r;
+
+					vr = t1r - t3r;
+					vi = t1i - t3i;
+					y[ o0 + 3 * ds ] = vr * w3r - vi * w3i;
+					y[ o0 + 3 * ds + 1 ] = vr * w3i + vi * w3r;
+				}
+			}
+		}
+
+		private static void passGeneric( final int sign, final int r, final int m, final int s, final float[] tc, final float[] ts, final float[] rc, final float[] rs, final float[] x, final float[] y )
+		{
+			final float[] ar = new float[ 5 ];
+			final float[] ai = new float[ 5 ];
+			for ( int p = 0; p < m; ++p )
+			{
+				for ( int q = 0; q < s; ++q )
+				{
+					for ( int j = 0; j < r; ++j )
+					{
+						final int i = 2 * ( q + s * ( p + j * m ) );
+						ar[ j ] = x[ i ];
+						ai[ j ] = x[ i + 1 ];
+					}
+
+					final int o = 2 * ( q + s * ( r * p ) );
+					for ( int k = 0; k < r; ++k )
+					{
+						float sr = 0, si = 0;
+						for ( int j = 0; j < r; ++j )
+						{
+							final int jk = ( j * k ) % r;
+							final float c = rc[ jk ];
+							final float sn = sign * rs[ jk ];
+							sr += ar[ j ] * c - ai[ j ] * sn;
+							si += ar[ j ] * sn + ai[ j ] * c;
+						}
+						final int ok = o + 2 * s * k;
+						if ( k == 0 )
+						{
+							y[ ok ] = sr;
+							y[ ok + 1 ] = si;
+						}
+						else
+						{
+							final float wr = tc[ p * ( r - 1 ) + k - 1 ];
+							final float wi = sign * ts[ p * ( r - 1 ) + k - 1 ];
+							y[ ok ] = sr * wr - si * wi;
+							y[ ok + 1 ] = sr * wi + si * wr;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Real FFT of even size n, computed by packing the even and odd samples
+	 * into the real and imaginary parts of a complex FFT of size n/2.
+	 */
+	static final class MixedRadixRealPlan implements RealFFTPlan
+	{
+		final int n;
+
+		final ComplexFFTPlan half;
+
+		/** cos and sin of 2 pi k / n for k = 0 .. n/2 */
+		final float[] cos, sin;
+
+		MixedRadixRealPlan( final int n, final ComplexFFTPlan half )
+		{
+			this.n = n;
+			this.half = half;
+			final int h = n / 2;
+			cos = new float[ h + 1 ];
+			sin = new float[ h + 1 ];
+			for ( int k = 0; k <= h; ++k )
+			{
+				cos[ k ] = ( float ) Math.cos( 2 * Math.PI * k / n );
+				sin[ k ] = ( float ) Math.sin( 2 * Math.PI * k / n );
+			}
+		}
+
+		@Override
+		public int size()
+		{
+			return n;
+		}
+
+		@Override
+		public int workspaceSize()
+		{
+			return half.workspaceSize();
+		}
+
+		@Override
+		public void realToComplex( final int sign, final float[] rx, final float[] cy, final float[] workspace )
+		{
+			final int h = n / 2;
+
+			// z[ j ] = rx[ 2j ] + i rx[ 2j+1 ] has the same memory layout as rx
+			System.arraycopy( rx, 0, cy, 0, n );
+			half.complexToComplex( sign, cy, cy, workspace );
+
+			// X[ k ] = E[ k ] + W^k O[ k ], where
+			// E[ k ] = ( Z[ k ] + conj( Z[ h-k ] ) ) / 2 and
+			// O[ k ] = ( Z[ k ] - conj( Z[ h-k ] ) ) / 2i
+			final float z0r = cy[ 0 ], z0i = cy[ 1 ];
+			cy[ 0 ] = z0r + z0i;
+			cy[ 1 ] = 0;
+			cy[ 2 * h ] = z0r - z0i;
+			cy[ 2 * h + 1 ] = 0;
+
+			for ( int k = 1; 2 * k <= h; ++k )
+			{
+				final int l = h - k;
+				final float zkr = cy[ 2 * k ], zki = cy[ 2 * k + 1 ];
+				final float zlr = cy[ 2 * l ], zli = cy[ 2 * l + 1 ];
+
+				// k
+				float er = 0.5f * ( zkr + zlr ), ei = 0.5f * ( zki - zli );
+				float or = 0.5f * ( zki + zli ), oi = -0.5f * ( zkr - zlr );
+				float wr = cos[ k ], wi = sign * sin[ k ];
+				final float xkr = er + wr * or - wi * oi;
+				final float xki = ei + wr * oi + wi * or;
+
+				// l = h-k
+				er = 0.5f * ( zlr + zkr );
+				ei = 0.5f * ( zli - zki );
+				or = 0.5f * ( zli + zki );
+				oi = -0.5f * ( zlr - zkr );
+				wr = cos[ l ];
+				wi = sign * sin[ l ];
+				cy[ 2 * l ] = er + wr * or - wi * oi;
+				cy[ 2 * l + 1 ] = ei + wr * oi + wi * or;
+
+				cy[ 2 * k ] = xkr;
+				cy[ 2 * k + 1 ] = xki;
+			}
+		}
+
+		@Override
+		public void complexToReal( final int sign, final float[] cx, final float[] ry, final float[] workspace )
+		{
+			final int h = n / 2;
+
+			// Z[ k ] = ( X[ k ] + X[ k+h ] ) + i W^k ( X[ k ] - X[ k+h ] ), where
+			// X[ k+h ] = conj( X[ h-k ] ), then z[ j ] = ry[ 2j ] + i ry[ 2j+1 ]
+			for ( int k = 0; k < h; ++k )
+			{
+				final int l = h - k;
+				final float xr = cx[ 2 * k ], xi = cx[ 2 * k + 1 ];
+				final float yr = cx[ 2 * l ], yi = -cx[ 2 * l + 1 ];
+				final float sr = xr + yr, si = xi + yi;
+				final float dr = xr - yr, di = xi - yi;
+				final float wr = cos[ k ], wi = sign * sin[ k ];
+				// i * W^k * d
+				final float tr = wr * dr - wi * di;
+				final float ti = wr * di + wi * dr;
+				ry[ 2 * k ] = sr - ti;
+				ry[ 2 * k + 1 ] = si + tr;
+			}
+			half.complexToComplex( sign, ry, ry, workspace );
+		}
+	}
+}
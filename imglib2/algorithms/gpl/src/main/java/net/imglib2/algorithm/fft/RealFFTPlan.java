@@ -0,0 +1,66 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft;
+
+/**
+ * A one-dimensional real-to-complex and complex-to-real FFT of a fixed (even)
+ * size n. The complex side holds the n/2+1 non-negative frequencies.
+ * Plans are immutable and can be used by several threads at the same time,
+ * each one providing its own workspace.
+ */
+public interface RealFFTPlan
+{
+	/**
+	 * @return the number of real elements n
+	 */
+	public int size();
+
+	/**
+	 * @return the number of floats needed as workspace for one transform
+	 */
+	public int workspaceSize();
+
+	/**
+	 * Compute the transform of n real values into n/2+1 complex values.
+	 *
+	 * @param sign - the sign of the exponent, -1 (forward) or 1 (inverse)
+	 * @param rx - input, n real elements
+	 * @param cy - output, n/2+1 interleaved complex elements
+	 * @param workspace - at least {@link #workspaceSize()} floats
+	 */
+	public void realToComplex( int sign, float[] rx, float[] cy, float[] workspace );
+
+	/**
+	 * Compute the transform of n/2+1 complex values (the non-negative
+	 * frequencies of a hermitian sequence) into n real values.
+	 *
+	 * @param sign - the sign of the exponent, -1 (forward) or 1 (inverse)
+	 * @param cx - input, n/2+1 interleaved complex elements
+	 * @param ry - output, n real elements
+	 * @param workspace - at least {@link #workspaceSize()} floats
+	 */
+	public void complexToReal( int sign, float[] cx, float[] ry, float[] workspace );
+}
@@ -0,0 +1,153 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link FourierConvolver} computes the same result as
+ * {@link FourierConvolution}.
+ */
+public class FourierConvolverTest
+{
+	final static Random random = new Random( 17 );
+
+	static Img< FloatType > randomImg( final ImgFactory< FloatType > factory, final long... dimensions )
+	{
+		final Img< FloatType > img = factory.create( dimensions, new FloatType() );
+		for ( final FloatType t : img )
+			t.set( random.nextFloat() );
+		return img;
+	}
+
+	static void assertImgEquals( final Img< FloatType > expected, final Img< FloatType > actual )
+	{
+		final Cursor< FloatType > c = expected.localizingCursor();
+		final RandomAccess< FloatType > r = actual.randomAccess();
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			r.setPosition( c );
+			assertEquals( c.get().get(), r.get().get(), 1e-4f );
+		}
+	}
+
+	static Img< FloatType > fourierConvolution( final Img< FloatType > img, final Img< FloatType > kernel ) throws Exception
+	{
+		final FourierConvolution< FloatType, FloatType > convolution = new FourierConvolution< FloatType, FloatType >( img, kernel );
+		assertTrue( convolution.checkInput() && convolution.process() );
+		return convolution.getResult();
+	}
+
+	@Test
+	public void testConvolve() throws Exception
+	{
+		final ImgFactory< FloatType > factory = new ArrayImgFactory< FloatType >();
+		final Img< FloatType > kernel = FourierConvolution.createGaussianKernel( factory, new double[] { 1.5, 2.5 } );
+		final FourierConvolver< FloatType, FloatType > convolver = new FourierConvolver< FloatType, FloatType >( kernel );
+
+		for ( int i = 0; i < 3; ++i )
+		{
+			final Img< FloatType > img = randomImg( factory, 41, 33 );
+			assertImgEquals( fourierConvolution( img, kernel ), convolver.convolve( img, factory ) );
+		}
+	}
+
+	@Test
+	public void testConvolveInPlace() throws Exception
+	{
+		final ImgFactory< FloatType > factory = new CellImgFactory< FloatType >( 7 );
+		final Img< FloatType > kernel = randomImg( factory, 5, 3, 7 );
+		final FourierConvolver< FloatType, FloatType > convolver = new FourierConvolver< FloatType, FloatType >( kernel );
+
+		final Img< FloatType > img = randomImg( factory, 20, 17, 9 );
+		final Img< FloatType > expected = fourierConvolution( img, kernel );
+		convolver.convolve( img, img );
+		assertImgEquals( expected, img );
+	}
+
+	@Test
+	public void testConvolveBatch() throws Exception
+	{
+		final ImgFactory< FloatType > factory = new ArrayImgFactory< FloatType >();
+		final Img< FloatType > kernel = FourierConvolution.createGaussianKernel( factory, 2.0, 2 );
+		final FourierConvolver< FloatType, FloatType > convolver = new FourierConvolver< FloatType, FloatType >( kernel );
+		convolver.setNumThreads( 4 );
+
+		final ArrayList< Img< FloatType > > images = new ArrayList< Img< FloatType > >();
+		final ArrayList< Img< FloatType > > outputs = new ArrayList< Img< FloatType > >();
+		for ( int i = 0; i < 10; ++i )
+		{
+			final long size = 30 + 3 * ( i % 3 );
+			images.add( randomImg( factory, size, 25 ) );
+			outputs.add( factory.create( new long[] { size, 25 }, new FloatType() ) );
+		}
+		convolver.convolve( images, outputs );
+
+		for ( int i = 0; i < 10; ++i )
+			assertImgEquals( fourierConvolution( images.get( i ), kernel ), outputs.get( i ) );
+	}
+
+	@Test
+	public void testConvolveTiled() throws Exception
+	{
+		final ImgFactory< FloatType > factory = new CellImgFactory< FloatType >( 16 );
+		for ( final long[] kernelSize : new long[][] { { 5, 7 }, { 4, 6 } } )
+		{
+			final Img< FloatType > kernel = randomImg( factory, kernelSize );
+			final FourierConvolver< FloatType, FloatType > convolver = new FourierConvolver< FloatType, FloatType >( kernel );
+			convolver.setNumThreads( 3 );
+
+			final Img< FloatType > img = randomImg( factory, 53, 40 );
+			final Img< FloatType > expected = convolver.convolve( img, factory );
+			final Img< FloatType > tiled = factory.create( img, new FloatType() );
+			convolver.convolve( img, tiled, new int[] { 16, 12 } );
+			assertImgEquals( expected, tiled );
+		}
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testOutputSizeMismatch() throws Exception
+	{
+		final ImgFactory< FloatType > factory = new ArrayImgFactory< FloatType >();
+		final FourierConvolver< FloatType, FloatType > convolver = new FourierConvolver< FloatType, FloatType >( randomImg( factory, 3, 3 ) );
+		convolver.convolve( randomImg( factory, 10, 10 ), factory.create( new long[] { 10, 11 }, new FloatType() ) );
+	}
+}
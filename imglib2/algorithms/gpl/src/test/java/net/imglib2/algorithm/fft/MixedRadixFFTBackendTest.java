@@ -0,0 +1,190 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package net.imglib2.algorithm.fft;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+/**
+ * Compares the {@link MixedRadixFFTBackend} to a naive DFT and checks that
+ * {@link FourierTransform} followed by {@link InverseFourierTransform}
+ * reproduces the input.
+ */
+public class MixedRadixFFTBackendTest
+{
+	final static int[] sizes = new int[] { 1, 2, 3, 4, 5, 6, 8, 9, 12, 15, 16, 25, 27, 30, 60, 64, 81, 120, 125, 240 };
+
+	final static Random random = new Random( 42 );
+
+	static float[] dft( final int sign, final float[] x )
+	{
+		final int n = x.length / 2;
+		final float[] y = new float[ 2 * n ];
+		for ( int k = 0; k < n; ++k )
+		{
+			double re = 0, im = 0;
+			for ( int j = 0; j < n; ++j )
+			{
+				final double a = sign * 2 * Math.PI * ( ( long ) j * k % n ) / n;
+				re += x[ 2 * j ] * Math.cos( a ) - x[ 2 * j + 1 ] * Math.sin( a );
+				im += x[ 2 * j ] * Math.sin( a ) + x[ 2 * j + 1 ] * Math.cos( a );
+			}
+			y[ 2 * k ] = ( float ) re;
+			y[ 2 * k + 1 ] = ( float ) im;
+		}
+		return y;
+	}
+
+	static float[] randomArray( final int length )
+	{
+		final float[] x = new float[ length ];
+		for ( int i = 0; i < length; ++i )
+			x[ i ] = random.nextFloat() - 0.5f;
+		return x;
+	}
+
+	static void assertArrayEquals( final float[] expected, final float[] actual, final int length, final float delta )
+	{
+		for ( int i = 0; i < length; ++i )
+			assertEquals( expected[ i ], actual[ i ], delta );
+	}
+
+	@Test
+	public void testSupportedSizes()
+	{
+		final MixedRadixFFTBackend backend = new MixedRadixFFTBackend();
+		for ( int n = 1; n < 1000; ++n )
+		{
+			final int c = backend.complexSize( n, true );
+			assertTrue( c >= n );
+			assertTrue( MixedRadixFFTBackend.isSupportedSize( c ) );
+			final int r = backend.realSize( n, true );
+			assertTrue( r >= n );
+			assertEquals( 0, r % 2 );
+			assertTrue( MixedRadixFFTBackend.isSupportedSize( r ) );
+		}
+		assertEquals( 108, backend.complexSize( 101, true ) );
+	}
+
+	@Test
+	public void testComplexToComplex()
+	{
+		final MixedRadixFFTBackend backend = new MixedRadixFFTBackend();
+		for ( final int n : sizes )
+		{
+			final ComplexFFTPlan plan = backend.complexPlan( n );
+			assertSame( plan, backend.complexPlan( n ) );
+			final float[] workspace = new float[ plan.workspaceSize() ];
+			for ( int sign = -1; sign <= 1; sign += 2 )
+			{
+				final float[] x = randomArray( 2 * n );
+				final float[] expected = dft( sign, x );
+				final float[] y = new float[ 2 * n ];
+				plan.complexToComplex( sign, x, y, workspace );
+				assertArrayEquals( expected, y, 2 * n, 1e-4f * n );
+
+				// in place
+				plan.complexToComplex( sign, x, x, workspace );
+				assertArrayEquals( expected, x, 2 * n, 1e-4f * n );
+			}
+		}
+	}
+
+	@Test
+	public void testRealToComplex()
+	{
+		final MixedRadixFFTBackend backend = new MixedRadixFFTBackend();
+		for ( final int n : sizes )
+		{
+			if ( n % 2 != 0 )
+				continue;
+			final RealFFTPlan plan = backend.realPlan( n );
+			final float[] workspace = new float[ plan.workspaceSize() ];
+			final float[] x = randomArray( n );
+			final float[] cx = new float[ 2 * n ];
+			for ( int i = 0; i < n; ++i )
+				cx[ 2 * i ] = x[ i ];
+			final float[] expected = dft( -1, cx );
+			final float[] y = new float[ n + 2 ];
+			plan.realToComplex( -1, x, y, workspace );
+			assertArrayEquals( expected, y, n + 2, 1e-4f * n );
+
+			// the inverse transform of the forward transform is n times the input
+			final float[] r = new float[ n ];
+			plan.complexToReal( 1, y, r, workspace );
+			for ( int i = 0; i < n; ++i )
+				assertEquals( x[ i ] * n, r[ i ], 1e-4f * n );
+		}
+	}
+
+	protected void testRoundTrip( final ImgFactory< FloatType > factory ) throws Exception
+	{
+		final Img< FloatType > img = factory.create( new long[] { 37, 21, 5 }, new FloatType() );
+		for ( final FloatType t : img )
+			t.set( random.nextFloat() );
+
+		final FourierTransform< FloatType, ComplexFloatType > fft = new FourierTransform< FloatType, ComplexFloatType >( img, new ComplexFloatType() );
+		assertTrue( fft.checkInput() && fft.process() );
+
+		final InverseFourierTransform< FloatType, ComplexFloatType > ifft = new InverseFourierTransform< FloatType, ComplexFloatType >( fft.getResult(), fft );
+		assertTrue( ifft.checkInput() && ifft.process() );
+
+		final Img< FloatType > result = ifft.getResult();
+		final Cursor< FloatType > c1 = img.localizingCursor();
+		final net.imglib2.RandomAccess< FloatType > r2 = result.randomAccess();
+		while ( c1.hasNext() )
+		{
+			c1.fwd();
+			r2.setPosition( c1 );
+			assertEquals( c1.get().get(), r2.get().get(), 1e-4f );
+		}
+	}
+
+	@Test
+	public void testRoundTripArrayImg() throws Exception
+	{
+		testRoundTrip( new ArrayImgFactory< FloatType >() );
+	}
+
+	@Test
+	public void testRoundTripCellImg() throws Exception
+	{
+		testRoundTrip( new CellImgFactory< FloatType >( 8 ) );
+	}
+}
@@ -0,0 +1,652 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.collection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imglib2.EuclideanSpace;
+import net.imglib2.IterableRealInterval;
+import net.imglib2.RealCursor;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+import net.imglib2.Sampler;
+import net.imglib2.multithreading.TaskService;
+
+/**
+ * KDTree to access values at RealLocalizable positions, stored in flat
+ * arrays.
+ *
+ * <p>
+ * The tree is left-balanced and its nodes are stored in breadth-first order,
+ * such that the children of node <em>i</em> are the nodes <em>2i+1</em> and
+ * <em>2i+2</em>. Nodes at depth <em>k</em> split the space along dimension
+ * <em>k</em> modulo the number of dimensions. The coordinates of all nodes
+ * are stored in one <code>double[]</code> array and no objects are created
+ * per node, which makes this suitable for very large point sets. The tree
+ * is built by median partitioning of an index array, with the subtrees of
+ * the top levels being built in parallel.
+ * </p>
+ *
+ * <p>
+ * Use {@link net.imglib2.neighborsearch.NearestNeighborSearchOnFlatKDTree},
+ * {@link net.imglib2.neighborsearch.KNearestNeighborSearchOnFlatKDTree} and
+ * {@link net.imglib2.neighborsearch.RadiusNeighborSearchOnFlatKDTree} to search
+ * the tree.
+ * </p>
+ *
+ * @param <T>
+ *            type of values stored in the tree.
+ */
+public class FlatKDTree< T > implements EuclideanSpace, IterableRealInterval< T >
+{
+	/**
+	 * the number of dimensions.
+	 */
+	final protected int n;
+
+	/**
+	 * the number of nodes in the tree.
+	 */
+	final protected int size;
+
+	/**
+	 * coordinates of the nodes. The coordinates of node i are at indices
+	 * <code>i * n</code> to <code>i * n + n - 1</code>.
+	 */
+	final protected double[] positions;
+
+	/**
+	 * values of the nodes.
+	 */
+	final protected Object[] values;
+
+	/**
+	 * for each node, the index of its value in the list the tree was built
+	 * from.
+	 */
+	final protected int[] indices;
+
+	/**
+	 * minimum of each dimension.
+	 */
+	final protected double[] min;
+
+	/**
+	 * maximum of each dimension.
+	 */
+	final protected double[] max;
+
+	/**
+	 * Construct a KDTree from the elements in the given list, using all
+	 * available processors.
+	 *
+	 * <p>
+	 * Note that the constructor can be called with the same list for both
+	 * {@code values == positions} if {@code T extends RealLocalizable}.
+	 * </p>
+	 *
+	 * @param values
+	 *            a list of values
+	 * @param positions
+	 *            a list of positions corresponding to the values
+	 */
+	public < L extends RealLocalizable > FlatKDTree( final List< T > values, final List< L > positions )
+	{
+		this( values, positions, Runtime.getRuntime().availableProcessors() );
+	}
+
+	/**
+	 * Construct a KDTree from the elements in the given list.
+	 *
+	 * @param values
+	 *            a list of values
+	 * @param positions
+	 *            a list of positions corresponding to the values
+	 * @param numThreads
+	 *            number of threads used to build the tree
+	 */
+	public < L extends RealLocalizable > FlatKDTree( final List< T > values, final List< L > positions, final int numThreads )
+	{
+		this( values, flatten( positions ), positions.get( 0 ).numDimensions(), numThreads );
+	}
+
+	/**
+	 * Construct a KDTree from values and their coordinates given as a flat
+	 * array.
+	 *
+	 * @param values
+	 *            a list of values
+	 * @param coordinates
+	 *            the coordinates of the values. The coordinates of value i
+	 *            are at indices <code>i * n</code> to
+	 *            <code>i * n + n - 1</code>. The array is not modified.
+	 * @param n
+	 *            number of dimensions
+	 * @param numThreads
+	 *            number of threads used to build the tree
+	 */
+	public FlatKDTree( final List< T > values, final double[] coordinates, final int n, final int numThreads )
+	{
+		if ( values.size() * ( long ) n != coordinates.length )
+			throw new IllegalArgumentException( "Expected " + values.size() * ( long ) n + " coordinates, got " + coordinates.length + "." );
+
+		this.n = n;
+		this.size = values.size();
+		this.positions = new double[ coordinates.length ];
+		this.values = new Object[ size ];
+		this.indices = new int[ size ];
+
+		this.min = new double[ n ];
+		this.max = new double[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			min[ d ] = Double.MAX_VALUE;
+			max[ d ] = -Double.MAX_VALUE;
+		}
+		for ( int i = 0; i < coordinates.length; )
+		{
+			for ( int d = 0; d < n; ++d, ++i )
+			{
+				final double x = coordinates[ i ];
+				if ( x < min[ d ] )
+					min[ d ] = x;
+				if ( x > max[ d ] )
+					max[ d ] = x;
+			}
+		}
+
+		final int[] permutation = new int[ size ];
+		for ( int k = 0; k < size; ++k )
+			permutation[ k ] = k;
+
+		final List< T > valueList = ( values instanceof java.util.RandomAccess ) ? values : new ArrayList< T >( values );
+		int parallelDepth = 0;
+		while ( ( 1 << parallelDepth ) < numThreads )
+			++parallelDepth;
+		makeNode( 0, 0, size, 0, coordinates, permutation, valueList, parallelDepth );
+	}
+
+	/**
+	 * Copy the coordinates of a list of positions into a flat array.
+	 */
+	protected static < L extends RealLocalizable > double[] flatten( final List< L > positions )
+	{
+		final int n = positions.get( 0 ).numDimensions();
+		final double[] coordinates = new double[ positions.size() * n ];
+		int i = 0;
+		for ( final L position : positions )
+		{
+			if ( position.numDimensions() != n )
+				throw new IllegalArgumentException( "All positions must have " + n + " dimensions." );
+			for ( int d = 0; d < n; ++d )
+				coordinates[ i++ ] = position.getDoublePosition( d );
+		}
+		return coordinates;
+	}
+
+	/**
+	 * Get the number of nodes in the left subtree of a left-balanced tree of
+	 * the given size.
+	 */
+	protected static int leftSubtreeSize( final int m )
+	{
+		// number of complete levels
+		int h = 0;
+		while ( ( 1 << ( h + 1 ) ) - 1 <= m )
+			++h;
+		final int complete = ( 1 << h ) - 1;
+		final int halfLastLevel = 1 << ( h - 1 );
+		return halfLastLevel - 1 + Math.min( m - complete, halfLastLevel );
+	}
+
+	/**
+	 * Construct the subtree rooted at the given node from the elements of
+	 * permutation between indices i (inclusive) and j (exclusive). The
+	 * elements are partitioned such that the left subtree gets the elements
+	 * smaller than the node in the split dimension d. The left and right
+	 * partitions are processed recursively, in parallel if parallelDepth is
+	 * greater than 0.
+	 */
+	protected void makeNode( final int node, final int i, final int j, final int d, final double[] coordinates, final int[] permutation, final List< T > valueList, final int parallelDepth )
+	{
+		if ( i >= j )
+			return;
+
+		final int k = i + leftSubtreeSize( j - i );
+		kthElement( i, j - 1, k, permutation, coordinates, n, d );
+
+		final int p = permutation[ k ];
+		System.arraycopy( coordinates, p * n, positions, node * n, n );
+		values[ node ] = valueList.get( p );
+		indices[ node ] = p;
+
+		final int dChild = ( d + 1 == n ) ? 0 : d + 1;
+		if ( parallelDepth > 0 && j - i > 1024 )
+		{
+			TaskService.getInstance().invokeAll( new Runnable[] {
+					new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							makeNode( 2 * node + 1, i, k, dChild, coordinates, permutation, valueList, parallelDepth - 1 );
+						}
+					},
+					new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							makeNode( 2 * node + 2, k + 1, j, dChild, coordinates, permutation, valueList, parallelDepth - 1 );
+						}
+					} } );
+		}
+		else
+		{
+			makeNode( 2 * node + 1, i, k, dChild, coordinates, permutation, valueList, 0 );
+			makeNode( 2 * node + 2, k + 1, j, dChild, coordinates, permutation, valueList, 0 );
+		}
+	}
+
+	/**
+	 * Partition the sublist of permutation between indices i and j
+	 * (inclusive) such that the element at index k is the one that would be
+	 * there if the sublist was sorted by coordinate d, smaller elements are
+	 * before and greater elements are after index k. Elements equal to the
+	 * pivot are gathered in the middle, so that many equal coordinates do
+	 * not degrade the partitioning.
+	 */
+	protected static void kthElement( int i, int j, final int k, final int[] permutation, final double[] coordinates, final int n, final int d )
+	{
+		while ( j > i )
+		{
+			// median of three pivot
+			final double a = coordinates[ permutation[ i ] * n + d ];
+			final double b = coordinates[ permutation[ i + ( j - i ) / 2 ] * n + d ];
+			final double c = coordinates[ permutation[ j ] * n + d ];
+			final double pivot = ( a < b ) ? ( b < c ? b : ( a < c ? c : a ) ) : ( a < c ? a : ( b < c ? c : b ) );
+
+			// partition into [i, lt) < pivot, [lt, gt] == pivot, (gt, j] > pivot
+			int lt = i;
+			int gt = j;
+			int l = i;
+			while ( l <= gt )
+			{
+				final double x = coordinates[ permutation[ l ] * n + d ];
+				if ( x < pivot )
+					swap( permutation, lt++, l++ );
+				else if ( x > pivot )
+					swap( permutation, l, gt-- );
+				else
+					++l;
+			}
+
+			if ( k < lt )
+				j = lt - 1;
+			else if ( k > gt )
+				i = gt + 1;
+			else
+				return;
+		}
+	}
+
+	private static void swap( final int[] permutation, final int i, final int j )
+	{
+		final int tmp = permutation[ i ];
+		permutation[ i ] = permutation[ j ];
+		permutation[ j ] = tmp;
+	}
+
+	/**
+	 * Get the dimension along which a node divides the space.
+	 */
+	public int getSplitDimension( final int node )
+	{
+		return ( 31 - Integer.numberOfLeadingZeros( node + 1 ) ) % n;
+	}
+
+	/**
+	 * Get the coordinate of a node in dimension d.
+	 */
+	public double getDoublePosition( final int node, final int d )
+	{
+		return positions[ node * n + d ];
+	}
+
+	/**
+	 * Get the value of a node.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public T get( final int node )
+	{
+		return ( T ) values[ node ];
+	}
+
+	/**
+	 * Get the index of the value of a node in the list the tree was built
+	 * from.
+	 */
+	public int getIndex( final int node )
+	{
+		return indices[ node ];
+	}
+
+	/**
+	 * Compute the squared distance from p to a node.
+	 */
+	public double squDistanceTo( final int node, final double[] p )
+	{
+		double sum = 0;
+		for ( int d = 0, i = node * n; d < n; ++d, ++i )
+		{
+			final double diff = positions[ i ] - p[ d ];
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	/**
+	 * Get the flat array of node coordinates.
+	 */
+	public double[] getPositions()
+	{
+		return positions;
+	}
+
+	/**
+	 * Create a {@link RealLocalizable} {@link Sampler} for a node.
+	 */
+	public Node createNode( final int node )
+	{
+		return new Node( node );
+	}
+
+	/**
+	 * Provides the coordinates and value of a node.
+	 */
+	public final class Node implements RealLocalizable, Sampler< T >
+	{
+		protected int node;
+
+		public Node( final int node )
+		{
+			this.node = node;
+		}
+
+		/**
+		 * @return the index of the node in the tree.
+		 */
+		public int getNodeIndex()
+		{
+			return node;
+		}
+
+		@Override
+		public int numDimensions()
+		{
+			return n;
+		}
+
+		@Override
+		public void localize( final float[] position )
+		{
+			for ( int d = 0; d < n; ++d )
+				position[ d ] = ( float ) positions[ node * n + d ];
+		}
+
+		@Override
+		public void localize( final double[] position )
+		{
+			System.arraycopy( positions, node * n, position, 0, n );
+		}
+
+		@Override
+		public float getFloatPosition( final int d )
+		{
+			return ( float ) positions[ node * n + d ];
+		}
+
+		@Override
+		public double getDoublePosition( final int d )
+		{
+			return positions[ node * n + d ];
+		}
+
+		@Override
+		public T get()
+		{
+			return FlatKDTree.this.get( node );
+		}
+
+		@Override
+		public Node copy()
+		{
+			return new Node( node );
+		}
+	}
+
+	@Override
+	public int numDimensions()
+	{
+		return n;
+	}
+
+	@Override
+	public double realMin( final int d )
+	{
+		return min[ d ];
+	}
+
+	@Override
+	public void realMin( final double[] m )
+	{
+		for ( int d = 0; d < n; ++d )
+			m[ d ] = min[ d ];
+	}
+
+	@Override
+	public void realMin( final RealPositionable m )
+	{
+		m.setPosition( min );
+	}
+
+	@Override
+	public double realMax( final int d )
+	{
+		return max[ d ];
+	}
+
+	@Override
+	public void realMax( final double[] m )
+	{
+		for ( int d = 0; d < n; ++d )
+			m[ d ] = max[ d ];
+	}
+
+	@Override
+	public void realMax( final RealPositionable m )
+	{
+		m.setPosition( max );
+	}
+
+	@Override
+	public long size()
+	{
+		return size;
+	}
+
+	@Override
+	public Object iterationOrder()
+	{
+		return this; // iteration order is only compatible with ourselves
+	}
+
+	@Override
+	public boolean equalIterationOrder( final IterableRealInterval< ? > f )
+	{
+		return iterationOrder().equals( f.iterationOrder() );
+	}
+
+	/**
+	 * Iterates the nodes in breadth-first order.
+	 */
+	public final class FlatKDTreeCursor implements RealCursor< T >
+	{
+		private int node;
+
+		public FlatKDTreeCursor()
+		{
+			reset();
+		}
+
+		public FlatKDTreeCursor( final FlatKDTreeCursor c )
+		{
+			this.node = c.node;
+		}
+
+		@Override
+		public void localize( final float[] position )
+		{
+			for ( int d = 0; d < n; ++d )
+				position[ d ] = ( float ) positions[ node * n + d ];
+		}
+
+		@Override
+		public void localize( final double[] position )
+		{
+			System.arraycopy( positions, node * n, position, 0, n );
+		}
+
+		@Override
+		public float getFloatPosition( final int d )
+		{
+			return ( float ) positions[ node * n + d ];
+		}
+
+		@Override
+		public double getDoublePosition( final int d )
+		{
+			return positions[ node * n + d ];
+		}
+
+		@Override
+		public int numDimensions()
+		{
+			return n;
+		}
+
+		@Override
+		public T get()
+		{
+			return FlatKDTree.this.get( node );
+		}
+
+		@Override
+		public FlatKDTreeCursor copy()
+		{
+			return new FlatKDTreeCursor( this );
+		}
+
+		@Override
+		public void jumpFwd( final long steps )
+		{
+			node += steps;
+		}
+
+		@Override
+		public void fwd()
+		{
+			++node;
+		}
+
+		@Override
+		public void reset()
+		{
+			node = -1;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return node < size - 1;
+		}
+
+		@Override
+		public T next()
+		{
+			fwd();
+			return get();
+		}
+
+		@Override
+		public void remove()
+		{
+			// NB: no action.
+		}
+
+		@Override
+		public FlatKDTreeCursor copyCursor()
+		{
+			return copy();
+		}
+	}
+
+	@Override
+	public FlatKDTreeCursor iterator()
+	{
+		return new FlatKDTreeCursor();
+	}
+
+	@Override
+	public FlatKDTreeCursor cursor()
+	{
+		return new FlatKDTreeCursor();
+	}
+
+	@Override
+	public FlatKDTreeCursor localizingCursor()
+	{
+		return new FlatKDTreeCursor();
+	}
+
+	@Override
+	public T firstElement()
+	{
+		return get( 0 );
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.img.array;
+
+import net.imglib2.AbstractCursor;
+import net.imglib2.Cursor;
+import net.imglib2.type.NativeType;
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * {@link Cursor} on a {@link BigArrayImg}.
+ *
+ * @param <T>
+ */
+public class BigArrayCursor< T extends NativeType< T > > extends AbstractCursor< T > implements BigArrayImg.BigArrayContainerSampler
+{
+	protected final T type;
+
+	protected final BigArrayImg< T, ? > container;
+
+	protected final int lastChunk;
+
+	protected final int lastIndexInLastChunk;
+
+	protected final int lastIndexInFullChunk;
+
+	protected int chunk;
+
+	/**
+	 * The current index within the chunk. It is faster to duplicate this here
+	 * than to access it through type.getIndex().
+	 */
+	protected int index;
+
+	protected int lastIndexInChunk;
+
+	protected BigArrayCursor( final BigArrayCursor< T > cursor )
+	{
+		super( cursor.numDimensions() );
+
+		this.container = cursor.container;
+		this.type = container.createLinkedType();
+		this.lastChunk = cursor.lastChunk;
+		this.lastIndexInLastChunk = cursor.lastIndexInLastChunk;
+		this.lastIndexInFullChunk = cursor.lastIndexInFullChunk;
+		this.chunk = cursor.chunk;
+		this.index = cursor.index;
+		this.lastIndexInChunk = cursor.lastIndexInChunk;
+
+		type.updateContainer( this );
+		type.updateIndex( index );
+	}
+
+	public BigArrayCursor( final BigArrayImg< T, ? > container )
+	{
+		super( container.numDimensions() );
+
+		this.type = container.createLinkedType();
+		this.container = container;
+		this.lastChunk = container.numChunks() - 1;
+		this.lastIndexInFullChunk = ( int ) container.chunkMask;
+		this.lastIndexInLastChunk = ( int ) ( ( container.size() - 1 ) & container.chunkMask );
+
+		reset();
+	}
+
+	@Override
+	public int getCurrentChunkIndex()
+	{
+		return chunk;
+	}
+
+	@Override
+	public T get()
+	{
+		return type;
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		return index < lastIndexInChunk || chunk < lastChunk;
+	}
+
+	@Override
+	public void jumpFwd( final long steps )
+	{
+		setIndex( globalIndex() + steps );
+	}
+
+	@Override
+	public void fwd()
+	{
+		if ( ++index > lastIndexInChunk )
+			nextChunk();
+		type.updateIndex( index );
+	}
+
+	@Override
+	public void reset()
+	{
+		chunk = 0;
+		index = -1;
+		lastIndexInChunk = ( lastChunk == 0 ) ? lastIndexInLastChunk : lastIndexInFullChunk;
+		type.updateIndex( index );
+		type.updateContainer( this );
+	}
+
+	@Override
+	public String toString()
+	{
+		return type.toString();
+	}
+
+	@Override
+	public long getLongPosition( final int dim )
+	{
+		return IntervalIndexer.indexToPosition( globalIndex(), container.dim, container.steps, dim );
+	}
+
+	@Override
+	public void localize( final long[] position )
+	{
+		IntervalIndexer.indexToPosition( globalIndex(), container.dim, position );
+	}
+
+	@Override
+	public BigArrayCursor< T > copy()
+	{
+		return new BigArrayCursor< T >( this );
+	}
+
+	@Override
+	public BigArrayCursor< T > copyCursor()
+	{
+		return copy();
+	}
+
+	protected long globalIndex()
+	{
+		return ( ( long ) chunk << container.chunkShift ) + index;
+	}
+
+	/**
+	 * Move to the first element of the next chunk.
+	 */
+	protected void nextChunk()
+	{
+		++chunk;
+		index = 0;
+		lastIndexInChunk = ( chunk == lastChunk ) ? lastIndexInLastChunk : lastIndexInFullChunk;
+		type.updateContainer( this );
+	}
+
+	/**
+	 * Set the global index (which must be in the image or -1).
+	 */
+	protected void setIndex( final long globalIndex )
+	{
+		if ( globalIndex < 0 )
+		{
+			reset();
+			return;
+		}
+		chunk = ( int ) ( globalIndex >> container.chunkShift );
+		index = ( int ) ( globalIndex & container.chunkMask );
+		lastIndexInChunk = ( chunk == lastChunk ) ? lastIndexInLastChunk : lastIndexInFullChunk;
+		type.updateContainer( this );
+		type.updateIndex( index );
+	}
+}
@@ -0,0 +1,256 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.img.array;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imglib2.FlatIterationOrder;
+import net.imglib2.img.AbstractNativeImg;
+import net.imglib2.img.Img;
+import net.imglib2.img.basictypeaccess.DataAccess;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.type.NativeType;
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * This {@link Img} stores an image in flat iteration order, like
+ * {@link ArrayImg}, but uses <code>long</code> indices and splits the data into
+ * chunks of 2<sup><em>chunkShift</em></sup> pixels. Each chunk is a basic type
+ * array. Therefore, the number of pixels is not limited to
+ * {@link Integer#MAX_VALUE}.
+ *
+ * <p>
+ * The chunks are created by the <em>creator</em> access, or passed in as a
+ * list. Using chunks of memory-mapped accesses, the image can be stored
+ * off-heap (see {@link net.imglib2.img.mapped.MappedImgFactory}).
+ * </p>
+ *
+ * <p>
+ * Samplers compute the chunk and the index within the chunk from the global
+ * index by a shift and a mask. The {@link NativeType} is only re-linked to
+ * another basic type array when crossing a chunk boundary.
+ * </p>
+ *
+ * @param <T>
+ * @param <A>
+ */
+public class BigArrayImg< T extends NativeType< T >, A extends DataAccess > extends AbstractNativeImg< T, A >
+{
+	final long[] steps, dim;
+
+	/**
+	 * log<sub>2</sub> of the number of pixels per chunk.
+	 */
+	final int chunkShift;
+
+	/**
+	 * Mask to extract the index within a chunk from a global index.
+	 */
+	final long chunkMask;
+
+	final ArrayList< A > chunks;
+
+	/**
+	 * Create a new {@link BigArrayImg}.
+	 *
+	 * @param creator
+	 *            used to create the basic type arrays of the chunks.
+	 * @param dim
+	 *            dimensions of the image.
+	 * @param entitiesPerPixel
+	 * @param chunkShift
+	 *            each chunk holds 2<sup>chunkShift</sup> pixels.
+	 */
+	public BigArrayImg( final ArrayDataAccess< A > creator, final long[] dim, final int entitiesPerPixel, final int chunkShift )
+	{
+		this( dim, entitiesPerPixel, chunkShift );
+		for ( final int numEntities : chunkSizes( dim, entitiesPerPixel, chunkShift ) )
+			chunks.add( creator.createArray( numEntities ) );
+	}
+
+	/**
+	 * Create a new {@link BigArrayImg} on existing chunks.
+	 *
+	 * @param chunks
+	 *            the basic type arrays of the chunks, holding the number of
+	 *            entities given by {@link #chunkSizes(long[], int, int)}.
+	 * @param dim
+	 *            dimensions of the image.
+	 * @param entitiesPerPixel
+	 * @param chunkShift
+	 *            each chunk holds 2<sup>chunkShift</sup> pixels.
+	 */
+	public BigArrayImg( final List< A > chunks, final long[] dim, final int entitiesPerPixel, final int chunkShift )
+	{
+		this( dim, entitiesPerPixel, chunkShift );
+		if ( chunks.size() != chunkSizes( dim, entitiesPerPixel, chunkShift ).length )
+			throw new IllegalArgumentException( "Expected " + chunkSizes( dim, entitiesPerPixel, chunkShift ).length + " chunks, got " + chunks.size() + "." );
+		this.chunks.addAll( chunks );
+	}
+
+	private BigArrayImg( final long[] dim, final int entitiesPerPixel, final int chunkShift )
+	{
+		super( dim, entitiesPerPixel );
+
+		this.chunkShift = chunkShift;
+		this.chunkMask = ( 1l << chunkShift ) - 1;
+
+		this.dim = dimension.clone();
+		this.steps = new long[ n ];
+		IntervalIndexer.createAllocationSteps( dim, steps );
+
+		chunks = new ArrayList< A >();
+	}
+
+	/**
+	 * Compute the number of entities in every chunk of a {@link BigArrayImg}.
+	 *
+	 * @param dim
+	 *            dimensions of the image.
+	 * @param entitiesPerPixel
+	 * @param chunkShift
+	 *            each chunk holds 2<sup>chunkShift</sup> pixels.
+	 * @return the number of entities of each chunk.
+	 */
+	public static int[] chunkSizes( final long[] dim, final int entitiesPerPixel, final int chunkShift )
+	{
+		final long pixelsPerChunk = 1l << chunkShift;
+		if ( chunkShift < 0 || pixelsPerChunk * entitiesPerPixel > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "Chunks of 2^" + chunkShift + " pixels do not fit into a basic type array." );
+
+		long numPixels = 1;
+		for ( final long d : dim )
+			numPixels *= d;
+
+		final long numChunks = ( numPixels - 1 ) / pixelsPerChunk + 1;
+		if ( numChunks > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "Too many chunks (" + numChunks + "), use a larger chunkShift." );
+
+		final int[] sizes = new int[ ( int ) numChunks ];
+		for ( int c = 0; c < sizes.length; ++c )
+			sizes[ c ] = ( int ) Math.min( pixelsPerChunk, numPixels - c * pixelsPerChunk ) * entitiesPerPixel;
+		return sizes;
+	}
+
+	/**
+	 * This interface is implemented by all samplers on the {@link BigArrayImg}.
+	 * It allows the container to ask for the chunk the sampler is currently
+	 * in.
+	 */
+	public interface BigArrayContainerSampler
+	{
+		/**
+		 * @return the index of the chunk the sampler is currently accessing.
+		 */
+		public int getCurrentChunkIndex();
+	}
+
+	@Override
+	public A update( final Object o )
+	{
+		return chunks.get( ( ( BigArrayContainerSampler ) o ).getCurrentChunkIndex() );
+	}
+
+	/**
+	 * @return the number of chunks.
+	 */
+	public int numChunks()
+	{
+		return chunks.size();
+	}
+
+	/**
+	 * @return the basic type array of chunk <em>i</em>.
+	 */
+	public A getChunk( final int i )
+	{
+		return chunks.get( i );
+	}
+
+	/**
+	 * @return log<sub>2</sub> of the number of pixels per chunk.
+	 */
+	public int getChunkShift()
+	{
+		return chunkShift;
+	}
+
+	@Override
+	public BigArrayCursor< T > cursor()
+	{
+		return new BigArrayCursor< T >( this );
+	}
+
+	@Override
+	public BigArrayLocalizingCursor< T > localizingCursor()
+	{
+		return new BigArrayLocalizingCursor< T >( this );
+	}
+
+	@Override
+	public BigArrayRandomAccess< T > randomAccess()
+	{
+		return new BigArrayRandomAccess< T >( this );
+	}
+
+	@Override
+	public FlatIterationOrder iterationOrder()
+	{
+		return new FlatIterationOrder( this );
+	}
+
+	@Override
+	public BigArrayImgFactory< T > factory()
+	{
+		return new BigArrayImgFactory< T >( chunkShift );
+	}
+
+	@Override
+	public BigArrayImg< T, ? > copy()
+	{
+		final BigArrayImg< T, ? > copy = factory().create( dimension, firstElement().createVariable() );
+
+		final BigArrayCursor< T > source = this.cursor();
+		final BigArrayCursor< T > target = copy.cursor();
+
+		while ( source.hasNext() )
+			target.next().set( source.next() );
+
+		return copy;
+	}
+}
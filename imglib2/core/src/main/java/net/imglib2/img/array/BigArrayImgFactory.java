@@ -0,0 +1,141 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.img.array;
+
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.NativeImgFactory;
+import net.imglib2.img.basictypeaccess.array.BitArray;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.CharArray;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.NativeType;
+
+/**
+ * Factory for {@link BigArrayImg}s.
+ */
+public class BigArrayImgFactory< T extends NativeType< T > > extends NativeImgFactory< T >
+{
+	/**
+	 * By default, chunks hold 2<sup>24</sup> pixels.
+	 */
+	public static final int DEFAULT_CHUNK_SHIFT = 24;
+
+	protected final int chunkShift;
+
+	public BigArrayImgFactory()
+	{
+		this( DEFAULT_CHUNK_SHIFT );
+	}
+
+	/**
+	 * @param chunkShift
+	 *            chunks hold 2<sup>chunkShift</sup> pixels.
+	 */
+	public BigArrayImgFactory( final int chunkShift )
+	{
+		this.chunkShift = chunkShift;
+	}
+
+	@Override
+	public BigArrayImg< T, ? > create( final long[] dim, final T type )
+	{
+		return ( BigArrayImg< T, ? > ) type.createSuitableNativeImg( this, dim );
+	}
+
+	@Override
+	public BigArrayImg< T, BitArray > createBitInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return new BigArrayImg< T, BitArray >( new BitArray( 1 ), dimensions, entitiesPerPixel, chunkShift );
+	}
+
+	@Override
+	public BigArrayImg< T, ByteArray > createByteInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return new BigArrayImg< T, ByteArray >( new ByteArray( 1 ), dimensions, entitiesPerPixel, chunkShift );
+	}
+
+	@Override
+	public BigArrayImg< T, CharArray > createCharInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return new BigArrayImg< T, CharArray >( new CharArray( 1 ), dimensions, entitiesPerPixel, chunkShift );
+	}
+
+	@Override
+	public BigArrayImg< T, ShortArray > createShortInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return new BigArrayImg< T, ShortArray >( new ShortArray( 1 ), dimensions, entitiesPerPixel, chunkShift );
+	}
+
+	@Override
+	public BigArrayImg< T, IntArray > createIntInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return new BigArrayImg< T, IntArray >( new IntArray( 1 ), dimensions, entitiesPerPixel, chunkShift );
+	}
+
+	@Override
+	public BigArrayImg< T, LongArray > createLongInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return new BigArrayImg< T, LongArray >( new LongArray( 1 ), dimensions, entitiesPerPixel, chunkShift );
+	}
+
+	@Override
+	public BigArrayImg< T, FloatArray > createFloatInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return new BigArrayImg< T, FloatArray >( new FloatArray( 1 ), dimensions, entitiesPerPixel, chunkShift );
+	}
+
+	@Override
+	public BigArrayImg< T, DoubleArray > createDoubleInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return new BigArrayImg< T, DoubleArray >( new DoubleArray( 1 ), dimensions, entitiesPerPixel, chunkShift );
+	}
+
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	@Override
+	public < S > ImgFactory< S > imgFactory( final S type ) throws IncompatibleTypeException
+	{
+		if ( NativeType.class.isInstance( type ) )
+			return new BigArrayImgFactory( chunkShift );
+		else
+			throw new IncompatibleTypeException( this, type.getClass().getCanonicalName() + " does not implement NativeType." );
+	}
+}
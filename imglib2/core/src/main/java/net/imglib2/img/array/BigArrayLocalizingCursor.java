@@ -0,0 +1,195 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.img.array;
+
+import net.imglib2.AbstractLocalizingCursor;
+import net.imglib2.Cursor;
+import net.imglib2.type.NativeType;
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * Localizing {@link Cursor} on a {@link BigArrayImg}.
+ *
+ * @param <T>
+ */
+public class BigArrayLocalizingCursor< T extends NativeType< T > > extends AbstractLocalizingCursor< T > implements BigArrayImg.BigArrayContainerSampler
+{
+	protected final T type;
+
+	protected final BigArrayImg< T, ? > container;
+
+	protected final int lastChunk;
+
+	protected final int lastIndexInLastChunk;
+
+	protected final int lastIndexInFullChunk;
+
+	protected int chunk;
+
+	protected int index;
+
+	protected int lastIndexInChunk;
+
+	/**
+	 * Maximum of the {@link BigArrayImg} in every dimension.
+	 */
+	protected final long[] max;
+
+	protected BigArrayLocalizingCursor( final BigArrayLocalizingCursor< T > cursor )
+	{
+		super( cursor.numDimensions() );
+
+		this.container = cursor.container;
+		this.type = container.createLinkedType();
+		this.lastChunk = cursor.lastChunk;
+		this.lastIndexInLastChunk = cursor.lastIndexInLastChunk;
+		this.lastIndexInFullChunk = cursor.lastIndexInFullChunk;
+		this.chunk = cursor.chunk;
+		this.index = cursor.index;
+		this.lastIndexInChunk = cursor.lastIndexInChunk;
+
+		max = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			position[ d ] = cursor.position[ d ];
+			max[ d ] = cursor.max[ d ];
+		}
+
+		type.updateContainer( this );
+		type.updateIndex( index );
+	}
+
+	public BigArrayLocalizingCursor( final BigArrayImg< T, ? > container )
+	{
+		super( container.numDimensions() );
+
+		this.type = container.createLinkedType();
+		this.container = container;
+		this.lastChunk = container.numChunks() - 1;
+		this.lastIndexInFullChunk = ( int ) container.chunkMask;
+		this.lastIndexInLastChunk = ( int ) ( ( container.size() - 1 ) & container.chunkMask );
+
+		max = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+			max[ d ] = container.max( d );
+
+		reset();
+	}
+
+	@Override
+	public int getCurrentChunkIndex()
+	{
+		return chunk;
+	}
+
+	@Override
+	public T get()
+	{
+		return type;
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		return index < lastIndexInChunk || chunk < lastChunk;
+	}
+
+	@Override
+	public void fwd()
+	{
+		if ( ++index > lastIndexInChunk )
+		{
+			++chunk;
+			index = 0;
+			lastIndexInChunk = ( chunk == lastChunk ) ? lastIndexInLastChunk : lastIndexInFullChunk;
+			type.updateContainer( this );
+		}
+		type.updateIndex( index );
+
+		for ( int d = 0; d < n; ++d )
+		{
+			if ( ++position[ d ] > max[ d ] )
+				position[ d ] = 0;
+			else
+				break;
+		}
+	}
+
+	@Override
+	public void jumpFwd( final long steps )
+	{
+		final long globalIndex = ( ( long ) chunk << container.chunkShift ) + index + steps;
+		chunk = ( int ) ( globalIndex >> container.chunkShift );
+		index = ( int ) ( globalIndex & container.chunkMask );
+		lastIndexInChunk = ( chunk == lastChunk ) ? lastIndexInLastChunk : lastIndexInFullChunk;
+		type.updateContainer( this );
+		type.updateIndex( index );
+		IntervalIndexer.indexToPosition( globalIndex, container.dim, position );
+	}
+
+	@Override
+	public void reset()
+	{
+		chunk = 0;
+		index = -1;
+		lastIndexInChunk = ( lastChunk == 0 ) ? lastIndexInLastChunk : lastIndexInFullChunk;
+		type.updateIndex( index );
+		type.updateContainer( this );
+
+		position[ 0 ] = -1;
+		for ( int d = 1; d < n; ++d )
+			position[ d ] = 0;
+	}
+
+	@Override
+	public String toString()
+	{
+		return type.toString();
+	}
+
+	@Override
+	public BigArrayLocalizingCursor< T > copy()
+	{
+		return new BigArrayLocalizingCursor< T >( this );
+	}
+
+	@Override
+	public BigArrayLocalizingCursor< T > copyCursor()
+	{
+		return copy();
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.img.array;
+
+import net.imglib2.AbstractLocalizable;
+import net.imglib2.Localizable;
+import net.imglib2.RandomAccess;
+import net.imglib2.type.NativeType;
+
+/**
+ * {@link RandomAccess} on a {@link BigArrayImg}.
+ *
+ * The global index is maintained as a <code>long</code>. The chunk and the
+ * index within the chunk are derived from it after each move, and the type is
+ * re-linked only if the chunk changed. Positions outside the image are
+ * allowed, but must not be accessed.
+ *
+ * @param <T>
+ */
+public class BigArrayRandomAccess< T extends NativeType< T > > extends AbstractLocalizable implements RandomAccess< T >, BigArrayImg.BigArrayContainerSampler
+{
+	protected final T type;
+
+	protected final BigArrayImg< T, ? > container;
+
+	protected final long[] steps;
+
+	protected final int chunkShift;
+
+	protected final long chunkMask;
+
+	protected final int numChunks;
+
+	protected long index;
+
+	protected int chunk;
+
+	protected BigArrayRandomAccess( final BigArrayRandomAccess< T > randomAccess )
+	{
+		super( randomAccess.numDimensions() );
+
+		this.container = randomAccess.container;
+		this.type = container.createLinkedType();
+		this.steps = container.steps;
+		this.chunkShift = container.chunkShift;
+		this.chunkMask = container.chunkMask;
+		this.numChunks = container.numChunks();
+
+		for ( int d = 0; d < n; d++ )
+			position[ d ] = randomAccess.position[ d ];
+		index = randomAccess.index;
+		chunk = randomAccess.chunk;
+
+		type.updateContainer( this );
+		type.updateIndex( ( int ) ( index & chunkMask ) );
+	}
+
+	public BigArrayRandomAccess( final BigArrayImg< T, ? > container )
+	{
+		super( container.numDimensions() );
+
+		this.container = container;
+		this.type = container.createLinkedType();
+		this.steps = container.steps;
+		this.chunkShift = container.chunkShift;
+		this.chunkMask = container.chunkMask;
+		this.numChunks = container.numChunks();
+
+		index = 0;
+		chunk = 0;
+
+		type.updateContainer( this );
+		type.updateIndex( 0 );
+	}
+
+	@Override
+	public int getCurrentChunkIndex()
+	{
+		return chunk;
+	}
+
+	/**
+	 * Update chunk and type after the global index has changed.
+	 */
+	private void updateIndex()
+	{
+		final long c = index >> chunkShift;
+		if ( c != chunk && c >= 0 && c < numChunks )
+		{
+			chunk = ( int ) c;
+			type.updateContainer( this );
+		}
+		type.updateIndex( ( int ) ( index & chunkMask ) );
+	}
+
+	@Override
+	public T get()
+	{
+		return type;
+	}
+
+	@Override
+	public void fwd( final int d )
+	{
+		index += steps[ d ];
+		++position[ d ];
+		updateIndex();
+	}
+
+	@Override
+	public void bck( final int d )
+	{
+		index -= steps[ d ];
+		--position[ d ];
+		updateIndex();
+	}
+
+	@Override
+	public void move( final int distance, final int d )
+	{
+		index += steps[ d ] * distance;
+		position[ d ] += distance;
+		updateIndex();
+	}
+
+	@Override
+	public void move( final long distance, final int d )
+	{
+		index += steps[ d ] * distance;
+		position[ d ] += distance;
+		updateIndex();
+	}
+
+	@Override
+	public void move( final Localizable localizable )
+	{
+		for ( int d = 0; d < n; ++d )
+		{
+			final long distance = localizable.getLongPosition( d );
+			position[ d ] += distance;
+			index += distance * steps[ d ];
+		}
+		updateIndex();
+	}
+
+	@Override
+	public void move( final int[] distance )
+	{
+		for ( int d = 0; d < n; ++d )
+		{
+			position[ d ] += distance[ d ];
+			index += distance[ d ] * steps[ d ];
+		}
+		updateIndex();
+	}
+
+	@Override
+	public void move( final long[] distance )
+	{
+		for ( int d = 0; d < n; ++d )
+		{
+			position[ d ] += distance[ d ];
+			index += distance[ d ] * steps[ d ];
+		}
+		updateIndex();
+	}
+
+	@Override
+	public void setPosition( final Localizable localizable )
+	{
+		localizable.localize( position );
+		index = 0;
+		for ( int d = 0; d < n; ++d )
+			index += position[ d ] * steps[ d ];
+		updateIndex();
+	}
+
+	@Override
+	public void setPosition( final int[] pos )
+	{
+		index = 0;
+		for ( int d = 0; d < n; ++d )
+		{
+			position[ d ] = pos[ d ];
+			index += pos[ d ] * steps[ d ];
+		}
+		updateIndex();
+	}
+
+	@Override
+	public void setPosition( final long[] pos )
+	{
+		index = 0;
+		for ( int d = 0; d < n; ++d )
+		{
+			position[ d ] = pos[ d ];
+			index += pos[ d ] * steps[ d ];
+		}
+		updateIndex();
+	}
+
+	@Override
+	public void setPosition( final int pos, final int d )
+	{
+		index += ( pos - position[ d ] ) * steps[ d ];
+		position[ d ] = pos;
+		updateIndex();
+	}
+
+	@Override
+	public void setPosition( final long pos, final int d )
+	{
+		index += ( pos - position[ d ] ) * steps[ d ];
+		position[ d ] = pos;
+		updateIndex();
+	}
+
+	@Override
+	public BigArrayRandomAccess< T > copy()
+	{
+		return new BigArrayRandomAccess< T >( this );
+	}
+
+	@Override
+	public BigArrayRandomAccess< T > copyRandomAccess()
+	{
+		return copy();
+	}
+}
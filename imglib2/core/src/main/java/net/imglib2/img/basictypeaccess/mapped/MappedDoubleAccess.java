@@ -0,0 +1,100 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.img.basictypeaccess.mapped;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+
+import net.imglib2.img.basictypeaccess.DoubleAccess;
+import net.imglib2.img.mapped.MappedFile;
+
+/**
+ * {@link DoubleAccess} backed by a memory-mapped region of a {@link MappedFile}.
+ *
+ * {@link #createArray(int)} maps the next unallocated region of the same
+ * file, such that consecutive arrays (chunks of an image) are laid out back to
+ * back in the file. {@link #getCurrentStorageBuffer()} returns the
+ * {@link DoubleBuffer} view on the mapped region.
+ */
+public class MappedDoubleAccess implements DoubleAccess, MappedAccess< DoubleBuffer >
+{
+	protected final MappedFile file;
+
+	protected final DoubleBuffer data;
+
+	/**
+	 * Map the next <em>numEntities</em> doubles of <em>file</em>.
+	 *
+	 * @param file
+	 * @param numEntities
+	 */
+	public MappedDoubleAccess( final MappedFile file, final int numEntities )
+	{
+		this.file = file;
+		this.data = file.map( ( long ) numEntities * 8 ).asDoubleBuffer();
+	}
+
+	@Override
+	public void close()
+	{
+		// NB: mapped regions are released when they are garbage-collected.
+	}
+
+	@Override
+	public double getValue( final int index )
+	{
+		return data.get( index );
+	}
+
+	@Override
+	public void setValue( final int index, final double value )
+	{
+		data.put( index, value );
+	}
+
+	@Override
+	public DoubleBuffer getCurrentStorageBuffer()
+	{
+		return data;
+	}
+
+	@Override
+	public MappedDoubleAccess createArray( final int numEntities )
+	{
+		return new MappedDoubleAccess( file, numEntities );
+	}
+}
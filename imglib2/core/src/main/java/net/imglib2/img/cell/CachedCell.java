@@ -0,0 +1,94 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.img.cell;
+
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+
+/**
+ * A cell of a {@link CellImg} that is managed by {@link CachedCells}. Its data
+ * is loaded on demand by a {@link CellLoader} and may be written back and
+ * evicted when the cache is full.
+ */
+public final class CachedCell< A extends ArrayDataAccess< A > > extends AbstractCell< A >
+{
+	private final long index;
+
+	private final A data;
+
+	/**
+	 * Whether the cell was handed out for writing since it was last loaded or
+	 * saved. Cells of a writable {@link CachedCells} stay dirty once they have
+	 * been handed out.
+	 */
+	volatile boolean dirty;
+
+	public CachedCell( final long index, final int[] dimensions, final long[] min, final A data )
+	{
+		super( dimensions, min );
+		this.index = index;
+		this.data = data;
+		dirty = false;
+	}
+
+	@Override
+	public A getData()
+	{
+		return data;
+	}
+
+	/**
+	 * @return the flattened index of this cell in the cell grid.
+	 */
+	public long getIndex()
+	{
+		return index;
+	}
+
+	/**
+	 * Mark this cell as modified, such that it will be written back before
+	 * it is evicted.
+	 */
+	public void setDirty()
+	{
+		dirty = true;
+	}
+
+	public boolean isDirty()
+	{
+		return dirty;
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.img.cell;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.basictypeaccess.array.BitArray;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.CharArray;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.NativeType;
+
+/**
+ * Factory for {@link CellImg}s whose cells are kept on disk and loaded on
+ * demand into a {@link CachedCells} cache of bounded size. Every image created
+ * by this factory stores its cells in a new, uniquely named sub-directory of
+ * the factory's directory (using a {@link FileCellLoader}), so new images
+ * always start out zeroed, even if the directory is reused.
+ *
+ * Use {@link #flush(CellImg)} to write back all modified cells of an image and
+ * {@link #dispose(CellImg)} to delete its cells when it is no longer needed.
+ */
+public class CachedCellImgFactory< T extends NativeType< T > > extends CellImgFactory< T >
+{
+	protected final File directory;
+
+	protected final int maxCachedCells;
+
+	/**
+	 * @param directory
+	 *            directory in which the cells of created images are stored.
+	 * @param cellDimensions
+	 *            dimensions of a standard cell.
+	 * @param maxCachedCells
+	 *            maximum number of cells per image that are kept in memory.
+	 */
+	public CachedCellImgFactory( final File directory, final int[] cellDimensions, final int maxCachedCells )
+	{
+		super( cellDimensions );
+		this.directory = directory;
+		this.maxCachedCells = maxCachedCells;
+	}
+
+	/**
+	 * @param directory
+	 *            directory in which the cells of created images are stored.
+	 * @param cellSize
+	 *            size of a standard cell in every dimension.
+	 * @param maxCachedCells
+	 *            maximum number of cells per image that are kept in memory.
+	 */
+	public CachedCellImgFactory( final File directory, final int cellSize, final int maxCachedCells )
+	{
+		super( cellSize );
+		this.directory = directory;
+		this.maxCachedCells = maxCachedCells;
+	}
+
+	/**
+	 * Write back all modified cells of an image that was created by a
+	 * {@link CachedCellImgFactory}.
+	 */
+	public static void flush( final CellImg< ?, ?, ? > img )
+	{
+		final Cells< ?, ? > cells = img.getCells();
+		if ( cells instanceof CachedCells )
+			( ( CachedCells< ? > ) cells ).flush();
+	}
+
+	/**
+	 * Drop all cells of an image that was created by a
+	 * {@link CachedCellImgFactory} from memory and delete its cell directory.
+	 * The image must not be used afterwards.
+	 */
+	public static void dispose( final CellImg< ?, ?, ? > img )
+	{
+		final Cells< ?, ? > cells = img.getCells();
+		if ( cells instanceof CachedCells )
+		{
+			final CachedCells< ? > cachedCells = ( CachedCells< ? > ) cells;
+			cachedCells.discard();
+			if ( cachedCells.getLoader() instanceof FileCellLoader )
+				( ( FileCellLoader< ? > ) cachedCells.getLoader() ).delete();
+		}
+	}
+
+	/**
+	 * Create a new, empty directory with a unique name in {@link #directory}.
+	 */
+	protected File createImgDirectory()
+	{
+		try
+		{
+			if ( !directory.isDirectory() && !directory.mkdirs() )
+				throw new IOException( "Could not create directory " + directory );
+			final File imgDirectory = File.createTempFile( "img", "", directory );
+			if ( !imgDirectory.delete() || !imgDirectory.mkdir() )
+				throw new IOException( "Could not create cell directory " + imgDirectory );
+			return imgDirectory;
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( e.getMessage(), e );
+		}
+	}
+
+	protected < A extends ArrayDataAccess< A > > CachedCells< A > createCells( final A creator, final long[] dimensions, final int entitiesPerPixel )
+	{
+		final long[] dims = checkDimensions( dimensions );
+		final int[] cellSize = checkCellSize( defaultCellDimensions, dims );
+		return new CachedCells< A >( creator, entitiesPerPixel, dims, cellSize, new FileCellLoader< A >( createImgDirectory() ), maxCachedCells, true );
+	}
+
+	@Override
+	public CellImg< T, BitArray, ? > createBitInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return new CellImg< T, BitArray, CachedCell< BitArray > >( this, createCells( new BitArray( 1 ), dimensions, entitiesPerPixel ) );
+	}
+
+	@Override
+	public CellImg< T, ByteArray, ? > createByteInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return new CellImg< T, ByteArray, CachedCell< ByteArray > >( this, createCells( new ByteArray( 1 ), dimensions, entitiesPerPixel ) );
+	}
+
+	@Override
+	public CellImg< T, CharArray, ? > createCharInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return new CellImg< T, CharArray, CachedCell< CharArray > >( this, createCells( new CharArray( 1 ), dimensions, entitiesPerPixel ) );
+	}
+
+	@Override
+	public CellImg< T, ShortArray, ? > createShortInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return new CellImg< T, ShortArray, CachedCell< ShortArray > >( this, createCells( new ShortArray( 1 ), dimensions, entitiesPerPixel ) );
+	}
+
+	@Override
+	public CellImg< T, IntArray, ? > createIntInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return new CellImg< T, IntArray, CachedCell< IntArray > >( this, createCells( new IntArray( 1 ), dimensions, entitiesPerPixel ) );
+	}
+
+	@Override
+	public CellImg< T, LongArray, ? > createLongInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return new CellImg< T, LongArray, CachedCell< LongArray > >( this, createCells( new LongArray( 1 ), dimensions, entitiesPerPixel ) );
+	}
+
+	@Override
+	public CellImg< T, FloatArray, ? > createFloatInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return new CellImg< T, FloatArray, CachedCell< FloatArray > >( this, createCells( new FloatArray( 1 ), dimensions, entitiesPerPixel ) );
+	}
+
+	@Override
+	public CellImg< T, DoubleArray, ? > createDoubleInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return new CellImg< T, DoubleArray, CachedCell< DoubleArray > >( this, createCells( new DoubleArray( 1 ), dimensions, entitiesPerPixel ) );
+	}
+
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	@Override
+	public < S > ImgFactory< S > imgFactory( final S type ) throws IncompatibleTypeException
+	{
+		if ( NativeType.class.isInstance( type ) )
+			return new CachedCellImgFactory( directory, defaultCellDimensions, maxCachedCells );
+		else
+			throw new IncompatibleTypeException( this, type.getClass().getCanonicalName() + " does not implement NativeType." );
+	}
+}
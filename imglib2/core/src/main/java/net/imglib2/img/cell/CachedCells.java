@@ -0,0 +1,660 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.img.cell;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.imglib2.AbstractCursor;
+import net.imglib2.Cursor;
+import net.imglib2.Point;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * Implementation of {@link Cells} that creates {@link CachedCell}s on demand
+ * and keeps only a bounded number of them in memory.
+ *
+ * <p>
+ * A cell is created and filled by a {@link CellLoader} the first time it is
+ * requested. The most recently used cells are held in a LRU cache of
+ * <em>maxCachedCells</em> entries. When a cell is evicted from the cache it is
+ * written back through the {@link CellLoader} if it is dirty, and then kept
+ * only via a {@link SoftReference} (or {@link WeakReference}). Such a cell is
+ * revived without reloading if it is requested again before the garbage
+ * collector clears it. Samplers that still refer to an evicted cell keep it
+ * alive, so no two instances of the same cell are ever handed out at the same
+ * time.
+ * </p>
+ *
+ * <p>
+ * Because {@link CellRandomAccess} and {@link CellCursor} write directly into
+ * the basic type arrays, writes cannot be observed. If the cells are
+ * <em>writable</em>, every cell that is handed out to a sampler is therefore
+ * considered dirty, and it stays dirty after it has been written back: a
+ * sampler that is still positioned in an evicted cell may write to it without
+ * requesting it from the cache again. Evicted cells of a writable cache are
+ * kept weakly reachable, and their data is written back once more after the
+ * garbage collector has cleared them. Call {@link #flush()} to write back all
+ * dirty cells that are still in memory when done.
+ * </p>
+ *
+ * <p>
+ * All methods are thread-safe. Note, however, that cells are loaded while
+ * holding the lock of the cache.
+ * </p>
+ */
+public class CachedCells< A extends ArrayDataAccess< A > > implements Cells< A, CachedCell< A > >
+{
+	private final A creator;
+	private final int entitiesPerPixel;
+	private final int n;
+	private final long[] dimensions;
+	private final int[] cellDimensions;
+
+	/**
+	 * Number of cells in each dimension.
+	 */
+	private final long[] numCells;
+
+	/**
+	 * Size of the cells at the max border in each dimension.
+	 */
+	private final int[] borderSize;
+
+	private final long numCellsTotal;
+
+	private final CellLoader< A > loader;
+
+	private final boolean writable;
+
+	private final boolean weakReferences;
+
+	/**
+	 * The strongly referenced, most recently used cells, in access order.
+	 */
+	private final LinkedHashMap< Long, CachedCell< A > > recentlyUsed;
+
+	/**
+	 * Cells that have been evicted from {@link #recentlyUsed} but might not
+	 * have been garbage-collected yet.
+	 */
+	private final HashMap< Long, Reference< CachedCell< A > > > evicted;
+
+	private final ReferenceQueue< CachedCell< A > > queue;
+
+	/**
+	 * Create cells that are loaded by <em>loader</em>, of which at most
+	 * <em>maxCachedCells</em> are strongly referenced. Evicted cells of a
+	 * cache that is not <em>writable</em> are kept softly reachable.
+	 *
+	 * @param creator
+	 *            used to create the basic type arrays of the cells.
+	 * @param entitiesPerPixel
+	 * @param dimensions
+	 *            dimensions of the image.
+	 * @param cellDimensions
+	 *            dimensions of a standard cell.
+	 * @param loader
+	 *            fills and writes back cells.
+	 * @param maxCachedCells
+	 *            maximum number of cells that are strongly referenced.
+	 * @param writable
+	 *            whether cells handed out to samplers should be considered
+	 *            dirty.
+	 */
+	public CachedCells( final A creator, final int entitiesPerPixel, final long[] dimensions, final int[] cellDimensions, final CellLoader< A > loader, final int maxCachedCells, final boolean writable )
+	{
+		this( creator, entitiesPerPixel, dimensions, cellDimensions, loader, maxCachedCells, writable, false );
+	}
+
+	/**
+	 * Create cells that are loaded by <em>loader</em>, of which at most
+	 * <em>maxCachedCells</em> are strongly referenced.
+	 *
+	 * @param creator
+	 *            used to create the basic type arrays of the cells.
+	 * @param entitiesPerPixel
+	 * @param dimensions
+	 *            dimensions of the image.
+	 * @param cellDimensions
+	 *            dimensions of a standard cell.
+	 * @param loader
+	 *            fills and writes back cells.
+	 * @param maxCachedCells
+	 *            maximum number of cells that are strongly referenced.
+	 * @param writable
+	 *            whether cells handed out to samplers should be considered
+	 *            dirty.
+	 * @param weakReferences
+	 *            whether evicted cells should be kept weakly (instead of
+	 *            softly) reachable. Evicted cells of a <em>writable</em>
+	 *            cache are always kept weakly reachable.
+	 */
+	public CachedCells( final A creator, final int entitiesPerPixel, final long[] dimensions, final int[] cellDimensions, final CellLoader< A > loader, final int maxCachedCells, final boolean writable, final boolean weakReferences )
+	{
+		if ( maxCachedCells < 1 )
+			throw new IllegalArgumentException( "maxCachedCells must be at least 1 (was " + maxCachedCells + ")" );
+
+		this.creator = creator;
+		this.entitiesPerPixel = entitiesPerPixel;
+		this.n = dimensions.length;
+		this.dimensions = dimensions.clone();
+		this.cellDimensions = cellDimensions.clone();
+		this.loader = loader;
+		this.writable = writable;
+		this.weakReferences = weakReferences;
+
+		numCells = new long[ n ];
+		borderSize = new int[ n ];
+		long total = 1;
+		for ( int d = 0; d < n; ++d )
+		{
+			numCells[ d ] = ( dimensions[ d ] - 1 ) / cellDimensions[ d ] + 1;
+			borderSize[ d ] = ( int ) ( dimensions[ d ] - ( numCells[ d ] - 1 ) * cellDimensions[ d ] );
+			total *= numCells[ d ];
+		}
+		numCellsTotal = total;
+
+		recentlyUsed = new LinkedHashMap< Long, CachedCell< A > >( Math.min( maxCachedCells, 1024 ), 0.75f, true )
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry( final Map.Entry< Long, CachedCell< A > > eldest )
+			{
+				if ( size() > maxCachedCells )
+				{
+					evict( eldest.getValue() );
+					return true;
+				}
+				return false;
+			}
+		};
+		evicted = new HashMap< Long, Reference< CachedCell< A > > >();
+		queue = new ReferenceQueue< CachedCell< A > >();
+	}
+
+	/**
+	 * Get the cell with the given flattened index in the cell grid, loading it
+	 * if necessary.
+	 *
+	 * @param index
+	 *            flattened index of the cell.
+	 * @return the cell.
+	 */
+	public synchronized CachedCell< A > get( final long index )
+	{
+		final Long key = index;
+		CachedCell< A > cell = recentlyUsed.get( key );
+		if ( cell == null )
+		{
+			removeClearedReferences();
+			final Reference< CachedCell< A > > ref = evicted.remove( key );
+			if ( ref != null )
+			{
+				cell = ref.get();
+				if ( cell == null )
+					cell = getWriteBack( ref );
+			}
+			if ( cell == null )
+				cell = load( index );
+			recentlyUsed.put( key, cell );
+		}
+		if ( writable )
+			cell.dirty = true;
+		return cell;
+	}
+
+	/**
+	 * Write back all dirty cells that are still in memory.
+	 */
+	public synchronized void flush()
+	{
+		for ( final CachedCell< A > cell : recentlyUsed.values() )
+			save( cell );
+		final Iterator< Reference< CachedCell< A > > > it = evicted.values().iterator();
+		while ( it.hasNext() )
+		{
+			final Reference< CachedCell< A > > ref = it.next();
+			final CachedCell< A > cell = ref.get();
+			if ( cell != null )
+				save( cell );
+			else
+			{
+				final CachedCell< A > writeBack = getWriteBack( ref );
+				if ( writeBack != null )
+				{
+					save( writeBack );
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write back all dirty cells and drop all cells from the cache. Samplers
+	 * that still refer to cells must not be used afterwards.
+	 */
+	public synchronized void clear()
+	{
+		flush();
+		recentlyUsed.clear();
+		evicted.clear();
+		removeClearedReferences();
+	}
+
+	/**
+	 * Drop all cells from the cache without writing them back. Samplers that
+	 * still refer to cells must not be used afterwards.
+	 */
+	public synchronized void discard()
+	{
+		recentlyUsed.clear();
+		evicted.clear();
+		removeClearedReferences();
+	}
+
+	/**
+	 * @return the {@link CellLoader} that fills and writes back cells.
+	 */
+	public CellLoader< A > getLoader()
+	{
+		return loader;
+	}
+
+	/**
+	 * @return the number of cells that are currently strongly referenced by
+	 *         the cache.
+	 */
+	public synchronized int numCachedCells()
+	{
+		return recentlyUsed.size();
+	}
+
+	/**
+	 * @return whether cells handed out to samplers are considered dirty.
+	 */
+	public boolean isWritable()
+	{
+		return writable;
+	}
+
+	/**
+	 * @return the total number of cells.
+	 */
+	public long numCells()
+	{
+		return numCellsTotal;
+	}
+
+	/**
+	 * Write the number of cells in each dimension into long[].
+	 *
+	 * @param dims
+	 */
+	public void gridDimensions( final long[] dims )
+	{
+		for ( int d = 0; d < n; ++d )
+			dims[ d ] = numCells[ d ];
+	}
+
+	private CachedCell< A > load( final long index )
+	{
+		final long[] cellGridPosition = new long[ n ];
+		final long[] cellMin = new long[ n ];
+		final int[] cellDims = new int[ n ];
+		IntervalIndexer.indexToPosition( index, numCells, cellGridPosition );
+		int numPixels = 1;
+		for ( int d = 0; d < n; ++d )
+		{
+			cellDims[ d ] = ( cellGridPosition[ d ] + 1 == numCells[ d ] ) ? borderSize[ d ] : cellDimensions[ d ];
+			cellMin[ d ] = cellGridPosition[ d ] * cellDimensions[ d ];
+			numPixels *= cellDims[ d ];
+		}
+		final A data = creator.createArray( numPixels * entitiesPerPixel );
+		loader.load( index, cellMin, cellDims, data );
+		return new CachedCell< A >( index, cellDims, cellMin, data );
+	}
+
+	private void save( final CachedCell< A > cell )
+	{
+		if ( cell.dirty )
+		{
+			// samplers may still write to a cell of a writable cache
+			if ( !writable )
+				cell.dirty = false;
+			loader.save( cell.getIndex(), cell.min, cell.dimensions, cell.getData() );
+		}
+	}
+
+	private void evict( final CachedCell< A > cell )
+	{
+		save( cell );
+		final Reference< CachedCell< A > > ref;
+		if ( writable )
+		{
+			// a second handle on the data, to write back the changes that are
+			// made through samplers after the eviction
+			final CachedCell< A > writeBack = new CachedCell< A >( cell.getIndex(), cell.dimensions, cell.min, cell.getData() );
+			writeBack.dirty = true;
+			ref = new WeakCellReference< A >( cell, queue, writeBack );
+		}
+		else if ( weakReferences )
+			ref = new WeakCellReference< A >( cell, queue, null );
+		else
+			ref = new SoftCellReference< A >( cell, queue );
+		evicted.put( cell.getIndex(), ref );
+	}
+
+	private void removeClearedReferences()
+	{
+		Reference< ? extends CachedCell< A > > ref;
+		while ( ( ref = queue.poll() ) != null )
+		{
+			// the key may have been reused by a revived and re-evicted cell
+			final Long key = ( ( CellReference< ? > ) ref ).getIndex();
+			if ( evicted.get( key ) == ref )
+			{
+				evicted.remove( key );
+				final CachedCell< A > writeBack = getWriteBack( ref );
+				if ( writeBack != null )
+					save( writeBack );
+			}
+		}
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private static < A extends ArrayDataAccess< A > > CachedCell< A > getWriteBack( final Reference< ? extends CachedCell< A > > ref )
+	{
+		return ( ( CellReference< A > ) ref ).getWriteBack();
+	}
+
+	private static interface CellReference< A extends ArrayDataAccess< A > >
+	{
+		public long getIndex();
+
+		/**
+		 * @return a cell on the data of the referenced cell that is written
+		 *         back after the referenced cell has been cleared, or null.
+		 */
+		public CachedCell< A > getWriteBack();
+	}
+
+	private static final class SoftCellReference< A extends ArrayDataAccess< A > > extends SoftReference< CachedCell< A > > implements CellReference< A >
+	{
+		private final long index;
+
+		public SoftCellReference( final CachedCell< A > cell, final ReferenceQueue< CachedCell< A > > queue )
+		{
+			super( cell, queue );
+			index = cell.getIndex();
+		}
+
+		@Override
+		public long getIndex()
+		{
+			return index;
+		}
+
+		@Override
+		public CachedCell< A > getWriteBack()
+		{
+			return null;
+		}
+	}
+
+	private static final class WeakCellReference< A extends ArrayDataAccess< A > > extends WeakReference< CachedCell< A > > implements CellReference< A >
+	{
+		private final long index;
+
+		private final CachedCell< A > writeBack;
+
+		public WeakCellReference( final CachedCell< A > cell, final ReferenceQueue< CachedCell< A > > queue, final CachedCell< A > writeBack )
+		{
+			super( cell, queue );
+			index = cell.getIndex();
+			this.writeBack = writeBack;
+		}
+
+		@Override
+		public long getIndex()
+		{
+			return index;
+		}
+
+		@Override
+		public CachedCell< A > getWriteBack()
+		{
+			return writeBack;
+		}
+	}
+
+	/**
+	 * {@link RandomAccess} on the cell grid. The cell at the current position
+	 * is only requested from the cache when {@link #get()} is called, and it is
+	 * remembered until the position moves to another cell.
+	 */
+	public class CachedCellsRandomAccess extends Point implements RandomAccess< CachedCell< A > >
+	{
+		private CachedCell< A > cell;
+
+		public CachedCellsRandomAccess()
+		{
+			super( CachedCells.this.n );
+			cell = null;
+		}
+
+		protected CachedCellsRandomAccess( final CachedCellsRandomAccess randomAccess )
+		{
+			super( randomAccess );
+			cell = randomAccess.cell;
+		}
+
+		@Override
+		public CachedCell< A > get()
+		{
+			final long index = IntervalIndexer.positionToIndex( position, numCells );
+			if ( cell == null || cell.getIndex() != index )
+				cell = CachedCells.this.get( index );
+			else if ( writable && !cell.dirty )
+				cell.dirty = true;
+			return cell;
+		}
+
+		@Override
+		public CachedCellsRandomAccess copy()
+		{
+			return new CachedCellsRandomAccess( this );
+		}
+
+		@Override
+		public CachedCellsRandomAccess copyRandomAccess()
+		{
+			return copy();
+		}
+	}
+
+	/**
+	 * {@link Cursor} on the cell grid. Like {@link CachedCellsRandomAccess},
+	 * the current cell is only requested from the cache when {@link #get()} is
+	 * called.
+	 */
+	public class CachedCellsCursor extends AbstractCursor< CachedCell< A > >
+	{
+		private long index;
+
+		private CachedCell< A > cell;
+
+		public CachedCellsCursor()
+		{
+			super( CachedCells.this.n );
+			reset();
+		}
+
+		protected CachedCellsCursor( final CachedCellsCursor cursor )
+		{
+			super( CachedCells.this.n );
+			index = cursor.index;
+			cell = cursor.cell;
+		}
+
+		@Override
+		public CachedCell< A > get()
+		{
+			if ( cell == null || cell.getIndex() != index )
+				cell = CachedCells.this.get( index );
+			else if ( writable && !cell.dirty )
+				cell.dirty = true;
+			return cell;
+		}
+
+		@Override
+		public void fwd()
+		{
+			++index;
+		}
+
+		@Override
+		public void jumpFwd( final long steps )
+		{
+			index += steps;
+		}
+
+		@Override
+		public void reset()
+		{
+			index = -1;
+			cell = null;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return index < numCellsTotal - 1;
+		}
+
+		@Override
+		public void localize( final long[] pos )
+		{
+			IntervalIndexer.indexToPosition( index, numCells, pos );
+		}
+
+		@Override
+		public long getLongPosition( final int d )
+		{
+			return IntervalIndexer.indexToPosition( index, numCells, d );
+		}
+
+		@Override
+		public CachedCellsCursor copy()
+		{
+			return new CachedCellsCursor( this );
+		}
+
+		@Override
+		public CachedCellsCursor copyCursor()
+		{
+			return copy();
+		}
+	}
+
+	@Override
+	public CachedCellsRandomAccess randomAccess()
+	{
+		return new CachedCellsRandomAccess();
+	}
+
+	@Override
+	public CachedCellsCursor cursor()
+	{
+		return new CachedCellsCursor();
+	}
+
+	@Override
+	public CachedCellsCursor localizingCursor()
+	{
+		return new CachedCellsCursor();
+	}
+
+	@Override
+	public int numDimensions()
+	{
+		return n;
+	}
+
+	@Override
+	public void dimensions( final long[] s )
+	{
+		for ( int i = 0; i < n; ++i )
+			s[ i ] = dimensions[ i ];
+	}
+
+	@Override
+	public long dimension( final int d )
+	{
+		try { return this.dimensions[ d ]; }
+		catch ( final ArrayIndexOutOfBoundsException e ) { return 1; }
+	}
+
+	@Override
+	public void cellDimensions( final int[] s )
+	{
+		for ( int i = 0; i < n; ++i )
+			s[ i ] = cellDimensions[ i ];
+	}
+
+	@Override
+	public int cellDimension( final int d )
+	{
+		try { return this.cellDimensions[ d ]; }
+		catch ( final ArrayIndexOutOfBoundsException e ) { return 1; }
+	}
+
+	@Override
+	public int getEntitiesPerPixel()
+	{
+		return entitiesPerPixel;
+	}
+}
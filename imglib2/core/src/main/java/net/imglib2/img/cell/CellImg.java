@@ -84,6 +84,16 @@ final public class CellImg< T extends NativeType< T >, A extends ArrayDataAccess
 		cells.cellDimensions( cellDims );
 	}
 
+	/**
+	 * Get the {@link Cells} array that stores the data of this image.
+	 *
+	 * @return the cells of this image.
+	 */
+	public Cells< A, C > getCells()
+	{
+		return cells;
+	}
+
 	/**
 	 * This interface is implemented by all samplers on the {@link CellImg}. It
 	 * allows the container to ask for the cell the sampler is currently in.
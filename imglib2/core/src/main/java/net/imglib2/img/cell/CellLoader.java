@@ -0,0 +1,80 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.img.cell;
+
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+
+/**
+ * Loads and stores the data of individual cells of a {@link CachedCells}
+ * array. The {@link CachedCells} allocates the basic type array of a cell and
+ * asks the {@link CellLoader} to fill it when the cell is requested for the
+ * first time (or again after it has been evicted from the cache). Dirty cells
+ * are handed back to {@link #save(long, long[], int[], ArrayDataAccess)} before
+ * they are evicted.
+ *
+ * Implementations must be thread-safe with respect to different cells.
+ */
+public interface CellLoader< A extends ArrayDataAccess< A > >
+{
+	/**
+	 * Fill the basic type array of a cell.
+	 *
+	 * @param index
+	 *            flattened index of the cell in the cell grid.
+	 * @param min
+	 *            position of the cell's minimum in the image.
+	 * @param dimensions
+	 *            size of the cell.
+	 * @param data
+	 *            the (zeroed) basic type array to fill.
+	 */
+	public void load( long index, long[] min, int[] dimensions, A data );
+
+	/**
+	 * Write back the basic type array of a modified cell.
+	 *
+	 * @param index
+	 *            flattened index of the cell in the cell grid.
+	 * @param min
+	 *            position of the cell's minimum in the image.
+	 * @param dimensions
+	 *            size of the cell.
+	 * @param data
+	 *            the basic type array to store.
+	 */
+	public void save( long index, long[] min, int[] dimensions, A data );
+}
@@ -0,0 +1,215 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.img.cell;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+
+/**
+ * {@link CellLoader} that stores every cell as a raw file of its basic type
+ * array (in native byte order) in a directory. Cells that have never been
+ * saved are loaded as zeros, so the directory may start out empty. A cell file
+ * whose size does not match the cell is rejected.
+ */
+public class FileCellLoader< A extends ArrayDataAccess< A > > implements CellLoader< A >
+{
+	protected final File directory;
+
+	public FileCellLoader( final File directory )
+	{
+		if ( !directory.isDirectory() && !directory.mkdirs() )
+			throw new RuntimeException( "Could not create cell directory " + directory );
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the file in which the cell with the given index is stored.
+	 */
+	public File getFile( final long index )
+	{
+		return new File( directory, index + ".cell" );
+	}
+
+	/**
+	 * Delete all cell files and the directory.
+	 */
+	public void delete()
+	{
+		final File[] files = directory.listFiles();
+		if ( files != null )
+			for ( final File file : files )
+				if ( file.getName().endsWith( ".cell" ) )
+					file.delete();
+		directory.delete();
+	}
+
+	@Override
+	public void load( final long index, final long[] min, final int[] dimensions, final A data )
+	{
+		final File file = getFile( index );
+		if ( !file.exists() )
+			return;
+
+		final Object array = data.getCurrentStorageArray();
+		final ByteBuffer buffer = ByteBuffer.allocate( numBytes( array ) ).order( ByteOrder.nativeOrder() );
+		if ( file.length() != buffer.capacity() )
+			throw new RuntimeException( "Cell file " + file + " has " + file.length() + " bytes, expected " + buffer.capacity() );
+		try
+		{
+			final RandomAccessFile raf = new RandomAccessFile( file, "r" );
+			try
+			{
+				final FileChannel channel = raf.getChannel();
+				while ( buffer.hasRemaining() && channel.read( buffer ) >= 0 ) {}
+			}
+			finally
+			{
+				raf.close();
+			}
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( "Could not load cell " + index + " from " + file, e );
+		}
+		buffer.rewind();
+		copy( buffer, array );
+	}
+
+	@Override
+	public void save( final long index, final long[] min, final int[] dimensions, final A data )
+	{
+		final File file = getFile( index );
+		final Object array = data.getCurrentStorageArray();
+		final ByteBuffer buffer = ByteBuffer.allocate( numBytes( array ) ).order( ByteOrder.nativeOrder() );
+		copy( array, buffer );
+		buffer.rewind();
+		try
+		{
+			final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+			try
+			{
+				final FileChannel channel = raf.getChannel();
+				while ( buffer.hasRemaining() )
+					channel.write( buffer );
+				channel.truncate( buffer.capacity() );
+			}
+			finally
+			{
+				raf.close();
+			}
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( "Could not save cell " + index + " to " + file, e );
+		}
+	}
+
+	/**
+	 * Get the size in bytes of a primitive array.
+	 */
+	protected static int numBytes( final Object array )
+	{
+		if ( array instanceof byte[] )
+			return ( ( byte[] ) array ).length;
+		else if ( array instanceof short[] )
+			return ( ( short[] ) array ).length * 2;
+		else if ( array instanceof char[] )
+			return ( ( char[] ) array ).length * 2;
+		else if ( array instanceof int[] )
+			return ( ( int[] ) array ).length * 4;
+		else if ( array instanceof float[] )
+			return ( ( float[] ) array ).length * 4;
+		else if ( array instanceof long[] )
+			return ( ( long[] ) array ).length * 8;
+		else if ( array instanceof double[] )
+			return ( ( double[] ) array ).length * 8;
+		else
+			throw new IllegalArgumentException( "Unsupported storage array " + array.getClass().getCanonicalName() );
+	}
+
+	/**
+	 * Copy the contents of a primitive array into a {@link ByteBuffer}.
+	 */
+	protected static void copy( final Object array, final ByteBuffer buffer )
+	{
+		if ( array instanceof byte[] )
+			buffer.put( ( byte[] ) array );
+		else if ( array instanceof short[] )
+			buffer.asShortBuffer().put( ( short[] ) array );
+		else if ( array instanceof char[] )
+			buffer.asCharBuffer().put( ( char[] ) array );
+		else if ( array instanceof int[] )
+			buffer.asIntBuffer().put( ( int[] ) array );
+		else if ( array instanceof float[] )
+			buffer.asFloatBuffer().put( ( float[] ) array );
+		else if ( array instanceof long[] )
+			buffer.asLongBuffer().put( ( long[] ) array );
+		else if ( array instanceof double[] )
+			buffer.asDoubleBuffer().put( ( double[] ) array );
+		else
+			throw new IllegalArgumentException( "Unsupported storage array " + array.getClass().getCanonicalName() );
+	}
+
+	/**
+	 * Copy the contents of a {@link ByteBuffer} into a primitive array.
+	 */
+	protected static void copy( final ByteBuffer buffer, final Object array )
+	{
+		if ( array instanceof byte[] )
+			buffer.get( ( byte[] ) array );
+		else if ( array instanceof short[] )
+			buffer.asShortBuffer().get( ( short[] ) array );
+		else if ( array instanceof char[] )
+			buffer.asCharBuffer().get( ( char[] ) array );
+		else if ( array instanceof int[] )
+			buffer.asIntBuffer().get( ( int[] ) array );
+		else if ( array instanceof float[] )
+			buffer.asFloatBuffer().get( ( float[] ) array );
+		else if ( array instanceof long[] )
+			buffer.asLongBuffer().get( ( long[] ) array );
+		else if ( array instanceof double[] )
+			buffer.asDoubleBuffer().get( ( double[] ) array );
+		else
+			throw new IllegalArgumentException( "Unsupported storage array " + array.getClass().getCanonicalName() );
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.img.mapped;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+
+/**
+ * A file that is memory-mapped region by region. Each call to
+ * {@link #map(long)} maps the next unallocated region, starting at a given
+ * offset (e.g., the size of a header). The mapped accesses in
+ * {@link net.imglib2.img.basictypeaccess.mapped} use this to lay out the
+ * basic type arrays of an image back to back. Hence, a raw stack can be
+ * opened without copying as a {@link net.imglib2.img.array.BigArrayImg} or (if
+ * it is small enough) as an {@link net.imglib2.img.array.ArrayImg}.
+ *
+ * <p>
+ * Regions mapped in {@link MapMode#READ_WRITE} mode are shared with all other
+ * processes that map the same file. Regions mapped in
+ * {@link MapMode#PRIVATE} mode are copy-on-write.
+ * </p>
+ */
+public class MappedFile
+{
+	private final File file;
+
+	private final RandomAccessFile raf;
+
+	private final FileChannel channel;
+
+	private final MapMode mode;
+
+	private final ByteOrder byteOrder;
+
+	private final ArrayList< MappedByteBuffer > buffers;
+
+	/**
+	 * Offset of the next region to be mapped.
+	 */
+	private long offset;
+
+	/**
+	 * Map <em>file</em> starting at <em>offset</em>.
+	 *
+	 * @param file
+	 *            the file to map. It is created if it does not exist and the
+	 *            mode is not {@link MapMode#READ_ONLY}.
+	 * @param offset
+	 *            position in the file where the first region starts.
+	 * @param mode
+	 *            how regions are mapped.
+	 * @param byteOrder
+	 *            byte order of the data in the file.
+	 * @throws IOException
+	 */
+	public MappedFile( final File file, final long offset, final MapMode mode, final ByteOrder byteOrder ) throws IOException
+	{
+		this.file = file;
+		this.raf = new RandomAccessFile( file, mode == MapMode.READ_ONLY ? "r" : "rw" );
+		this.channel = raf.getChannel();
+		this.mode = mode;
+		this.byteOrder = byteOrder;
+		this.buffers = new ArrayList< MappedByteBuffer >();
+		this.offset = offset;
+	}
+
+	/**
+	 * Map <em>file</em> for reading and writing in native byte order, starting
+	 * at the beginning of the file.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public MappedFile( final File file ) throws IOException
+	{
+		this( file, 0, MapMode.READ_WRITE, ByteOrder.nativeOrder() );
+	}
+
+	/**
+	 * Map the next <em>numBytes</em> bytes of the file. In
+	 * {@link MapMode#READ_WRITE} mode, the file is grown as necessary.
+	 *
+	 * @param numBytes
+	 *            size of the region. Must not exceed {@link Integer#MAX_VALUE}.
+	 * @return the mapped region, with the byte order of this
+	 *         {@link MappedFile}.
+	 */
+	public synchronized MappedByteBuffer map( final long numBytes )
+	{
+		if ( numBytes > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "Cannot map more than " + Integer.MAX_VALUE + " bytes at once (requested " + numBytes + ")." );
+		try
+		{
+			final MappedByteBuffer buffer = channel.map( mode, offset, numBytes );
+			buffer.order( byteOrder );
+			offset += numBytes;
+			buffers.add( buffer );
+			return buffer;
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( "Could not map " + numBytes + " bytes at offset " + offset + " of " + file, e );
+		}
+	}
+
+	/**
+	 * @return the position in the file where the next region will be mapped.
+	 */
+	public synchronized long getOffset()
+	{
+		return offset;
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	public MapMode getMapMode()
+	{
+		return mode;
+	}
+
+	public ByteOrder getByteOrder()
+	{
+		return byteOrder;
+	}
+
+	/**
+	 * Force all changes to the mapped regions to be written to the file.
+	 */
+	public synchronized void force()
+	{
+		if ( mode == MapMode.READ_WRITE )
+			for ( final MappedByteBuffer buffer : buffers )
+				buffer.force();
+	}
+
+	/**
+	 * Force all changes to be written and close the file. Regions that are
+	 * already mapped remain valid until they are garbage-collected.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException
+	{
+		force();
+		buffers.clear();
+		raf.close();
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.img.mapped;
+
+import java.util.ArrayList;
+
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.NativeImg;
+import net.imglib2.img.NativeImgFactory;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.BigArrayImg;
+import net.imglib2.img.array.BigArrayImgFactory;
+import net.imglib2.img.basictypeaccess.BitAccess;
+import net.imglib2.img.basictypeaccess.mapped.MappedAccess;
+import net.imglib2.img.basictypeaccess.mapped.MappedByteAccess;
+import net.imglib2.img.basictypeaccess.mapped.MappedCharAccess;
+import net.imglib2.img.basictypeaccess.mapped.MappedDoubleAccess;
+import net.imglib2.img.basictypeaccess.mapped.MappedFloatAccess;
+import net.imglib2.img.basictypeaccess.mapped.MappedIntAccess;
+import net.imglib2.img.basictypeaccess.mapped.MappedLongAccess;
+import net.imglib2.img.basictypeaccess.mapped.MappedShortAccess;
+import net.imglib2.type.NativeType;
+
+/**
+ * Factory for {@link ArrayImg}s and {@link BigArrayImg}s whose basic type
+ * arrays are memory-mapped regions of a {@link MappedFile}. The arrays of each
+ * created image are mapped back to back, starting at the current offset of the
+ * {@link MappedFile}: an {@link ArrayImg} occupies one region in flat
+ * iteration order, a {@link BigArrayImg} one region per chunk (also in flat
+ * iteration order).
+ *
+ * <p>
+ * The accesses of the created images are {@link MappedAccess}es, not
+ * {@link net.imglib2.img.basictypeaccess.array.ArrayDataAccess}es, because
+ * there is no primitive array behind them. For the same reason, there are no
+ * mapped {@link net.imglib2.img.planar.PlanarImg}s or
+ * {@link net.imglib2.img.cell.CellImg}s. {@link net.imglib2.type.logic.BitType}
+ * images cannot be mapped and are created on the Java heap.
+ * </p>
+ */
+public class MappedImgFactory< T extends NativeType< T > > extends NativeImgFactory< T >
+{
+	/**
+	 * The kind of {@link NativeImg} that is created.
+	 */
+	public static enum Layout
+	{
+		ARRAY, BIG_ARRAY
+	}
+
+	protected final MappedFile file;
+
+	protected final Layout layout;
+
+	/**
+	 * Create {@link ArrayImg}s or {@link BigArrayImg}s on <em>file</em>.
+	 *
+	 * @param file
+	 * @param layout
+	 */
+	public MappedImgFactory( final MappedFile file, final Layout layout )
+	{
+		this.file = file;
+		this.layout = layout;
+	}
+
+	public MappedFile getMappedFile()
+	{
+		return file;
+	}
+
+	public Layout getLayout()
+	{
+		return layout;
+	}
+
+	/**
+	 * Create a {@link NativeImg} of the configured {@link Layout}, using
+	 * <em>creator</em> to map the basic type arrays.
+	 */
+	@SuppressWarnings( "unchecked" )
+	protected < A extends MappedAccess< ? > > NativeImg< T, A > create( final A creator, final long[] dimensions, final int entitiesPerPixel )
+	{
+		switch ( layout )
+		{
+		case ARRAY:
+			final int numEntities = ArrayImgFactory.numEntitiesRangeCheck( dimensions, entitiesPerPixel );
+			return new ArrayImg< T, A >( ( A ) creator.createArray( numEntities ), dimensions, entitiesPerPixel );
+		case BIG_ARRAY:
+		default:
+			final int chunkShift = BigArrayImgFactory.DEFAULT_CHUNK_SHIFT;
+			final ArrayList< A > chunks = new ArrayList< A >();
+			for ( final int chunkEntities : BigArrayImg.chunkSizes( dimensions, entitiesPerPixel, chunkShift ) )
+				chunks.add( ( A ) creator.createArray( chunkEntities ) );
+			return new BigArrayImg< T, A >( chunks, dimensions, entitiesPerPixel, chunkShift );
+		}
+	}
+
+	@Override
+	public NativeImg< T, ? extends BitAccess > createBitInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		switch ( layout )
+		{
+		case ARRAY:
+			return new ArrayImgFactory< T >().createBitInstance( dimensions, entitiesPerPixel );
+		case BIG_ARRAY:
+		default:
+			return new BigArrayImgFactory< T >().createBitInstance( dimensions, entitiesPerPixel );
+		}
+	}
+
+	@Override
+	public NativeImg< T, MappedByteAccess > createByteInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return create( new MappedByteAccess( file, 0 ), dimensions, entitiesPerPixel );
+	}
+
+	@Override
+	public NativeImg< T, MappedCharAccess > createCharInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return create( new MappedCharAccess( file, 0 ), dimensions, entitiesPerPixel );
+	}
+
+	@Override
+	public NativeImg< T, MappedShortAccess > createShortInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return create( new MappedShortAccess( file, 0 ), dimensions, entitiesPerPixel );
+	}
+
+	@Override
+	public NativeImg< T, MappedIntAccess > createIntInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return create( new MappedIntAccess( file, 0 ), dimensions, entitiesPerPixel );
+	}
+
+	@Override
+	public NativeImg< T, MappedLongAccess > createLongInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return create( new MappedLongAccess( file, 0 ), dimensions, entitiesPerPixel );
+	}
+
+	@Override
+	public NativeImg< T, MappedFloatAccess > createFloatInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return create( new MappedFloatAccess( file, 0 ), dimensions, entitiesPerPixel );
+	}
+
+	@Override
+	public NativeImg< T, MappedDoubleAccess > createDoubleInstance( final long[] dimensions, final int entitiesPerPixel )
+	{
+		return create( new MappedDoubleAccess( file, 0 ), dimensions, entitiesPerPixel );
+	}
+
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	@Override
+	public < S > ImgFactory< S > imgFactory( final S type ) throws IncompatibleTypeException
+	{
+		if ( NativeType.class.isInstance( type ) )
+			return new MappedImgFactory( file, layout );
+		else
+			throw new IncompatibleTypeException( this, type.getClass().getCanonicalName() + " does not implement NativeType." );
+	}
+}
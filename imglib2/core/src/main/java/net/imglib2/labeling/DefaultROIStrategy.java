@@ -103,6 +103,11 @@ public class DefaultROIStrategy<T extends Comparable<T>, L extends Labeling<T>>
 	protected void computeStatistics() {
 		LabelingType<T> type = labeling.firstElement();
 		if ((type == null) || (type.getGeneration() != generation)) {
+			/*
+			 * Take the generation before scanning, so that pixels set by
+			 * other threads during the scan invalidate the result.
+			 */
+			final long scanned = (type == null) ? Long.MIN_VALUE : type.getGeneration();
 			statistics = new HashMap<T, LabelStatistics>();
 			long [] position = new long [labeling.numDimensions()];
 			LabelStatistics last = null;
@@ -123,7 +128,7 @@ public class DefaultROIStrategy<T extends Comparable<T>, L extends Labeling<T>>
 					last.update(position);
 				}
 			}
-			generation = type.getGeneration();
+			generation = scanned;
 		}
 	}
 
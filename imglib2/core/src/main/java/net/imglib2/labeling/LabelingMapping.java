@@ -42,12 +42,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The LabelingMapping maps a set of labelings of a pixel to an index
@@ -61,6 +61,12 @@ import java.util.Map;
  * for the index of { "Foo", "Bar" } and get back the number, "1".
  * LabelingMapping will work faster if the caller first interns
  * { "Foo", "Bar" } and then requests the mapping of the returned object.
+ * 
+ * Lookups of lists that are already interned do not lock, so several
+ * threads may label pixels of the same labeling concurrently. Single labels
+ * and the addition of a label to an interned list have cached fast paths
+ * ({@link #internLabel(Comparable)}, {@link #addLabel(List, Comparable)})
+ * that avoid copying and sorting the list.
  *  
  * @param <T>
  * @param <N>
@@ -92,10 +98,16 @@ public class LabelingMapping<T extends Comparable<T>, N extends Number> {
 	{
 		private final List<T1> value;
 		final N index;
+		final int intIndex;
 		final LabelingMapping<T1,N> owner;
-		public InternedList(List<T1> src, N index, LabelingMapping<T1,N> owner) {
+		/**
+		 * The interned lists that result from adding a label to this one.
+		 */
+		final Map<T1, InternedList<T1,N>> successors = new ConcurrentHashMap<T1, InternedList<T1,N>>();
+		public InternedList(List<T1> src, N index, int intIndex, LabelingMapping<T1,N> owner) {
 			value = Collections.unmodifiableList(src);
 			this.index = index;
+			this.intIndex = intIndex;
 			this.owner = owner;
 		}
 
@@ -237,9 +249,17 @@ public class LabelingMapping<T extends Comparable<T>, N extends Number> {
 	}
 
 	protected Map<List<T>, InternedList<T, N>> internedLists = 
-		new HashMap<List<T>, InternedList<T, N>>();
-	protected ArrayList<InternedList<T,N>> listsByIndex = 
-		new ArrayList<InternedList<T, N>>();
+		new ConcurrentHashMap<List<T>, InternedList<T, N>>();
+	protected Map<T, InternedList<T, N>> singletons = 
+		new ConcurrentHashMap<T, InternedList<T, N>>();
+	/**
+	 * The interned lists by index. The array is replaced when it grows and
+	 * is only written while holding the lock on the mapping. numLists is
+	 * written after the array, so readers that read numLists first find all
+	 * lists below it.
+	 */
+	private volatile InternedList<T,N> [] listsByIndex = newListArray(16);
+	private volatile int numLists = 0;
 	
 	public List<T> emptyList() {
 		return theEmptyList;
@@ -254,6 +274,54 @@ public class LabelingMapping<T extends Comparable<T>, N extends Number> {
 		return internImpl(src);
 	}
 	
+	/**
+	 * Return the canonical list containing only the given label.
+	 * 
+	 * @param label
+	 * @return
+	 */
+	public List<T> internLabel(T label) {
+		return internLabelImpl(label);
+	}
+	
+	/**
+	 * Return the canonical list for the given labeling with the given label
+	 * added. The result for each pair of interned list and label is cached.
+	 * 
+	 * @param labeling - the labels of a pixel
+	 * @param label - the label to add to them
+	 * @return
+	 */
+	public List<T> addLabel(List<T> labeling, T label) {
+		InternedList<T,N> interned = internImpl(labeling);
+		InternedList<T,N> result = interned.successors.get(label);
+		if (result == null) {
+			if (interned.contains(label)) {
+				result = interned;
+			} else {
+				List<T> copy = new ArrayList<T>(interned.size() + 1);
+				copy.addAll(interned);
+				copy.add(label);
+				result = internImpl(copy);
+			}
+			interned.successors.put(label, result);
+		}
+		return result;
+	}
+	
+	private InternedList<T,N> internLabelImpl(T label) {
+		InternedList<T,N> interned = singletons.get(label);
+		if (interned == null) {
+			List<T> copy = new ArrayList<T>(1);
+			copy.add(label);
+			interned = internedLists.get(copy);
+			if (interned == null)
+				interned = create(copy);
+			singletons.put(label, interned);
+		}
+		return interned;
+	}
+	
 	@SuppressWarnings("unchecked")
 	private InternedList<T,N> internImpl(List<T> src) {
 		InternedList<T,N> interned;
@@ -262,34 +330,74 @@ public class LabelingMapping<T extends Comparable<T>, N extends Number> {
 			if (interned.owner == this)
 				return interned;
 		}
-		List<T> copy = new ArrayList<T>(src);
-		Collections.sort(copy);
-		interned = internedLists.get(copy);
+		if (src.size() == 1)
+			return internLabelImpl(src.get(0));
+		interned = isSorted(src) ? internedLists.get(src) : null;
 		if (interned == null) {
-			int intIndex = listsByIndex.size();
-			N index;
-			try {
-				index = constructor.newInstance(Integer.toString(intIndex));
-			} catch (IllegalArgumentException e) {
-				e.printStackTrace();
-				throw new AssertionError(e.getMessage());
-			} catch (InstantiationException e) {
-				e.printStackTrace();
-				throw new AssertionError(e.getMessage());
-			} catch (IllegalAccessException e) {
-				e.printStackTrace();
-				throw new AssertionError(e.getMessage());
-			} catch (InvocationTargetException e) {
-				e.printStackTrace();
-				if (e.getTargetException() instanceof NumberFormatException) {
-					throw new AssertionError(String.format("Too many labels (or types of multiply-labeled pixels): %d maximum", intIndex));
-				}
-				throw new AssertionError(e.getMessage());
+			List<T> copy = new ArrayList<T>(src);
+			Collections.sort(copy);
+			interned = internedLists.get(copy);
+			if (interned == null)
+				interned = create(copy);
+		}
+		return interned;
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <T extends Comparable<T>, N extends Number> InternedList<T,N> [] newListArray(int size) {
+		return new InternedList [size];
+	}
+	
+	private static <T extends Comparable<T>> boolean isSorted(List<T> src) {
+		T last = null;
+		for (T t: src) {
+			if ((last != null) && (last.compareTo(t) > 0))
+				return false;
+			last = t;
+		}
+		return true;
+	}
+	
+	/**
+	 * Add a new sorted list to the mapping unless another thread has
+	 * added it already.
+	 */
+	private synchronized InternedList<T,N> create(List<T> sorted) {
+		InternedList<T,N> interned = internedLists.get(sorted);
+		if (interned != null)
+			return interned;
+		int intIndex = numLists;
+		N index;
+		if (instance instanceof Integer) {
+			@SuppressWarnings("unchecked")
+			N n = (N)Integer.valueOf(intIndex);
+			index = n;
+		} else try {
+			index = constructor.newInstance(Integer.toString(intIndex));
+		} catch (IllegalArgumentException e) {
+			e.printStackTrace();
+			throw new AssertionError(e.getMessage());
+		} catch (InstantiationException e) {
+			e.printStackTrace();
+			throw new AssertionError(e.getMessage());
+		} catch (IllegalAccessException e) {
+			e.printStackTrace();
+			throw new AssertionError(e.getMessage());
+		} catch (InvocationTargetException e) {
+			e.printStackTrace();
+			if (e.getTargetException() instanceof NumberFormatException) {
+				throw new AssertionError(String.format("Too many labels (or types of multiply-labeled pixels): %d maximum", intIndex));
 			}
-			interned = new InternedList<T, N>(copy, index, this);
-			listsByIndex.add(interned);
-			internedLists.put(interned, interned);
+			throw new AssertionError(e.getMessage());
 		}
+		interned = new InternedList<T, N>(sorted, index, intIndex, this);
+		InternedList<T,N> [] lists = listsByIndex;
+		if (intIndex == lists.length)
+			lists = Arrays.copyOf(lists, 2 * intIndex);
+		lists[intIndex] = interned;
+		listsByIndex = lists;
+		numLists = intIndex + 1;
+		internedLists.put(interned, interned);
 		return interned;
 	}
 
@@ -300,20 +408,43 @@ public class LabelingMapping<T extends Comparable<T>, N extends Number> {
 		InternedList<T,N> interned = internImpl(key); 
 		return interned.index;
 	}
+	/**
+	 * @return the index of the given labeling as a primitive int.
+	 */
+	public int intIndexOf(List<T> key) {
+		return internImpl(key).intIndex;
+	}
+	/**
+	 * @return the index of the labeling consisting of only the given label.
+	 */
+	public int intIndexOfLabel(T label) {
+		return internLabelImpl(label).intIndex;
+	}
 	public N indexOf(T [] key) {
 		return indexOf(intern(key));
 	}
 	
 	public List<T> listAtIndex(int index) {
-		return listsByIndex.get(index);
+		if (index >= numLists)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + numLists);
+		return listsByIndex[index];
+	}
+	/**
+	 * @return the number of interned lists. Their indices run from 0 to
+	 * numLists() - 1.
+	 */
+	public int numLists() {
+		return numLists;
 	}
 	/**
 	 * @return the labels defined in the mapping.
 	 */
 	public List<T> getLabels() {
 		HashSet<T> result = new HashSet<T>();
-		for (InternedList<T,N> inst: listsByIndex) {
-			for (T label: inst) {
+		int n = numLists;
+		InternedList<T,N> [] lists = listsByIndex;
+		for (int i = 0; i < n; i++) {
+			for (T label: lists[i]) {
 				result.add(label);
 			}
 		}
@@ -39,6 +39,7 @@ package net.imglib2.labeling;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.imglib2.img.basictypeaccess.IntAccess;
 import net.imglib2.img.basictypeaccess.array.IntArray;
@@ -56,7 +57,7 @@ import net.imglib2.type.AbstractNativeType;
  * @author Lee Kamentsky
  */
 public class LabelingType<T extends Comparable<T>> extends AbstractNativeType<LabelingType<T>> {
-	final protected long [] generation;
+	final protected AtomicLong generation;
 
 	// the NativeContainer
 	final NativeLabeling<T, ? extends IntAccess> storage;
@@ -72,7 +73,7 @@ public class LabelingType<T extends Comparable<T>> extends AbstractNativeType<La
 	 * @param mapping
 	 * @param generation
 	 */
-	protected LabelingType(NativeLabeling<T, ? extends IntAccess> storage, LabelingMapping<T, Integer> mapping, long [] generation) {
+	protected LabelingType(NativeLabeling<T, ? extends IntAccess> storage, LabelingMapping<T, Integer> mapping, AtomicLong generation) {
 		this.storage = storage;
 		this.mapping = mapping;
 		this.generation = generation;
@@ -81,7 +82,7 @@ public class LabelingType<T extends Comparable<T>> extends AbstractNativeType<La
 	public LabelingType( NativeLabeling<T, ? extends IntAccess> storage ) { 
 		this.storage = storage;
 		mapping = storage.getMapping();
-		generation = new long [1];
+		generation = new AtomicLong();
 	}
 	
 	// this is the constructor if you want it to be a variable
@@ -89,7 +90,7 @@ public class LabelingType<T extends Comparable<T>> extends AbstractNativeType<La
 		storage = null;
 		b = new IntArray(1);
 		mapping = new LabelingMapping<T, Integer>(new Integer(0));
-		generation = new long [1];
+		generation = new AtomicLong();
 		this.setLabeling(value);
 	}
 	
@@ -117,8 +118,8 @@ public class LabelingType<T extends Comparable<T>> extends AbstractNativeType<La
 	 * @param labeling
 	 */
 	public void setLabeling(List<T> labeling) {
-		b.setValue(i, mapping.indexOf(labeling));
-		generation[0]++;
+		b.setValue(i, mapping.intIndexOf(labeling));
+		generation.incrementAndGet();
 	}
 	
 	public void setLabeling(T [] labeling) {
@@ -130,9 +131,16 @@ public class LabelingType<T extends Comparable<T>> extends AbstractNativeType<La
 	 * @param label - the label to assign
 	 */
 	public void setLabel(T label) {
-		List<T> labeling = new ArrayList<T>(1);
-		labeling.add(label);
-		setLabeling(labeling);
+		b.setValue(i, mapping.intIndexOfLabel(label));
+		generation.incrementAndGet();
+	}
+	
+	/**
+	 * Add a label to the labels of the current pixel
+	 * @param label - the label to add
+	 */
+	public void addLabel(T label) {
+		setLabeling(mapping.addLabel(getLabeling(), label));
 	}
 	
 	/**
@@ -155,9 +163,7 @@ public class LabelingType<T extends Comparable<T>> extends AbstractNativeType<La
 	 * @return - the canonical labeling with the single label.
 	 */
 	public List<T> intern(T label) {
-		List<T> labeling = new ArrayList<T>(1);
-		labeling.add(label);
-		return intern(labeling);
+		return mapping.internLabel(label);
 	}
 	@Override
 	public int getEntitiesPerPixel() {
@@ -209,7 +215,7 @@ public class LabelingType<T extends Comparable<T>> extends AbstractNativeType<La
 	 * @return the generation of the underlying storage
 	 */
 	long getGeneration() {
-		return generation[0];
+		return generation.get();
 	}
 
 	@Override
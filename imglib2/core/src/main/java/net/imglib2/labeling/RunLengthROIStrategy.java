@@ -0,0 +1,378 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.labeling;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.roi.AbstractIterableRegionOfInterest;
+import net.imglib2.roi.IterableRegionOfInterest;
+import net.imglib2.roi.RegionOfInterest;
+
+/**
+ * A strategy suitable for many small or sparse objects - record the
+ * pixels of each label as runs along scanlines of the first dimension.
+ * 
+ * The runs are built lazily in a single raster scan of the labeling
+ * whenever the labeling has changed since they were last computed. Area,
+ * extents and raster start of a label are then available without further
+ * scanning, region of interest cursors visit only the member pixels and
+ * membership queries are answered by a binary search over the runs.
+ * 
+ * @param <T> - the type used to label the space
+ * @param <L> - the labeling class that will use this strategy for cursors and random access.
+ */
+public class RunLengthROIStrategy<T extends Comparable<T>, L extends Labeling<T>>
+		implements LabelingROIStrategy<T, L> {
+
+	final protected L labeling;
+	protected long generation;
+	final protected long [] dimensions;
+
+	/**
+	 * The runs of one label in raster order. A run is given by the
+	 * flattened index of its scanline (over dimensions 1 to D-1), the
+	 * first coordinate of its first pixel and the first coordinate after
+	 * its last pixel. Adjacent runs on the same scanline are merged.
+	 */
+	protected static class LabelRuns extends BoundingBox {
+		private long [] lines = new long [4];
+		private long [] starts = new long [4];
+		private long [] ends = new long [4];
+		private int nRuns = 0;
+		private long [] rasterStart;
+		private long area = 0;
+		public LabelRuns(int dimensions) {
+			super(dimensions);
+			rasterStart = new long [dimensions];
+			Arrays.fill(rasterStart, Integer.MAX_VALUE);
+		}
+		
+		/**
+		 * Add the pixels from position[0] to end - 1 on the scanline
+		 * of the given position.
+		 * 
+		 * @param line - the flattened index of the scanline
+		 * @param position - the coordinates of the first pixel
+		 * @param end - the first coordinate after the last pixel
+		 */
+		void add(long line, long [] position, long end) {
+			final long start = position[0];
+			area += end - start;
+			if ((nRuns > 0) && (lines[nRuns-1] == line) && (ends[nRuns-1] == start)) {
+				ends[nRuns-1] = end;
+			} else {
+				if (nRuns == lines.length) {
+					final int capacity = 2 * nRuns;
+					lines = Arrays.copyOf(lines, capacity);
+					starts = Arrays.copyOf(starts, capacity);
+					ends = Arrays.copyOf(ends, capacity);
+				}
+				lines[nRuns] = line;
+				starts[nRuns] = start;
+				ends[nRuns] = end;
+				nRuns++;
+				update(position);
+				updateRasterStart(position);
+			}
+			position[0] = end - 1;
+			update(position);
+			position[0] = start;
+		}
+		
+		private void updateRasterStart(long [] position) {
+			for (int i = 0; i<rasterStart.length; i++) {
+				if (rasterStart[i] > position[i]) {
+					System.arraycopy(position, 0, rasterStart, 0, rasterStart.length);
+					return;
+				} else if (rasterStart[i] < position[i]) {
+					return;
+				}
+			}
+		}
+		
+		/**
+		 * Find the first run that ends after the given coordinate of the
+		 * given scanline.
+		 * 
+		 * @return the index of the run or the number of runs if there is none.
+		 */
+		int find(long line, long x) {
+			int low = 0;
+			int high = nRuns;
+			while (low < high) {
+				final int mid = (low + high) >>> 1;
+				if ((lines[mid] < line) || ((lines[mid] == line) && (ends[mid] <= x)))
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			return low;
+		}
+		
+		public void getRasterStart(long[] start) {
+			System.arraycopy(rasterStart, 0, start, 0, rasterStart.length);
+		}
+		public long getArea() {
+			return area;
+		}
+		public int getNumRuns() {
+			return nRuns;
+		}
+	}
+	protected Map<T, LabelRuns> runs;
+	public RunLengthROIStrategy(L labeling) {
+		this.labeling = labeling;
+		generation = Long.MIN_VALUE;
+		dimensions = new long [labeling.numDimensions()];
+		labeling.dimensions(dimensions);
+	}
+
+	/**
+	 * Rebuild the runs of all labels if the cache is dirty.
+	 */
+	protected void computeRuns() {
+		LabelingType<T> type = labeling.firstElement();
+		if ((type == null) || (type.getGeneration() != generation)) {
+			/*
+			 * Take the generation before scanning, so that pixels set by
+			 * other threads during the scan invalidate the result.
+			 */
+			final long scanned = (type == null) ? Long.MIN_VALUE : type.getGeneration();
+			runs = new HashMap<T, LabelRuns>();
+			final int n = dimensions.length;
+			final long width = dimensions[0];
+			long nLines = 1;
+			for (int d = 1; d < n; d++)
+				nLines *= dimensions[d];
+			final long [] position = new long [n];
+			final RandomAccess<LabelingType<T>> a = labeling.randomAccess();
+			for (long line = 0; line < nLines; line++) {
+				position[0] = 0;
+				a.setPosition(position);
+				type = a.get();
+				List<T> current = type.getLabeling();
+				long start = 0;
+				for (long x = 1; x <= width; x++) {
+					List<T> next = null;
+					if (x < width) {
+						a.fwd(0);
+						next = type.getLabeling();
+						/*
+						 * The labelings are interned by the mapping, so
+						 * identical lists mean identical labels.
+						 */
+						if (next == current) continue;
+					}
+					if (! current.isEmpty()) {
+						position[0] = start;
+						for (T label: current) {
+							LabelRuns labelRuns = runs.get(label);
+							if (labelRuns == null) {
+								labelRuns = new LabelRuns(n);
+								runs.put(label, labelRuns);
+							}
+							labelRuns.add(line, position, x);
+						}
+					}
+					current = next;
+					start = x;
+				}
+				for (int d = 1; d < n; d++) {
+					if (++position[d] < dimensions[d]) break;
+					position[d] = 0;
+				}
+			}
+			generation = scanned;
+		}
+	}
+
+	/**
+	 * @return true if all coordinates but the first are within the labeling.
+	 */
+	protected boolean isOnLine(long [] position) {
+		for (int d = 1; d < dimensions.length; d++) {
+			if ((position[d] < 0) || (position[d] >= dimensions[d])) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Get the flattened index of the scanline of a position. Positions
+	 * outside the labeling are mapped to the start of the next scanline
+	 * in raster order.
+	 */
+	protected long getLine(long [] position) {
+		long line = 0;
+		long step = 1;
+		for (int d = 1; d < dimensions.length; d++)
+			step *= dimensions[d];
+		for (int d = dimensions.length - 1; d > 0; d--) {
+			step /= dimensions[d];
+			if (position[d] < 0) break;
+			if (position[d] >= dimensions[d]) {
+				line += dimensions[d] * step;
+				break;
+			}
+			line += position[d] * step;
+		}
+		return line;
+	}
+
+	/**
+	 * Get the coordinates of a scanline.
+	 */
+	protected void getPosition(long line, long [] position) {
+		for (int d = 1; d < dimensions.length; d++) {
+			position[d] = line % dimensions[d];
+			line /= dimensions[d];
+		}
+	}
+
+	@Override
+	public boolean getExtents(T label, long[] minExtents, long[] maxExtents) {
+		computeRuns();
+		LabelRuns labelRuns = runs.get(label);
+		if (labelRuns == null) {
+			if (minExtents != null)
+				Arrays.fill(minExtents, 0);
+			if (maxExtents != null)
+				Arrays.fill(maxExtents, 0);
+			return false;
+		} else {
+			labelRuns.getExtents(minExtents, maxExtents);
+			return true;
+		}
+	}
+
+	@Override
+	public boolean getRasterStart(T label, long[] start) {
+		computeRuns();
+		LabelRuns labelRuns = runs.get(label);
+		if (labelRuns == null) {
+			Arrays.fill(start, 0);
+			return false;
+		} else {
+			labelRuns.getRasterStart(start);
+			return true;
+		}
+	}
+
+	@Override
+	public long getArea(T label) {
+		computeRuns();
+		LabelRuns labelRuns = runs.get(label);
+		if (labelRuns == null) {
+			return 0;
+		}
+		return labelRuns.getArea();
+	}
+
+	@Override
+	public Collection<T> getLabels() {
+		computeRuns();
+		return runs.keySet();
+	}
+	
+	/**
+	 * Implement a region of interest by traversing the runs of a label.
+	 */
+	class RunLengthRegionOfInterest extends AbstractIterableRegionOfInterest {
+		final LabelRuns labelRuns;
+		RunLengthRegionOfInterest(T label) {
+			super(labeling.numDimensions());
+			computeRuns();
+			LabelRuns r = runs.get(label);
+			labelRuns = (r == null) ? new LabelRuns(labeling.numDimensions()) : r;
+		}
+
+		@Override
+		protected long size() {
+			return labelRuns.getArea();
+		}
+
+		@Override
+		protected boolean isMember(double[] position) {
+			final long [] p = new long [position.length];
+			for (int i = 0; i < position.length; i++) {
+				p[i] = (long)position[i];
+			}
+			if (! isOnLine(p)) return false;
+			final long line = getLine(p);
+			final int i = labelRuns.find(line, p[0]);
+			return (i < labelRuns.nRuns) && (labelRuns.lines[i] == line) && (labelRuns.starts[i] <= p[0]);
+		}
+
+		@Override
+		protected void getExtrema(long[] minima, long[] maxima) {
+			if (labelRuns.getNumRuns() == 0) {
+				Arrays.fill(minima, 0);
+				Arrays.fill(maxima, 0);
+			} else {
+				labelRuns.getExtents(minima, maxima);
+			}
+		}
+
+		@Override
+		protected boolean nextRaster(long[] position, long[] end) {
+			final long x = isOnLine(position) ? position[0] : Long.MIN_VALUE;
+			final long line = getLine(position);
+			final int i = labelRuns.find(line, x);
+			if (i == labelRuns.nRuns) return false;
+			getPosition(labelRuns.lines[i], position);
+			position[0] = ((labelRuns.lines[i] == line) && (labelRuns.starts[i] < x)) ? x : labelRuns.starts[i];
+			System.arraycopy(position, 0, end, 0, numDimensions());
+			end[0] = labelRuns.ends[i];
+			return true;
+		}
+	}
+
+	@Override
+	public RegionOfInterest createRegionOfInterest(T label) {
+		return new RunLengthRegionOfInterest(label);
+	}
+
+	@Override
+	public IterableRegionOfInterest createIterableRegionOfInterest(T label) {
+		return new RunLengthRegionOfInterest(label);
+	}
+
+}
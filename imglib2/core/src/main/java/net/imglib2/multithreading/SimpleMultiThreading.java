@@ -132,28 +132,31 @@ public class SimpleMultiThreading
 	  return new Thread[numThreads];
 	}
 
+	/**
+	 * Run the {@link Thread#run()} methods of the given (unstarted) threads on
+	 * the shared {@link TaskService} and wait until all of them are finished.
+	 * The threads themselves are never started.
+	 */
 	public static void startAndJoin(Thread[] threads)
+	{
+		startAndJoin( threads, TaskService.getInstance() );
+	}
+
+	/**
+	 * Run the {@link Thread#run()} methods of the given (unstarted) threads on
+	 * the given {@link TaskService} and wait until all of them are finished.
+	 * The threads themselves are never started. At most
+	 * {@link TaskService#getParallelism()} of them run at the same time.
+	 */
+	public static void startAndJoin(Thread[] threads, TaskService service)
 	{
 		if ( 1 == threads.length )
 		{
 			threads[0].run();
 			return;
 		}
-		
-		for (int ithread = 0; ithread < threads.length; ++ithread)
-		{
-			threads[ithread].setPriority(Thread.NORM_PRIORITY);
-			threads[ithread].start();
-		}
 
-		try
-		{
-			for (int ithread = 0; ithread < threads.length; ++ithread)
-				threads[ithread].join();
-		} catch (InterruptedException ie)
-		{
-			throw new RuntimeException(ie);
-		}
+		service.invokeAll( threads, Math.min( threads.length, service.getParallelism() ) );
 	}
 
 	public static void start(Thread[] threads)
@@ -0,0 +1,363 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.multithreading;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs batches of tasks on a shared pool of worker threads instead of
+ * spawning new {@link Thread}s for every call.
+ *
+ * <p>
+ * The calling thread always takes part in processing its own batch. Worker
+ * threads only help with tasks that have not been claimed yet, and the caller
+ * waits only for tasks that are already running. Therefore batches can be
+ * nested (a task may itself call {@link #invokeAll(Runnable[])}) without
+ * deadlocking, even if all workers of the pool are busy.
+ * </p>
+ *
+ * <p>
+ * {@link SimpleMultiThreading#startAndJoin(Thread[])} and
+ * {@link SimpleMultiThreading#startTask(Runnable, int)} run on the
+ * {@link #getInstance() shared instance}. Applications that want to control
+ * the threads used by imglib2 (for example a server running many small jobs
+ * concurrently) can install their own pool using
+ * {@link #setInstance(TaskService)}. Any {@link ExecutorService} can be used,
+ * including a {@link java.util.concurrent.ForkJoinPool} where available.
+ * </p>
+ */
+public class TaskService
+{
+	private static TaskService instance;
+
+	/**
+	 * Get the shared {@link TaskService}. Unless another one was set using
+	 * {@link #setInstance(TaskService)}, this is a pool of daemon threads, one
+	 * per available processor.
+	 */
+	public static synchronized TaskService getInstance()
+	{
+		if ( instance == null )
+			instance = new TaskService();
+		return instance;
+	}
+
+	/**
+	 * Replace the shared {@link TaskService}. The previous instance is not
+	 * shut down.
+	 *
+	 * @param service
+	 *            the new shared service, or <code>null</code> to go back to the
+	 *            default pool on the next {@link #getInstance()}.
+	 */
+	public static synchronized void setInstance( final TaskService service )
+	{
+		instance = service;
+	}
+
+	/**
+	 * Handle to cancel a batch of tasks. Tasks of the batch that have not been
+	 * started yet will not be run after {@link #cancel()}. Long-running tasks
+	 * may poll {@link #isCancelled()} to stop early.
+	 */
+	public static class Cancellation
+	{
+		private volatile boolean cancelled = false;
+
+		public void cancel()
+		{
+			cancelled = true;
+		}
+
+		public boolean isCancelled()
+		{
+			return cancelled;
+		}
+	}
+
+	protected final ExecutorService executor;
+
+	protected final int parallelism;
+
+	/**
+	 * Create a {@link TaskService} backed by a new pool of daemon threads, one
+	 * per available processor.
+	 */
+	public TaskService()
+	{
+		this( Runtime.getRuntime().availableProcessors() );
+	}
+
+	/**
+	 * Create a {@link TaskService} backed by a new pool of daemon threads.
+	 *
+	 * @param parallelism
+	 *            number of threads in the pool.
+	 */
+	public TaskService( final int parallelism )
+	{
+		this( Executors.newFixedThreadPool( parallelism, new DaemonThreadFactory() ), parallelism );
+	}
+
+	/**
+	 * Create a {@link TaskService} that runs tasks on the given executor.
+	 *
+	 * @param executor
+	 *            the pool to run tasks on.
+	 * @param parallelism
+	 *            the default number of tasks of a batch that are run
+	 *            concurrently.
+	 */
+	public TaskService( final ExecutorService executor, final int parallelism )
+	{
+		if ( parallelism < 1 )
+			throw new IllegalArgumentException( "parallelism must be at least 1" );
+		this.executor = executor;
+		this.parallelism = parallelism;
+	}
+
+	public ExecutorService getExecutor()
+	{
+		return executor;
+	}
+
+	public int getParallelism()
+	{
+		return parallelism;
+	}
+
+	/**
+	 * Run all tasks, using up to {@link #getParallelism()} threads (including
+	 * the calling thread), and wait until they are finished.
+	 */
+	public void invokeAll( final Runnable[] tasks )
+	{
+		invokeAll( tasks, parallelism, new Cancellation() );
+	}
+
+	/**
+	 * Run all tasks, using up to <code>maxParallelism</code> threads
+	 * (including the calling thread), and wait until they are finished.
+	 */
+	public void invokeAll( final Runnable[] tasks, final int maxParallelism )
+	{
+		invokeAll( tasks, maxParallelism, new Cancellation() );
+	}
+
+	/**
+	 * Run all tasks, using up to <code>maxParallelism</code> threads
+	 * (including the calling thread), and wait until they are finished.
+	 *
+	 * <p>
+	 * If a task throws an exception, the remaining tasks are not started and
+	 * the exception is rethrown (wrapped in a {@link RuntimeException} if it
+	 * is checked) once the running tasks are finished.
+	 * </p>
+	 *
+	 * @param tasks
+	 *            the tasks to run.
+	 * @param maxParallelism
+	 *            maximum number of tasks that are run concurrently.
+	 * @param cancellation
+	 *            handle to cancel the batch. If the calling thread is
+	 *            interrupted while waiting, the batch is cancelled as well.
+	 *
+	 * @throws CancellationException
+	 *             if the batch was cancelled before all tasks were run.
+	 */
+	public void invokeAll( final Runnable[] tasks, final int maxParallelism, final Cancellation cancellation )
+	{
+		if ( maxParallelism < 1 )
+			throw new IllegalArgumentException( "maxParallelism must be at least 1" );
+
+		final Batch batch = new Batch( tasks, cancellation );
+		final int numHelpers = Math.min( maxParallelism, tasks.length ) - 1;
+		final Future< ? >[] helpers = new Future< ? >[ numHelpers ];
+		for ( int i = 0; i < numHelpers; ++i )
+		{
+			try
+			{
+				helpers[ i ] = executor.submit( batch );
+			}
+			catch ( final RejectedExecutionException e )
+			{
+				// the calling thread will process the remaining tasks itself
+				break;
+			}
+		}
+
+		batch.run();
+
+		boolean interrupted = false;
+		while ( true )
+		{
+			try
+			{
+				batch.await();
+				break;
+			}
+			catch ( final InterruptedException e )
+			{
+				interrupted = true;
+				cancellation.cancel();
+				for ( final Future< ? > helper : helpers )
+					if ( helper != null )
+						helper.cancel( true );
+			}
+		}
+
+		// remove helpers that were never started from the queue
+		for ( final Future< ? > helper : helpers )
+			if ( helper != null )
+				helper.cancel( false );
+
+		if ( interrupted )
+			Thread.currentThread().interrupt();
+
+		if ( batch.failure != null )
+		{
+			if ( batch.failure instanceof RuntimeException )
+				throw ( RuntimeException ) batch.failure;
+			else if ( batch.failure instanceof Error )
+				throw ( Error ) batch.failure;
+			else
+				throw new RuntimeException( batch.failure );
+		}
+
+		if ( batch.skipped )
+			throw new CancellationException( "Tasks were cancelled." );
+	}
+
+	/**
+	 * Shut down the underlying executor.
+	 */
+	public void shutdown()
+	{
+		executor.shutdown();
+	}
+
+	/**
+	 * A batch of tasks. Every thread that runs the batch claims tasks until
+	 * none are left.
+	 */
+	private static final class Batch implements Runnable
+	{
+		private final Runnable[] tasks;
+
+		private final Cancellation cancellation;
+
+		private final AtomicInteger next;
+
+		private int remaining;
+
+		volatile Throwable failure;
+
+		volatile boolean skipped;
+
+		Batch( final Runnable[] tasks, final Cancellation cancellation )
+		{
+			this.tasks = tasks;
+			this.cancellation = cancellation;
+			next = new AtomicInteger( 0 );
+			remaining = tasks.length;
+			failure = null;
+			skipped = false;
+		}
+
+		@Override
+		public void run()
+		{
+			for ( int i = next.getAndIncrement(); i < tasks.length; i = next.getAndIncrement() )
+			{
+				try
+				{
+					if ( failure != null || cancellation.isCancelled() )
+						skipped = true;
+					else
+						tasks[ i ].run();
+				}
+				catch ( final Throwable t )
+				{
+					synchronized ( this )
+					{
+						if ( failure == null )
+							failure = t;
+					}
+				}
+				finally
+				{
+					finished();
+				}
+			}
+		}
+
+		private synchronized void finished()
+		{
+			if ( --remaining == 0 )
+				notifyAll();
+		}
+
+		synchronized void await() throws InterruptedException
+		{
+			while ( remaining > 0 )
+				wait();
+		}
+	}
+
+	private static final class DaemonThreadFactory implements ThreadFactory
+	{
+		private static final AtomicInteger poolCount = new AtomicInteger( 0 );
+
+		private final int pool = poolCount.incrementAndGet();
+
+		private final AtomicInteger threadCount = new AtomicInteger( 0 );
+
+		@Override
+		public Thread newThread( final Runnable r )
+		{
+			final Thread thread = new Thread( r, "imglib2-task-" + pool + "-" + threadCount.incrementAndGet() );
+			thread.setDaemon( true );
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.neighborsearch;
+
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.IterableRealInterval;
+import net.imglib2.RealCursor;
+import net.imglib2.RealLocalizable;
+import net.imglib2.collection.FlatKDTree;
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.multithreading.SimpleMultiThreading;
+
+/**
+ * k-nearest neighbor search for many query points at once on a
+ * {@link FlatKDTree}. The queries are divided among threads, each of which
+ * runs its share with one reused {@link KNearestNeighborSearchOnFlatKDTree}.
+ *
+ * <p>
+ * Results are returned in packed arrays: for query q, the i-th nearest
+ * neighbor is at index <code>q * k + i</code>. Neighbors are given by the
+ * index of their value in the list the tree was built from (see
+ * {@link FlatKDTree#getIndex(int)}), or -1 if the tree has less than k
+ * points.
+ * </p>
+ */
+public class KNearestNeighborBatchSearchOnFlatKDTree< T >
+{
+	protected final FlatKDTree< T > tree;
+
+	protected final int n;
+
+	protected final int k;
+
+	public KNearestNeighborBatchSearchOnFlatKDTree( final FlatKDTree< T > tree, final int k )
+	{
+		this.tree = tree;
+		this.n = tree.numDimensions();
+		this.k = k;
+	}
+
+	public int numDimensions()
+	{
+		return n;
+	}
+
+	public int getK()
+	{
+		return k;
+	}
+
+	/**
+	 * Find the k nearest neighbors of a set of query points.
+	 *
+	 * @param queries
+	 *            coordinates of the query points. The coordinates of query q
+	 *            are at indices <code>q * n</code> to
+	 *            <code>q * n + n - 1</code>.
+	 * @param indices
+	 *            array of at least <code>numQueries * k</code> elements that
+	 *            receives the indices of the neighbors.
+	 * @param squDistances
+	 *            array of at least <code>numQueries * k</code> elements that
+	 *            receives the squared distances of the neighbors, or null.
+	 * @param numThreads
+	 *            number of threads to use.
+	 */
+	public void search( final double[] queries, final int[] indices, final double[] squDistances, final int numThreads )
+	{
+		if ( queries.length % n != 0 )
+			throw new IllegalArgumentException( "Number of query coordinates must be a multiple of " + n + "." );
+		final int numQueries = queries.length / n;
+		if ( indices.length < ( long ) numQueries * k || ( squDistances != null && squDistances.length < ( long ) numQueries * k ) )
+			throw new IllegalArgumentException( "Result arrays must have room for " + ( long ) numQueries * k + " neighbors." );
+
+		final Vector< Chunk > chunks = SimpleMultiThreading.divideIntoChunks( numQueries, Math.max( 1, Math.min( numThreads, numQueries ) ) );
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final Thread[] threads = SimpleMultiThreading.newThreads( chunks.size() );
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+		{
+			threads[ ithread ] = new Thread( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final Chunk chunk = chunks.get( ai.getAndIncrement() );
+					final KNearestNeighborSearchOnFlatKDTree< T > search = new KNearestNeighborSearchOnFlatKDTree< T >( tree, k );
+					final QueryPoint query = new QueryPoint( queries );
+					final int start = ( int ) chunk.getStartPosition();
+					final int end = start + ( int ) chunk.getLoopSize();
+					for ( int q = start; q < end; ++q )
+					{
+						query.offset = q * n;
+						search.search( query );
+						for ( int i = 0, j = q * k; i < k; ++i, ++j )
+						{
+							final int node = search.getNodeIndex( i );
+							indices[ j ] = ( node < 0 ) ? -1 : tree.getIndex( node );
+							if ( squDistances != null )
+								squDistances[ j ] = search.getSquareDistance( i );
+						}
+					}
+				}
+			} );
+		}
+		SimpleMultiThreading.startAndJoin( threads );
+	}
+
+	/**
+	 * Find the k nearest neighbors of the positions of the elements of an
+	 * {@link IterableRealInterval}, in iteration order.
+	 *
+	 * @see #search(double[], int[], double[], int)
+	 */
+	public void search( final IterableRealInterval< ? > queries, final int[] indices, final double[] squDistances, final int numThreads )
+	{
+		final double[] coordinates = new double[ ( int ) queries.size() * n ];
+		final RealCursor< ? > cursor = queries.localizingCursor();
+		for ( int i = 0; cursor.hasNext(); i += n )
+		{
+			cursor.fwd();
+			for ( int d = 0; d < n; ++d )
+				coordinates[ i + d ] = cursor.getDoublePosition( d );
+		}
+		search( coordinates, indices, squDistances, numThreads );
+	}
+
+	/**
+	 * A query point in a flat coordinate array.
+	 */
+	protected final class QueryPoint implements RealLocalizable
+	{
+		private final double[] coordinates;
+
+		int offset;
+
+		QueryPoint( final double[] coordinates )
+		{
+			this.coordinates = coordinates;
+		}
+
+		@Override
+		public int numDimensions()
+		{
+			return n;
+		}
+
+		@Override
+		public void localize( final float[] position )
+		{
+			for ( int d = 0; d < n; ++d )
+				position[ d ] = ( float ) coordinates[ offset + d ];
+		}
+
+		@Override
+		public void localize( final double[] position )
+		{
+			System.arraycopy( coordinates, offset, position, 0, n );
+		}
+
+		@Override
+		public float getFloatPosition( final int d )
+		{
+			return ( float ) coordinates[ offset + d ];
+		}
+
+		@Override
+		public double getDoublePosition( final int d )
+		{
+			return coordinates[ offset + d ];
+		}
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.neighborsearch;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.Sampler;
+import net.imglib2.collection.FlatKDTree;
+
+/**
+ * Implementation of {@link KNearestNeighborSearch} search for
+ * {@link FlatKDTree}s. The tree is walked by node index and the results are
+ * returned as {@link FlatKDTree.Node}s.
+ */
+public class KNearestNeighborSearchOnFlatKDTree< T > implements KNearestNeighborSearch< T >
+{
+	protected FlatKDTree< T > tree;
+
+	protected final int n;
+	protected final double[] pos;
+
+	protected final int k;
+
+	/**
+	 * indices of the k nearest nodes, -1 where less than k were found.
+	 */
+	protected int[] bestNodes;
+	protected double[] bestSquDistances;
+
+	public KNearestNeighborSearchOnFlatKDTree( final FlatKDTree< T > tree, final int k )
+	{
+		this.tree = tree;
+		this.n = tree.numDimensions();
+		this.pos = new double[ n ];
+		this.k = k;
+		this.bestNodes = new int[ k ];
+		this.bestSquDistances = new double[ k ];
+		for ( int i = 0; i < k; ++i )
+		{
+			bestNodes[ i ] = -1;
+			bestSquDistances[ i ] = Double.MAX_VALUE;
+		}
+	}
+
+	@Override
+	public int numDimensions()
+	{
+		return n;
+	}
+
+	@Override
+	public int getK() { return k; }
+
+	@Override
+	public void search( final RealLocalizable reference )
+	{
+		reference.localize( pos );
+		for ( int i = 0; i < k; ++i )
+		{
+			bestNodes[ i ] = -1;
+			bestSquDistances[ i ] = Double.MAX_VALUE;
+		}
+		if ( tree.size() > 0 )
+			searchNode( 0, 0 );
+	}
+
+	protected void searchNode( final int node, final int d )
+	{
+		// consider the current node
+		final double squDistance = tree.squDistanceTo( node, pos );
+		if ( squDistance < bestSquDistances[ k - 1 ] )
+		{
+			int i = k - 1;
+			for ( int j = i - 1; i > 0 && squDistance < bestSquDistances[ j ]; --i, --j )
+			{
+				bestSquDistances[ i ] = bestSquDistances[ j ];
+				bestNodes[ i ] = bestNodes[ j ];
+			}
+			bestSquDistances[ i ] = squDistance;
+			bestNodes[ i ] = node;
+		}
+
+		final double axisDiff = pos[ d ] - tree.getDoublePosition( node, d );
+		final double axisSquDistance = axisDiff * axisDiff;
+		final boolean leftIsNearBranch = axisDiff < 0;
+
+		// search the near branch
+		final int left = 2 * node + 1;
+		final int nearChild = leftIsNearBranch ? left : left + 1;
+		final int awayChild = leftIsNearBranch ? left + 1 : left;
+		final int dChild = ( d + 1 == n ) ? 0 : d + 1;
+		if ( nearChild < tree.size() )
+			searchNode( nearChild, dChild );
+
+		// search the away branch - maybe
+		if ( ( axisSquDistance <= bestSquDistances[ k - 1 ] ) && ( awayChild < tree.size() ) )
+			searchNode( awayChild, dChild );
+	}
+
+	/**
+	 * @return the index of the i-th nearest node in the tree, or -1 if the
+	 *         tree has less than i+1 nodes.
+	 */
+	public int getNodeIndex( final int i )
+	{
+		return bestNodes[ i ];
+	}
+
+	@Override
+	public Sampler< T > getSampler( final int i )
+	{
+		return ( bestNodes[ i ] < 0 ) ? null : tree.createNode( bestNodes[ i ] );
+	}
+
+	@Override
+	public RealLocalizable getPosition( final int i )
+	{
+		return ( bestNodes[ i ] < 0 ) ? null : tree.createNode( bestNodes[ i ] );
+	}
+
+	@Override
+	public double getSquareDistance( final int i )
+	{
+		return bestSquDistances[ i ];
+	}
+
+	@Override
+	public double getDistance( final int i )
+	{
+		return Math.sqrt( bestSquDistances[ i ] );
+	}
+
+
+	/* NearestNeighborSearch */
+
+	@Override
+	public RealLocalizable getPosition()
+	{
+		return getPosition( 0 );
+	}
+
+	@Override
+	public Sampler< T > getSampler()
+	{
+		return getSampler( 0 );
+	}
+
+	@Override
+	public double getSquareDistance()
+	{
+		return getSquareDistance( 0 );
+	}
+
+	@Override
+	public double getDistance()
+	{
+		return getDistance( 0 );
+	}
+
+	@Override
+	public KNearestNeighborSearchOnFlatKDTree< T > copy()
+	{
+		final KNearestNeighborSearchOnFlatKDTree< T > copy = new KNearestNeighborSearchOnFlatKDTree< T >( tree, k );
+		System.arraycopy( pos, 0, copy.pos, 0, pos.length );
+		System.arraycopy( bestNodes, 0, copy.bestNodes, 0, k );
+		System.arraycopy( bestSquDistances, 0, copy.bestSquDistances, 0, k );
+		return copy;
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.neighborsearch;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.Sampler;
+import net.imglib2.collection.FlatKDTree;
+
+/**
+ * Implementation of {@link NearestNeighborSearch} search for
+ * {@link FlatKDTree}s. The tree is walked by node index and the result is
+ * returned as a {@link FlatKDTree.Node}.
+ */
+public class NearestNeighborSearchOnFlatKDTree< T > implements NearestNeighborSearch< T >
+{
+	protected FlatKDTree< T > tree;
+
+	protected final int n;
+	protected final double[] pos;
+
+	/**
+	 * index of the nearest node, or -1 if none was found.
+	 */
+	protected int bestNode;
+	protected double bestSquDistance;
+
+	public NearestNeighborSearchOnFlatKDTree( final FlatKDTree< T > tree )
+	{
+		n = tree.numDimensions();
+		pos = new double[ n ];
+		this.tree = tree;
+		bestNode = -1;
+		bestSquDistance = Double.MAX_VALUE;
+	}
+
+	@Override
+	public int numDimensions()
+	{
+		return n;
+	}
+
+	@Override
+	public void search( final RealLocalizable p )
+	{
+		p.localize( pos );
+		bestNode = -1;
+		bestSquDistance = Double.MAX_VALUE;
+		if ( tree.size() > 0 )
+			searchNode( 0, 0 );
+	}
+
+	protected void searchNode( final int node, final int d )
+	{
+		// consider the current node
+		final double distance = tree.squDistanceTo( node, pos );
+		if ( distance < bestSquDistance )
+		{
+			bestSquDistance = distance;
+			bestNode = node;
+		}
+
+		final double axisDiff = pos[ d ] - tree.getDoublePosition( node, d );
+		final double axisSquDistance = axisDiff * axisDiff;
+		final boolean leftIsNearBranch = axisDiff < 0;
+
+		// search the near branch
+		final int left = 2 * node + 1;
+		final int nearChild = leftIsNearBranch ? left : left + 1;
+		final int awayChild = leftIsNearBranch ? left + 1 : left;
+		final int dChild = ( d + 1 == n ) ? 0 : d + 1;
+		if ( nearChild < tree.size() )
+			searchNode( nearChild, dChild );
+
+		// search the away branch - maybe
+		if ( ( axisSquDistance <= bestSquDistance ) && ( awayChild < tree.size() ) )
+			searchNode( awayChild, dChild );
+	}
+
+	/**
+	 * @return the index of the nearest node in the tree, or -1 if the tree is
+	 *         empty.
+	 */
+	public int getNodeIndex()
+	{
+		return bestNode;
+	}
+
+	@Override
+	public Sampler< T > getSampler()
+	{
+		return ( bestNode < 0 ) ? null : tree.createNode( bestNode );
+	}
+
+	@Override
+	public RealLocalizable getPosition()
+	{
+		return ( bestNode < 0 ) ? null : tree.createNode( bestNode );
+	}
+
+	@Override
+	public double getSquareDistance()
+	{
+		return bestSquDistance;
+	}
+
+	@Override
+	public double getDistance()
+	{
+		return Math.sqrt( bestSquDistance );
+	}
+
+	@Override
+	public NearestNeighborSearchOnFlatKDTree< T > copy()
+	{
+		final NearestNeighborSearchOnFlatKDTree< T > copy = new NearestNeighborSearchOnFlatKDTree< T >( tree );
+		System.arraycopy( pos, 0, copy.pos, 0, pos.length );
+		copy.bestNode = bestNode;
+		copy.bestSquDistance = bestSquDistance;
+		return copy;
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.neighborsearch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.Sampler;
+import net.imglib2.collection.FlatKDTree;
+import net.imglib2.util.Pair;
+
+/**
+ * Implementation of {@link RadiusNeighborSearch} search for
+ * {@link FlatKDTree}s. The tree is walked by node index and the results are
+ * returned as {@link FlatKDTree.Node}s.
+ */
+public class RadiusNeighborSearchOnFlatKDTree< T > implements RadiusNeighborSearch< T >
+{
+	protected FlatKDTree< T > tree;
+
+	protected final int n;
+
+	protected final double[] pos;
+
+	protected ArrayList< Pair< FlatKDTree< T >.Node, Double > > resultPoints;
+
+	public RadiusNeighborSearchOnFlatKDTree( final FlatKDTree< T > tree )
+	{
+		this.tree = tree;
+		this.n = tree.numDimensions();
+		this.pos = new double[ n ];
+		this.resultPoints = new ArrayList< Pair< FlatKDTree< T >.Node, Double > >();
+	}
+
+	@Override
+	public void search( final RealLocalizable reference, final double radius, final boolean sortResults )
+	{
+		assert radius >= 0;
+		reference.localize( pos );
+		resultPoints.clear();
+		if ( tree.size() > 0 )
+			searchNode( 0, 0, radius * radius );
+		if ( sortResults )
+		{
+			Collections.sort( resultPoints, new Comparator< Pair< FlatKDTree< T >.Node, Double > >()
+			{
+				@Override
+				public int compare( final Pair< FlatKDTree< T >.Node, Double > o1, final Pair< FlatKDTree< T >.Node, Double > o2 )
+				{
+					return Double.compare( o1.b, o2.b );
+				}
+			} );
+		}
+	}
+
+	@Override
+	public int numDimensions() { return n; }
+
+	protected void searchNode( final int node, final int d, final double squRadius )
+	{
+		// consider the current node
+		final double squDistance = tree.squDistanceTo( node, pos );
+		if ( squDistance <= squRadius )
+		{
+			resultPoints.add( new Pair< FlatKDTree< T >.Node, Double >( tree.createNode( node ), squDistance ) );
+		}
+
+		final double axisDiff = pos[ d ] - tree.getDoublePosition( node, d );
+		final double axisSquDistance = axisDiff * axisDiff;
+		final boolean leftIsNearBranch = axisDiff < 0;
+
+		// search the near branch
+		final int left = 2 * node + 1;
+		final int nearChild = leftIsNearBranch ? left : left + 1;
+		final int awayChild = leftIsNearBranch ? left + 1 : left;
+		final int dChild = ( d + 1 == n ) ? 0 : d + 1;
+		if ( nearChild < tree.size() )
+			searchNode( nearChild, dChild, squRadius );
+
+		// search the away branch - maybe
+		if ( ( axisSquDistance <= squRadius ) && ( awayChild < tree.size() ) )
+			searchNode( awayChild, dChild, squRadius );
+	}
+
+	@Override
+	public int numNeighbors()
+	{
+		return resultPoints.size();
+	}
+
+	@Override
+	public Sampler< T > getSampler( final int i )
+	{
+		return resultPoints.get( i ).a;
+	}
+
+	@Override
+	public RealLocalizable getPosition( final int i )
+	{
+		return resultPoints.get( i ).a;
+	}
+
+	@Override
+	public double getSquareDistance( final int i )
+	{
+		return resultPoints.get( i ).b;
+	}
+
+	@Override
+	public double getDistance( final int i )
+	{
+		return Math.sqrt( resultPoints.get( i ).b );
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.img.array;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.util.IntervalIndexer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link BigArrayImg}, using small chunks to exercise chunk
+ * boundaries.
+ */
+public class BigArrayImgTest
+{
+	long[] dimensions;
+
+	int numValues;
+
+	int[] intData;
+
+	BigArrayImg< IntType, ? > intImg;
+
+	@Before
+	public void createSourceData()
+	{
+		dimensions = new long[] { 23, 17, 11 };
+
+		numValues = 1;
+		for ( int d = 0; d < dimensions.length; ++d )
+			numValues *= dimensions[ d ];
+
+		intData = new int[ numValues ];
+		final Random random = new Random( 0 );
+		for ( int i = 0; i < numValues; ++i )
+			intData[ i ] = random.nextInt();
+
+		intImg = new BigArrayImgFactory< IntType >( 6 ).create( dimensions, new IntType() );
+
+		final long[] pos = new long[ dimensions.length ];
+		final RandomAccess< IntType > a = intImg.randomAccess();
+		for ( int i = 0; i < numValues; ++i )
+		{
+			IntervalIndexer.indexToPosition( i, dimensions, pos );
+			a.setPosition( pos );
+			a.get().set( intData[ i ] );
+		}
+	}
+
+	@Test
+	public void testNumChunks()
+	{
+		assertEquals( ( numValues - 1 ) / 64 + 1, intImg.numChunks() );
+	}
+
+	@Test
+	public void testCursor()
+	{
+		final int[] data = new int[ numValues ];
+		final Cursor< IntType > c = intImg.cursor();
+		int i = 0;
+		while ( c.hasNext() )
+			data[ i++ ] = c.next().get();
+		assertEquals( numValues, i );
+		assertArrayEquals( intData, data );
+	}
+
+	@Test
+	public void testLocalizingCursor()
+	{
+		final int[] data = new int[ numValues ];
+		final long[] pos = new long[ dimensions.length ];
+		final Cursor< IntType > c = intImg.localizingCursor();
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			c.localize( pos );
+			data[ ( int ) IntervalIndexer.positionToIndex( pos, dimensions ) ] = c.get().get();
+		}
+		assertArrayEquals( intData, data );
+	}
+
+	@Test
+	public void testJumpFwd()
+	{
+		final long[] pos = new long[ dimensions.length ];
+		final Cursor< IntType > c = intImg.cursor();
+		final Cursor< IntType > l = intImg.localizingCursor();
+		c.jumpFwd( 100 );
+		l.jumpFwd( 100 );
+		for ( int i = 100; i < numValues; i += 37 )
+		{
+			assertEquals( intData[ i - 1 ], c.get().get() );
+			assertEquals( intData[ i - 1 ], l.get().get() );
+			l.localize( pos );
+			assertEquals( i - 1, IntervalIndexer.positionToIndex( pos, dimensions ) );
+			c.localize( pos );
+			assertEquals( i - 1, IntervalIndexer.positionToIndex( pos, dimensions ) );
+			c.jumpFwd( 37 );
+			l.jumpFwd( 37 );
+		}
+	}
+
+	@Test
+	public void testRandomAccessMoves()
+	{
+		final RandomAccess< IntType > a = intImg.randomAccess();
+		final long[] pos = new long[ dimensions.length ];
+		a.setPosition( new long[] { 22, 16, 10 } );
+		for ( int z = 10; z >= 0; --z )
+		{
+			for ( int y = 16; y >= 0; --y )
+			{
+				for ( int x = 22; x >= 0; --x )
+				{
+					a.localize( pos );
+					assertEquals( intData[ ( int ) IntervalIndexer.positionToIndex( pos, dimensions ) ], a.get().get() );
+					a.bck( 0 );
+				}
+				a.move( 23, 0 );
+				a.bck( 1 );
+			}
+			a.move( 17, 1 );
+			a.bck( 2 );
+		}
+	}
+
+	@Test
+	public void testMultipleEntitiesPerPixel()
+	{
+		final BigArrayImg< ComplexFloatType, ? > img = new BigArrayImgFactory< ComplexFloatType >( 4 ).create( dimensions, new ComplexFloatType() );
+		int i = 0;
+		for ( final ComplexFloatType t : img )
+		{
+			t.set( i, -i );
+			++i;
+		}
+		final RandomAccess< ComplexFloatType > a = img.randomAccess();
+		final long[] pos = new long[ dimensions.length ];
+		for ( i = 0; i < numValues; i += 13 )
+		{
+			IntervalIndexer.indexToPosition( i, dimensions, pos );
+			a.setPosition( pos );
+			assertEquals( i, a.get().getRealFloat(), 0 );
+			assertEquals( -i, a.get().getImaginaryFloat(), 0 );
+		}
+	}
+}
@@ -0,0 +1,270 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.img.cell;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.util.IntervalIndexer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CachedCells} and {@link CachedCellImgFactory}.
+ */
+public class CachedCellImgTest
+{
+	long[] dimensions;
+
+	int[] cellDimensions;
+
+	int numValues;
+
+	int[] intData;
+
+	File directory;
+
+	@Before
+	public void createSourceData() throws IOException
+	{
+		dimensions = new long[] { 48, 17, 102 };
+		cellDimensions = new int[] { 10, 10, 10 };
+
+		numValues = 1;
+		for ( int d = 0; d < dimensions.length; ++d )
+			numValues *= dimensions[ d ];
+
+		intData = new int[ numValues ];
+		final Random random = new Random( 0 );
+		for ( int i = 0; i < numValues; ++i )
+			intData[ i ] = random.nextInt();
+
+		directory = File.createTempFile( "cachedcells", "" );
+		directory.delete();
+		directory.mkdirs();
+	}
+
+	@After
+	public void deleteDirectory()
+	{
+		delete( directory );
+	}
+
+	static void delete( final File file )
+	{
+		final File[] files = file.listFiles();
+		if ( files != null )
+			for ( final File f : files )
+				delete( f );
+		file.delete();
+	}
+
+	void fill( final CellImg< IntType, ?, ? > img )
+	{
+		final long[] pos = new long[ dimensions.length ];
+		final RandomAccess< IntType > a = img.randomAccess();
+		for ( int i = 0; i < numValues; ++i )
+		{
+			IntervalIndexer.indexToPosition( i, dimensions, pos );
+			a.setPosition( pos );
+			a.get().set( intData[ i ] );
+		}
+	}
+
+	int[] read( final CellImg< IntType, ?, ? > img )
+	{
+		final int[] data = new int[ numValues ];
+		final long[] pos = new long[ dimensions.length ];
+		final Cursor< IntType > c = img.localizingCursor();
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			c.localize( pos );
+			data[ ( int ) IntervalIndexer.positionToIndex( pos, dimensions ) ] = c.get().get();
+		}
+		return data;
+	}
+
+	@Test
+	public void testWriteAndReadWithSmallCache()
+	{
+		final CellImg< IntType, ?, ? > img = new CachedCellImgFactory< IntType >( directory, cellDimensions, 3 ).create( dimensions, new IntType() );
+		fill( img );
+		assertArrayEquals( intData, read( img ) );
+		assertTrue( ( ( CachedCells< ? > ) img.getCells() ).numCachedCells() <= 3 );
+	}
+
+	@Test
+	public void testFlushAndReload()
+	{
+		final File imgDirectory = new File( directory, "reload" );
+		final CachedCells< IntArray > cells = new CachedCells< IntArray >( new IntArray( 1 ), 1, dimensions, cellDimensions, new FileCellLoader< IntArray >( imgDirectory ), 2, true );
+		final CellImg< IntType, IntArray, CachedCell< IntArray > > img = new CellImg< IntType, IntArray, CachedCell< IntArray > >( new CellImgFactory< IntType >( cellDimensions ), cells );
+		img.setLinkedType( new IntType( img ) );
+		fill( img );
+		cells.flush();
+
+		final CachedCells< IntArray > reloadedCells = new CachedCells< IntArray >( new IntArray( 1 ), 1, dimensions, cellDimensions, new FileCellLoader< IntArray >( imgDirectory ), 2, false, true );
+		final CellImg< IntType, IntArray, CachedCell< IntArray > > reloaded = new CellImg< IntType, IntArray, CachedCell< IntArray > >( new CellImgFactory< IntType >( cellDimensions ), reloadedCells );
+		reloaded.setLinkedType( new IntType( reloaded ) );
+		assertArrayEquals( intData, read( reloaded ) );
+	}
+
+	CellImg< IntType, IntArray, CachedCell< IntArray > > createImg( final CachedCells< IntArray > cells )
+	{
+		final CellImg< IntType, IntArray, CachedCell< IntArray > > img = new CellImg< IntType, IntArray, CachedCell< IntArray > >( new CellImgFactory< IntType >( cellDimensions ), cells );
+		img.setLinkedType( new IntType( img ) );
+		return img;
+	}
+
+	int readSaved( final File imgDirectory, final long[] pos )
+	{
+		final CachedCells< IntArray > cells = new CachedCells< IntArray >( new IntArray( 1 ), 1, dimensions, cellDimensions, new FileCellLoader< IntArray >( imgDirectory ), 1, false );
+		final RandomAccess< IntType > a = createImg( cells ).randomAccess();
+		a.setPosition( pos );
+		return a.get().get();
+	}
+
+	@Test
+	public void testWriteToEvictedCell()
+	{
+		final File imgDirectory = new File( directory, "evicted" );
+		final CachedCells< IntArray > cells = new CachedCells< IntArray >( new IntArray( 1 ), 1, dimensions, cellDimensions, new FileCellLoader< IntArray >( imgDirectory ), 1, true );
+		final CellImg< IntType, IntArray, CachedCell< IntArray > > img = createImg( cells );
+
+		final RandomAccess< IntType > r1 = img.randomAccess();
+		final RandomAccess< IntType > r2 = img.randomAccess();
+		r1.setPosition( new long[] { 0, 0, 0 } );
+		r1.get().set( 1 );
+		r2.setPosition( new long[] { 20, 0, 0 } );
+		r2.get().set( 2 );
+
+		// r1 is still in cell 0, which has been evicted by r2
+		r1.setPosition( new long[] { 1, 0, 0 } );
+		r1.get().set( 42 );
+		cells.flush();
+
+		assertEquals( 1, readSaved( imgDirectory, new long[] { 0, 0, 0 } ) );
+		assertEquals( 42, readSaved( imgDirectory, new long[] { 1, 0, 0 } ) );
+		assertEquals( 2, readSaved( imgDirectory, new long[] { 20, 0, 0 } ) );
+	}
+
+	@Test
+	public void testWriteToEvictedCellThatIsLeft()
+	{
+		final File imgDirectory = new File( directory, "left" );
+		final CachedCells< IntArray > cells = new CachedCells< IntArray >( new IntArray( 1 ), 1, dimensions, cellDimensions, new FileCellLoader< IntArray >( imgDirectory ), 1, true );
+		final CellImg< IntType, IntArray, CachedCell< IntArray > > img = createImg( cells );
+
+		final RandomAccess< IntType > r1 = img.randomAccess();
+		final RandomAccess< IntType > r2 = img.randomAccess();
+		r1.setPosition( new long[] { 0, 0, 0 } );
+		r1.get().set( 1 );
+		r2.setPosition( new long[] { 20, 0, 0 } );
+		r2.get().set( 2 );
+		r1.setPosition( new long[] { 1, 0, 0 } );
+		r1.get().set( 42 );
+
+		// no sampler refers to cell 0 anymore, it may be garbage-collected
+		r1.setPosition( new long[] { 30, 0, 0 } );
+		r1.get().set( 3 );
+		System.gc();
+		r2.setPosition( new long[] { 40, 0, 0 } );
+		r2.get().set( 4 );
+		cells.flush();
+
+		assertEquals( 42, readSaved( imgDirectory, new long[] { 1, 0, 0 } ) );
+		assertEquals( 3, readSaved( imgDirectory, new long[] { 30, 0, 0 } ) );
+		assertEquals( 4, readSaved( imgDirectory, new long[] { 40, 0, 0 } ) );
+	}
+
+	@Test
+	public void testNewImageInReusedDirectoryIsZero()
+	{
+		final CachedCellImgFactory< IntType > factory = new CachedCellImgFactory< IntType >( directory, cellDimensions, 3 );
+		final CellImg< IntType, ?, ? > img = factory.create( dimensions, new IntType() );
+		fill( img );
+		CachedCellImgFactory.flush( img );
+
+		final CellImg< IntType, ?, ? > img2 = new CachedCellImgFactory< IntType >( directory, cellDimensions, 3 ).create( dimensions, new IntType() );
+		assertArrayEquals( new int[ numValues ], read( img2 ) );
+	}
+
+	@Test
+	public void testDispose()
+	{
+		final CellImg< IntType, ?, ? > img = new CachedCellImgFactory< IntType >( directory, cellDimensions, 3 ).create( dimensions, new IntType() );
+		fill( img );
+		CachedCellImgFactory.flush( img );
+		assertEquals( 1, directory.listFiles().length );
+		CachedCellImgFactory.dispose( img );
+		assertEquals( 0, directory.listFiles().length );
+	}
+
+	@Test
+	public void testShortCellFileIsRejected() throws IOException
+	{
+		final File imgDirectory = new File( directory, "short" );
+		final FileCellLoader< IntArray > loader = new FileCellLoader< IntArray >( imgDirectory );
+		final FileOutputStream out = new FileOutputStream( loader.getFile( 0 ) );
+		out.write( new byte[ 12 ] );
+		out.close();
+		try
+		{
+			loader.load( 0, new long[ 3 ], cellDimensions, new IntArray( 1000 ) );
+			fail( "short cell file was accepted" );
+		}
+		catch ( final RuntimeException e )
+		{
+			assertFalse( e.getMessage().isEmpty() );
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.img.mapped;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.BigArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.basictypeaccess.mapped.MappedAccess;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link MappedImgFactory}.
+ */
+public class MappedImgFactoryTest
+{
+	long[] dimensions;
+
+	float[] data;
+
+	File file;
+
+	@Before
+	public void createSourceData() throws IOException
+	{
+		dimensions = new long[] { 23, 31, 7 };
+		data = new float[ 23 * 31 * 7 ];
+		final Random random = new Random( 0 );
+		for ( int i = 0; i < data.length; ++i )
+			data[ i ] = random.nextFloat();
+
+		file = File.createTempFile( "mapped", ".raw" );
+		file.deleteOnExit();
+	}
+
+	void fill( final Img< FloatType > img )
+	{
+		final long[] pos = new long[ 3 ];
+		final RandomAccess< FloatType > a = img.randomAccess();
+		for ( int z = 0; z < dimensions[ 2 ]; ++z )
+			for ( int y = 0; y < dimensions[ 1 ]; ++y )
+				for ( int x = 0; x < dimensions[ 0 ]; ++x )
+				{
+					pos[ 0 ] = x;
+					pos[ 1 ] = y;
+					pos[ 2 ] = z;
+					a.setPosition( pos );
+					a.get().set( data[ ( int ) ( x + dimensions[ 0 ] * ( y + dimensions[ 1 ] * z ) ) ] );
+				}
+	}
+
+	@Test
+	public void testArrayWrittenBigArrayRead() throws IOException
+	{
+		final MappedFile out = new MappedFile( file, 16, MapMode.READ_WRITE, ByteOrder.BIG_ENDIAN );
+		final Img< FloatType > array = new MappedImgFactory< FloatType >( out, MappedImgFactory.Layout.ARRAY ).create( dimensions, new FloatType() );
+		assertEquals( ArrayImg.class, array.getClass() );
+		fill( array );
+		out.close();
+		assertEquals( 16 + data.length * 4, file.length() );
+
+		final MappedFile in = new MappedFile( file, 16, MapMode.READ_ONLY, ByteOrder.BIG_ENDIAN );
+		final Img< FloatType > bigArray = new MappedImgFactory< FloatType >( in, MappedImgFactory.Layout.BIG_ARRAY ).create( dimensions, new FloatType() );
+		assertEquals( BigArrayImg.class, bigArray.getClass() );
+		final Cursor< FloatType > c = bigArray.cursor();
+		int i = 0;
+		while ( c.hasNext() )
+			assertEquals( data[ i++ ], c.next().get(), 0 );
+		in.close();
+	}
+
+	@Test
+	public void testMappedAccessIsNoArrayDataAccess() throws IOException
+	{
+		final MappedFile out = new MappedFile( file );
+		final ArrayImg< FloatType, ? > array = ( ArrayImg< FloatType, ? > ) new MappedImgFactory< FloatType >( out, MappedImgFactory.Layout.ARRAY ).create( dimensions, new FloatType() );
+		final Object access = array.update( null );
+		assertTrue( access instanceof MappedAccess );
+		assertFalse( access instanceof ArrayDataAccess );
+		assertEquals( data.length, ( ( MappedAccess< ? > ) access ).getCurrentStorageBuffer().capacity() );
+		out.close();
+	}
+}
@@ -0,0 +1,235 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.multithreading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TaskServiceTest
+{
+	private static Runnable[] counting( final int n, final AtomicInteger count )
+	{
+		final Runnable[] tasks = new Runnable[ n ];
+		for ( int i = 0; i < n; ++i )
+			tasks[ i ] = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					count.incrementAndGet();
+				}
+			};
+		return tasks;
+	}
+
+	@Test
+	public void testInvokeAll()
+	{
+		final TaskService service = new TaskService( 4 );
+		final AtomicInteger count = new AtomicInteger();
+		service.invokeAll( counting( 100, count ) );
+		assertEquals( 100, count.get() );
+		service.shutdown();
+	}
+
+	@Test
+	public void testMaxParallelism()
+	{
+		final TaskService service = new TaskService( 8 );
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		final Runnable[] tasks = new Runnable[ 32 ];
+		for ( int i = 0; i < tasks.length; ++i )
+			tasks[ i ] = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final int r = running.incrementAndGet();
+					synchronized ( maxRunning )
+					{
+						if ( r > maxRunning.get() )
+							maxRunning.set( r );
+					}
+					SimpleMultiThreading.threadWait( 2 );
+					running.decrementAndGet();
+				}
+			};
+		service.invokeAll( tasks, 2 );
+		assertTrue( maxRunning.get() <= 2 );
+		service.shutdown();
+	}
+
+	@Test
+	public void testNestedDoesNotDeadlock()
+	{
+		final TaskService service = new TaskService( Executors.newFixedThreadPool( 1 ), 4 );
+		final AtomicInteger count = new AtomicInteger();
+		final Runnable[] outer = new Runnable[ 4 ];
+		for ( int i = 0; i < outer.length; ++i )
+			outer[ i ] = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					service.invokeAll( counting( 10, count ) );
+				}
+			};
+		service.invokeAll( outer );
+		assertEquals( 40, count.get() );
+		service.shutdown();
+	}
+
+	@Test
+	public void testException()
+	{
+		final TaskService service = new TaskService( 2 );
+		final Runnable[] tasks = new Runnable[ 4 ];
+		for ( int i = 0; i < tasks.length; ++i )
+			tasks[ i ] = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					throw new IllegalStateException( "failed" );
+				}
+			};
+		try
+		{
+			service.invokeAll( tasks );
+			fail( "exception was not propagated" );
+		}
+		catch ( final IllegalStateException e )
+		{}
+		service.shutdown();
+	}
+
+	@Test
+	public void testCancellation()
+	{
+		final TaskService service = new TaskService( 1 );
+		final TaskService.Cancellation cancellation = new TaskService.Cancellation();
+		final AtomicInteger count = new AtomicInteger();
+		final Runnable[] tasks = new Runnable[ 10 ];
+		for ( int i = 0; i < tasks.length; ++i )
+			tasks[ i ] = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					if ( count.incrementAndGet() == 3 )
+						cancellation.cancel();
+				}
+			};
+		try
+		{
+			service.invokeAll( tasks, 1, cancellation );
+			fail( "cancellation was not reported" );
+		}
+		catch ( final CancellationException e )
+		{}
+		assertEquals( 3, count.get() );
+		service.shutdown();
+	}
+
+	@Test
+	public void testStartAndJoinUsesInstance()
+	{
+		final TaskService previous = TaskService.getInstance();
+		final AtomicInteger submitted = new AtomicInteger();
+		final TaskService service = new TaskService( 2 )
+		{
+			@Override
+			public void invokeAll( final Runnable[] tasks, final int maxParallelism, final Cancellation cancellation )
+			{
+				submitted.addAndGet( tasks.length );
+				super.invokeAll( tasks, maxParallelism, cancellation );
+			}
+		};
+		TaskService.setInstance( service );
+		try
+		{
+			final AtomicInteger count = new AtomicInteger();
+			final Thread[] threads = SimpleMultiThreading.newThreads( 4 );
+			for ( int i = 0; i < threads.length; ++i )
+				threads[ i ] = new Thread( counting( 1, count )[ 0 ] );
+			SimpleMultiThreading.startAndJoin( threads );
+			assertEquals( 4, count.get() );
+			assertEquals( 4, submitted.get() );
+		}
+		finally
+		{
+			TaskService.setInstance( previous );
+			service.shutdown();
+		}
+	}
+
+	@Test
+	public void testStartAndJoinRespectsParallelism()
+	{
+		final TaskService service = new TaskService( Executors.newFixedThreadPool( 8 ), 2 );
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		final Thread[] threads = SimpleMultiThreading.newThreads( 16 );
+		for ( int i = 0; i < threads.length; ++i )
+			threads[ i ] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					final int r = running.incrementAndGet();
+					synchronized ( maxRunning )
+					{
+						if ( r > maxRunning.get() )
+							maxRunning.set( r );
+					}
+					SimpleMultiThreading.threadWait( 2 );
+					running.decrementAndGet();
+				}
+			};
+		SimpleMultiThreading.startAndJoin( threads, service );
+		assertTrue( maxRunning.get() <= 2 );
+		service.shutdown();
+	}
+}
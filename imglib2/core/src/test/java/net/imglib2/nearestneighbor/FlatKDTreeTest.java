@@ -0,0 +1,218 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package net.imglib2.nearestneighbor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import net.imglib2.RealPoint;
+import net.imglib2.collection.RealPointSampleList;
+import net.imglib2.collection.FlatKDTree;
+import net.imglib2.collection.KDTree;
+import net.imglib2.neighborsearch.KNearestNeighborBatchSearchOnFlatKDTree;
+import net.imglib2.neighborsearch.KNearestNeighborSearchOnFlatKDTree;
+import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
+import net.imglib2.neighborsearch.NearestNeighborSearchOnFlatKDTree;
+import net.imglib2.neighborsearch.NearestNeighborSearchOnKDTree;
+import net.imglib2.neighborsearch.RadiusNeighborSearchOnFlatKDTree;
+import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
+
+import org.junit.Test;
+
+/**
+ * Compares searches on {@link FlatKDTree} to searches on {@link KDTree}.
+ */
+public class FlatKDTreeTest
+{
+	protected static ArrayList< RealPoint > createPoints( final int numDimensions, final int numPoints, final boolean integer, final Random rnd )
+	{
+		final ArrayList< RealPoint > points = new ArrayList< RealPoint >();
+		final double[] p = new double[ numDimensions ];
+		for ( int i = 0; i < numPoints; ++i )
+		{
+			for ( int d = 0; d < numDimensions; ++d )
+				p[ d ] = integer ? rnd.nextInt( 10 ) : rnd.nextDouble() * 100;
+			points.add( new RealPoint( p ) );
+		}
+		return points;
+	}
+
+	protected static void testSearches( final int numDimensions, final int numPoints, final boolean integer, final int numThreads )
+	{
+		final Random rnd = new Random( 435435435 );
+		final ArrayList< RealPoint > points = createPoints( numDimensions, numPoints, integer, rnd );
+		final ArrayList< RealPoint > testpoints = createPoints( numDimensions, 200, integer, rnd );
+
+		final KDTree< RealPoint > kdTree = new KDTree< RealPoint >( points, points );
+		final FlatKDTree< RealPoint > flatTree = new FlatKDTree< RealPoint >( points, points, numThreads );
+		assertEquals( points.size(), flatTree.size() );
+
+		final NearestNeighborSearchOnKDTree< RealPoint > nn = new NearestNeighborSearchOnKDTree< RealPoint >( kdTree );
+		final NearestNeighborSearchOnFlatKDTree< RealPoint > flatNn = new NearestNeighborSearchOnFlatKDTree< RealPoint >( flatTree );
+		final KNearestNeighborSearchOnKDTree< RealPoint > knn = new KNearestNeighborSearchOnKDTree< RealPoint >( kdTree, 5 );
+		final KNearestNeighborSearchOnFlatKDTree< RealPoint > flatKnn = new KNearestNeighborSearchOnFlatKDTree< RealPoint >( flatTree, 5 );
+		final RadiusNeighborSearchOnKDTree< RealPoint > radius = new RadiusNeighborSearchOnKDTree< RealPoint >( kdTree );
+		final RadiusNeighborSearchOnFlatKDTree< RealPoint > flatRadius = new RadiusNeighborSearchOnFlatKDTree< RealPoint >( flatTree );
+
+		for ( final RealPoint t : testpoints )
+		{
+			nn.search( t );
+			flatNn.search( t );
+			assertEquals( nn.getSquareDistance(), flatNn.getSquareDistance(), 0 );
+			final RealPoint p = flatNn.getSampler().get();
+			for ( int d = 0; d < numDimensions; ++d )
+				assertEquals( p.getDoublePosition( d ), flatNn.getPosition().getDoublePosition( d ), 0 );
+
+			knn.search( t );
+			flatKnn.search( t );
+			for ( int i = 0; i < 5; ++i )
+				assertEquals( knn.getSquareDistance( i ), flatKnn.getSquareDistance( i ), 0 );
+
+			radius.search( t, 15, true );
+			flatRadius.search( t, 15, true );
+			assertEquals( radius.numNeighbors(), flatRadius.numNeighbors() );
+			for ( int i = 0; i < radius.numNeighbors(); ++i )
+				assertEquals( radius.getSquareDistance( i ), flatRadius.getSquareDistance( i ), 0 );
+		}
+	}
+
+	@Test
+	public void testSearches()
+	{
+		testSearches( 3, 10000, false, 1 );
+	}
+
+	@Test
+	public void testParallelBuild()
+	{
+		testSearches( 2, 20000, false, 4 );
+	}
+
+	@Test
+	public void testEqualCoordinates()
+	{
+		testSearches( 3, 20000, true, 4 );
+	}
+
+	@Test
+	public void testFlatCoordinates()
+	{
+		final ArrayList< Integer > values = new ArrayList< Integer >();
+		final double[] coordinates = new double[ 2 * 7 ];
+		for ( int i = 0; i < 7; ++i )
+		{
+			values.add( i );
+			coordinates[ 2 * i ] = i;
+			coordinates[ 2 * i + 1 ] = -i;
+		}
+		final FlatKDTree< Integer > tree = new FlatKDTree< Integer >( values, coordinates, 2, 1 );
+		final NearestNeighborSearchOnFlatKDTree< Integer > nn = new NearestNeighborSearchOnFlatKDTree< Integer >( tree );
+		nn.search( new RealPoint( new double[] { 4.2, -3.9 } ) );
+		assertSame( values.get( 4 ), nn.getSampler().get() );
+		assertEquals( 0.05, nn.getSquareDistance(), 1e-10 );
+		int count = 0;
+		for ( final Integer i : tree )
+			count += ( i != null ) ? 1 : 0;
+		assertEquals( 7, count );
+	}
+
+	@Test
+	public void testEmptyTree()
+	{
+		final ArrayList< RealPoint > points = new ArrayList< RealPoint >();
+		final FlatKDTree< RealPoint > tree = new FlatKDTree< RealPoint >( points, new double[ 0 ], 2, 1 );
+		final RealPoint query = new RealPoint( new double[] { 1, 2 } );
+
+		final NearestNeighborSearchOnFlatKDTree< RealPoint > nn = new NearestNeighborSearchOnFlatKDTree< RealPoint >( tree );
+		nn.search( query );
+		assertNull( nn.getSampler() );
+		assertEquals( Double.MAX_VALUE, nn.getSquareDistance(), 0 );
+
+		final KNearestNeighborSearchOnFlatKDTree< RealPoint > knn = new KNearestNeighborSearchOnFlatKDTree< RealPoint >( tree, 2 );
+		knn.search( query );
+		assertNull( knn.getSampler( 0 ) );
+		assertEquals( -1, knn.getNodeIndex( 1 ) );
+
+		final RadiusNeighborSearchOnFlatKDTree< RealPoint > radius = new RadiusNeighborSearchOnFlatKDTree< RealPoint >( tree );
+		radius.search( query, 10, true );
+		assertEquals( 0, radius.numNeighbors() );
+	}
+
+	@Test
+	public void testBatchSearch()
+	{
+		final Random rnd = new Random( 1234 );
+		final ArrayList< RealPoint > points = createPoints( 3, 5000, false, rnd );
+		final ArrayList< RealPoint > testpoints = createPoints( 3, 1000, false, rnd );
+		final FlatKDTree< RealPoint > tree = new FlatKDTree< RealPoint >( points, points, 2 );
+
+		final RealPointSampleList< RealPoint > queries = new RealPointSampleList< RealPoint >( 3 );
+		for ( final RealPoint t : testpoints )
+			queries.add( t, t );
+		final int k = 4;
+		final int[] indices = new int[ testpoints.size() * k ];
+		final double[] squDistances = new double[ testpoints.size() * k ];
+		new KNearestNeighborBatchSearchOnFlatKDTree< RealPoint >( tree, k ).search( queries, indices, squDistances, 3 );
+
+		final KNearestNeighborSearchOnFlatKDTree< RealPoint > knn = new KNearestNeighborSearchOnFlatKDTree< RealPoint >( tree, k );
+		for ( int q = 0; q < testpoints.size(); ++q )
+		{
+			knn.search( testpoints.get( q ) );
+			for ( int i = 0; i < k; ++i )
+			{
+				assertSame( knn.getSampler( i ).get(), points.get( indices[ q * k + i ] ) );
+				assertEquals( knn.getSquareDistance( i ), squDistances[ q * k + i ], 0 );
+			}
+		}
+	}
+
+	@Test
+	public void testBatchSearchFewPoints()
+	{
+		final ArrayList< RealPoint > points = createPoints( 2, 2, false, new Random( 1 ) );
+		final FlatKDTree< RealPoint > tree = new FlatKDTree< RealPoint >( points, points );
+		final int[] indices = new int[ 3 ];
+		new KNearestNeighborBatchSearchOnFlatKDTree< RealPoint >( tree, 3 ).search( new double[] { 0, 0 }, indices, null, 1 );
+		assertEquals( -1, indices[ 2 ] );
+		assertTrue( indices[ 0 ] + indices[ 1 ] == 1 );
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package tests.labeling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.labeling.LabelingMapping;
+import net.imglib2.labeling.LabelingType;
+import net.imglib2.labeling.NativeImgLabeling;
+import net.imglib2.multithreading.SimpleMultiThreading;
+
+import org.junit.Test;
+
+/**
+ * Tests interning in {@link LabelingMapping}, also from several threads.
+ */
+public class LabelingMappingTest {
+	@Test
+	public void testIntern() {
+		LabelingMapping<String, Integer> mapping = new LabelingMapping<String, Integer>(0);
+		List<String> fooBar = mapping.intern(new String [] { "Foo", "Bar" });
+		assertSame(fooBar, mapping.intern(Arrays.asList("Bar", "Foo")));
+		assertSame(fooBar, mapping.intern(new ArrayList<String>(fooBar)));
+		assertEquals(Arrays.asList("Bar", "Foo"), fooBar);
+		assertEquals(0, mapping.intIndexOf(mapping.emptyList()));
+		assertEquals(1, mapping.intIndexOf(fooBar));
+		assertSame(fooBar, mapping.listAtIndex(1));
+	}
+
+	@Test
+	public void testInternLabel() {
+		LabelingMapping<Integer, Integer> mapping = new LabelingMapping<Integer, Integer>(0);
+		List<Integer> one = mapping.internLabel(1);
+		assertSame(one, mapping.intern(Arrays.asList(1)));
+		assertSame(one, mapping.internLabel(1));
+		assertEquals(mapping.indexOf(one).intValue(), mapping.intIndexOfLabel(1));
+	}
+
+	@Test
+	public void testAddLabel() {
+		LabelingMapping<Integer, Integer> mapping = new LabelingMapping<Integer, Integer>(0);
+		List<Integer> three = mapping.addLabel(mapping.emptyList(), 3);
+		assertSame(mapping.internLabel(3), three);
+		List<Integer> oneThree = mapping.addLabel(three, 1);
+		assertEquals(Arrays.asList(1, 3), oneThree);
+		assertSame(oneThree, mapping.addLabel(mapping.internLabel(1), 3));
+		assertSame(oneThree, mapping.addLabel(oneThree, 3));
+		assertSame(oneThree, mapping.addLabel(three, 1));
+	}
+
+	@Test
+	public void testListsByIndex() {
+		LabelingMapping<Integer, Integer> mapping = new LabelingMapping<Integer, Integer>(0);
+		for (int i = 0; i < 40; i++)
+			assertEquals(i + 1, mapping.intIndexOfLabel(i));
+		assertEquals(41, mapping.numLists());
+		assertEquals(Arrays.asList(39), mapping.listAtIndex(40));
+		assertEquals(40, mapping.getLabels().size());
+		try {
+			mapping.listAtIndex(41);
+			fail("listAtIndex() accepted an index past the last list");
+		} catch (IndexOutOfBoundsException e) {
+		}
+	}
+
+	@Test
+	public void testShortIndex() {
+		LabelingMapping<String, Short> mapping = new LabelingMapping<String, Short>((short)0);
+		assertEquals(Short.valueOf((short)1), mapping.indexOf(new String [] { "Foo" }));
+		assertEquals(Short.valueOf((short)2), mapping.indexOf(new String [] { "Foo", "Bar" }));
+	}
+
+	@Test
+	public void testConcurrentLabeling() {
+		final long [] dimensions = new long [] { 100, 100, 16 };
+		final NativeImgLabeling<Integer> labeling = new NativeImgLabeling<Integer>(dimensions, new ArrayImgFactory<LabelingType<Integer>>());
+		labeling.setLinkedType(new LabelingType<Integer>(labeling));
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread [] threads = SimpleMultiThreading.newThreads(4);
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					final RandomAccess<LabelingType<Integer>> a = labeling.randomAccess();
+					final long [] position = new long [3];
+					for (int z = ai.getAndIncrement(); z < dimensions[2]; z = ai.getAndIncrement()) {
+						position[2] = z;
+						for (position[1] = 0; position[1] < dimensions[1]; position[1]++) {
+							for (position[0] = 0; position[0] < dimensions[0]; position[0]++) {
+								a.setPosition(position);
+								a.get().setLabel((int)(position[0] % 37));
+								a.get().addLabel((int)(position[1] % 23) + 100);
+							}
+						}
+					}
+				}
+			});
+		}
+		SimpleMultiThreading.startAndJoin(threads);
+		final Cursor<LabelingType<Integer>> c = labeling.localizingCursor();
+		while (c.hasNext()) {
+			List<Integer> l = c.next().getLabeling();
+			assertEquals(2, l.size());
+			assertEquals(c.getIntPosition(0) % 37, l.get(0).intValue());
+			assertEquals(c.getIntPosition(1) % 23 + 100, l.get(1).intValue());
+		}
+		assertEquals(37 + 23, labeling.getLabels().size());
+		assertTrue(labeling.getLabels().contains(122));
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package tests.labeling;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.basictypeaccess.IntAccess;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.labeling.DefaultROIStrategyFactory;
+import net.imglib2.labeling.Labeling;
+import net.imglib2.labeling.LabelingType;
+import net.imglib2.labeling.NativeImgLabeling;
+import net.imglib2.labeling.NativeLabeling;
+import net.imglib2.labeling.RunLengthROIStrategyFactory;
+import net.imglib2.type.logic.BitType;
+
+import org.junit.Test;
+
+/**
+ * Runs the {@link LabelingTest} tests on labelings using the run-length
+ * strategy and compares it to the default strategy.
+ */
+public class RunLengthLabelingTest extends LabelingTest {
+	@Override
+	protected <T extends Comparable<T>> Labeling<T> makeLabeling(T exemplar, long [] dimensions) {
+		NativeLabeling<T, IntAccess> labeling;
+		labeling = new NativeImgLabeling<T>(dimensions, new RunLengthROIStrategyFactory<T>(), new ArrayImgFactory<LabelingType<T>>());
+		LabelingType<T> type = new LabelingType<T>(labeling);
+		labeling.setLinkedType(type);
+		return labeling;
+	}
+
+	@Test
+	public void testCompareToDefault() {
+		long [] dimensions = new long [] { 23, 17, 11 };
+		NativeImgLabeling<Integer> runLength = new NativeImgLabeling<Integer>(dimensions, new RunLengthROIStrategyFactory<Integer>(), new CellImgFactory<LabelingType<Integer>>(5));
+		runLength.setLinkedType(new LabelingType<Integer>(runLength));
+		NativeImgLabeling<Integer> reference = new NativeImgLabeling<Integer>(dimensions, new DefaultROIStrategyFactory<Integer>(), new ArrayImgFactory<LabelingType<Integer>>());
+		reference.setLinkedType(new LabelingType<Integer>(reference));
+		Random random = new Random(1234);
+		Cursor<LabelingType<Integer>> c = reference.localizingCursor();
+		RandomAccess<LabelingType<Integer>> a = runLength.randomAccess();
+		while (c.hasNext()) {
+			LabelingType<Integer> t = c.next();
+			if (random.nextInt(3) > 0) {
+				t.setLabel(random.nextInt(7));
+				a.setPosition(c);
+				a.get().setLabel(t.getLabeling().get(0));
+			}
+		}
+		assertEquals(reference.getLabels().size(), runLength.getLabels().size());
+		long [] expected = new long [3];
+		long [] actual = new long [3];
+		long [] expectedMax = new long [3];
+		long [] actualMax = new long [3];
+		for (Integer label: reference.getLabels()) {
+			assertEquals(reference.getArea(label), runLength.getArea(label));
+			assertTrue(runLength.getExtents(label, actual, actualMax));
+			reference.getExtents(label, expected, expectedMax);
+			assertArrayEquals(expected, actual);
+			assertArrayEquals(expectedMax, actualMax);
+			assertTrue(runLength.getRasterStart(label, actual));
+			reference.getRasterStart(label, expected);
+			assertArrayEquals(expected, actual);
+
+			Cursor<LabelingType<Integer>> ec = reference.getIterableRegionOfInterest(label).getIterableIntervalOverROI(reference).cursor();
+			Cursor<LabelingType<Integer>> ac = runLength.getIterableRegionOfInterest(label).getIterableIntervalOverROI(runLength).cursor();
+			while (ec.hasNext()) {
+				assertTrue(ac.hasNext());
+				ec.fwd();
+				ac.fwd();
+				ec.localize(expected);
+				ac.localize(actual);
+				assertArrayEquals(expected, actual);
+				assertEquals(label, ac.get().getLabeling().get(0));
+			}
+			assertFalse(ac.hasNext());
+
+			RealRandomAccess<BitType> ra = runLength.getRegionOfInterest(label).realRandomAccess();
+			Cursor<LabelingType<Integer>> lc = reference.localizingCursor();
+			while (lc.hasNext()) {
+				LabelingType<Integer> t = lc.next();
+				ra.setPosition(lc);
+				assertEquals(t.getLabeling().contains(label), ra.get().get());
+			}
+		}
+	}
+
+	@Test
+	public void testRelabel() {
+		Labeling<String> labeling = makeLabeling("Foo", new long [] { 10, 10 });
+		RandomAccess<LabelingType<String>> a = labeling.randomAccess();
+		a.setPosition(new long [] { 2, 3 });
+		a.get().setLabel("Foo");
+		assertEquals(1, labeling.getArea("Foo"));
+		a.setPosition(new long [] { 3, 3 });
+		a.get().setLabel("Foo");
+		assertEquals(2, labeling.getArea("Foo"));
+		assertEquals(0, labeling.getArea("Bar"));
+	}
+}
@@ -40,6 +40,8 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import loci.common.DataTools;
 import loci.common.StatusEvent;
@@ -58,21 +60,29 @@ import loci.formats.MinMaxCalculator;
 import loci.formats.ReaderWrapper;
 import loci.formats.meta.IMetadata;
 import loci.formats.services.OMEXMLService;
+import net.imglib2.RandomAccess;
 import net.imglib2.display.ColorTable16;
 import net.imglib2.display.ColorTable8;
 import net.imglib2.exception.IncompatibleTypeException;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.img.ImgPlus;
+import net.imglib2.img.array.ArrayImg;
 import net.imglib2.img.basictypeaccess.PlanarAccess;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.cell.AbstractCell;
+import net.imglib2.img.cell.CellImg;
+import net.imglib2.img.cell.Cells;
 import net.imglib2.img.planar.PlanarImg;
 import net.imglib2.img.planar.PlanarImgFactory;
 import net.imglib2.meta.Axes;
 import net.imglib2.meta.AxisType;
+import net.imglib2.multithreading.SimpleMultiThreading;
 import net.imglib2.sampler.special.OrthoSliceCursor;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.Type;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.IntervalIndexer;
 import ome.xml.model.primitives.PositiveFloat;
 
 /**
@@ -89,8 +99,24 @@ public class ImgOpener implements StatusReporter {
 	private final List<StatusListener> listeners =
 		new ArrayList<StatusListener>();
 
+	private int numThreads = 1;
+
 	// -- ImgOpener methods --
 
+	/**
+	 * Sets the number of threads used to read planes. With more than one
+	 * thread, every thread reads and decodes planes with its own clone of the
+	 * reader. The default is 1, i.e., planes are read sequentially.
+	 */
+	public void setNumThreads(final int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/** Gets the number of threads used to read planes. */
+	public int getNumThreads() {
+		return numThreads;
+	}
+
 	/**
 	 * Reads in an {@link ImgPlus} from the given source. It will read it into a
 	 * {@link PlanarImg}, where the {@link Type} T is defined by the file format
@@ -604,6 +630,22 @@ public class ImgOpener implements StatusReporter {
 		final boolean isPlanar = planarAccess != null && compatibleTypes;
 		imgPlus.initializeColorTables(planeCount);
 
+		if (numThreads > 1 && planeCount > 1) {
+			final IFormatReader[] readers =
+				createReaderPool(r, Math.min(numThreads, planeCount));
+			if (readers != null) {
+				try {
+					readPlanesParallel(readers, imgPlus, planarAccess, isPlanar,
+						compatibleTypes, computeMinMax);
+				}
+				finally {
+					for (final IFormatReader reader : readers)
+						reader.close();
+				}
+				return;
+			}
+		}
+
 		byte[] plane = null;
 		for (int no = 0; no < planeCount; no++) {
 			notifyListeners(new StatusEvent(no, planeCount, "Reading plane " +
@@ -611,7 +653,10 @@ public class ImgOpener implements StatusReporter {
 			if (plane == null) plane = r.openBytes(no);
 			else r.openBytes(no, plane);
 			if (isPlanar) populatePlane(r, no, plane, planarAccess);
-			else populatePlane(r, no, plane, imgPlus);
+			else if (!compatibleTypes || !populatePlaneBulk(r, no, plane, imgPlus))
+			{
+				populatePlane(r, no, plane, imgPlus);
+			}
 
 			// store color table
 			final byte[][] lut8 = r.get8BitLookupTable();
@@ -623,6 +668,184 @@ public class ImgOpener implements StatusReporter {
 		r.close();
 	}
 
+	/**
+	 * Creates a pool of readers for the same data as the given reader, the
+	 * first of which is the given reader itself. Returns null if the clones do
+	 * not describe the planes in the same way (e.g., because the given reader
+	 * is wrapped differently than by {@link #createReader}).
+	 */
+	private IFormatReader[] createReaderPool(final IFormatReader r,
+		final int count) throws FormatException, IOException
+	{
+		final IFormatReader[] readers = new IFormatReader[count];
+		readers[0] = r;
+		boolean compatible = false;
+		try {
+			for (int i = 1; i < count; i++) {
+				readers[i] = createReader(r.getCurrentFile(), false);
+				final IFormatReader clone = readers[i];
+				clone.setSeries(r.getSeries());
+				if (clone.getImageCount() != r.getImageCount() ||
+					clone.getSizeX() != r.getSizeX() ||
+					clone.getSizeY() != r.getSizeY() ||
+					clone.getPixelType() != r.getPixelType() ||
+					!clone.getDimensionOrder().equals(r.getDimensionOrder()))
+				{
+					return null;
+				}
+			}
+			compatible = true;
+			return readers;
+		}
+		finally {
+			// NB: Close the clones if they are incompatible or if opening one of
+			// them failed.
+			if (!compatible) {
+				for (int i = 1; i < count; i++)
+					if (readers[i] != null) readers[i].close();
+			}
+		}
+	}
+
+	/**
+	 * Reads all planes with a pool of readers, one thread per reader. Planes
+	 * are handed out in order. Channel minima and maxima are computed from the
+	 * decoded planes, because the {@link MinMaxCalculator} of a single reader
+	 * only sees part of the planes. Progress is reported from the calling
+	 * thread only, with increasing plane counts.
+	 */
+	private <T extends RealType<T>> void readPlanesParallel(
+		final IFormatReader[] readers, final ImgPlus<T> imgPlus,
+		final PlanarAccess<?> planarAccess, final boolean isPlanar,
+		final boolean compatibleTypes, final boolean computeMinMax)
+		throws FormatException, IOException
+	{
+		final IFormatReader r = readers[0];
+		final int planeCount = r.getImageCount();
+		final int pixelCount = r.getSizeX() * r.getSizeY();
+		final int pixelType = r.getPixelType();
+		final boolean little = r.isLittleEndian();
+
+		final int sizeC = r.getSizeC();
+		final double[] channelMin = new double[sizeC];
+		final double[] channelMax = new double[sizeC];
+		for (int c = 0; c < sizeC; c++) {
+			channelMin[c] = Double.POSITIVE_INFINITY;
+			channelMax[c] = Double.NEGATIVE_INFINITY;
+		}
+
+		final AtomicInteger nextPlane = new AtomicInteger(0);
+		final AtomicInteger planesDone = new AtomicInteger(0);
+		final AtomicReference<Exception> failure =
+			new AtomicReference<Exception>();
+		final Thread caller = Thread.currentThread();
+		final int[] planesReported = { 0 };
+
+		final Thread[] threads = SimpleMultiThreading.newThreads(readers.length);
+		for (int i = 0; i < threads.length; i++) {
+			final IFormatReader reader = readers[i];
+			threads[i] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					final double[] minMax = new double[2];
+					byte[] plane = null;
+					try {
+						for (int no = nextPlane.getAndIncrement(); no < planeCount &&
+							failure.get() == null; no = nextPlane.getAndIncrement())
+						{
+							if (plane == null) plane = reader.openBytes(no);
+							else reader.openBytes(no, plane);
+
+							// NB: Threads only write to distinct planes (and color table
+							// entries), which are visible after the join.
+							if (isPlanar) populatePlane(reader, no, plane, planarAccess);
+							else if (!compatibleTypes ||
+								!populatePlaneBulk(reader, no, plane, imgPlus))
+							{
+								populatePlane(reader, no, plane, imgPlus);
+							}
+
+							if (computeMinMax) {
+								planeMinMax(plane, pixelCount, pixelType, little, minMax);
+								final int c = reader.getZCTCoords(no)[1];
+								synchronized (channelMin) {
+									channelMin[c] = Math.min(channelMin[c], minMax[0]);
+									channelMax[c] = Math.max(channelMax[c], minMax[1]);
+								}
+							}
+
+							// store color table
+							final byte[][] lut8 = reader.get8BitLookupTable();
+							final short[][] lut16 = reader.get16BitLookupTable();
+							if (lut8 != null) imgPlus.setColorTable(new ColorTable8(lut8), no);
+							if (lut16 != null) imgPlus.setColorTable(new ColorTable16(lut16),
+								no);
+
+							planesDone.incrementAndGet();
+							// NB: The calling thread works on planes as well.
+							if (Thread.currentThread() == caller) {
+								notifyPlanesRead(planesDone.get(), planesReported, planeCount);
+							}
+						}
+					}
+					catch (final FormatException e) {
+						failure.compareAndSet(null, e);
+					}
+					catch (final IOException e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+		}
+		SimpleMultiThreading.startAndJoin(threads);
+		notifyPlanesRead(planesDone.get(), planesReported, planeCount);
+
+		final Exception e = failure.get();
+		if (e instanceof FormatException) throw (FormatException) e;
+		if (e instanceof IOException) throw (IOException) e;
+
+		if (computeMinMax) {
+			for (int c = 0; c < sizeC; c++) {
+				final boolean known = channelMin[c] <= channelMax[c];
+				imgPlus.setChannelMinimum(c, known ? channelMin[c] : Double.NaN);
+				imgPlus.setChannelMaximum(c, known ? channelMax[c] : Double.NaN);
+			}
+		}
+	}
+
+	/**
+	 * Notifies listeners of the planes that were read since the last call.
+	 * 
+	 * @param done - the number of planes read so far
+	 * @param reported - the number of planes reported so far; updated
+	 * @param planeCount - the total number of planes
+	 */
+	private void notifyPlanesRead(final int done, final int[] reported,
+		final int planeCount)
+	{
+		for (int no = reported[0] + 1; no <= done; no++) {
+			notifyListeners(new StatusEvent(no, planeCount, "Reading plane " + no +
+				"/" + planeCount));
+		}
+		reported[0] = Math.max(reported[0], done);
+	}
+
+	/** Computes the minimum and maximum value of a plane. */
+	private static void planeMinMax(final byte[] plane, final int pixelCount,
+		final int pixelType, final boolean little, final double[] minMax)
+	{
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int index = 0; index < pixelCount; index++) {
+			final double value = decodeWord(plane, index, pixelType, little);
+			if (value < min) min = value;
+			if (value > max) max = value;
+		}
+		minMax[0] = min;
+		minMax[1] = max;
+	}
+
 	/** Populates plane by reference using {@link PlanarAccess} interface. */
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	private void populatePlane(final IFormatReader r, final int no,
@@ -642,6 +865,85 @@ public class ImgOpener implements StatusReporter {
 		planarAccess.setPlane(no, ImgIOUtils.makeArray(planeArray));
 	}
 
+	/**
+	 * Populates plane by copying it into the storage array of an
+	 * {@link ArrayImg}, or the storage arrays of all {@link CellImg} cells it
+	 * intersects. The plane is decoded once into a primitive array of the
+	 * storage type, so the type of the {@link Img} must match the pixel type of
+	 * the reader.
+	 * 
+	 * @return false if the {@link Img} is neither an {@link ArrayImg} nor a
+	 *         {@link CellImg}, in which case nothing is populated.
+	 */
+	private boolean populatePlaneBulk(final IFormatReader r, final int no,
+		final byte[] plane, final ImgPlus<?> imgPlus)
+	{
+		final Img<?> img = imgPlus.getImg();
+		final Object storage;
+		if (img instanceof ArrayImg) {
+			final Object access = ((ArrayImg<?, ?>) img).update(null);
+			if (!(access instanceof ArrayDataAccess)) return false;
+			storage = ((ArrayDataAccess<?>) access).getCurrentStorageArray();
+		}
+		else if (img instanceof CellImg) storage = null;
+		else return false;
+
+		final int sizeX = r.getSizeX();
+		final int sizeY = r.getSizeY();
+		final int pixelType = r.getPixelType();
+		final int bpp = FormatTools.getBytesPerPixel(pixelType);
+		final boolean fp = FormatTools.isFloatingPoint(pixelType);
+		final boolean little = r.isLittleEndian();
+		final Object planeArray = DataTools.makeDataArray(plane, bpp, fp, little);
+
+		final long[] dimLengths = getDimLengths(r);
+		final int n = dimLengths.length;
+		final long[] pos = new long[n];
+		getPosition(r, no, pos);
+
+		// NB: X and Y are always the first two dimensions.
+		if (storage != null) {
+			// planes are contiguous in an ArrayImg
+			final int offset = (int) IntervalIndexer.positionToIndex(pos, dimLengths);
+			System.arraycopy(planeArray, 0, storage, offset, sizeX * sizeY);
+			return true;
+		}
+
+		final Cells<?, ?> cells = ((CellImg<?, ?, ?>) img).getCells();
+		final int[] cellDims = new int[n];
+		cells.cellDimensions(cellDims);
+		final RandomAccess<? extends AbstractCell<?>> cellAccess =
+			cells.randomAccess();
+		for (int d = 2; d < n; d++)
+			cellAccess.setPosition(pos[d] / cellDims[d], d);
+
+		final long[] cellMin = new long[n];
+		final int[] cellSize = new int[n];
+		final long[] local = new long[n];
+		for (int gy = 0; gy * (long) cellDims[1] < sizeY; gy++) {
+			cellAccess.setPosition(gy, 1);
+			for (int gx = 0; gx * (long) cellDims[0] < sizeX; gx++) {
+				cellAccess.setPosition(gx, 0);
+				final AbstractCell<?> cell = cellAccess.get();
+				cell.min(cellMin);
+				cell.dimensions(cellSize);
+				final Object cellStorage = cell.getData().getCurrentStorageArray();
+
+				// copy the part of every line of the plane that is in the cell
+				for (int d = 2; d < n; d++)
+					local[d] = pos[d] - cellMin[d];
+				final int width = cellSize[0];
+				for (int y = 0; y < cellSize[1]; y++) {
+					local[1] = y;
+					final int src = (int) (cellMin[1] + y) * sizeX + (int) cellMin[0];
+					System.arraycopy(planeArray, src, cellStorage, cell
+						.localPositionToIndex(local), width);
+				}
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Uses a cursor to populate the plane. This solution is general and works
 	 * regardless of container, but at the expense of performance both now and
@@ -38,10 +38,17 @@ package net.imglib2.io;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 
-import loci.common.DataTools;
 import loci.common.StatusEvent;
 import loci.common.StatusListener;
 import loci.common.StatusReporter;
@@ -59,10 +66,13 @@ import net.imglib2.exception.ImgLibException;
 import net.imglib2.exception.IncompatibleTypeException;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgPlus;
+import net.imglib2.img.array.ArrayImg;
 import net.imglib2.img.basictypeaccess.PlanarAccess;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
 import net.imglib2.img.planar.PlanarImg;
 import net.imglib2.meta.Axes;
 import net.imglib2.meta.AxisType;
+import net.imglib2.multithreading.TaskService;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 
@@ -81,6 +91,8 @@ public class ImgSaver implements StatusReporter {
 
 	private final OMEXMLService omexmlService;
 
+	private int numThreads = 1;
+
 	// -- Constructor --
 
 	public ImgSaver() {
@@ -89,6 +101,21 @@ public class ImgSaver implements StatusReporter {
 
 	// -- ImgSaver methods --
 
+	/**
+	 * Sets the number of threads used to convert planes to bytes. With more
+	 * than one thread, planes are converted in parallel while the converted
+	 * planes are saved in order. The default is 1, i.e., planes are converted
+	 * and saved sequentially.
+	 */
+	public void setNumThreads(final int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/** Gets the number of threads used to convert planes to bytes. */
+	public int getNumThreads() {
+		return numThreads;
+	}
+
 	/**
 	 * see isCompressible(ImgPlus)
 	 */
@@ -485,30 +512,29 @@ public class ImgSaver implements StatusReporter {
 
 	/**
 	 * Iterates through the planes of the provided {@link ImgPlus}, converting
-	 * each to a byte[] if necessary (the SCIFIO writer requires a byte[]) and
-	 * saving the plane. Currently only {@link PlanarImg} is supported.
+	 * each to a byte[] (the SCIFIO writer requires a byte[]) and saving the
+	 * plane. {@link PlanarImg}s and {@link ArrayImg}s are supported; the backing
+	 * primitive array of each plane is converted with one bulk copy. With more
+	 * than one thread, planes are converted on worker threads while this thread
+	 * saves the converted planes in order.
 	 * 
 	 * @throws IncompatibleTypeException
 	 */
-	@SuppressWarnings("unchecked")
 	private <T extends RealType<T> & NativeType<T>> void writePlanes(
 		IFormatWriter w, final ImgPlus<T> img) throws ImgIOException,
 		IncompatibleTypeException
 	{
-		final PlanarAccess<?> planarAccess = ImgIOUtils.getPlanarAccess(img);
-		if (planarAccess == null) {
-			throw new IncompatibleTypeException(new ImgLibException(), "Only " +
-				PlanarAccess.class + " images supported at this time.");
-		}
-
-		final PlanarImg<T, ?> planarImg = (PlanarImg<T, ?>) planarAccess;
-		final int planeCount = planarImg.numSlices();
+		final Object[] planeArrays = getPlaneArrays(img);
+		final int planeCount = planeArrays.length;
 
-		if (img.numDimensions() > 0) {
-			final Class<?> arrayType =
-				planarImg.getPlane(0).getCurrentStorageArray().getClass();
+		// NB: The planes of an ArrayImg share one array.
+		final boolean sharedArray = img.getImg() instanceof ArrayImg;
+		final int planeLength =
+			sharedArray && planeCount > 0 ? Array.getLength(planeArrays[0]) /
+				planeCount : -1;
 
-			byte[] plane = null;
+		if (img.numDimensions() > 0 && planeCount > 0) {
+			final Class<?> arrayType = planeArrays[0].getClass();
 
 			// if we know this image will pass to SCIFIO to be saved,
 			// then delete the old file if it exists
@@ -523,62 +549,192 @@ public class ImgSaver implements StatusReporter {
 					populateMeta(w, img);
 				}
 			}
+			else {
+				throw new IncompatibleTypeException(new ImgLibException(), "Images " +
+					"with planes of type " + arrayType + " not supported.");
+			}
 
-			// iterate over each plane
-			for (int planeIndex = 0; planeIndex < planeCount; planeIndex++) {
-				notifyListeners(new StatusEvent(planeIndex, planeCount,
-					"Saving plane " + (planeIndex + 1) + "/" + planeCount));
+			if (numThreads > 1 && planeCount > 1) {
+				writePlanesPipelined(w, planeArrays, planeLength);
+			}
+			else {
+				for (int planeIndex = 0; planeIndex < planeCount; planeIndex++) {
+					final byte[] plane =
+						toBytes(planeArrays[planeIndex], planeIndex, planeLength);
+					savePlane(w, planeIndex, planeCount, plane);
+				}
+			}
+		}
 
-				final Object curPlane =
-					planarImg.getPlane(planeIndex).getCurrentStorageArray();
+		try {
+			w.close();
+		}
+		catch (final IOException e) {
+			throw new ImgIOException(e);
+		}
+	}
 
-				// Convert current plane if necessary
-				if (arrayType == int[].class) {
-					plane = DataTools.intsToBytes((int[]) curPlane, false);
-				}
-				else if (arrayType == byte[].class) {
-					plane = (byte[]) curPlane;
-				}
-				else if (arrayType == short[].class) {
-					plane = DataTools.shortsToBytes((short[]) curPlane, false);
-				}
-				else if (arrayType == long[].class) {
-					plane = DataTools.longsToBytes((long[]) curPlane, false);
-				}
-				else if (arrayType == double[].class) {
-					plane = DataTools.doublesToBytes((double[]) curPlane, false);
-				}
-				else if (arrayType == float[].class) {
-					plane = DataTools.floatsToBytes((float[]) curPlane, false);
-				}
-				else {
-					throw new IncompatibleTypeException(new ImgLibException(),
-						"PlanarImgs of type " + planarImg.getPlane(0).getClass() +
-							" not supported.");
+	/**
+	 * Converts planes on the shared {@link TaskService} while saving them in
+	 * order. At most {@link #getNumThreads()} planes are converted ahead of the
+	 * plane being saved. A plane that no pool thread has started converting
+	 * when it is needed is converted on the calling thread, so this does not
+	 * deadlock when it is called from a thread of the pool.
+	 */
+	private void writePlanesPipelined(final IFormatWriter w,
+		final Object[] planeArrays, final int planeLength) throws ImgIOException,
+		IncompatibleTypeException
+	{
+		final int planeCount = planeArrays.length;
+		final ExecutorService executor = TaskService.getInstance().getExecutor();
+		final LinkedList<FutureTask<byte[]>> pending =
+			new LinkedList<FutureTask<byte[]>>();
+		int submitted = 0;
+		try {
+			for (int planeIndex = 0; planeIndex < planeCount; planeIndex++) {
+				while (submitted < planeCount && submitted <= planeIndex + numThreads)
+				{
+					final int index = submitted++;
+					final FutureTask<byte[]> task =
+						new FutureTask<byte[]>(new Callable<byte[]>() {
+
+							@Override
+							public byte[] call() throws IncompatibleTypeException {
+								return toBytes(planeArrays[index], index, planeLength);
+							}
+						});
+					pending.add(task);
+					executor.execute(task);
 				}
 
-				// save bytes
+				final FutureTask<byte[]> task = pending.removeFirst();
+				// NB: Does nothing if the task is already running or done.
+				task.run();
+				final byte[] plane;
 				try {
-					w.saveBytes(planeIndex, plane);
+					plane = task.get();
 				}
-				catch (final FormatException e) {
+				catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
 					throw new ImgIOException(e);
 				}
-				catch (final IOException e) {
-					throw new ImgIOException(e);
+				catch (final ExecutionException e) {
+					final Throwable cause = e.getCause();
+					if (cause instanceof IncompatibleTypeException) {
+						throw (IncompatibleTypeException) cause;
+					}
+					throw new ImgIOException(cause);
 				}
+				savePlane(w, planeIndex, planeCount, plane);
 			}
-
 		}
+		finally {
+			for (final FutureTask<byte[]> task : pending)
+				task.cancel(false);
+		}
+	}
 
+	private void savePlane(final IFormatWriter w, final int planeIndex,
+		final int planeCount, final byte[] plane) throws ImgIOException
+	{
+		notifyListeners(new StatusEvent(planeIndex, planeCount, "Saving plane " +
+			(planeIndex + 1) + "/" + planeCount));
 		try {
-			w.close();
+			w.saveBytes(planeIndex, plane);
+		}
+		catch (final FormatException e) {
+			throw new ImgIOException(e);
 		}
 		catch (final IOException e) {
 			throw new ImgIOException(e);
 		}
 	}
 
+	/**
+	 * Gets the backing primitive array of every plane of a {@link PlanarImg} or
+	 * {@link ArrayImg}. The planes of an {@link ArrayImg} share its one array.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T extends RealType<T> & NativeType<T>> Object[] getPlaneArrays(
+		final ImgPlus<T> img) throws IncompatibleTypeException
+	{
+		final PlanarAccess<?> planarAccess = ImgIOUtils.getPlanarAccess(img);
+		if (planarAccess != null) {
+			final PlanarImg<T, ?> planarImg = (PlanarImg<T, ?>) planarAccess;
+			final Object[] planeArrays = new Object[planarImg.numSlices()];
+			for (int i = 0; i < planeArrays.length; i++)
+				planeArrays[i] = planarImg.getPlane(i).getCurrentStorageArray();
+			return planeArrays;
+		}
+
+		if (img.getImg() instanceof ArrayImg) {
+			final Object data = ((ArrayImg<T, ?>) img.getImg()).update(null);
+			if (data instanceof ArrayDataAccess) {
+				final Object array = ((ArrayDataAccess<?>) data).getCurrentStorageArray();
+				// NB: Only one array element per pixel can be split into planes.
+				if (Array.getLength(array) == img.size()) {
+					long planeSize = img.numDimensions() > 0 ? img.dimension(0) : 1;
+					if (img.numDimensions() > 1) planeSize *= img.dimension(1);
+					final Object[] planeArrays = new Object[(int) (img.size() / planeSize)];
+					Arrays.fill(planeArrays, array);
+					return planeArrays;
+				}
+			}
+			throw new IncompatibleTypeException(new ImgLibException(), "ArrayImgs " +
+				"of type " + img.firstElement().getClass() + " not supported.");
+		}
+
+		throw new IncompatibleTypeException(new ImgLibException(), "Only " +
+			PlanarAccess.class + " and " + ArrayImg.class +
+			" images supported at this time.");
+	}
+
+	/**
+	 * Converts a plane to big endian bytes. If planeLength is -1, the plane is
+	 * the whole array, otherwise it is the planeIndex-th range of planeLength
+	 * elements.
+	 */
+	private static byte[] toBytes(final Object array, final int planeIndex,
+		final int planeLength) throws IncompatibleTypeException
+	{
+		final int offset = planeLength < 0 ? 0 : planeIndex * planeLength;
+		final int length = planeLength < 0 ? Array.getLength(array) : planeLength;
+
+		if (array instanceof byte[]) {
+			if (planeLength < 0) return (byte[]) array;
+			final byte[] plane = new byte[length];
+			System.arraycopy(array, offset, plane, 0, length);
+			return plane;
+		}
+		if (array instanceof short[]) {
+			final ByteBuffer plane = ByteBuffer.allocate(length * 2);
+			plane.asShortBuffer().put((short[]) array, offset, length);
+			return plane.array();
+		}
+		if (array instanceof int[]) {
+			final ByteBuffer plane = ByteBuffer.allocate(length * 4);
+			plane.asIntBuffer().put((int[]) array, offset, length);
+			return plane.array();
+		}
+		if (array instanceof long[]) {
+			final ByteBuffer plane = ByteBuffer.allocate(length * 8);
+			plane.asLongBuffer().put((long[]) array, offset, length);
+			return plane.array();
+		}
+		if (array instanceof float[]) {
+			final ByteBuffer plane = ByteBuffer.allocate(length * 4);
+			plane.asFloatBuffer().put((float[]) array, offset, length);
+			return plane.array();
+		}
+		if (array instanceof double[]) {
+			final ByteBuffer plane = ByteBuffer.allocate(length * 8);
+			plane.asDoubleBuffer().put((double[]) array, offset, length);
+			return plane.array();
+		}
+		throw new IncompatibleTypeException(new ImgLibException(),
+			"Planes of type " + array.getClass() + " not supported.");
+	}
+
 	/**
 	 * Creates a new {@link IFormatWriter} with an unpopulated MetadataStore and
 	 * sets its id to the provided String.
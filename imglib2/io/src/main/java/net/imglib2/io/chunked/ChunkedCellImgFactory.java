@@ -0,0 +1,163 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package net.imglib2.io.chunked;
+
+import net.imglib2.exception.IncompatibleTypeException;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.basictypeaccess.array.BitArray;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.CharArray;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.cell.CachedCell;
+import net.imglib2.img.cell.CachedCells;
+import net.imglib2.img.cell.CellImg;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.type.NativeType;
+
+/**
+ * Factory for read-only {@link CellImg}s whose cells are the blocks of a
+ * chunked image file, loaded on demand into a {@link CachedCells} cache.
+ * Images created by {@link #imgFactory(Object)} are ordinary {@link CellImg}s.
+ */
+class ChunkedCellImgFactory<T extends NativeType<T>> extends
+	CellImgFactory<T>
+{
+
+	private final ChunkedImgReader reader;
+
+	private final int maxCachedBlocks;
+
+	public ChunkedCellImgFactory(final ChunkedImgReader reader,
+		final int[] blockDimensions, final int maxCachedBlocks)
+	{
+		super(blockDimensions);
+		this.reader = reader;
+		this.maxCachedBlocks = maxCachedBlocks;
+	}
+
+	private <A extends ArrayDataAccess<A>> CachedCells<A> createCells(
+		final A creator, final long[] dimensions, final int entitiesPerPixel)
+	{
+		final long[] dims = checkDimensions(dimensions);
+		final int[] cellSize = checkCellSize(defaultCellDimensions, dims);
+		return new CachedCells<A>(creator, entitiesPerPixel, dims, cellSize,
+			new ChunkedCellLoader<A>(reader), maxCachedBlocks, false);
+	}
+
+	@Override
+	public CellImg<T, BitArray, ?> createBitInstance(final long[] dimensions,
+		final int entitiesPerPixel)
+	{
+		return new CellImg<T, BitArray, CachedCell<BitArray>>(this, createCells(
+			new BitArray(1), dimensions, entitiesPerPixel));
+	}
+
+	@Override
+	public CellImg<T, ByteArray, ?> createByteInstance(final long[] dimensions,
+		final int entitiesPerPixel)
+	{
+		return new CellImg<T, ByteArray, CachedCell<ByteArray>>(this, createCells(
+			new ByteArray(1), dimensions, entitiesPerPixel));
+	}
+
+	@Override
+	public CellImg<T, CharArray, ?> createCharInstance(final long[] dimensions,
+		final int entitiesPerPixel)
+	{
+		return new CellImg<T, CharArray, CachedCell<CharArray>>(this, createCells(
+			new CharArray(1), dimensions, entitiesPerPixel));
+	}
+
+	@Override
+	public CellImg<T, ShortArray, ?> createShortInstance(
+		final long[] dimensions, final int entitiesPerPixel)
+	{
+		return new CellImg<T, ShortArray, CachedCell<ShortArray>>(this,
+			createCells(new ShortArray(1), dimensions, entitiesPerPixel));
+	}
+
+	@Override
+	public CellImg<T, IntArray, ?> createIntInstance(final long[] dimensions,
+		final int entitiesPerPixel)
+	{
+		return new CellImg<T, IntArray, CachedCell<IntArray>>(this, createCells(
+			new IntArray(1), dimensions, entitiesPerPixel));
+	}
+
+	@Override
+	public CellImg<T, LongArray, ?> createLongInstance(final long[] dimensions,
+		final int entitiesPerPixel)
+	{
+		return new CellImg<T, LongArray, CachedCell<LongArray>>(this, createCells(
+			new LongArray(1), dimensions, entitiesPerPixel));
+	}
+
+	@Override
+	public CellImg<T, FloatArray, ?> createFloatInstance(
+		final long[] dimensions, final int entitiesPerPixel)
+	{
+		return new CellImg<T, FloatArray, CachedCell<FloatArray>>(this,
+			createCells(new FloatArray(1), dimensions, entitiesPerPixel));
+	}
+
+	@Override
+	public CellImg<T, DoubleArray, ?> createDoubleInstance(
+		final long[] dimensions, final int entitiesPerPixel)
+	{
+		return new CellImg<T, DoubleArray, CachedCell<DoubleArray>>(this,
+			createCells(new DoubleArray(1), dimensions, entitiesPerPixel));
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Override
+	public <S> ImgFactory<S> imgFactory(final S type)
+		throws IncompatibleTypeException
+	{
+		if (NativeType.class.isInstance(type)) return new CellImgFactory(
+			defaultCellDimensions);
+		throw new IncompatibleTypeException(this, type.getClass()
+			.getCanonicalName() +
+			" does not implement NativeType.");
+	}
+
+}
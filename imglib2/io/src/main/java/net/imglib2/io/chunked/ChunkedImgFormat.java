@@ -0,0 +1,305 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package net.imglib2.io.chunked;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.imglib2.meta.Axes;
+import net.imglib2.meta.AxisType;
+
+/**
+ * Constants and helper methods of the chunked image format, which stores an
+ * N-dimensional image as a grid of independently compressed blocks.
+ * <p>
+ * A file consists of (all values big endian):
+ * </p>
+ * <ol>
+ * <li>the header: {@link #MAGIC}, {@link #VERSION}, the class name of the
+ * pixel type, the compression, the number of dimensions, the image
+ * dimensions, the block dimensions, the name of the image, and the label and
+ * calibration of every axis.</li>
+ * <li>the block index: the file offset (long) and the stored length (int) of
+ * every block, in flattened block grid order (dimension 0 varying fastest).</li>
+ * <li>the blocks: the basic type array of every block (as used by a cell of a
+ * {@link net.imglib2.img.cell.CellImg} of the same block dimensions), either
+ * uncompressed or deflated.</li>
+ * </ol>
+ */
+public final class ChunkedImgFormat {
+
+	/** Identifies a chunked image file ("IL2C"). */
+	public static final int MAGIC = 0x494c3243;
+
+	public static final int VERSION = 1;
+
+	/** Blocks are stored uncompressed. */
+	public static final int COMPRESSION_NONE = 0;
+
+	/** Blocks are compressed with {@link Deflater}. */
+	public static final int COMPRESSION_DEFLATE = 1;
+
+	/** Size in bytes of an entry of the block index. */
+	static final int INDEX_ENTRY_BYTES = 12;
+
+	private ChunkedImgFormat() {
+		// prevent instantiation of utility class
+	}
+
+	// -- header --
+
+	/** Metadata stored in the header of a chunked image file. */
+	static class Header {
+
+		String typeName;
+		int compression;
+		long[] dimensions;
+		int[] blockDimensions;
+		String name;
+		AxisType[] axes;
+		double[] calibration;
+
+		int numDimensions() {
+			return dimensions.length;
+		}
+
+		/** Gets the number of blocks in every dimension. */
+		long[] gridDimensions() {
+			final long[] grid = new long[dimensions.length];
+			for (int d = 0; d < grid.length; d++)
+				grid[d] = (dimensions[d] - 1) / blockDimensions[d] + 1;
+			return grid;
+		}
+
+		long numBlocks() {
+			long numBlocks = 1;
+			for (final long g : gridDimensions())
+				numBlocks *= g;
+			return numBlocks;
+		}
+
+		/**
+		 * Computes the minimum and size of the block at the given position in the
+		 * block grid. Blocks at the max border of the image may be smaller.
+		 */
+		void block(final long[] gridPosition, final long[] min, final long[] size)
+		{
+			for (int d = 0; d < min.length; d++) {
+				min[d] = gridPosition[d] * blockDimensions[d];
+				size[d] = Math.min(blockDimensions[d], dimensions[d] - min[d]);
+			}
+		}
+
+		void write(final DataOutput out) throws IOException {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(typeName);
+			out.writeInt(compression);
+			out.writeInt(dimensions.length);
+			for (final long dim : dimensions)
+				out.writeLong(dim);
+			for (final int dim : blockDimensions)
+				out.writeInt(dim);
+			out.writeUTF(name == null ? "" : name);
+			for (int d = 0; d < dimensions.length; d++) {
+				out.writeUTF(axes[d].getLabel());
+				out.writeDouble(calibration[d]);
+			}
+		}
+
+		static Header read(final DataInput in) throws IOException {
+			if (in.readInt() != MAGIC) throw new IOException(
+				"not a chunked image file");
+			final int version = in.readInt();
+			if (version != VERSION) throw new IOException(
+				"unsupported chunked image version " + version);
+			final Header header = new Header();
+			header.typeName = in.readUTF();
+			header.compression = in.readInt();
+			if (header.compression != COMPRESSION_NONE &&
+				header.compression != COMPRESSION_DEFLATE)
+			{
+				throw new IOException("unknown compression " + header.compression);
+			}
+			final int n = in.readInt();
+			if (n < 0) throw new IOException("corrupt header");
+			header.dimensions = new long[n];
+			header.blockDimensions = new int[n];
+			header.axes = new AxisType[n];
+			header.calibration = new double[n];
+			for (int d = 0; d < n; d++)
+				header.dimensions[d] = in.readLong();
+			for (int d = 0; d < n; d++)
+				header.blockDimensions[d] = in.readInt();
+			for (int d = 0; d < n; d++) {
+				if (header.dimensions[d] <= 0 || header.blockDimensions[d] <= 0) {
+					throw new IOException("corrupt header");
+				}
+			}
+			header.name = in.readUTF();
+			for (int d = 0; d < n; d++) {
+				header.axes[d] = Axes.get(in.readUTF());
+				header.calibration[d] = in.readDouble();
+			}
+			return header;
+		}
+	}
+
+	// -- blocks --
+
+	/** Gets the size in bytes of a primitive array. */
+	static int numBytes(final Object array) {
+		if (array instanceof byte[]) return ((byte[]) array).length;
+		else if (array instanceof short[]) return ((short[]) array).length * 2;
+		else if (array instanceof char[]) return ((char[]) array).length * 2;
+		else if (array instanceof int[]) return ((int[]) array).length * 4;
+		else if (array instanceof float[]) return ((float[]) array).length * 4;
+		else if (array instanceof long[]) return ((long[]) array).length * 8;
+		else if (array instanceof double[]) return ((double[]) array).length * 8;
+		throw new IllegalArgumentException("unsupported storage array " +
+			array.getClass().getCanonicalName());
+	}
+
+	/** Converts a primitive array to bytes. */
+	static byte[] encode(final Object array) {
+		final ByteBuffer buffer = ByteBuffer.allocate(numBytes(array));
+		if (array instanceof byte[]) buffer.put((byte[]) array);
+		else if (array instanceof short[]) buffer.asShortBuffer().put(
+			(short[]) array);
+		else if (array instanceof char[]) buffer.asCharBuffer().put((char[]) array);
+		else if (array instanceof int[]) buffer.asIntBuffer().put((int[]) array);
+		else if (array instanceof float[]) buffer.asFloatBuffer().put(
+			(float[]) array);
+		else if (array instanceof long[]) buffer.asLongBuffer().put((long[]) array);
+		else if (array instanceof double[]) buffer.asDoubleBuffer().put(
+			(double[]) array);
+		return buffer.array();
+	}
+
+	/** Fills a primitive array from bytes written by {@link #encode(Object)}. */
+	static void decode(final byte[] bytes, final Object array) {
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		if (array instanceof byte[]) buffer.get((byte[]) array);
+		else if (array instanceof short[]) buffer.asShortBuffer().get(
+			(short[]) array);
+		else if (array instanceof char[]) buffer.asCharBuffer().get((char[]) array);
+		else if (array instanceof int[]) buffer.asIntBuffer().get((int[]) array);
+		else if (array instanceof float[]) buffer.asFloatBuffer().get(
+			(float[]) array);
+		else if (array instanceof long[]) buffer.asLongBuffer().get((long[]) array);
+		else if (array instanceof double[]) buffer.asDoubleBuffer().get(
+			(double[]) array);
+	}
+
+	static byte[] compress(final byte[] bytes, final Deflater deflater) {
+		deflater.reset();
+		deflater.setInput(bytes);
+		deflater.finish();
+		final ByteArrayOutputStream out =
+			new ByteArrayOutputStream(bytes.length / 2 + 64);
+		final byte[] buffer = new byte[8192];
+		while (!deflater.finished()) {
+			final int count = deflater.deflate(buffer);
+			out.write(buffer, 0, count);
+		}
+		return out.toByteArray();
+	}
+
+	static void decompress(final byte[] compressed, final byte[] bytes)
+		throws IOException
+	{
+		final Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			int count = 0;
+			while (count < bytes.length && !inflater.finished()) {
+				final int inflated = inflater.inflate(bytes, count, bytes.length - count);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+				{
+					break;
+				}
+				count += inflated;
+			}
+			if (count != bytes.length) throw new IOException("corrupt block");
+		}
+		catch (final DataFormatException e) {
+			throw new IOException("corrupt block: " + e.getMessage());
+		}
+		finally {
+			inflater.end();
+		}
+	}
+
+	// -- file access --
+
+	/**
+	 * Reads the remaining bytes of the buffer from the given file position. Can
+	 * be called concurrently.
+	 */
+	static void readFully(final FileChannel channel, final ByteBuffer buffer,
+		final long position) throws IOException
+	{
+		long pos = position;
+		while (buffer.hasRemaining()) {
+			final int count = channel.read(buffer, pos);
+			if (count < 0) throw new EOFException();
+			pos += count;
+		}
+	}
+
+	/**
+	 * Writes the remaining bytes of the buffer at the given file position. Can
+	 * be called concurrently.
+	 */
+	static void writeFully(final FileChannel channel, final ByteBuffer buffer,
+		final long position) throws IOException
+	{
+		long pos = position;
+		while (buffer.hasRemaining())
+			pos += channel.write(buffer, pos);
+	}
+
+}
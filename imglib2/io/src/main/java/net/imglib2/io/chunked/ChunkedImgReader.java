@@ -0,0 +1,392 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package net.imglib2.io.chunked;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.ImgPlus;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.basictypeaccess.array.BitArray;
+import net.imglib2.img.cell.AbstractCell;
+import net.imglib2.img.cell.CellImg;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.io.ImgIOException;
+import net.imglib2.meta.AxisType;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import net.imglib2.type.NativeType;
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * Reads images from a file in the chunked image format (see
+ * {@link ChunkedImgFormat}). The blocks of the file become the cells of a
+ * {@link CellImg}, which can be
+ * <ul>
+ * <li>read completely, decoding blocks in parallel ({@link #read()}),</li>
+ * <li>read partially, decoding only the blocks that intersect an interval (
+ * {@link #read(Interval)}), or</li>
+ * <li>opened lazily, decoding blocks only when they are accessed (
+ * {@link #openLazy(int)}).</li>
+ * </ul>
+ * <p>
+ * The file stays open until the reader is closed, lazily opened images must
+ * not be used after that.
+ * </p>
+ */
+public class ChunkedImgReader implements Closeable {
+
+	// -- Fields --
+
+	private final RandomAccessFile raf;
+
+	private final FileChannel channel;
+
+	private final ChunkedImgFormat.Header header;
+
+	private final long[] grid;
+
+	private final long[] offsets;
+
+	private final int[] lengths;
+
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+
+	// -- Constructor --
+
+	/** Opens a chunked image file and reads its header and block index. */
+	public ChunkedImgReader(final File file) throws ImgIOException {
+		try {
+			raf = new RandomAccessFile(file, "r");
+		}
+		catch (final IOException e) {
+			throw new ImgIOException(e);
+		}
+		try {
+			channel = raf.getChannel();
+			header = ChunkedImgFormat.Header.read(raf);
+			grid = header.gridDimensions();
+			final long numBlocks = header.numBlocks();
+			if (numBlocks > Integer.MAX_VALUE) {
+				throw new IOException("too many blocks: " + numBlocks);
+			}
+			offsets = new long[(int) numBlocks];
+			lengths = new int[(int) numBlocks];
+			final ByteBuffer index =
+				ByteBuffer.allocate(offsets.length *
+					ChunkedImgFormat.INDEX_ENTRY_BYTES);
+			ChunkedImgFormat.readFully(channel, index, raf.getFilePointer());
+			index.flip();
+			for (int i = 0; i < offsets.length; i++) {
+				offsets[i] = index.getLong();
+				lengths[i] = index.getInt();
+			}
+		}
+		catch (final IOException e) {
+			try {
+				raf.close();
+			}
+			catch (final IOException exc) {
+				// ignore, report the original problem
+			}
+			throw new ImgIOException(e);
+		}
+	}
+
+	// -- ChunkedImgReader methods --
+
+	/** Sets the number of threads that read and decode blocks. */
+	public void setNumThreads(final int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	public int numDimensions() {
+		return header.numDimensions();
+	}
+
+	public void dimensions(final long[] dimensions) {
+		for (int d = 0; d < dimensions.length; d++)
+			dimensions[d] = header.dimensions[d];
+	}
+
+	public void blockDimensions(final int[] dimensions) {
+		for (int d = 0; d < dimensions.length; d++)
+			dimensions[d] = header.blockDimensions[d];
+	}
+
+	public int numBlocks() {
+		return offsets.length;
+	}
+
+	/**
+	 * Reads a block into the basic type array of a cell of the block's size.
+	 * Can be called concurrently.
+	 * 
+	 * @param index flattened index of the block in the block grid.
+	 */
+	public void readBlock(final int index, final Object array)
+		throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(lengths[index]);
+		ChunkedImgFormat.readFully(channel, buffer, offsets[index]);
+		byte[] bytes = buffer.array();
+		if (header.compression == ChunkedImgFormat.COMPRESSION_DEFLATE) {
+			final byte[] compressed = bytes;
+			bytes = new byte[ChunkedImgFormat.numBytes(array)];
+			ChunkedImgFormat.decompress(compressed, bytes);
+		}
+		else if (bytes.length != ChunkedImgFormat.numBytes(array)) {
+			throw new IOException("block " + index + " has " + bytes.length +
+				" bytes, expected " + ChunkedImgFormat.numBytes(array));
+		}
+		ChunkedImgFormat.decode(bytes, array);
+	}
+
+	/** Reads the complete image, decoding blocks in parallel. */
+	public <T extends NativeType<T>> ImgPlus<T> read() throws ImgIOException {
+		final T type = createType();
+		final CellImg<T, ?, ?> img =
+			new CellImgFactory<T>(header.blockDimensions.clone()).create(
+				header.dimensions.clone(), type);
+		final int n = header.numDimensions();
+		final AtomicLong nextBlock = new AtomicLong(0);
+		final AtomicReference<IOException> failure =
+			new AtomicReference<IOException>();
+
+		final Thread[] threads =
+			SimpleMultiThreading.newThreads(Math.min(numThreads, numBlocks()));
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					final RandomAccess<? extends AbstractCell<?>> cells =
+						img.getCells().randomAccess();
+					final long[] gridPosition = new long[n];
+					try {
+						for (int i = (int) nextBlock.getAndIncrement(); i < numBlocks() &&
+							failure.get() == null; i = (int) nextBlock.getAndIncrement())
+						{
+							IntervalIndexer.indexToPosition(i, grid, gridPosition);
+							cells.setPosition(gridPosition);
+							readBlock(i, cells.get().getData().getCurrentStorageArray());
+						}
+					}
+					catch (final IOException e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+		}
+		SimpleMultiThreading.startAndJoin(threads);
+
+		if (failure.get() != null) throw new ImgIOException(failure.get());
+		return imgPlus(img);
+	}
+
+	/**
+	 * Reads the given interval of the image. Only the blocks that intersect the
+	 * interval are decoded (in parallel). The minimum of the interval becomes
+	 * the origin of the returned image.
+	 */
+	public <T extends NativeType<T>> ImgPlus<T> read(final Interval interval)
+		throws ImgIOException
+	{
+		final int n = header.numDimensions();
+		if (interval.numDimensions() != n) {
+			throw new IllegalArgumentException("interval has " +
+				interval.numDimensions() + " dimensions, image has " + n);
+		}
+		final long[] min = new long[n];
+		final long[] max = new long[n];
+		final long[] gridMin = new long[n];
+		final long[] gridSize = new long[n];
+		for (int d = 0; d < n; d++) {
+			min[d] = interval.min(d);
+			max[d] = interval.max(d);
+			if (min[d] < 0 || max[d] >= header.dimensions[d] || min[d] > max[d]) {
+				throw new IllegalArgumentException("interval exceeds image in dimension " +
+					d);
+			}
+			gridMin[d] = min[d] / header.blockDimensions[d];
+			gridSize[d] = max[d] / header.blockDimensions[d] - gridMin[d] + 1;
+		}
+		long numIntersecting = 1;
+		for (final long g : gridSize)
+			numIntersecting *= g;
+		final long numBlocks = numIntersecting;
+
+		final T type = createType();
+		final long[] dims = new long[n];
+		interval.dimensions(dims);
+		final CellImg<T, ?, ?> img =
+			new CellImgFactory<T>(header.blockDimensions.clone()).create(dims, type);
+
+		// NB: Blocks may share cells of the result. Bits of neighboring pixels
+		// share an int, so those cannot be written concurrently.
+		final boolean packed =
+			img.getCells().cursor().next().getData() instanceof BitArray;
+		final int threadCount =
+			packed ? 1 : (int) Math.min(numThreads, numBlocks);
+
+		final AtomicLong nextBlock = new AtomicLong(0);
+		final AtomicReference<IOException> failure =
+			new AtomicReference<IOException>();
+		final Thread[] threads = SimpleMultiThreading.newThreads(threadCount);
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					final RandomAccess<T> target = img.randomAccess();
+					final long[] gridPosition = new long[n];
+					final long[] blockMin = new long[n];
+					final long[] blockSize = new long[n];
+					final long[] position = new long[n];
+					try {
+						for (long i = nextBlock.getAndIncrement(); i < numBlocks &&
+							failure.get() == null; i = nextBlock.getAndIncrement())
+						{
+							IntervalIndexer.indexToPositionWithOffset(i, gridSize, gridMin,
+								gridPosition);
+							header.block(gridPosition, blockMin, blockSize);
+							final ArrayImg<T, ?> block =
+								new ArrayImgFactory<T>().create(blockSize, type);
+							readBlock((int) IntervalIndexer.positionToIndex(gridPosition,
+								grid), ((ArrayDataAccess<?>) block.update(null))
+								.getCurrentStorageArray());
+
+							final Cursor<T> cursor = block.localizingCursor();
+							while (cursor.hasNext()) {
+								cursor.fwd();
+								cursor.localize(position);
+								boolean inside = true;
+								for (int d = 0; d < n && inside; d++) {
+									position[d] += blockMin[d];
+									inside = position[d] >= min[d] && position[d] <= max[d];
+									position[d] -= min[d];
+								}
+								if (!inside) continue;
+								target.setPosition(position);
+								target.get().set(cursor.get());
+							}
+						}
+					}
+					catch (final IOException e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+		}
+		SimpleMultiThreading.startAndJoin(threads);
+
+		if (failure.get() != null) throw new ImgIOException(failure.get());
+		return imgPlus(img);
+	}
+
+	/**
+	 * Opens the image without reading any data. Blocks are read when their cell
+	 * is first accessed, at most <em>maxCachedBlocks</em> blocks are kept in
+	 * memory. The image is read-only: changes to it are not written to the
+	 * file and are lost when a cell is evicted.
+	 */
+	public <T extends NativeType<T>> ImgPlus<T> openLazy(
+		final int maxCachedBlocks) throws ImgIOException
+	{
+		final T type = createType();
+		final CellImg<T, ?, ?> img =
+			new ChunkedCellImgFactory<T>(this, header.blockDimensions.clone(),
+				maxCachedBlocks).create(header.dimensions.clone(), type);
+		return imgPlus(img);
+	}
+
+	@Override
+	public void close() throws IOException {
+		raf.close();
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Creates the type named in the header. The class is loaded without being
+	 * initialized and checked to be a {@link NativeType} before an instance is
+	 * created, so a file cannot make the reader run arbitrary code.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T extends NativeType<T>> T createType() throws ImgIOException {
+		final Class<?> c;
+		try {
+			c = Class.forName(header.typeName, false, getClass().getClassLoader());
+		}
+		catch (final ClassNotFoundException e) {
+			throw new ImgIOException(e);
+		}
+		if (!NativeType.class.isAssignableFrom(c)) {
+			throw new ImgIOException(header.typeName + " is not a NativeType");
+		}
+		try {
+			return (T) c.newInstance();
+		}
+		catch (final Exception e) {
+			throw new ImgIOException(e);
+		}
+	}
+
+	private <T extends NativeType<T>> ImgPlus<T> imgPlus(
+		final CellImg<T, ?, ?> img)
+	{
+		final AxisType[] axes = header.axes.clone();
+		final double[] calibration = header.calibration.clone();
+		return new ImgPlus<T>(img, header.name, axes, calibration);
+	}
+
+}
@@ -0,0 +1,337 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package net.imglib2.io.chunked;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgPlus;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.cell.AbstractCell;
+import net.imglib2.img.cell.CellImg;
+import net.imglib2.io.ImgIOException;
+import net.imglib2.meta.AxisType;
+import net.imglib2.multithreading.SimpleMultiThreading;
+import net.imglib2.type.NativeType;
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * Writes an {@link Img} to a file in the chunked image format (see
+ * {@link ChunkedImgFormat}). Blocks are encoded and compressed by several
+ * threads, each of which writes its blocks directly to the file.
+ * <p>
+ * The cells of a {@link CellImg} are written as blocks, unless a different
+ * block size is set. Other images are cut into blocks of
+ * {@link #DEFAULT_BLOCK_SIZE} pixels in every dimension.
+ * </p>
+ */
+public class ChunkedImgWriter {
+
+	/** Block size in every dimension for images that are not {@link CellImg}s. */
+	public static final int DEFAULT_BLOCK_SIZE = 64;
+
+	// -- Fields --
+
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+
+	private int compressionLevel = Deflater.BEST_SPEED;
+
+	private int[] blockSize;
+
+	// -- ChunkedImgWriter methods --
+
+	/** Sets the number of threads that encode and write blocks. */
+	public void setNumThreads(final int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	public int getNumThreads() {
+		return numThreads;
+	}
+
+	/**
+	 * Sets the {@link Deflater} compression level of the blocks. A level of 0
+	 * stores the blocks uncompressed. The default is
+	 * {@link Deflater#BEST_SPEED}.
+	 */
+	public void setCompressionLevel(final int level) {
+		if (level < 0 || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("invalid compression level " + level);
+		}
+		compressionLevel = level;
+	}
+
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	/**
+	 * Sets the block dimensions, or null to write the cells of a
+	 * {@link CellImg} (and blocks of {@link #DEFAULT_BLOCK_SIZE} otherwise).
+	 */
+	public void setBlockSize(final int[] blockSize) {
+		if (blockSize != null) {
+			for (final int size : blockSize)
+				if (size <= 0) throw new IllegalArgumentException(
+					"invalid block size " + Arrays.toString(blockSize));
+		}
+		this.blockSize = blockSize == null ? null : blockSize.clone();
+	}
+
+	public int[] getBlockSize() {
+		return blockSize == null ? null : blockSize.clone();
+	}
+
+	/** Writes the given image to a chunked image file. */
+	public <T extends NativeType<T>> void write(final Img<T> img,
+		final File file) throws ImgIOException
+	{
+		if (img instanceof ImgPlus) write((ImgPlus<T>) img, file);
+		else write(new ImgPlus<T>(img), file);
+	}
+
+	/**
+	 * Writes the given image to a chunked image file, along with its name and
+	 * the labels and calibration of its axes.
+	 */
+	public <T extends NativeType<T>> void write(final ImgPlus<T> imgPlus,
+		final File file) throws ImgIOException
+	{
+		final Img<T> img = imgPlus.getImg();
+		final int n = img.numDimensions();
+		final T type = img.firstElement().createVariable();
+
+		final ChunkedImgFormat.Header header = new ChunkedImgFormat.Header();
+		header.typeName = type.getClass().getName();
+		header.compression =
+			compressionLevel == 0 ? ChunkedImgFormat.COMPRESSION_NONE
+				: ChunkedImgFormat.COMPRESSION_DEFLATE;
+		header.dimensions = new long[n];
+		img.dimensions(header.dimensions);
+		header.name = imgPlus.getName();
+		header.axes = new AxisType[n];
+		imgPlus.axes(header.axes);
+		header.calibration = new double[n];
+		imgPlus.calibration(header.calibration);
+
+		// write the cells of a CellImg as they are
+		CellImg<T, ?, ?> cellImg = null;
+		if (img instanceof CellImg) {
+			cellImg = (CellImg<T, ?, ?>) img;
+			final int[] cellDims = new int[n];
+			cellImg.getCells().cellDimensions(cellDims);
+			if (blockSize != null && !Arrays.equals(cellDims, blockSize(n))) {
+				cellImg = null;
+			}
+			else header.blockDimensions = cellDims;
+		}
+		if (cellImg == null) {
+			header.blockDimensions = blockSize(n);
+			for (int d = 0; d < n; d++)
+				header.blockDimensions[d] =
+					(int) Math.min(header.blockDimensions[d], header.dimensions[d]);
+		}
+
+		final long numBlocksLong = header.numBlocks();
+		if (numBlocksLong > Integer.MAX_VALUE) {
+			throw new ImgIOException("too many blocks: " + numBlocksLong);
+		}
+		final int numBlocks = (int) numBlocksLong;
+
+		try {
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(0);
+				final FileChannel channel = raf.getChannel();
+
+				final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+				final DataOutputStream out = new DataOutputStream(headerBytes);
+				header.write(out);
+				out.close();
+				ChunkedImgFormat.writeFully(channel, ByteBuffer.wrap(headerBytes
+					.toByteArray()), 0);
+
+				final long indexOffset = headerBytes.size();
+				final long[] offsets = new long[numBlocks];
+				final int[] lengths = new int[numBlocks];
+				writeBlocks(img, cellImg, header, channel, indexOffset + (long) numBlocks *
+					ChunkedImgFormat.INDEX_ENTRY_BYTES, offsets, lengths);
+
+				final ByteBuffer index =
+					ByteBuffer.allocate(numBlocks * ChunkedImgFormat.INDEX_ENTRY_BYTES);
+				for (int i = 0; i < numBlocks; i++) {
+					index.putLong(offsets[i]);
+					index.putInt(lengths[i]);
+				}
+				index.flip();
+				ChunkedImgFormat.writeFully(channel, index, indexOffset);
+			}
+			finally {
+				raf.close();
+			}
+		}
+		catch (final IOException e) {
+			throw new ImgIOException(e);
+		}
+	}
+
+	// -- Helper methods --
+
+	private int[] blockSize(final int n) {
+		final int[] dims = new int[n];
+		for (int d = 0; d < n; d++) {
+			dims[d] =
+				blockSize == null ? DEFAULT_BLOCK_SIZE : blockSize[d < blockSize.length
+					? d : blockSize.length - 1];
+		}
+		return dims;
+	}
+
+	/**
+	 * Encodes, compresses and writes all blocks in parallel, starting at the
+	 * given file offset. Blocks are appended in the order they are finished,
+	 * their offsets and lengths are recorded for the index.
+	 */
+	private <T extends NativeType<T>> void writeBlocks(final Img<T> img,
+		final CellImg<T, ?, ?> cellImg, final ChunkedImgFormat.Header header,
+		final FileChannel channel, final long firstOffset, final long[] offsets,
+		final int[] lengths) throws IOException
+	{
+		final int n = header.numDimensions();
+		final long[] grid = header.gridDimensions();
+		final int numBlocks = offsets.length;
+		final AtomicLong nextBlock = new AtomicLong(0);
+		final AtomicLong nextOffset = new AtomicLong(firstOffset);
+		final AtomicReference<IOException> failure =
+			new AtomicReference<IOException>();
+
+		final Thread[] threads =
+			SimpleMultiThreading.newThreads(Math.min(numThreads, numBlocks));
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					final Deflater deflater =
+						header.compression == ChunkedImgFormat.COMPRESSION_DEFLATE
+							? new Deflater(compressionLevel) : null;
+					final RandomAccess<? extends AbstractCell<?>> cells =
+						cellImg == null ? null : cellImg.getCells().randomAccess();
+					final RandomAccess<T> source =
+						cellImg == null ? img.randomAccess() : null;
+					final long[] gridPosition = new long[n];
+					final long[] min = new long[n];
+					final long[] size = new long[n];
+					try {
+						for (int i = (int) nextBlock.getAndIncrement(); i < numBlocks &&
+							failure.get() == null; i = (int) nextBlock.getAndIncrement())
+						{
+							IntervalIndexer.indexToPosition(i, grid, gridPosition);
+							final Object storage;
+							if (cells != null) {
+								cells.setPosition(gridPosition);
+								storage = cells.get().getData().getCurrentStorageArray();
+							}
+							else {
+								header.block(gridPosition, min, size);
+								storage = copyBlock(source, min, size);
+							}
+
+							byte[] bytes = ChunkedImgFormat.encode(storage);
+							if (deflater != null) {
+								bytes = ChunkedImgFormat.compress(bytes, deflater);
+							}
+							final long offset = nextOffset.getAndAdd(bytes.length);
+							ChunkedImgFormat.writeFully(channel, ByteBuffer.wrap(bytes),
+								offset);
+							offsets[i] = offset;
+							lengths[i] = bytes.length;
+						}
+					}
+					catch (final IOException e) {
+						failure.compareAndSet(null, e);
+					}
+					finally {
+						if (deflater != null) deflater.end();
+					}
+				}
+			});
+		}
+		SimpleMultiThreading.startAndJoin(threads);
+
+		if (failure.get() != null) throw failure.get();
+	}
+
+	/**
+	 * Copies a block of the source image into an {@link ArrayImg} and returns
+	 * its basic type array, which has the same layout as the data of a cell of
+	 * the block's size.
+	 */
+	private static <T extends NativeType<T>> Object copyBlock(
+		final RandomAccess<T> source, final long[] min, final long[] size)
+	{
+		final ArrayImg<T, ?> block =
+			new ArrayImgFactory<T>().create(size, source.get().createVariable());
+		final long[] position = new long[min.length];
+		final Cursor<T> cursor = block.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.localize(position);
+			for (int d = 0; d < position.length; d++)
+				position[d] += min[d];
+			source.setPosition(position);
+			cursor.get().set(source.get());
+		}
+		return ((ArrayDataAccess<?>) block.update(null)).getCurrentStorageArray();
+	}
+
+}
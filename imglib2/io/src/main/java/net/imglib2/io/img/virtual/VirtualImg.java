@@ -60,7 +60,11 @@ import net.imglib2.type.numeric.real.FloatType;
 /**
  * This class supports the ability to open an image and only load data into
  * memory one plane at a time. Data is read only in the sense that though in
- * memory values can be changed the data is never written to disk.
+ * memory values can be changed the data is never written to disk. Loaded
+ * planes are kept in a {@link VirtualPlaneCache} of bounded size. Every
+ * accessor works on its own copy of the current plane, so changed values are
+ * only seen by the accessor that changed them, and only until it moves to
+ * another plane.
  * 
  * @author Barry DeZonia
  */
@@ -72,12 +76,11 @@ public class VirtualImg<T extends NativeType<T> & RealType<T>> extends
 	private final IFormatReader reader;
 	private final T type;
 	private final boolean bytesOnly;
+	private final VirtualPlaneCache planeCache;
 
-	// TODO
-	// The reader gets shared among all copy()'s and randomAccess()'s and
-	// cursor()'s, etc. so there might be threading issues. Unless we enforce
-	// that only one user of the reader can be defined. Maybe reader is
-	// already thread safe. Investigate.
+	// NB: The reader is shared among all copy()'s and randomAccess()'s and
+	// cursor()'s, etc. The VirtualPlaneCache synchronizes on the reader
+	// whenever it reads a plane.
 
 	// Note - this constructor is clumsy and error prone. so we're making it
 	// private and only invoking (always correctly) through the create() method.
@@ -91,6 +94,7 @@ public class VirtualImg<T extends NativeType<T> & RealType<T>> extends
 		this.type = type.copy();
 		this.bytesOnly = bytesOnly;
 		checkDimensions();
+		this.planeCache = new VirtualPlaneCache(this);
 	}
 
 	// TODO: Eliminate use of <?> generics in the methods below.
@@ -167,6 +171,14 @@ public class VirtualImg<T extends NativeType<T> & RealType<T>> extends
 		return bytesOnly;
 	}
 
+	/**
+	 * Gets the cache of planes that is shared by all accessors of this image.
+	 * Use it to configure the memory budget and read-ahead.
+	 */
+	public VirtualPlaneCache getPlaneCache() {
+		return planeCache;
+	}
+
 	// -- private helpers --
 
 	private void checkDimensions() {
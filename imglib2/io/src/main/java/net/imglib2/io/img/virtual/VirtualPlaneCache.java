@@ -0,0 +1,271 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package net.imglib2.io.img.virtual;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import loci.common.DataTools;
+import loci.formats.FormatTools;
+import loci.formats.IFormatReader;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.io.ImgIOUtils;
+import net.imglib2.multithreading.TaskService;
+
+/**
+ * A cache of the planes of a {@link VirtualImg} that is shared by all its
+ * accessors. Planes are evicted in least recently used order when the cache
+ * holds more planes than fit into its memory budget. Planes can be read ahead
+ * asynchronously (on the shared {@link TaskService}) with
+ * {@link #prefetch(int)}.
+ * <p>
+ * The cache is thread safe. The reader of the {@link VirtualImg} is only used
+ * by one thread at a time, and a plane that is requested while it is being
+ * loaded is loaded only once. The cached planes are shared and must not be
+ * modified: a {@link VirtualPlaneLoader} copies each plane it gets from the
+ * cache into an array of its own.
+ * </p>
+ */
+public class VirtualPlaneCache {
+
+	/** The default memory budget of a cache. */
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	/** The default number of planes that are read ahead. */
+	public static final int DEFAULT_READ_AHEAD = 2;
+
+	// -- instance variables --
+
+	private final VirtualImg<?> virtImage;
+	private final int planeCount;
+	private final long planeBytes;
+	private final LinkedHashMap<Integer, FutureTask<ArrayDataAccess<?>>> planes;
+	private int maxPlanes;
+	private volatile int readAhead;
+
+	// -- constructors --
+
+	/**
+	 * Create a VirtualPlaneCache for a VirtualImg.
+	 * 
+	 * @param image - the VirtualImg to load planes from
+	 * @param maxBytes - the memory budget; at least one plane is always kept
+	 * @param readAhead - the number of planes to read ahead
+	 */
+	public VirtualPlaneCache(final VirtualImg<?> image, final long maxBytes,
+		final int readAhead)
+	{
+		this.virtImage = image;
+		final IFormatReader reader = image.getReader();
+		this.planeCount = reader.getImageCount();
+		this.planeBytes =
+			(long) reader.getSizeX() * reader.getSizeY() *
+				FormatTools.getBytesPerPixel(reader.getPixelType());
+		this.planes =
+			new LinkedHashMap<Integer, FutureTask<ArrayDataAccess<?>>>(16, 0.75f,
+				true);
+		setMaxBytes(maxBytes);
+		setReadAhead(readAhead);
+	}
+
+	public VirtualPlaneCache(final VirtualImg<?> image) {
+		this(image, DEFAULT_MAX_BYTES, DEFAULT_READ_AHEAD);
+	}
+
+	// -- public interface --
+
+	/** Sets the memory budget and evicts planes that do not fit anymore. */
+	public void setMaxBytes(final long maxBytes) {
+		synchronized (planes) {
+			maxPlanes = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytes /
+				Math.max(1, planeBytes)));
+			evict();
+		}
+	}
+
+	/** Gets the maximum number of planes that are kept in memory. */
+	public int getMaxPlanes() {
+		synchronized (planes) {
+			return maxPlanes;
+		}
+	}
+
+	/** Sets the number of planes that are read ahead, 0 to disable. */
+	public void setReadAhead(final int readAhead) {
+		this.readAhead = Math.max(0, readAhead);
+	}
+
+	/**
+	 * Gets the number of planes that are read ahead. This is at most one less
+	 * than {@link #getMaxPlanes()}, so that reading ahead never evicts the
+	 * plane that is currently accessed.
+	 */
+	public int getReadAhead() {
+		return Math.min(readAhead, getMaxPlanes() - 1);
+	}
+
+	/** Gets the number of planes in the image. */
+	public int getPlaneCount() {
+		return planeCount;
+	}
+
+	/** Gets the number of planes currently in the cache. */
+	public int numCachedPlanes() {
+		synchronized (planes) {
+			return planes.size();
+		}
+	}
+
+	/** Drops all planes from the cache. */
+	public void clear() {
+		synchronized (planes) {
+			planes.clear();
+		}
+	}
+
+	/**
+	 * Gets the plane with the given index, loading it if it is not cached or
+	 * waiting for it if it is being read ahead. The returned plane is shared
+	 * with all other callers and must be treated as read-only.
+	 */
+	public ArrayDataAccess<?> getPlane(final int planeNum) {
+		final FutureTask<ArrayDataAccess<?>> task = task(planeNum);
+		// NB: Does nothing if the task is already running or done.
+		task.run();
+		try {
+			return task.get();
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while loading plane " +
+				planeNum);
+		}
+		catch (final ExecutionException e) {
+			synchronized (planes) {
+				if (planes.get(planeNum) == task) planes.remove(planeNum);
+			}
+			throw new IllegalArgumentException("cannot load plane " + planeNum, e
+				.getCause());
+		}
+	}
+
+	/**
+	 * Starts loading the plane with the given index in the background if it is
+	 * not cached. Indices outside the image are ignored.
+	 */
+	public void prefetch(final int planeNum) {
+		if (planeNum < 0 || planeNum >= planeCount) return;
+		final FutureTask<ArrayDataAccess<?>> task;
+		synchronized (planes) {
+			if (planes.containsKey(planeNum)) return;
+			task = newTask(planeNum);
+			planes.put(planeNum, task);
+			evict();
+		}
+		TaskService.getInstance().getExecutor().execute(task);
+	}
+
+	/**
+	 * Loads a plane from the reader, bypassing the cache.
+	 * 
+	 * @param bytesOnly - whether the plane is returned as byte[] or as the
+	 *          primitive array type of the pixel type.
+	 */
+	public ArrayDataAccess<?> loadPlane(final int planeNum,
+		final boolean bytesOnly)
+	{
+		final IFormatReader reader = virtImage.getReader();
+		final byte[] bytes;
+		try {
+			synchronized (reader) {
+				bytes = reader.openBytes(planeNum);
+			}
+		}
+		catch (final Exception e) {
+			throw new IllegalArgumentException("cannot load plane " + planeNum, e);
+		}
+		if (bytesOnly) return ImgIOUtils.makeArray(bytes);
+
+		// want type from encoded bytes
+		final int pixelType = reader.getPixelType();
+		final int bytesPerPix = FormatTools.getBytesPerPixel(pixelType);
+		final boolean floating = FormatTools.isFloatingPoint(pixelType);
+		return ImgIOUtils.makeArray(DataTools.makeDataArray(bytes,
+			bytesPerPix, floating, reader.isLittleEndian()));
+	}
+
+	// -- private helpers --
+
+	/** Gets the task for a plane, creating it if the plane is not cached. */
+	private FutureTask<ArrayDataAccess<?>> task(final int planeNum) {
+		synchronized (planes) {
+			FutureTask<ArrayDataAccess<?>> task = planes.get(planeNum);
+			if (task == null) {
+				task = newTask(planeNum);
+				planes.put(planeNum, task);
+				evict();
+			}
+			return task;
+		}
+	}
+
+	private FutureTask<ArrayDataAccess<?>> newTask(final int planeNum) {
+		return new FutureTask<ArrayDataAccess<?>>(
+			new Callable<ArrayDataAccess<?>>()
+			{
+
+				@Override
+				public ArrayDataAccess<?> call() {
+					return loadPlane(planeNum, virtImage.isByteOnly());
+				}
+			});
+	}
+
+	/** Removes least recently used planes until the cache fits its budget. */
+	private void evict() {
+		final Iterator<Integer> it = planes.keySet().iterator();
+		while (planes.size() > maxPlanes && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+	}
+
+}
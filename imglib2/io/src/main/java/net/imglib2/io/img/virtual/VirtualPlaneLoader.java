@@ -36,17 +36,22 @@
 
 package net.imglib2.io.img.virtual;
 
-import loci.common.DataTools;
-import loci.formats.FormatTools;
+import java.lang.reflect.Array;
+
 import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
 import net.imglib2.img.planar.PlanarImg;
-import net.imglib2.io.ImgIOUtils;
 
 /**
  * This class is responsible for loading one plane of data from an image using
  * an IFormatReader. The loading is done in a virtual fashion with planes loaded
  * when a desired position has not been loaded. The data is loaded into a
  * PlanarImg provided at construction time.
+ * <p>
+ * Planes are taken from the {@link VirtualPlaneCache} of the VirtualImg and
+ * copied into an array owned by this loader, so changes to the loaded plane
+ * are not seen by other accessors. When the loaded plane changes, the
+ * following planes in the direction of the change are read ahead.
+ * </p>
  * 
  * @author Barry DeZonia
  */
@@ -59,6 +64,8 @@ public class VirtualPlaneLoader {
 	private final long[] planeDims;
 	private final long[] planePosLoaded;
 	private final boolean bytesOnly;
+	private int planeNumLoaded = -1;
+	private ArrayDataAccess<?> plane;
 
 	// -- constructor --
 
@@ -70,6 +77,7 @@ public class VirtualPlaneLoader {
 	 * @param planeImg - the PlanarImg to load planes into
 	 * @param bytesOnly - a flag which defines whether planes passed around as
 	 *          byte[]'s only or as other primitive array types (int[]'s, etc.).
+	 *          Planes are only cached if this matches the VirtualImg.
 	 */
 	public VirtualPlaneLoader(final VirtualImg<?> image,
 		final PlanarImg<?, ? extends ArrayDataAccess<?>> planeImg,
@@ -107,33 +115,47 @@ public class VirtualPlaneLoader {
 		for (int i = 0; i < planePosLoaded.length; i++)
 			planePosLoaded[i] = pos[i + 2];
 		final int planeNum = planeIndex(planeDims, planePosLoaded);
-		byte[] planeBytes = null;
-		try {
-			planeBytes = virtImage.getReader().openBytes(planeNum);
-		}
-		catch (final Exception e) {
-			throw new IllegalArgumentException("cannot load plane " + planeNum);
-		}
-		Object primitivePlane;
-		if (bytesOnly) {
-			primitivePlane = planeBytes;
+		final VirtualPlaneCache cache = virtImage.getPlaneCache();
+		final ArrayDataAccess<?> wrappedPlane;
+		if (bytesOnly == virtImage.isByteOnly()) {
+			wrappedPlane = copyPlane(cache.getPlane(planeNum));
+			readAhead(cache, planeNum);
 		}
-		else { // want type from encoded bytes
-			primitivePlane = typeConvert(planeBytes);
-		}
-		final ArrayDataAccess<?> wrappedPlane =
-			ImgIOUtils.makeArray(primitivePlane);
+		else wrappedPlane = cache.loadPlane(planeNum, bytesOnly);
 		((PlanarImg) planeImg).setPlane(0, wrappedPlane);
+		planeNumLoaded = planeNum;
 	}
 
 	// -- private helpers --
 
+	/** Copies a cached plane into the plane array of this loader. */
+	private ArrayDataAccess<?> copyPlane(final ArrayDataAccess<?> cached) {
+		final Object data = cached.getCurrentStorageArray();
+		final int length = Array.getLength(data);
+		if (plane == null ||
+			Array.getLength(plane.getCurrentStorageArray()) != length)
+		{
+			plane = (ArrayDataAccess<?>) cached.createArray(length);
+		}
+		System.arraycopy(data, 0, plane.getCurrentStorageArray(), 0, length);
+		return plane;
+	}
+
 	private boolean planeLoaded(final long[] pos) {
 		for (int i = 2; i < pos.length; i++)
 			if (pos[i] != planePosLoaded[i - 2]) return false;
 		return true;
 	}
 
+	/** Prefetches the planes following planeNum in the direction of access. */
+	private void readAhead(final VirtualPlaneCache cache, final int planeNum) {
+		if (planeNumLoaded < 0 || planeNum == planeNumLoaded) return;
+		final int step = planeNum > planeNumLoaded ? 1 : -1;
+		final int readAhead = cache.getReadAhead();
+		for (int i = 1; i <= readAhead; i++)
+			cache.prefetch(planeNum + i * step);
+	}
+
 	private static int planeIndex(final long[] planeDimensions,
 		final long[] planePos)
 	{
@@ -148,13 +170,4 @@ public class VirtualPlaneLoader {
 		return index;
 	}
 
-	private Object typeConvert(final byte[] bytes) {
-		final int pixelType = virtImage.getReader().getPixelType();
-		final int bytesPerPix = FormatTools.getBytesPerPixel(pixelType);
-		final boolean floating = FormatTools.isFloatingPoint(pixelType);
-
-		return DataTools.makeDataArray(bytes, bytesPerPix, floating, virtImage
-			.getReader().isLittleEndian());
-	}
-
 }
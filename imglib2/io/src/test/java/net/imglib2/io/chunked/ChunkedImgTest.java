@@ -0,0 +1,373 @@
+/*
+ * #%L
+ * ImgLib2: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2012 Stephan Preibisch, Stephan Saalfeld, Tobias
+ * Pietzsch, Albert Cardona, Barry DeZonia, Curtis Rueden, Lee Kamentsky, Larry
+ * Lindsey, Johannes Schindelin, Christian Dietz, Grant Harris, Jean-Yves
+ * Tinevez, Steffen Jaensch, Mark Longair, Nick Perry, and Jan Funke.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package net.imglib2.io.chunked;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgPlus;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImg;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.mapped.MappedFile;
+import net.imglib2.img.mapped.MappedImgFactory;
+import net.imglib2.io.ImgIOException;
+import net.imglib2.meta.Axes;
+import net.imglib2.meta.AxisType;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ChunkedImgWriter} and {@link ChunkedImgReader}.
+ */
+public class ChunkedImgTest {
+
+	private final long[] dims = { 37, 23, 11 };
+
+	@Test
+	public void testArrayImg() throws ImgIOException, IOException {
+		final Img<UnsignedShortType> img =
+			new ArrayImgFactory<UnsignedShortType>().create(dims,
+				new UnsignedShortType());
+		fill(img);
+
+		final File file = tempFile();
+		final ChunkedImgWriter writer = new ChunkedImgWriter();
+		writer.setBlockSize(new int[] { 16, 8, 5 });
+		writer.setNumThreads(3);
+		writer.write(img, file);
+
+		final ChunkedImgReader reader = new ChunkedImgReader(file);
+		try {
+			assertEquals(3 * 3 * 3, reader.numBlocks());
+			final ImgPlus<UnsignedShortType> result = reader.read();
+			assertEquals(CellImg.class, result.getImg().getClass());
+			assertContent(result, new long[3]);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testCellImgMetadata() throws ImgIOException, IOException {
+		final Img<FloatType> img =
+			new CellImgFactory<FloatType>(new int[] { 10, 6, 4 }).create(dims,
+				new FloatType());
+		fill(img);
+		final ImgPlus<FloatType> imgPlus =
+			new ImgPlus<FloatType>(img, "cells", new AxisType[] { Axes.X, Axes.Y,
+				Axes.TIME }, new double[] { 0.5, 0.25, 2 });
+
+		for (final int level : new int[] { 0, 9 }) {
+			final File file = tempFile();
+			final ChunkedImgWriter writer = new ChunkedImgWriter();
+			writer.setCompressionLevel(level);
+			writer.write(imgPlus, file);
+
+			final ChunkedImgReader reader = new ChunkedImgReader(file);
+			try {
+				final int[] blockDims = new int[3];
+				reader.blockDimensions(blockDims);
+				assertEquals(10, blockDims[0]);
+				assertEquals(6, blockDims[1]);
+				assertEquals(4, blockDims[2]);
+
+				final ImgPlus<FloatType> result = reader.read();
+				assertEquals("cells", result.getName());
+				assertEquals(Axes.TIME, result.axis(2));
+				assertEquals(0.25, result.calibration(1), 0);
+				assertContent(result, new long[3]);
+			}
+			finally {
+				reader.close();
+			}
+		}
+	}
+
+	@Test
+	public void testReadInterval() throws ImgIOException, IOException {
+		final Img<UnsignedShortType> img =
+			new CellImgFactory<UnsignedShortType>(8).create(dims,
+				new UnsignedShortType());
+		fill(img);
+		final File file = tempFile();
+		new ChunkedImgWriter().write(img, file);
+
+		final ChunkedImgReader reader = new ChunkedImgReader(file);
+		try {
+			final long[] min = { 5, 9, 3 };
+			final ImgPlus<UnsignedShortType> roi =
+				reader.read(new FinalInterval(min, new long[] { 30, 17, 10 }));
+			assertEquals(26, roi.dimension(0));
+			assertEquals(9, roi.dimension(1));
+			assertEquals(8, roi.dimension(2));
+			assertContent(roi, min);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testOpenLazy() throws ImgIOException, IOException {
+		final Img<UnsignedShortType> img =
+			new ArrayImgFactory<UnsignedShortType>().create(dims,
+				new UnsignedShortType());
+		fill(img);
+		final File file = tempFile();
+		final ChunkedImgWriter writer = new ChunkedImgWriter();
+		writer.setBlockSize(new int[] { 7 });
+		writer.write(img, file);
+
+		final ChunkedImgReader reader = new ChunkedImgReader(file);
+		try {
+			final ImgPlus<UnsignedShortType> result = reader.openLazy(4);
+			assertContent(result, new long[3]);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testBitType() throws ImgIOException, IOException {
+		final Img<BitType> img =
+			new ArrayImgFactory<BitType>().create(dims, new BitType());
+		final long[] pos = new long[3];
+		for (final Cursor<BitType> c = img.localizingCursor(); c.hasNext();) {
+			c.fwd();
+			c.localize(pos);
+			c.get().set((pos[0] + pos[1] * pos[2]) % 3 == 0);
+		}
+		final File file = tempFile();
+		final ChunkedImgWriter writer = new ChunkedImgWriter();
+		writer.setBlockSize(new int[] { 9 });
+		writer.write(img, file);
+
+		final ChunkedImgReader reader = new ChunkedImgReader(file);
+		try {
+			final long[] min = { 3, 4, 5 };
+			final ImgPlus<BitType> roi =
+				reader.read(new FinalInterval(min, new long[] { 36, 22, 10 }));
+			for (final Cursor<BitType> c = roi.localizingCursor(); c.hasNext();) {
+				c.fwd();
+				c.localize(pos);
+				for (int d = 0; d < 3; d++)
+					pos[d] += min[d];
+				assertEquals((pos[0] + pos[1] * pos[2]) % 3 == 0, c.get().get());
+			}
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testMappedArrayImg() throws ImgIOException, IOException {
+		final MappedFile mapped = new MappedFile(tempFile());
+		final Img<UnsignedShortType> img =
+			new MappedImgFactory<UnsignedShortType>(mapped,
+				MappedImgFactory.Layout.ARRAY).create(dims, new UnsignedShortType());
+		fill(img);
+
+		final File file = tempFile();
+		final ChunkedImgWriter writer = new ChunkedImgWriter();
+		writer.setBlockSize(new int[] { 16 });
+		writer.write(img, file);
+		mapped.close();
+
+		final ChunkedImgReader reader = new ChunkedImgReader(file);
+		try {
+			assertContent(reader.<UnsignedShortType> read(), new long[3]);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	/** Set when {@link NotAType} is initialized. */
+	static boolean notATypeInitialized = false;
+
+	/** A class that must not be initialized by the reader. */
+	static class NotAType {
+
+		static {
+			notATypeInitialized = true;
+		}
+	}
+
+	@Test
+	public void testTypeIsNoNativeType() throws ImgIOException, IOException {
+		final ChunkedImgFormat.Header header = new ChunkedImgFormat.Header();
+		header.typeName = NotAType.class.getName();
+		header.compression = ChunkedImgFormat.COMPRESSION_NONE;
+		header.dimensions = new long[] { 1 };
+		header.blockDimensions = new int[] { 1 };
+		header.axes = new AxisType[] { Axes.X };
+		header.calibration = new double[] { 1 };
+		final File file = tempFile();
+		final DataOutputStream out =
+			new DataOutputStream(new FileOutputStream(file));
+		try {
+			header.write(out);
+			out.write(new byte[ChunkedImgFormat.INDEX_ENTRY_BYTES]);
+		}
+		finally {
+			out.close();
+		}
+
+		final ChunkedImgReader reader = new ChunkedImgReader(file);
+		try {
+			reader.read();
+			fail("expected an ImgIOException");
+		}
+		catch (final ImgIOException e) {
+			assertFalse(notATypeInitialized);
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testCorruptHeader() throws IOException {
+		assertCorrupt(header(new long[] { 0 }, new int[] { 1 }));
+		assertCorrupt(header(new long[] { 5, -3 }, new int[] { 1, 1 }));
+		assertCorrupt(header(new long[] { 5, 3 }, new int[] { 1, 0 }));
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(ChunkedImgFormat.MAGIC);
+		out.writeInt(ChunkedImgFormat.VERSION);
+		out.writeUTF(UnsignedShortType.class.getName());
+		out.writeInt(ChunkedImgFormat.COMPRESSION_NONE);
+		out.writeInt(-1);
+		out.close();
+		assertCorrupt(bytes.toByteArray());
+	}
+
+	// -- Helper methods --
+
+	private static byte[] header(final long[] dimensions,
+		final int[] blockDimensions) throws IOException
+	{
+		final ChunkedImgFormat.Header header = new ChunkedImgFormat.Header();
+		header.typeName = UnsignedShortType.class.getName();
+		header.compression = ChunkedImgFormat.COMPRESSION_NONE;
+		header.dimensions = dimensions;
+		header.blockDimensions = blockDimensions;
+		header.axes = new AxisType[dimensions.length];
+		header.calibration = new double[dimensions.length];
+		for (int d = 0; d < dimensions.length; d++) {
+			header.axes[d] = Axes.X;
+			header.calibration[d] = 1;
+		}
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		header.write(out);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static void assertCorrupt(final byte[] header) {
+		try {
+			ChunkedImgFormat.Header.read(new DataInputStream(
+				new ByteArrayInputStream(header)));
+			fail("expected an IOException");
+		}
+		catch (final IOException e) {
+			assertEquals("corrupt header", e.getMessage());
+		}
+	}
+
+	private static File tempFile() throws IOException {
+		final File file = File.createTempFile("chunked", ".il2c");
+		file.deleteOnExit();
+		return file;
+	}
+
+	private static int value(final long[] pos) {
+		return (int) (pos[0] + 37 * pos[1] + 37 * 23 * pos[2]) % 65536;
+	}
+
+	private static <T extends RealType<T>> void fill(
+		final Img<T> img)
+	{
+		final long[] pos = new long[img.numDimensions()];
+		for (final Cursor<T> c = img.localizingCursor(); c.hasNext();) {
+			c.fwd();
+			c.localize(pos);
+			c.get().setReal(value(pos));
+		}
+	}
+
+	private <T extends RealType<T>> void assertContent(
+		final Img<T> img, final long[] offset)
+	{
+		final long[] pos = new long[img.numDimensions()];
+		final RandomAccess<T> ra = img.randomAccess();
+		for (final Cursor<T> c = img.localizingCursor(); c.hasNext();) {
+			c.fwd();
+			c.localize(pos);
+			ra.setPosition(pos);
+			for (int d = 0; d < pos.length; d++)
+				pos[d] += offset[d];
+			assertEquals(value(pos), c.get().getRealDouble(), 0);
+			assertEquals(value(pos), ra.get().getRealDouble(), 0);
+		}
+	}
+
+}